@@ -203,6 +203,20 @@ public class Analyser
     }
 
     public void setClasspath(CollaborateClassContext cpCtx)
+    {
+        cpCtx.setClasspath(getClasspath());
+        if (Settings.getPreloadClasspath())
+        {
+            preloadClasses(cpCtx);
+        }
+    }
+
+    /**
+     * Returns the classpath set in the settings, the jar files of the Android
+     * SDK if it is used
+     * @return the classpath, paths separated by ';'
+     */
+    public String getClasspath()
     {
         String cp;
         if (Settings.getUseAndroidSDK()
@@ -221,7 +235,32 @@ public class Analyser
         } else {
             cp = Settings.getClasspath();
         }
-        cpCtx.setClasspath(cp);
+        return cp;
+    }
+
+    /**
+     * Parses the classes of the classpath on a background thread, so that
+     * setting the classpath does not wait for it. Classes looked up in the
+     * meantime are loaded on demand as before.
+     */
+    protected void preloadClasses(final CollaborateClassContext cpCtx)
+    {
+        Thread preloader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    cpCtx.preloadClasses(Settings.getResolverThreads());
+                } catch (IOException ioe)
+                {
+                    ioe.printStackTrace();
+                }
+            }
+        }, "Classpath preloader");
+        preloader.setDaemon(true);
+        preloader.start();
     }
 
     private void getFiles(List<File> result, String path, String[] suffix) {
@@ -303,6 +342,12 @@ public class Analyser
             e1.printStackTrace();
         }
 
+        if (BatchAnalyser.isBatch(args))
+        {
+            BatchAnalyser.main(args);
+            return;
+        }
+
         Analyser a = new Analyser();
         a.loadProperties();
 
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package analyser;
+
+import gui.Canceable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mereflect.CollaborateClassContext;
+import mereflect.CorruptBytecodeException;
+import mereflect.MEClass;
+import mereflect.MEMethod;
+import mereflect.UnknownField;
+import mereflect.UnknownMethod;
+import mereflect.io.DescriptorParser;
+
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.Opcode;
+
+import analyser.gui.Settings;
+import analyser.logic.RefContext;
+import analyser.logic.Reference;
+import analyser.logic.Resolver;
+import andreflect.ApkClassContext;
+import andreflect.DexMethod;
+import andreflect.DexReferenceCache;
+import brut.androlib.res.data.ResResSpec;
+
+/**
+ * Headless analysis of a batch of apks. The apks are resolved concurrently on a
+ * bounded pool of threads, each by its own Resolver, against one classpath
+ * context that all of them share. Each apk gets a tab separated report with
+ * one finding per line:
+ * <pre>
+ * unresolved-method   calling method   invoked method
+ * unresolved-field    accessing method field
+ * unused-resource     resource id      type/name
+ * native-call         calling method   native method
+ * synchronized-call   calling method   synchronized method
+ * monitor-enter       method           code address
+ * </pre>
+ * Run with <code>-batch [-cp classpath] [-threads n] [-out dir] (apk | dir | @listfile)...</code>
+ */
+public class BatchAnalyser implements Canceable
+{
+    public static final String ARG_BATCH = "-batch";
+    public static final String REPORT_SUFFIX = ".report.txt";
+
+    protected List<File> m_apks = new ArrayList<File>();
+    protected String m_classpath = null;
+    protected File m_outDir = new File(".");
+    protected int m_threads = Runtime.getRuntime().availableProcessors();
+    protected CollaborateClassContext m_cpcontext;
+    protected volatile boolean m_running = true;
+
+    public static boolean isBatch(String[] args)
+    {
+        return args.length > 0 && ARG_BATCH.equals(args[0]);
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+        BatchAnalyser b = new BatchAnalyser();
+        int res;
+        try
+        {
+            Analyser a = new Analyser();
+            a.loadProperties();
+            Settings.setSettings(a.m_props);
+            try
+            {
+                Settings.load();
+            } catch (IOException ioe)
+            {
+            }
+            if (!b.parseArguments(args))
+            {
+                System.err.println("Usage: " + ARG_BATCH + " [-cp classpath] [-threads n] [-out dir] (apk | dir | @listfile)...");
+                res = 2;
+            }
+            else
+            {
+                res = b.analyse() ? 0 : 1;
+            }
+        } catch (Throwable t)
+        {
+            t.printStackTrace();
+            res = 1;
+        }
+        System.exit(res);
+    }
+
+    protected boolean parseArguments(String[] args) throws IOException
+    {
+        for (int i = isBatch(args) ? 1 : 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("-cp") && i + 1 < args.length)
+            {
+                m_classpath = args[++i];
+            }
+            else if (arg.equals("-threads") && i + 1 < args.length)
+            {
+                try
+                {
+                    m_threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException nfe)
+                {
+                    return false;
+                }
+            }
+            else if (arg.equals("-out") && i + 1 < args.length)
+            {
+                m_outDir = new File(args[++i]);
+            }
+            else if (arg.startsWith("@"))
+            {
+                addApkList(new File(arg.substring(1)));
+            }
+            else if (arg.startsWith("-"))
+            {
+                return false;
+            }
+            else
+            {
+                addApks(new File(arg));
+            }
+        }
+        return !m_apks.isEmpty() && m_threads > 0;
+    }
+
+    protected void addApkList(File list) throws IOException
+    {
+        BufferedReader br = new BufferedReader(new FileReader(list));
+        try
+        {
+            String line;
+            while ((line = br.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.length() > 0)
+                {
+                    addApks(new File(line));
+                }
+            }
+        } finally
+        {
+            br.close();
+        }
+    }
+
+    protected void addApks(File f)
+    {
+        if (f.isDirectory())
+        {
+            File[] sub = f.listFiles();
+            for (int i = 0; sub != null && i < sub.length; i++)
+            {
+                if (sub[i].isDirectory() || sub[i].getName().toLowerCase().endsWith(Analyser.APK_SUFFIX[0]))
+                {
+                    addApks(sub[i]);
+                }
+            }
+        }
+        else if (f.isFile())
+        {
+            m_apks.add(f);
+        }
+        else
+        {
+            System.err.println("[BatchAnalyser] Not found: " + f);
+        }
+    }
+
+    /**
+     * Analyses all apks and writes their reports
+     * @return true if all apks could be analysed
+     * @throws IOException if the classpath could not be read
+     */
+    public boolean analyse() throws IOException
+    {
+        long start = System.currentTimeMillis();
+        m_cpcontext = new CollaborateClassContext();
+        // preloaded here rather than on the background thread of the gui,
+        // so that the apks are not analysed while the classpath is parsed
+        m_cpcontext.setClasspath(m_classpath != null ? m_classpath
+                : new Analyser(Settings.getSettings()).getClasspath());
+        if (Settings.getPreloadClasspath())
+        {
+            m_cpcontext.preloadClasses(Settings.getResolverThreads());
+        }
+        DescriptorParser.setSuperContext(m_cpcontext);
+        m_outDir.mkdirs();
+
+        final AtomicInteger nextApk = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+        int threads = Math.min(m_threads, m_apks.size());
+        // Classes of an apk are resolved in parallel as well when there are spare threads
+        final int resolverThreads = Math.max(1, Settings.getResolverThreads() / threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++)
+            {
+                workers.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int iA;
+                        while (isRunning() && (iA = nextApk.getAndIncrement()) < m_apks.size()) {
+                            File apk = m_apks.get(iA);
+                            try {
+                                analyse(apk, resolverThreads);
+                            } catch (Throwable t) {
+                                failed.incrementAndGet();
+                                synchronized (System.out) {
+                                    System.out.println("[BatchAnalyser] Failed to analyse " + apk + ": " + t);
+                                    t.printStackTrace(System.out);
+                                }
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers)
+            {
+                try
+                {
+                    worker.get();
+                } catch (InterruptedException ie)
+                {
+                    m_running = false;
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ee)
+                {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally
+        {
+            pool.shutdownNow();
+        }
+
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        int analysed = m_apks.size() - failed.get();
+        System.out.println("[BatchAnalyser] Analysed " + analysed + " of " + m_apks.size() + " apks on " + threads
+                + " threads in " + time + " ms, " + String.format("%.1f", analysed * 60000.0 / time) + " apks per minute");
+        return failed.get() == 0;
+    }
+
+    /**
+     * Resolves one apk against the shared classpath context and writes its report
+     */
+    protected void analyse(File apk, int resolverThreads) throws IOException, ClassNotFoundException
+    {
+        long start = System.currentTimeMillis();
+        Resolver resolver = new Resolver(m_cpcontext);
+        resolver.setThreads(resolverThreads);
+        resolver.resolveApk(apk, this, 0, 1);
+
+        ApkClassContext apkCtx = null;
+        for (Iterator<Reference> i = resolver.getMidletResources().iterator(); apkCtx == null && i.hasNext();)
+        {
+            Reference ref = i.next();
+            if (ref instanceof RefContext && ((RefContext) ref).getContext() instanceof ApkClassContext)
+            {
+                apkCtx = (ApkClassContext) ((RefContext) ref).getContext();
+            }
+        }
+
+        int[] counts = new int[5];
+        File report = new File(m_outDir, apk.getName() + REPORT_SUFFIX);
+        PrintWriter pw = new PrintWriter(new FileWriter(report));
+        try
+        {
+            if (apkCtx != null)
+            {
+                writeReport(apkCtx, pw, counts);
+            }
+        } finally
+        {
+            pw.close();
+        }
+
+        synchronized (System.out)
+        {
+            System.out.println(apk.getName() + "\tunresolved " + counts[0] + "\tunused resources " + counts[1]
+                    + "\tnative calls " + counts[2] + "\tsynchronized calls " + counts[3]
+                    + "\tmonitor-enters " + counts[4]
+                    + "\t" + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Writes the findings of a resolved apk
+     * @param counts number of unresolved references, unused resources, native
+     * call sites, synchronized method call sites and monitor-enter
+     * instructions found
+     */
+    protected void writeReport(ApkClassContext apkCtx, PrintWriter pw, int[] counts) throws IOException
+    {
+        String[] cNames = apkCtx.getClassnames();
+        for (int iC = 0; iC < cNames.length; iC++)
+        {
+            MEClass mClass = apkCtx.findMEClass(cNames[iC]);
+            MEMethod[] mMethods = mClass == null ? null : mClass.getMethods();
+            for (int iM = 0; mMethods != null && iM < mMethods.length; iM++)
+            {
+                MEMethod mMethod = mMethods[iM];
+                String caller = getMethodName(mClass.getName(), mMethod);
+
+                if (mMethod instanceof DexMethod
+                        && ((DexMethod) mMethod).getEncodedMethod().codeItem != null)
+                {
+                    Instruction[] instructions = ((DexMethod) mMethod).getEncodedMethod().codeItem.getInstructions();
+                    for (int i = 0; i < instructions.length; i++)
+                    {
+                        if (instructions[i].deodexedInstruction.opcode == Opcode.MONITOR_ENTER)
+                        {
+                            pw.println("monitor-enter\t" + caller + "\t" + Integer.toHexString(instructions[i].codeAddress));
+                            counts[4]++;
+                        }
+                    }
+                }
+
+                List<MEMethod.Invokation> invokations;
+                try
+                {
+                    invokations = mMethod.getInvokations();
+                } catch (CorruptBytecodeException cbe)
+                {
+                    continue;
+                }
+                for (int i = 0; invokations != null && i < invokations.size(); i++)
+                {
+                    MEMethod.Invokation inv = invokations.get(i);
+                    MEMethod rMethod = inv.method;
+                    if (rMethod == null || rMethod instanceof UnknownMethod)
+                    {
+                        pw.println("unresolved-method\t" + caller + "\t"
+                                + inv.invClassname + "." + inv.invMethodname + inv.invDescriptor);
+                        counts[0]++;
+                    }
+                    else if (rMethod.isNative())
+                    {
+                        pw.println("native-call\t" + caller + "\t" + getMethodName(inv.clazz.getName(), rMethod));
+                        counts[2]++;
+                    }
+                    else if (rMethod.isSynchronized())
+                    {
+                        pw.println("synchronized-call\t" + caller + "\t" + getMethodName(inv.clazz.getName(), rMethod));
+                        counts[3]++;
+                    }
+                }
+            }
+        }
+
+        List<DexReferenceCache.FieldAccess> accesses = apkCtx.getDexReferenceCache().getFieldAccesses();
+        for (int i = 0; i < accesses.size(); i++)
+        {
+            DexReferenceCache.FieldAccess access = accesses.get(i);
+            if (access.field == null || access.field instanceof UnknownField)
+            {
+                pw.println("unresolved-field\t" + getMethodName(access.method.getMEClass().getName(), access.method)
+                        + "\t" + access.fieldIdItem.getContainingClass().getTypeDescriptor()
+                        + "->" + access.fieldIdItem.getFieldName().getStringValue()
+                        + ":" + access.fieldIdItem.getFieldType().getTypeDescriptor());
+                counts[0]++;
+            }
+        }
+
+        if (apkCtx.getXmlParser().getManifest() != null)
+        {
+            List<ResResSpec> unused = apkCtx.getXmlParser().getResourceChecker().listUnusedSpecs(apkCtx);
+            for (int i = 0; i < unused.size(); i++)
+            {
+                ResResSpec spec = unused.get(i);
+                pw.println("unused-resource\t" + String.format("0x%08x", spec.getId().id) + "\t"
+                        + spec.getType().getName() + "/" + spec.getName());
+                counts[1]++;
+            }
+        }
+    }
+
+    protected static String getMethodName(String className, MEMethod method)
+    {
+        return className + "." + method.getName() + method.getDescriptor();
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return m_running;
+    }
+}
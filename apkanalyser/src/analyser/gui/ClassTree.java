@@ -89,6 +89,29 @@ public class ClassTree extends JTree
         }
     }
 
+    /**
+     * Re-renders the visible nodes, e.g. when their trace statistics changed.
+     * Only the visible rows are measured again, so this is cheap for large trees.
+     */
+    public void refreshVisibleNodes()
+    {
+        TreeModel model = getModel();
+        if (!(model instanceof DefaultTreeModel))
+        {
+            return;
+        }
+        int first = getClosestRowForLocation(0, getVisibleRect().y);
+        int last = getClosestRowForLocation(0, getVisibleRect().y + getVisibleRect().height);
+        for (int row = first; row >= 0 && row <= last; row++)
+        {
+            TreePath path = getPathForRow(row);
+            if (path != null)
+            {
+                ((DefaultTreeModel) model).nodeChanged((TreeNode) path.getLastPathComponent());
+            }
+        }
+    }
+
     public void refreshSelectedNode()
     {
         TreePath[] selPaths = getSelectionPaths();
@@ -47,6 +47,10 @@ import analyser.logic.RefResSpec;
 import analyser.logic.RefXml;
 import analyser.logic.Reference;
 import andreflect.ApkClassContext;
+import andreflect.DexClass;
+import andreflect.DexMethod;
+import andreflect.trace.TraceCorrelator;
+import andreflect.trace.TraceStats;
 
 public class ClassTreeRenderer extends DefaultTreeCellRenderer {
 
@@ -137,6 +141,12 @@ public class ClassTreeRenderer extends DefaultTreeCellRenderer {
                     fIcon = ICON_CLASS;
                 }
                 setToolTipText("[" + m_count + "] " + ((RefClass) ref).getMEClass().getName());
+                if (c instanceof DexClass) {
+                    TraceStats stats = TraceCorrelator.getInstance().getClassStats(c);
+                    if (stats != null) {
+                        text += "  [trace: " + stats.getSummary() + "]";
+                    }
+                }
             } else if (ref instanceof RefMethod) {
                 MEMethod method = ((RefMethod) ref).getMethod();
                 if (method.isPublic()) {
@@ -153,6 +163,12 @@ public class ClassTreeRenderer extends DefaultTreeCellRenderer {
                 flags |= method.isStatic() ? FlagIcon.FLAG_STATIC : 0;
                 flags |= method.isFinal() ? FlagIcon.FLAG_FINAL : 0;
                 setToolTipText("[" + m_count + "] " + method.toString());
+                if (method instanceof DexMethod) {
+                    TraceStats stats = TraceCorrelator.getInstance().getMethodStats((DexMethod) method);
+                    if (stats != null) {
+                        text += "  [trace: " + stats.getSummary() + "]";
+                    }
+                }
             } else if (ref instanceof RefInvokation) {
                 fIcon = ((RefInvokation) ref).isLocal() ? ICON_LOCAL_INVOKATION : ICON_INVOKATION;
                 if (((RefInvokation) ref).getOppositeInvokation() != null) {
@@ -18,18 +18,22 @@
 
 package analyser.gui;
 
-import java.awt.Color;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import javax.swing.text.Document;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
+import java.util.Map;
 
 public class LineBuilder {
     ArrayList<LineEntry> lines = new ArrayList<LineEntry>();
     LineEntry line = new LineEntry();
     int curLine = 0;
+    /** Line numbers of the references, null until looked up repeatedly, see getLine */
+    Map<Object, Integer> refIndex = null;
+    /** Number of getLine calls since the lines or references changed */
+    int lookups = 0;
+
+    /** Whether instances of a class have a hashCode consistent with equals */
+    private static final Map<Class<?>, Boolean> s_hashable = new HashMap<Class<?>, Boolean>();
 
     public void newLine() {
         line = new LineEntry();
@@ -51,6 +55,7 @@ public class LineBuilder {
     }
 
     public void insertLineBefore(int lineNbr) {
+        changed();
         line = new LineEntry();
         lines.add(lineNbr, line);
         curLine = lineNbr;
@@ -61,6 +66,7 @@ public class LineBuilder {
     }
 
     public void insertBefore(int lineNbr, LineBuilder lb) {
+        changed();
         for (int i = lb.lineCount() - 1; i >= 0; i--) {
             LineEntry entry = lb.lines.get(i);
             lines.add(lineNbr, entry);
@@ -73,6 +79,7 @@ public class LineBuilder {
     }
 
     public void removeLine(int lineNbr) {
+        changed();
         lines.remove(lineNbr);
         if (curLine >= lineNbr) {
             curLine--;
@@ -104,37 +111,8 @@ public class LineBuilder {
         return toString("\n");
     }
 
-    public void toDocument(Document doc) {
-        try {
-            SimpleAttributeSet set = new SimpleAttributeSet();
-            StyleConstants.setFontFamily(set, "Courier");
-            for (int i = 0; i < lines.size(); i++) {
-                LineEntry line = lines.get(i);
-                if (line.colorDefs.isEmpty()) {
-                    doc.insertString(doc.getLength(), line.toString(), set);
-                } else {
-                    int offset = 0;
-                    for (int j = 0; j < line.colorDefs.size(); j++) {
-                        LineEntry.ColorEntry colDef = line.colorDefs.get(j);
-                        int nextPos;
-                        if (j < line.colorDefs.size() - 1) {
-                            nextPos = (line.colorDefs.get(j + 1)).pos;
-                        } else {
-                            nextPos = line.buffer.length();
-                        }
-                        int rgb = colDef.rgb;
-                        StyleConstants.setForeground(set, new Color(rgb));
-                        doc.insertString(doc.getLength(), line.buffer.substring(offset, nextPos), set);
-                        offset = nextPos;
-                    }
-                }
-                doc.insertString(doc.getLength(), "\n", set);
-            }
-        } catch (Throwable t) {
-        }
-    }
-
     public void setReference(int lineNbr, Object reference) {
+        changed();
         LineEntry le = lines.get(lineNbr);
         le.setReference(reference);
     }
@@ -143,7 +121,27 @@ public class LineBuilder {
         setReference(curLine, reference);
     }
 
+    /**
+     * Returns the first line with a reference equal to given one. Repeated
+     * lookups without changes in between use an index of the references, a
+     * lookup right after a change, e.g. when inserting labels, scans the lines.
+     * @param reference the reference
+     * @return the line, or -1 if not found
+     */
     public int getLine(Object reference) {
+        if (refIndex == null && ++lookups > 1) {
+            refIndex = new HashMap<Object, Integer>();
+            for (int i = 0; i < lines.size(); i++) {
+                Object ref = lines.get(i).getReference();
+                if (ref != null && !refIndex.containsKey(ref)) {
+                    refIndex.put(ref, i);
+                }
+            }
+        }
+        if (refIndex != null && isHashable(reference.getClass())) {
+            Integer lineNbr = refIndex.get(reference);
+            return lineNbr == null ? -1 : lineNbr.intValue();
+        }
         for (int i = 0; i < lines.size(); i++) {
             LineEntry le = lines.get(i);
             if (reference.equals(le.getReference())) {
@@ -153,6 +151,30 @@ public class LineBuilder {
         return -1;
     }
 
+    private void changed() {
+        refIndex = null;
+        lookups = 0;
+    }
+
+    /**
+     * Returns whether a class overrides hashCode, else equal instances may
+     * have different hash codes and cannot be looked up in the index
+     */
+    private static boolean isHashable(Class<?> c) {
+        synchronized (s_hashable) {
+            Boolean hashable = s_hashable.get(c);
+            if (hashable == null) {
+                try {
+                    hashable = c.getMethod("hashCode").getDeclaringClass() != Object.class;
+                } catch (NoSuchMethodException nsme) {
+                    hashable = Boolean.FALSE;
+                }
+                s_hashable.put(c, hashable);
+            }
+            return hashable.booleanValue();
+        }
+    }
+
     public Object getReference(int line) {
         if (line >= lines.size()) {
             return null;
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package analyser.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+
+/**
+ * Read only view of the lines of a LineBuilder. The lines and colors are
+ * painted straight from the LineBuilder and only the visible rows are
+ * painted, so showing a large result costs no more than a small one.
+ * <p>
+ * Positions are character offsets as in a text document of the lines, each
+ * line followed by a line break.
+ */
+public class LineView extends JComponent implements Scrollable {
+    private static final long serialVersionUID = 4930457823618592751L;
+    private static final int TAB_SIZE = 8;
+    private static final int MARGIN = 3;
+
+    private LineBuilder m_lines = new LineBuilder();
+    /** Offsets of the lines, m_lineStarts[lineCount()] is the text length */
+    private int[] m_lineStarts = new int[1];
+    private int m_columns = 0;
+    /** The text of all lines, built when searched or copied */
+    private String m_text = null;
+
+    private int m_caret = 0;
+    private int m_selStart = 0;
+    private int m_selEnd = 0;
+
+    private final Color m_lineHighlight = new Color(0, 255, 255, 48);
+    private Color m_selection;
+
+    public LineView() {
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        setBackground(Color.white);
+        setForeground(Color.black);
+        setOpaque(true);
+        setFocusable(true);
+        m_selection = UIManager.getColor("TextPane.selectionBackground");
+        if (m_selection == null) {
+            m_selection = new Color(184, 207, 229);
+        }
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent me) {
+                requestFocusInWindow();
+                if (SwingUtilities.isLeftMouseButton(me) && me.isShiftDown()) {
+                    moveCaretPosition(viewToModel(me.getPoint()));
+                } else {
+                    setCaretPosition(viewToModel(me.getPoint()));
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent me) {
+                if (SwingUtilities.isLeftMouseButton(me)) {
+                    moveCaretPosition(viewToModel(me.getPoint()));
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int line = getCaretLine();
+                int page = Math.max(1, getVisibleRect().height / getRowHeight() - 1);
+                boolean ctrl = (e.getModifiers() & KeyEvent.CTRL_MASK) != 0;
+                switch (e.getKeyCode()) {
+                case KeyEvent.VK_UP:
+                    moveToLine(line - 1, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_DOWN:
+                    moveToLine(line + 1, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_PAGE_UP:
+                    moveToLine(line - page, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_PAGE_DOWN:
+                    moveToLine(line + page, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_HOME:
+                    moveToLine(ctrl ? 0 : line, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_END:
+                    moveToLine(ctrl ? getLineCount() - 1 : line, e.isShiftDown());
+                    break;
+                case KeyEvent.VK_A:
+                    if (ctrl) {
+                        select(0, getTextLength());
+                    }
+                    return;
+                case KeyEvent.VK_C:
+                    if (ctrl) {
+                        copy();
+                    }
+                    return;
+                default:
+                    return;
+                }
+                e.consume();
+            }
+        });
+    }
+
+    /**
+     * Shows the lines of given LineBuilder, call again when the lines changed
+     * @param lb the lines
+     */
+    public void setLineBuilder(LineBuilder lb) {
+        m_lines = lb;
+        int count = lb.lineCount();
+        int[] starts = new int[count + 1];
+        int columns = 0;
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = pos;
+            StringBuffer buf = lb.lines.get(i).buffer;
+            pos += buf.length() + 1;
+            columns = Math.max(columns, expandedLength(buf, buf.length()));
+        }
+        starts[count] = pos;
+        m_lineStarts = starts;
+        m_columns = columns;
+        m_text = null;
+        m_caret = Math.min(m_caret, getTextLength());
+        m_selStart = m_caret;
+        m_selEnd = m_caret;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Shows plain text
+     * @param text the text, lines separated by line breaks
+     */
+    public void setText(String text) {
+        LineBuilder lb = new LineBuilder();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lb.newLine();
+            lb.append(text.substring(start, end));
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            lb.newLine();
+            lb.append(text.substring(start));
+        }
+        setLineBuilder(lb);
+    }
+
+    public LineBuilder getLineBuilder() {
+        return m_lines;
+    }
+
+    /**
+     * Returns the text of all lines, each followed by a line break
+     */
+    public String getText() {
+        if (m_text == null) {
+            m_text = m_lines.toString("\n");
+        }
+        return m_text;
+    }
+
+    public int getTextLength() {
+        return m_lineStarts[m_lineStarts.length - 1];
+    }
+
+    public int getLineCount() {
+        return m_lineStarts.length - 1;
+    }
+
+    public int getLineStart(int line) {
+        return m_lineStarts[line];
+    }
+
+    /**
+     * Returns the line of a position
+     * @param offset the position
+     * @return the line, the last line for positions after the text
+     */
+    public int getLineOfOffset(int offset) {
+        int lo = 0;
+        int hi = getLineCount() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (m_lineStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return Math.max(lo, 0);
+    }
+
+    public int getCaretPosition() {
+        return m_caret;
+    }
+
+    public int getCaretLine() {
+        return getLineOfOffset(m_caret);
+    }
+
+    /**
+     * Moves the caret, clearing the selection, and scrolls it into view
+     * @param pos the position
+     */
+    public void setCaretPosition(int pos) {
+        m_caret = Math.max(0, Math.min(pos, getTextLength()));
+        m_selStart = m_caret;
+        m_selEnd = m_caret;
+        scrollToLine(getCaretLine());
+        repaint();
+    }
+
+    /**
+     * Moves the caret, selecting from the previous selection start
+     * @param pos the position
+     */
+    public void moveCaretPosition(int pos) {
+        int anchor = m_caret == m_selEnd ? m_selStart : m_selEnd;
+        m_caret = Math.max(0, Math.min(pos, getTextLength()));
+        m_selStart = Math.min(anchor, m_caret);
+        m_selEnd = Math.max(anchor, m_caret);
+        scrollToLine(getCaretLine());
+        repaint();
+    }
+
+    /**
+     * Selects text and moves the caret to the end of the selection
+     * @param start start position
+     * @param end end position
+     */
+    public void select(int start, int end) {
+        m_selStart = Math.max(0, Math.min(start, getTextLength()));
+        m_selEnd = Math.max(m_selStart, Math.min(end, getTextLength()));
+        m_caret = m_selEnd;
+        scrollToLine(getLineOfOffset(m_selStart));
+        repaint();
+    }
+
+    public int getSelectionStart() {
+        return m_selStart;
+    }
+
+    public int getSelectionEnd() {
+        return m_selEnd;
+    }
+
+    /**
+     * Copies the selected text, or the caret line if nothing is selected,
+     * to the clipboard
+     */
+    public void copy() {
+        String s;
+        if (m_selEnd > m_selStart) {
+            s = getText().substring(m_selStart, m_selEnd);
+        } else {
+            int line = getCaretLine();
+            s = getText().substring(m_lineStarts[line], m_lineStarts[line + 1]);
+        }
+        try {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(s), null);
+        } catch (IllegalStateException ise) {
+            // clipboard busy
+        }
+    }
+
+    /**
+     * Returns the position nearest to a point in the view
+     */
+    public int viewToModel(Point p) {
+        int count = getLineCount();
+        if (count == 0) {
+            return 0;
+        }
+        int line = Math.max(0, Math.min(count - 1, p.y / getRowHeight()));
+        int charWidth = getCharWidth();
+        int column = Math.max(0, (p.x - MARGIN + charWidth / 2) / charWidth);
+        StringBuffer buf = m_lines.lines.get(line).buffer;
+        int col = 0;
+        int i = 0;
+        while (i < buf.length()) {
+            int next = buf.charAt(i) == '\t' ? (col / TAB_SIZE + 1) * TAB_SIZE : col + 1;
+            if (next > column) {
+                break;
+            }
+            col = next;
+            i++;
+        }
+        return m_lineStarts[line] + i;
+    }
+
+    public void scrollToLine(int line) {
+        int h = getRowHeight();
+        scrollRectToVisible(new Rectangle(0, line * h, 1, h));
+    }
+
+    private void moveToLine(int line, boolean extend) {
+        int count = getLineCount();
+        if (count == 0) {
+            return;
+        }
+        line = Math.max(0, Math.min(count - 1, line));
+        int column = m_caret - m_lineStarts[getCaretLine()];
+        int pos = m_lineStarts[line] + Math.min(column, m_lineStarts[line + 1] - m_lineStarts[line] - 1);
+        if (extend) {
+            moveCaretPosition(pos);
+        } else {
+            setCaretPosition(pos);
+        }
+    }
+
+    private int getRowHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private int getCharWidth() {
+        return Math.max(1, getFontMetrics(getFont()).charWidth('m'));
+    }
+
+    /**
+     * Returns the number of columns of the first chars of a line, tabs expanded
+     */
+    private static int expandedLength(StringBuffer buf, int end) {
+        int col = 0;
+        for (int i = 0; i < end; i++) {
+            if (buf.charAt(i) == '\t') {
+                col = (col / TAB_SIZE + 1) * TAB_SIZE;
+            } else {
+                col++;
+            }
+        }
+        return col;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setFont(getFont());
+        FontMetrics fm = g.getFontMetrics();
+        int h = fm.getHeight();
+        int charWidth = getCharWidth();
+        int first = Math.max(0, clip.y / h);
+        int last = Math.min(getLineCount() - 1, (clip.y + clip.height) / h);
+        int caretLine = getCaretLine();
+        char[] chars = new char[256];
+        for (int line = first; line <= last; line++) {
+            int y = line * h;
+            LineBuilder.LineEntry entry = m_lines.lines.get(line);
+            StringBuffer buf = entry.buffer;
+            int start = m_lineStarts[line];
+            int end = start + buf.length();
+            if (m_selEnd > m_selStart && m_selStart <= end && m_selEnd > start) {
+                int from = Math.max(m_selStart, start) - start;
+                int x0 = MARGIN + expandedLength(buf, from) * charWidth;
+                int x1 = m_selEnd > end ? getWidth() : MARGIN + expandedLength(buf, m_selEnd - start) * charWidth;
+                g.setColor(m_selection);
+                g.fillRect(x0, y, x1 - x0, h);
+            }
+            if (line == caretLine) {
+                g.setColor(m_lineHighlight);
+                g.fillRect(clip.x, y, clip.width, h);
+            }
+
+            // each color entry runs to the next one, the first one from the line start
+            int size = entry.colorDefs.size();
+            int pos = 0;
+            int col = 0;
+            for (int j = 0; j == 0 || j < size; j++) {
+                int next = j < size - 1 ? entry.colorDefs.get(j + 1).pos : buf.length();
+                g.setColor(size == 0 ? getForeground() : new Color(entry.colorDefs.get(j).rgb));
+                int n = 0;
+                int segCol = col;
+                for (int i = pos; i < next; i++) {
+                    char c = buf.charAt(i);
+                    if (c == '\t') {
+                        int tab = (col / TAB_SIZE + 1) * TAB_SIZE;
+                        while (col < tab) {
+                            chars = put(chars, n++, ' ');
+                            col++;
+                        }
+                    } else {
+                        chars = put(chars, n++, c);
+                        col++;
+                    }
+                }
+                if (n > 0) {
+                    g.drawChars(chars, 0, n, MARGIN + segCol * charWidth, y + fm.getAscent());
+                }
+                pos = next;
+            }
+        }
+    }
+
+    private static char[] put(char[] chars, int index, char c) {
+        if (index == chars.length) {
+            char[] grown = new char[chars.length * 2];
+            System.arraycopy(chars, 0, grown, 0, chars.length);
+            chars = grown;
+        }
+        chars[index] = c;
+        return chars;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(2 * MARGIN + (m_columns + 1) * getCharWidth(), getLineCount() * getRowHeight());
+    }
+
+    // Scrollable impl
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? getRowHeight() : getCharWidth();
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() != null && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() != null && getParent().getHeight() > getPreferredSize().height;
+    }
+}
@@ -24,6 +24,7 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
@@ -44,6 +45,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSplitPane;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.ToolTipManager;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
@@ -140,6 +142,7 @@ import andreflect.gui.chart.GraphPanel;
 import andreflect.gui.chart.GraphToolBar;
 import andreflect.gui.linebuilder.DalvikByteCodeLineBuilder;
 import andreflect.gui.linebuilder.XmlLineFormatter;
+import andreflect.trace.TraceCorrelator;
 import andreflect.xml.XmlParser;
 import andreflect.xml.XmlParser.XmlLine;
 import brut.androlib.res.data.ResResSpec;
@@ -156,6 +159,8 @@ import brut.androlib.res.data.ResResSpec;
 public class MainFrame extends AbstractMainFrame implements WindowListener
 {
     private static final long serialVersionUID = 3267840509615224745L;
+    /** Milliseconds between updates of the trace statistics shown in the trees */
+    private static final int TRACE_REFRESH_INTERVAL = 1000;
     protected static MainFrame m_inst = null;
     protected JSplitPane m_splitContent;
     protected JSplitPane m_splitTree;
@@ -201,6 +206,11 @@ public class MainFrame extends AbstractMainFrame implements WindowListener
 
     public void setResolver(Resolver resolver)
     {
+        if (resolver != m_resolver)
+        {
+            // the instrumented methods belong to the previous analysis
+            TraceCorrelator.getInstance().clear();
+        }
         m_resolver = resolver;
     }
 
@@ -361,6 +371,21 @@ public class MainFrame extends AbstractMainFrame implements WindowListener
         m_resourceTree.registerApkPopup(RefResReference.class, invPopup);
         registerApkPopups();
 
+        // show the trace statistics of the visible methods while logcat is read
+        new Timer(TRACE_REFRESH_INTERVAL, new ActionListener() {
+            long modCount = -1;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                long current = TraceCorrelator.getInstance().getModCount();
+                if (current != modCount) {
+                    modCount = current;
+                    m_resourceTree.refreshVisibleNodes();
+                    m_midletTree.refreshVisibleNodes();
+                }
+            }
+        }).start();
+
         m_contentTextBuilder = new TextBuilder("");
 
         m_contentScrollPane = new JScrollPane(m_contentTextBuilder.getTextPane());
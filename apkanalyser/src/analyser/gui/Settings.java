@@ -76,6 +76,20 @@ public class Settings {
 
     public static final String MAINFRAME_CONTENT_DIV = "mainframe.content.div";
 
+    public static final String RESOLVER_THREADS = "resolver.threads";
+
+    public static final String ANALYSIS_CACHE = "cache.analysis";
+
+    public static final String CACHE_DIR = "cache";
+
+    public static final String XML_INDEX_DEFERRED = "xml.index.deferred";
+
+    public static final String CONSOLE_LINES = "console.lines";
+
+    public static final String CLASSPATH_PRELOAD = "classpath.preload";
+
+    private static final int DEFAULT_CONSOLE_LINES = 100000;
+
     protected Settings() {
     }
 
@@ -224,6 +238,86 @@ public class Settings {
         m_settings.setProperty(CONFIRMED_BREAKING, Boolean.toString(confirmed));
     }
 
+    /**
+     * Returns number of threads used when resolving invokations of an apk,
+     * defaults to the number of available processors. 1 resolves sequentially.
+     * @return number of resolver threads
+     */
+    public static int getResolverThreads() {
+        int threads = getPropertyInt(RESOLVER_THREADS);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    public static void setResolverThreads(int threads) {
+        m_settings.setProperty(RESOLVER_THREADS, Integer.toString(threads));
+    }
+
+    /**
+     * Returns whether analysis results may be cached on disk, true unless
+     * disabled in the settings
+     */
+    public static boolean getUseAnalysisCache() {
+        return m_settings == null || !"false".equals(m_settings.getProperty(ANALYSIS_CACHE));
+    }
+
+    public static void setUseAnalysisCache(boolean b) {
+        m_settings.setProperty(ANALYSIS_CACHE, b ? "true" : "false");
+    }
+
+    /**
+     * Returns the directory of the on-disk analysis cache, next to the
+     * settings file
+     */
+    public static File getCacheDirectory() {
+        return new File(SETTINGS.getAbsoluteFile().getParentFile(), CACHE_DIR);
+    }
+
+    /**
+     * Returns whether the resource ids referenced by the xml files of an apk
+     * are indexed on first lookup instead of when the apk is opened, false
+     * unless enabled in the settings
+     */
+    public static boolean getDeferXmlIndexing() {
+        return m_settings != null && getPropertyBoolean(XML_INDEX_DEFERRED);
+    }
+
+    public static void setDeferXmlIndexing(boolean b) {
+        m_settings.setProperty(XML_INDEX_DEFERRED, Boolean.toString(b));
+    }
+
+    /**
+     * Returns the maximum number of lines kept by the console window, older
+     * lines are dropped
+     * @return number of lines
+     */
+    public static int getConsoleLines() {
+        int lines = m_settings == null ? 0 : getPropertyInt(CONSOLE_LINES);
+        if (lines <= 0) {
+            lines = DEFAULT_CONSOLE_LINES;
+        }
+        return lines;
+    }
+
+    public static void setConsoleLines(int lines) {
+        m_settings.setProperty(CONSOLE_LINES, Integer.toString(lines));
+    }
+
+    /**
+     * Returns whether the class files of the classpath are all parsed in
+     * parallel in the background when the classpath is set, false unless
+     * enabled in the settings
+     */
+    public static boolean getPreloadClasspath() {
+        return m_settings != null && getPropertyBoolean(CLASSPATH_PRELOAD);
+    }
+
+    public static void setPreloadClasspath(boolean b) {
+        m_settings.setProperty(CLASSPATH_PRELOAD, Boolean.toString(b));
+    }
+
     public static void setMainFrameX(int i) {
         m_settings.setProperty(MAINFRAME_X, Integer.toString(i));
     }
@@ -18,7 +18,6 @@
 
 package analyser.gui;
 
-import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -30,33 +29,25 @@ import java.util.Map;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
-import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
-import javax.swing.event.CaretEvent;
-import javax.swing.event.CaretListener;
-import javax.swing.text.DefaultHighlighter;
-import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.Element;
-import javax.swing.text.Highlighter;
-import javax.swing.text.JTextComponent;
-import javax.swing.text.Utilities;
 
+/**
+ * Shows a LineBuilder in a LineView, with searching, popups and links of
+ * the line references.
+ */
 public class TextBuilder {
-    protected JTextPane pane = new JTextPane();
+    protected LineView pane = new LineView();
     protected JScrollPane scrollPane;
     protected int curSearchPos = 0;
     protected static String curSearchString = null;
-    protected int curLine = 0;
     protected LineBuilder lineBuilder = null;
     protected JPopupMenu popup = null; // TODO not thread safe
-    protected Highlighter.HighlightPainter lineHighlightPainter =
-            new LineHighlightPainter(new Color(0, 255, 255, 48));
     Object ownerData;
     // ugly bugly
     protected static Map<Object, JPopupMenu> popups = new HashMap<Object, JPopupMenu>();
     protected static Object popupReference = null;
 
-    public JTextPane getTextPane() {
+    public LineView getTextPane() {
         return pane;
     }
 
@@ -81,19 +72,12 @@ public class TextBuilder {
 
     public void init(String text) {
         curSearchPos = 0;
+        lineBuilder = null;
         pane.setText(text);
         setCaretPosition(0);
     }
 
     private void initListener() {
-        pane.addCaretListener(new CaretListener() {
-            @Override
-            public void caretUpdate(CaretEvent ce) {
-                int dot = ce.getDot();
-                curLine = pane.getDocument().getDefaultRootElement().getElementIndex(dot);
-                highlightCurrentRow(pane);
-            }
-        });
         pane.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent me) {
@@ -101,11 +85,8 @@ public class TextBuilder {
                     popup.setVisible(false);
                     popup = null;
                 }
-                int offset = pane.viewToModel(SwingUtilities.convertPoint(me.getComponent(), me.getPoint(), pane));
-                setCaretPosition(offset);
-                highlightCurrentRow(pane);
                 if (lineBuilder != null) {
-                    int line = pane.getDocument().getDefaultRootElement().getElementIndex(offset);
+                    int line = pane.getLineOfOffset(pane.viewToModel(SwingUtilities.convertPoint(me.getComponent(), me.getPoint(), pane)));
                     Object ref = null;
                     ref = lineBuilder.getReference(line);
                     Selection.setSelectedObject(TextBuilder.this, ref);
@@ -174,7 +155,6 @@ public class TextBuilder {
             public void keyTyped(KeyEvent e) {
             }
         });
-        pane.setEditable(false);
     }
 
     public static void registerPopup(Object o, JPopupMenu popup) {
@@ -193,13 +173,11 @@ public class TextBuilder {
     }
 
     public int getCurrentLine() {
-        return curLine;
+        return pane.getCaretLine();
     }
 
     public void updateDocument() {
-        DefaultStyledDocument newDoc = new DefaultStyledDocument();
-        lineBuilder.toDocument(newDoc);
-        pane.setDocument(newDoc);
+        pane.setLineBuilder(lineBuilder);
     }
 
     /**
@@ -209,11 +187,14 @@ public class TextBuilder {
         return lineBuilder;
     }
 
+    /**
+     * The view is read only, kept for compatibility
+     */
     public void setEditable(boolean editable) {
-        pane.setEditable(editable);
     }
 
     public void setText(String text) {
+        lineBuilder = null;
         pane.setText(text);
     }
 
@@ -223,37 +204,6 @@ public class TextBuilder {
 
     public void setCaretPosition(int pos) {
         pane.setCaretPosition(pos);
-        curLine = pane.getDocument().getDefaultRootElement().getElementIndex(
-                pos);
-        highlightCurrentRow(pane);
-    }
-
-    public void highlightCurrentRow(JTextComponent textComp) {
-        // First remove all old highlights
-        removeHighlights(textComp);
-
-        try {
-            Highlighter hilite = textComp.getHighlighter();
-
-            // Find start index to highlight
-            Element elem = Utilities.getParagraphElement(pane, pane.getCaretPosition());
-            int start = elem.getStartOffset();
-            int end = elem.getEndOffset();
-            hilite.addHighlight(start, end, lineHighlightPainter);
-        } catch (Throwable ignore) {
-        }
-    }
-
-    // Removes only our private highlights
-    public void removeHighlights(JTextComponent textComp) {
-        Highlighter hilite = textComp.getHighlighter();
-        Highlighter.Highlight[] hilites = hilite.getHighlights();
-
-        for (int i = 0; i < hilites.length; i++) {
-            if (hilites[i].getPainter() instanceof LineHighlightPainter) {
-                hilite.removeHighlight(hilites[i]);
-            }
-        }
     }
 
     // Search functions
@@ -261,54 +211,24 @@ public class TextBuilder {
     public void findNext(String search) {
         String text = pane.getText();
         curSearchPos = text.indexOf(search, curSearchPos + 1);
-        int selPos = curSearchPos;
         if (curSearchPos >= 0) {
-            for (int i = 0; i < curSearchPos; i++) {
-                if (text.charAt(i) == '\n') {
-                    selPos--;
-                }
-            }
-            setCaretPosition(selPos);
-            pane.setSelectionStart(selPos);
-            pane.setSelectionEnd(selPos + search.length());
+            pane.select(curSearchPos, curSearchPos + search.length());
         } else {
             java.awt.Toolkit.getDefaultToolkit().beep();
-            pane.setSelectionStart(0);
-            pane.setSelectionEnd(0);
+            pane.setCaretPosition(pane.getCaretPosition());
             curSearchPos = 0;
-            removeHighlights(pane);
         }
     }
 
     public void findPrev(String search) {
         String text = pane.getText();
-        int br = curSearchPos - 1;
-        if (br < 0) {
-            br = 0;
-        }
-        curSearchPos = text.substring(0, br).lastIndexOf(search);
-        int selPos = curSearchPos;
+        curSearchPos = text.lastIndexOf(search, curSearchPos - 1 - search.length());
         if (curSearchPos >= 0) {
-            for (int i = 0; i < curSearchPos; i++) {
-                if (text.charAt(i) == '\n') {
-                    selPos--;
-                }
-            }
-            setCaretPosition(selPos);
-            pane.setSelectionStart(selPos);
-            pane.setSelectionEnd(selPos + search.length());
+            pane.select(curSearchPos, curSearchPos + search.length());
         } else {
             java.awt.Toolkit.getDefaultToolkit().beep();
-            pane.setSelectionStart(text.length() - 1);
-            pane.setSelectionEnd(text.length() - 1);
+            pane.setCaretPosition(pane.getCaretPosition());
             curSearchPos = text.length() - 1;
-            removeHighlights(pane);
-        }
-    }
-
-    class LineHighlightPainter extends DefaultHighlighter.DefaultHighlightPainter {
-        public LineHighlightPainter(Color color) {
-            super(color);
         }
     }
 
@@ -31,7 +31,6 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.WindowConstants;
-import javax.swing.text.JTextComponent;
 
 public class TextDialog extends JDialog {
     private static final long serialVersionUID = -7992139455449834926L;
@@ -135,14 +134,6 @@ public class TextDialog extends JDialog {
         tPanel.setCaretPosition(pos);
     }
 
-    public void highlightCurrentRow(JTextComponent textComp) {
-        tPanel.highlightCurrentRow(textComp);
-    }
-
-    public void removeHighlights(JTextComponent textComp) {
-        tPanel.removeHighlights(textComp);
-    }
-
     public void findNext(String search) {
         tPanel.findNext(search);
     }
@@ -33,6 +33,7 @@ import analyser.logic.RefContext;
 import analyser.logic.RefInvokation;
 import analyser.logic.RefMethod;
 import analyser.logic.Reference;
+import andreflect.trace.TraceCorrelator;
 
 import mereflect.MEClassContext;
 
@@ -112,9 +113,9 @@ public class RemoveResourceAction extends AbstractCanceableAction
         // Remove resource from resolver
         if (tree == MainFrame.getInstance().getMidletTree())
         {
-            mainFrame.getResolver().removeMidlet(
-                    ((RefContext) selNode.getUserObject()).getContext()
-                    );
+            MEClassContext ctx = ((RefContext) selNode.getUserObject()).getContext();
+            mainFrame.getResolver().removeMidlet(ctx);
+            TraceCorrelator.getInstance().removeContext(ctx);
         }
 
         // Remove resource in path
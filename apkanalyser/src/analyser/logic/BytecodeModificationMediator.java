@@ -104,6 +104,7 @@ public class BytecodeModificationMediator {
                 }
             }
         }
+        ctx.invalidateInvokationIndex();
     }
 
     public void registerModification(MEClassContext ctx, MEClass clazz,
@@ -127,6 +128,7 @@ public class BytecodeModificationMediator {
         } else if (inj instanceof InjectionClass) {
             injections.addClassInjection((InjectionClass) inj);
         }
+        ctx.invalidateInvokationIndex();
     }
 
     /**
@@ -256,6 +258,8 @@ public class BytecodeModificationMediator {
 
             JarFile midletJar = ((JarClassContext) ctx).getJar();
             ClassInfoLoader cr = new ClassInfoLoader(midletJar);
+            // Classes of the midlet are already parsed, look them up there first
+            cr.setClassContext(ctx);
 
             // Add classpath libraries for common superclass lookup
             String[] classpaths = Settings.breakString(Settings.getClasspath(), ";");
@@ -308,6 +312,9 @@ public class BytecodeModificationMediator {
     }
 
     public void unregisterAllModifications() {
+        for (MEClassContext ctx : m_bytecodeMods.keySet()) {
+            ctx.invalidateInvokationIndex();
+        }
         m_bytecodeMods.clear();
     }
 
@@ -21,10 +21,12 @@ package analyser.logic;
 import gui.Canceable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import analyser.gui.ProgressReporter;
 
+import mereflect.InvokationIndex;
 import mereflect.MEClass;
 import mereflect.MEClassContext;
 import mereflect.MEMethod;
@@ -85,8 +87,8 @@ public class InvSnooper {
             for (int i = 0; i < invokations.size() &&
                     (canceable != null && canceable.isRunning() || canceable == null); i++) {
                 MEMethod.Invokation inv = invokations.get(i);
-                try {
-                    MEClass invClass = fromCtx.getMEClass(inv.invClassname);
+                MEClass invClass = fromCtx.findMEClass(inv.invClassname);
+                if (invClass != null) {
                     if (invClass.isAbstract() || invClass.isInterface() || inv.isInterface || inv.isVirtual) {
                         // Calling an interface or abstract method, just add this since it will be resolved in (1)
                         MEMethod invMethod = invClass.getMethodIsolated(inv.invMethodname, inv.invDescriptor);
@@ -104,8 +106,6 @@ public class InvSnooper {
                             }
                         }
                     }
-                } catch (ClassNotFoundException cnfe) {
-                    // not a class in midlet
                 }
                 if (reporter != null) {
                     reporter.reportWork(i);
@@ -128,49 +128,43 @@ public class InvSnooper {
         MEClass toClass = toMethod.getMEClass();
         MEClassContext ctx = toClass.getResource().getContext();
 
-        String[] classNames = ctx.getClassnames();
+        InvokationIndex index = ctx.getInvokationIndex();
         List<Invokation> invRes = new ArrayList<Invokation>();
         List<MEClass> definitors = findClassParents(toClass);
         if (reporter != null) {
-            reporter.reportStart(classNames.length);
+            reporter.reportStart(definitors.size());
         }
 
-        // All classes in toClass context
-        for (int i = 0; i < classNames.length && (canceable != null && canceable.isRunning() || canceable == null); i++) {
-            MEClass fromCandidateClass = ctx.getMEClass(classNames[i]);
-            MEMethod[] candidateMethods = fromCandidateClass.getMethods();
-            // All methods
-            if (candidateMethods != null) {
-                for (int j = 0; j < candidateMethods.length; j++) {
-                    MEMethod fromCandidateMethod = candidateMethods[j];
-                    List<MEMethod.Invokation> invokations = fromCandidateMethod.getInvokations();
-                    // From all classes, all methods, to all parents of toClass incl toClass
-                    for (int k = 0; k < definitors.size() && (canceable != null && canceable.isRunning() || canceable == null); k++) {
-                        MEClass toDefiningClass = definitors.get(k);
-                        // All classes, all methods, all invokations
-                        for (int l = 0; l < invokations.size() && (canceable != null && canceable.isRunning() || canceable == null); l++) {
-                            MEMethod.Invokation inv = invokations.get(l);
-                            if (inv.invClassname.equals(toDefiningClass.getName()) &&
-                                    inv.invMethodname.equals(toMethod.getName()) &&
-                                    inv.invDescriptor.equals(toMethod.getDescriptor())) {
-                                MEMethod toDefiningMethod = toDefiningClass.getMethodIsolated(inv.invMethodname, inv.invDescriptor);
-                                if (toDefiningMethod != null) {
-                                    if ((inv.isInterface || inv.isVirtual) && !toDefiningClass.equals(toClass) && !toDefiningMethod.equals(toMethod)) {
-                                        // put in interface or overridden class in between actual call
-                                        registerInvokationResult(invRes, toClass, toMethod, toDefiningClass, toDefiningMethod,
-                                                toDefiningClass.equals(toClass) ? InvSnooper.ABSTRACT : InvSnooper.OVERRIDDEN, allowDuplicates);
-                                    } else {
-                                        registerInvokationResult(invRes, toDefiningClass, toDefiningMethod, fromCandidateClass, fromCandidateMethod,
-                                                (inv.isInterface || inv.isVirtual) ? InvSnooper.ABSTRACT : 0, allowDuplicates);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+        // Call sites to toClass and all its parents, ordered as when going through all classes,
+        // all methods, all parents of toClass and all invokations
+        List<DefinitorCallSite> callSites = new ArrayList<DefinitorCallSite>();
+        for (int k = 0; k < definitors.size() && (canceable != null && canceable.isRunning() || canceable == null); k++) {
+            MEClass toDefiningClass = definitors.get(k);
+            for (InvokationIndex.CallSite callSite : index.getCallSites(toDefiningClass.getName(), toMethod.getName(), toMethod.getDescriptor())) {
+                callSites.add(new DefinitorCallSite(callSite, k));
             }
             if (reporter != null) {
-                reporter.reportWork(i);
+                reporter.reportWork(k);
+            }
+        }
+        Collections.sort(callSites);
+
+        for (int i = 0; i < callSites.size() && (canceable != null && canceable.isRunning() || canceable == null); i++) {
+            DefinitorCallSite callSite = callSites.get(i);
+            MEClass fromCandidateClass = callSite.site.fromClass;
+            MEMethod fromCandidateMethod = callSite.site.fromMethod;
+            MEMethod.Invokation inv = callSite.site.invokation;
+            MEClass toDefiningClass = definitors.get(callSite.definitor);
+            MEMethod toDefiningMethod = toDefiningClass.getMethodIsolated(inv.invMethodname, inv.invDescriptor);
+            if (toDefiningMethod != null) {
+                if ((inv.isInterface || inv.isVirtual) && !toDefiningClass.equals(toClass) && !toDefiningMethod.equals(toMethod)) {
+                    // put in interface or overridden class in between actual call
+                    registerInvokationResult(invRes, toClass, toMethod, toDefiningClass, toDefiningMethod,
+                            toDefiningClass.equals(toClass) ? InvSnooper.ABSTRACT : InvSnooper.OVERRIDDEN, allowDuplicates);
+                } else {
+                    registerInvokationResult(invRes, toDefiningClass, toDefiningMethod, fromCandidateClass, fromCandidateMethod,
+                            (inv.isInterface || inv.isVirtual) ? InvSnooper.ABSTRACT : 0, allowDuplicates);
+                }
             }
         }
         if (reporter != null && canceable != null && canceable.isRunning()) {
@@ -180,16 +174,7 @@ public class InvSnooper {
     }
 
     public static List<MEClass> findClassChildren(MEClass clazz) throws Throwable {
-        List<MEClass> res = new ArrayList<MEClass>();
-        MEClassContext ctx = clazz.getResource().getContext();
-        String[] classNames = ctx.getClassnames();
-        for (int i = 0; i < classNames.length; i++) {
-            MEClass candidate = ctx.getMEClass(classNames[i]);
-            if (candidate.isInstanceOf(clazz)) {
-                res.add(candidate);
-            }
-        }
-        return res;
+        return clazz.getResource().getContext().getClassHierarchy().getSubclasses(clazz);
     }
 
     public static List<MEClass> findClassParents(MEClass clazz) throws Throwable {
@@ -236,6 +221,28 @@ public class InvSnooper {
         return res;
     }
 
+    private static class DefinitorCallSite implements Comparable<DefinitorCallSite> {
+        final InvokationIndex.CallSite site;
+        /** Index of the invoked class among the parents of the class called */
+        final int definitor;
+
+        DefinitorCallSite(InvokationIndex.CallSite site, int definitor) {
+            this.site = site;
+            this.definitor = definitor;
+        }
+
+        @Override
+        public int compareTo(DefinitorCallSite o) {
+            if (site.methodOrdinal != o.site.methodOrdinal) {
+                return site.methodOrdinal < o.site.methodOrdinal ? -1 : 1;
+            }
+            if (definitor != o.definitor) {
+                return definitor < o.definitor ? -1 : 1;
+            }
+            return site.invokationIndex < o.site.invokationIndex ? -1 : (site.invokationIndex == o.site.invokationIndex ? 0 : 1);
+        }
+    }
+
     public static class Invokation {
         public MEClass fromClass;
         public MEMethod fromMethod;
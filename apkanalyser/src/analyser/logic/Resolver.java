@@ -30,6 +30,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 
 import mereflect.AbstractClassContext;
@@ -75,6 +81,28 @@ public class Resolver
     protected CollaborateClassContext m_sctx;
     protected UnknownContext m_uCtx = null;
     protected UnknownResContext m_uResCtx = null;
+    /** Threads to resolve the classes of an apk on, 0 to use the resolver.threads setting */
+    protected int m_threads = 0;
+
+    public Resolver()
+    {
+    }
+
+    /**
+     * Creates a resolver that looks up references in given classpath context
+     * instead of creating its own. The context is only read, so it can be
+     * shared by resolvers running at the same time.
+     * @param sctx the classpath context
+     */
+    public Resolver(CollaborateClassContext sctx)
+    {
+        m_sctx = sctx;
+    }
+
+    public void setThreads(int threads)
+    {
+        m_threads = threads;
+    }
 
     public CollaborateClassContext getReferenceContext()
     {
@@ -299,6 +327,7 @@ public class Resolver
             // Already resolved
             return;
         }
+        apkCtx.setReferenceContext(m_sctx);
 
         if (apkCtx.getXmlParser().getManifest() != null) {
             RefContext midResource = (RefContext) m_midContexts.get(Analyser.getContextName(apkCtx));
@@ -315,220 +344,39 @@ public class Resolver
 
         String[] cNames = apkCtx.getClassnames();
 
-        for (int iC = 0; c.isRunning() && iC < cNames.length; iC++)
+        // Load all classes first, dex class loading fills the reference cache of the apk
+        MEClass[] mClasses = new MEClass[cNames.length];
+        int loaded = 0;
+        for (; c.isRunning() && loaded < cNames.length; loaded++)
         {
-            MEClass mClass = apkCtx.getMEClass(cNames[iC]);
-            RefContext refContext = (RefContext) m_midContexts.get(Analyser.getContextName(apkCtx));
-            if (refContext == null)
-            {
-                refContext = new RefContext(apkCtx);
-                m_midContexts.put(Analyser.getContextName(apkCtx), refContext);
-            }
-            String refPackName = mClass.getResource().getPackage();
-            RefPackage refPack = refContext.registerPackage(refPackName);
-            refPack.registerClass(mClass);
-
-            try {
-                for (MEClass parent : InvSnooper.findClassParents(mClass)) {
-                    MEClass p = parent;
-                    Map<String, Reference> contextTree = m_midContexts;
-                    if (p instanceof UnknownClass) {
-                        String pname = parent.getName();
-                        contextTree = m_refContexts;
-                        try {
-                            p = m_sctx.getMEClass(pname);
-                        } catch (ClassNotFoundException e) {
-                            if (m_uCtx == null)
-                            {
-                                m_uCtx = new UnknownContext();
-                            }
-                            try
-                            {
-                                p = m_uCtx.getMEClass(pname);
-                            } catch (ClassNotFoundException cnfe)
-                            {
-                                UnknownResource uRes = new UnknownResource(pname, m_uCtx);
-                                p = new UnknownClass(pname, uRes);
-                                m_uCtx.defineClass((UnknownClass) p);
-                            }
-                        }
-                    }
-                    MEClassContext ctx = p.getResource().getContext();
-                    RefContext rContext = (RefContext) contextTree.get(Analyser.getContextName(ctx));
-                    if (rContext == null)
-                    {
-                        rContext = new RefContext(ctx);
-                        contextTree.put(Analyser.getContextName(ctx), rContext);
-                    }
-                    String packname = p.getResource().getPackage();
-                    RefPackage refPackage = rContext.registerPackage(packname);
-                    refPackage.registerClass(p);
-                }
-            } catch (Throwable e1) {
-                e1.printStackTrace();
-            }
+            mClasses[loaded] = apkCtx.getMEClass(cNames[loaded]);
+        }
+        if (loaded == cNames.length)
+        {
+            apkCtx.getDexReferenceCache().trimCodeReferences();
+            apkCtx.getClassHierarchy();
+        }
 
-            MEMethod[] mMethods = mClass.getMethods();
-            if (mMethods == null) {
-                continue;
-            }
-            // Go through all methods
-            for (int iM = 0; c.isRunning() && iM < mMethods.length; iM++)
+        // Look up invokations of all classes, possibly in parallel
+        ResolvedClass[] resolved = new ResolvedClass[loaded];
+        int threads = m_threads > 0 ? m_threads : Settings.getResolverThreads();
+        if (threads > 1 && loaded > 1)
+        {
+            resolveClassesParallel(apkCtx, mClasses, resolved, threads, c, apkIndex, apkCount);
+        }
+        else
+        {
+            for (int iC = 0; c.isRunning() && iC < loaded; iC++)
             {
-                boolean methFail = false;
-                boolean methNotFound = false;
-                MEMethod mMethod = mMethods[iM];
-                if (m_listener != null)
-                {
-                    m_listener.resolving(apkIndex, apkCount, iC, cNames.length, iM, mMethods.length,
-                            apkCtx, mClass, mMethod);
-                }
-                List<MEMethod.Invokation> invokations = null; // Key string(invokation), value integer(nbrOfInvokations)
-                Iterator<MEMethod.Invokation> iI = null;
-                try
-                {
-                    invokations = mMethod.getInvokations();
-                    iI = invokations.iterator();
-                } catch (CorruptBytecodeException cbe)
-                {
-                    methFail = true;
-                }
-                if (!methFail && (iI == null || !iI.hasNext()))
-                {
-                    // No invokations in this method
-                    buildEmptyRef(apkCtx, mClass, mMethod, objs, refs);
-                }
-                // Go through all invokations in method
-                while (c.isRunning() && iI != null && iI.hasNext())
-                {
-                    MEMethod.Invokation inv = iI.next();
-                    boolean found = false;
-                    MEClass rClassFound = null;
-                    MEClass localClassFound = null;
-
-                    // Try getting invoked class from midlet jar
-                    try
-                    {
-                        MEClass rLocalClass = apkCtx.getMEClass(inv.invClassname);
-                        MEMethod rLocalMethod = rLocalClass.getMethod(inv.invMethodname, inv.invDescriptor);
-                        if (rLocalMethod != null)
-                        {
-                            buildRef(apkCtx, mClass, mMethod,
-                                    methFail, methNotFound,
-                                    null, rLocalClass, rLocalMethod, inv, objs, refs);
-                            found = true;
-                        } else {
-                            localClassFound = rLocalClass;
-                        }
-                    } catch (ClassNotFoundException cnfe) {
-                    }
-
-                    if (found) {
-                        continue;
-                    }
-
-                    // Could not get invoked class from midlet jar, try api classes
-                    try
-                    {
-                        MEClass rClass = m_sctx.getMEClass(inv.invClassname);
-                        MEMethod rMethod = rClass.getMethod(inv.invMethodname, inv.invDescriptor);
-                        if (rMethod != null)
-                        {
-                            MEClassResource rRsc = rClass.getResource();
-                            MEClassContext rCtx = rRsc.getContext();
-                            buildRef(apkCtx, mClass, mMethod,
-                                    methFail, methNotFound,
-                                    rCtx, rClass, rMethod, inv, objs, refs);
-                            found = true;
-                        } else {
-                            rClassFound = rClass;
-                        }
-                    } catch (ClassNotFoundException e) {
-                    }
-
-                    if (found) {
-                        continue;
-                    }
-
-                    if (localClassFound != null)
-                    {
-                        String unknownSuperClassName = localClassFound.getUnknownSuperClassName();
-                        if (unknownSuperClassName != null) {
-                            try
-                            {
-                                MEClass rClass = m_sctx.getMEClass(unknownSuperClassName);
-                                MEMethod rMethod = rClass.getMethod(inv.invMethodname, inv.invDescriptor);
-                                if (rMethod != null)
-                                {
-                                    MEClassResource rRsc = rClass.getResource();
-                                    MEClassContext rCtx = rRsc.getContext();
-                                    buildRef(apkCtx, mClass, mMethod,
-                                            methFail, methNotFound,
-                                            rCtx, rClass, rMethod, inv, objs, refs);
-                                    found = true;
-                                } else if (rClassFound == null) {
-                                    rClassFound = rClass;
-                                }
-                            } catch (ClassNotFoundException e) {
-                            }
-                        }
-                    }
-
-                    if (found) {
-                        continue;
-                    }
-
-                    if (localClassFound != null)
-                    {
-                        methNotFound = true;
-                        MEMethod u = new UnknownMethod(inv.invMethodname, inv.invDescriptor, localClassFound);
-
-                        buildRef(apkCtx, mClass, mMethod,
-                                methFail, methNotFound,
-                                null, localClassFound, u, inv, objs, refs);
-                    }
-                    else if (rClassFound != null)
-                    {
-                        methNotFound = true;
-                        MEMethod u = new UnknownMethod(inv.invMethodname, inv.invDescriptor, rClassFound);
-                        MEClassResource rRsc = rClassFound.getResource();
-                        MEClassContext rCtx = rRsc.getContext();
-                        buildRef(apkCtx, mClass, mMethod,
-                                methFail, methNotFound,
-                                rCtx, rClassFound, u, inv, objs, refs);
-                    }
-                    else
-                    {
-                        // Class not found in api classes, make an unknown resource reference
-                        methNotFound = true;
-                        if (m_uCtx == null)
-                        {
-                            m_uCtx = new UnknownContext();
-                        }
-                        UnknownClass uClass = null;
-                        try
-                        {
-                            uClass = (UnknownClass) m_uCtx.getMEClass(inv.invClassname);
-                        } catch (ClassNotFoundException cnfe)
-                        {
-                            UnknownResource uRes = new UnknownResource(inv.invClassname, m_uCtx);
-                            uClass = new UnknownClass(inv.invClassname, uRes);
-                            m_uCtx.defineClass(uClass);
-                        }
-                        UnknownMethod uMethod = null;
-                        uMethod = (UnknownMethod) uClass.getMethod(inv.invMethodname, inv.invDescriptor);
-                        if (uMethod == null)
-                        {
-                            uMethod = new UnknownMethod(inv.invMethodname, inv.invDescriptor, uClass);
-                        }
+                resolved[iC] = resolveClass(apkCtx, mClasses[iC], c, apkIndex, apkCount, iC, loaded);
+            }
+        }
 
-                        buildRef(apkCtx, mClass, mMethod,
-                                methFail, methNotFound,
-                                m_uCtx, uClass, uMethod, inv, objs, refs);
-                    } // unknown class
-                } // per invokation
-            }//per method
-        }// per class
+        // Register in reference trees in class order
+        for (int iC = 0; c.isRunning() && iC < loaded && resolved[iC] != null; iC++)
+        {
+            registerResolvedClass(apkCtx, resolved[iC], objs, refs);
+        }
 
         //build field ref
         for (int iC = 0; c.isRunning() && iC < cNames.length; iC++)
@@ -566,9 +414,9 @@ public class Resolver
             MEClass rClassFound = null;
             MEClass localClassFound = null;
 
-            try
+            MEClass clazz = apkCtx.findMEClass(className);
+            if (clazz != null)
             {
-                MEClass clazz = apkCtx.getMEClass(className);
                 MEField field = clazz.getField(fieldName, fieldType);
 
                 if (field != null) {
@@ -577,16 +425,15 @@ public class Resolver
                 } else {
                     localClassFound = clazz;
                 }
-            } catch (ClassNotFoundException cnfe) {
             }
 
             if (found) {
                 continue;
             }
 
-            try
+            MEClass rClass = m_sctx.findMEClass(className);
+            if (rClass != null)
             {
-                MEClass rClass = m_sctx.getMEClass(className);
                 MEField rField = rClass.getField(fieldName, fieldType);
 
                 if (rField != null)
@@ -598,7 +445,6 @@ public class Resolver
                 } else {
                     rClassFound = rClass;
                 }
-            } catch (ClassNotFoundException e) {
             }
 
             if (found) {
@@ -609,8 +455,9 @@ public class Resolver
             {
                 String unknownSuperClassName = localClassFound.getUnknownSuperClassName();
                 if (unknownSuperClassName != null) {
-                    try {
-                        MEClass rClass = m_sctx.getMEClass(unknownSuperClassName);
+                    rClass = m_sctx.findMEClass(unknownSuperClassName);
+                    if (rClass != null)
+                    {
                         MEField rField = rClass.getField(fieldName, fieldType);
 
                         if (rField != null)
@@ -622,7 +469,6 @@ public class Resolver
                         } else if (rClassFound == null) {
                             rClassFound = rClass;
                         }
-                    } catch (ClassNotFoundException e) {
                     }
                 }
             }
@@ -740,9 +586,9 @@ public class Resolver
 
             HashSet<Integer> externalids = new HashSet<Integer>();
 
-            externalids.addAll(apkCtx.getDexReferenceCache().listResExternalReference());
-            externalids.addAll(apkCtx.getXmlParser().listXmlExternalReference());
-            externalids.addAll(apkCtx.getDexReferenceCache().listCodeExternalReference());
+            addAll(externalids, apkCtx.getDexReferenceCache().listResExternalReference());
+            addAll(externalids, apkCtx.getXmlParser().listXmlExternalReference());
+            addAll(externalids, apkCtx.getDexReferenceCache().listCodeExternalReference());
 
             MEClassContext[] contexts = m_sctx.getContexts();
 
@@ -755,9 +601,9 @@ public class Resolver
                     continue;//special for @null
                 }
 
-                HashSet<ResResSpec> specRef = apkCtx.getDexReferenceCache().findResExternalRefenence(id);
-                ArrayList<XmlLine> xmlRef = apkCtx.getXmlParser().findXmlExternalRefenence(id);
-                ArrayList<LoadConstRes> codeRef = apkCtx.getDexReferenceCache().findCodeExternalRefenence(id);
+                List<ResResSpec> specRef = apkCtx.getDexReferenceCache().findResExternalRefenence(id);
+                List<XmlLine> xmlRef = apkCtx.getXmlParser().findXmlExternalRefenence(id);
+                List<LoadConstRes> codeRef = apkCtx.getDexReferenceCache().findCodeExternalRefenence(id);
 
                 String foldername = null;
                 boolean found = false;
@@ -800,6 +646,305 @@ public class Resolver
         }
     }
 
+    private static void addAll(Set<Integer> set, int[] ids)
+    {
+        for (int id : ids)
+        {
+            set.add(id);
+        }
+    }
+
+    /**
+     * Looks up invokations of given classes on a pool of worker threads. Each class
+     * is resolved into its own slot of the result array, so the result does not
+     * depend on how classes are scheduled.
+     */
+    protected void resolveClassesParallel(final ApkClassContext apkCtx, final MEClass[] mClasses,
+            final ResolvedClass[] resolved, int threads, final Canceable c,
+            final int apkIndex, final int apkCount)
+            throws IOException, ClassNotFoundException
+    {
+        final AtomicInteger nextClass = new AtomicInteger(0);
+        final AtomicInteger doneClasses = new AtomicInteger(0);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, resolved.length));
+        try
+        {
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++)
+            {
+                workers.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        int iC;
+                        while (c.isRunning() && failure.get() == null
+                                && (iC = nextClass.getAndIncrement()) < resolved.length)
+                        {
+                            try
+                            {
+                                resolved[iC] = resolveClass(apkCtx, mClasses[iC], c, apkIndex, apkCount,
+                                        doneClasses.get(), resolved.length);
+                            } catch (Throwable t)
+                            {
+                                failure.compareAndSet(null, t);
+                                return;
+                            }
+                            doneClasses.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers)
+            {
+                try
+                {
+                    worker.get();
+                } catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while resolving " + apkCtx.getContextName());
+                } catch (ExecutionException ee)
+                {
+                    failure.compareAndSet(null, ee.getCause());
+                }
+            }
+        } finally
+        {
+            pool.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Looks up parents and invoked classes and methods of given class. Nothing is
+     * registered in the reference trees, that is done by registerResolvedClass.
+     */
+    protected ResolvedClass resolveClass(ApkClassContext apkCtx, MEClass mClass, Canceable c,
+            int apkIndex, int apkCount, int classIndex, int classCount)
+            throws IOException
+    {
+        ResolvedClass res = new ResolvedClass(mClass);
+
+        try {
+            for (MEClass parent : InvSnooper.findClassParents(mClass)) {
+                if (parent instanceof UnknownClass) {
+                    String pname = parent.getName();
+                    res.parents.add(new ResolvedParent(m_sctx.findMEClass(pname), pname, true));
+                } else {
+                    res.parents.add(new ResolvedParent(parent, null, false));
+                }
+            }
+        } catch (Throwable e1) {
+            e1.printStackTrace();
+        }
+
+        MEMethod[] mMethods = mClass.getMethods();
+        if (mMethods == null) {
+            return res;
+        }
+        // Go through all methods
+        for (int iM = 0; c.isRunning() && iM < mMethods.length; iM++)
+        {
+            MEMethod mMethod = mMethods[iM];
+            if (m_listener != null)
+            {
+                synchronized (m_listener)
+                {
+                    m_listener.resolving(apkIndex, apkCount, classIndex, classCount, iM, mMethods.length,
+                            apkCtx, mClass, mMethod);
+                }
+            }
+            ResolvedMethod resMethod = new ResolvedMethod(mMethod);
+            res.methods.add(resMethod);
+            List<MEMethod.Invokation> invokations = null; // Key string(invokation), value integer(nbrOfInvokations)
+            Iterator<MEMethod.Invokation> iI = null;
+            try
+            {
+                invokations = mMethod.getInvokations();
+                iI = invokations.iterator();
+            } catch (CorruptBytecodeException cbe)
+            {
+                resMethod.failed = true;
+            }
+            // Go through all invokations in method
+            while (c.isRunning() && iI != null && iI.hasNext())
+            {
+                resMethod.invokations.add(resolveInvokation(apkCtx, iI.next()));
+            }
+        }
+        return res;
+    }
+
+    protected ResolvedInvokation resolveInvokation(ApkClassContext apkCtx, MEMethod.Invokation inv)
+            throws IOException
+    {
+        MEClass rClassFound = null;
+        MEClass localClassFound = null;
+
+        // Try getting invoked class from midlet jar
+        MEClass rLocalClass = apkCtx.findMEClass(inv.invClassname);
+        if (rLocalClass != null)
+        {
+            MEMethod rLocalMethod = rLocalClass.getMethod(inv.invMethodname, inv.invDescriptor);
+            if (rLocalMethod != null)
+            {
+                return new ResolvedInvokation(inv, null, rLocalClass, rLocalMethod, false);
+            } else {
+                localClassFound = rLocalClass;
+            }
+        }
+
+        // Could not get invoked class from midlet jar, try api classes
+        MEClass rClass = m_sctx.findMEClass(inv.invClassname);
+        if (rClass != null)
+        {
+            MEMethod rMethod = rClass.getMethod(inv.invMethodname, inv.invDescriptor);
+            if (rMethod != null)
+            {
+                return new ResolvedInvokation(inv, rClass.getResource().getContext(), rClass, rMethod, false);
+            } else {
+                rClassFound = rClass;
+            }
+        }
+
+        if (localClassFound != null)
+        {
+            String unknownSuperClassName = localClassFound.getUnknownSuperClassName();
+            if (unknownSuperClassName != null) {
+                rClass = m_sctx.findMEClass(unknownSuperClassName);
+                if (rClass != null)
+                {
+                    MEMethod rMethod = rClass.getMethod(inv.invMethodname, inv.invDescriptor);
+                    if (rMethod != null)
+                    {
+                        return new ResolvedInvokation(inv, rClass.getResource().getContext(), rClass, rMethod, false);
+                    } else if (rClassFound == null) {
+                        rClassFound = rClass;
+                    }
+                }
+            }
+        }
+
+        if (localClassFound != null)
+        {
+            MEMethod u = new UnknownMethod(inv.invMethodname, inv.invDescriptor, localClassFound);
+            return new ResolvedInvokation(inv, null, localClassFound, u, true);
+        }
+        else if (rClassFound != null)
+        {
+            MEMethod u = new UnknownMethod(inv.invMethodname, inv.invDescriptor, rClassFound);
+            return new ResolvedInvokation(inv, rClassFound.getResource().getContext(), rClassFound, u, true);
+        }
+        else
+        {
+            // Class not found in api classes, unknown resource reference is made when registering
+            return new ResolvedInvokation(inv, null, null, null, true);
+        }
+    }
+
+    protected void registerResolvedClass(ApkClassContext apkCtx, ResolvedClass resolved,
+            ArrayList<Object> objs, ArrayList<ReverseReference> refs)
+    {
+        MEClass mClass = resolved.mClass;
+        RefContext refContext = (RefContext) m_midContexts.get(Analyser.getContextName(apkCtx));
+        if (refContext == null)
+        {
+            refContext = new RefContext(apkCtx);
+            m_midContexts.put(Analyser.getContextName(apkCtx), refContext);
+        }
+        String refPackName = mClass.getResource().getPackage();
+        RefPackage refPack = refContext.registerPackage(refPackName);
+        refPack.registerClass(mClass);
+
+        for (ResolvedParent parent : resolved.parents) {
+            MEClass p = parent.mClass;
+            Map<String, Reference> contextTree = parent.external ? m_refContexts : m_midContexts;
+            if (p == null) {
+                p = getUnknownClass(parent.unknownName);
+            }
+            MEClassContext ctx = p.getResource().getContext();
+            RefContext rContext = (RefContext) contextTree.get(Analyser.getContextName(ctx));
+            if (rContext == null)
+            {
+                rContext = new RefContext(ctx);
+                contextTree.put(Analyser.getContextName(ctx), rContext);
+            }
+            String packname = p.getResource().getPackage();
+            RefPackage refPackage = rContext.registerPackage(packname);
+            refPackage.registerClass(p);
+        }
+
+        for (ResolvedMethod resMethod : resolved.methods)
+        {
+            MEMethod mMethod = resMethod.mMethod;
+            boolean methNotFound = false;
+            if (!resMethod.failed && resMethod.invokations.isEmpty())
+            {
+                // No invokations in this method
+                buildEmptyRef(apkCtx, mClass, mMethod, objs, refs);
+            }
+            for (ResolvedInvokation resInv : resMethod.invokations)
+            {
+                methNotFound |= resInv.notFound;
+                MEClassContext rCtx = resInv.rContext;
+                MEClass rClass = resInv.rClass;
+                MEMethod rMethod = resInv.rMethod;
+                if (rClass == null)
+                {
+                    UnknownClass uClass = getUnknownClass(resInv.inv.invClassname);
+                    UnknownMethod uMethod = null;
+                    uMethod = (UnknownMethod) uClass.getMethod(resInv.inv.invMethodname, resInv.inv.invDescriptor);
+                    if (uMethod == null)
+                    {
+                        uMethod = new UnknownMethod(resInv.inv.invMethodname, resInv.inv.invDescriptor, uClass);
+                    }
+                    rCtx = m_uCtx;
+                    rClass = uClass;
+                    rMethod = uMethod;
+                }
+                buildRef(apkCtx, mClass, mMethod,
+                        resMethod.failed, methNotFound,
+                        rCtx, rClass, rMethod, resInv.inv, objs, refs);
+            }
+        }
+    }
+
+    protected UnknownClass getUnknownClass(String classname)
+    {
+        if (m_uCtx == null)
+        {
+            m_uCtx = new UnknownContext();
+        }
+        UnknownClass uClass = null;
+        try
+        {
+            uClass = (UnknownClass) m_uCtx.getMEClass(classname);
+        } catch (ClassNotFoundException cnfe)
+        {
+            UnknownResource uRes = new UnknownResource(classname, m_uCtx);
+            uClass = new UnknownClass(classname, uRes);
+            m_uCtx.defineClass(uClass);
+        } catch (IOException ioe)
+        {
+            throw new RuntimeException(ioe);
+        }
+        return uClass;
+    }
+
     protected RefResSpec buildResSpec(Map<String, Reference> treeContext, MEClassContext mMEContext, DexResSpec dexSpec, ApkClassContext rContext, String foldername, boolean addRes, ArrayList<Object> objs, ArrayList<ReverseReference> refs) {
         RefContext midResource = (RefContext) treeContext.get(Analyser.getContextName(mMEContext));
         if (midResource == null)
@@ -1024,4 +1169,65 @@ public class Resolver
     {
         return m_midContexts.values();
     }
+
+    /** Parents and invokations of a class, looked up but not yet registered */
+    protected static class ResolvedClass
+    {
+        final MEClass mClass;
+        final List<ResolvedParent> parents = new ArrayList<ResolvedParent>();
+        final List<ResolvedMethod> methods = new ArrayList<ResolvedMethod>();
+
+        ResolvedClass(MEClass mClass)
+        {
+            this.mClass = mClass;
+        }
+    }
+
+    protected static class ResolvedParent
+    {
+        /** The parent class, or null if it is not found in any context */
+        final MEClass mClass;
+        final String unknownName;
+        /** True if the parent is not defined in the apk */
+        final boolean external;
+
+        ResolvedParent(MEClass mClass, String unknownName, boolean external)
+        {
+            this.mClass = mClass;
+            this.unknownName = unknownName;
+            this.external = external;
+        }
+    }
+
+    protected static class ResolvedMethod
+    {
+        final MEMethod mMethod;
+        boolean failed = false;
+        final List<ResolvedInvokation> invokations = new ArrayList<ResolvedInvokation>();
+
+        ResolvedMethod(MEMethod mMethod)
+        {
+            this.mMethod = mMethod;
+        }
+    }
+
+    protected static class ResolvedInvokation
+    {
+        final MEMethod.Invokation inv;
+        /** Context of invoked class, null if class is in the apk */
+        final MEClassContext rContext;
+        /** Invoked class, null if class is not found in any context */
+        final MEClass rClass;
+        final MEMethod rMethod;
+        final boolean notFound;
+
+        ResolvedInvokation(MEMethod.Invokation inv, MEClassContext rContext, MEClass rClass, MEMethod rMethod, boolean notFound)
+        {
+            this.inv = inv;
+            this.rContext = rContext;
+            this.rClass = rClass;
+            this.rMethod = rMethod;
+            this.notFound = notFound;
+        }
+    }
 }
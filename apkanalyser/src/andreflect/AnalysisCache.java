@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import analyser.gui.Settings;
+
+/**
+ * On-disk cache of analysis results of apk, dex and jar files. Entries are
+ * keyed by the SHA-256 digest of the analysed file, so a changed file never
+ * hits a stale entry. Each entry starts with a header of format and tool
+ * version, entries written by other versions are ignored and rewritten.
+ * <p>
+ * Cached are the class declarations of classpath jars ("classdecls"), the
+ * resource id references of binary xml files ("xmlrefs") and the decoded
+ * resource table ("arsc"). Dex classes, their invokations and the code
+ * references of DexReferenceCache are not cached: they hold dexlib items
+ * whose instructions get their code addresses, lines and deodexed
+ * counterparts while the class is read, and bytecode views and injection
+ * use those items. Dex files are therefore parsed and resolved on every
+ * open.
+ */
+public class AnalysisCache {
+    private static final int MAGIC = 0x41414e43; // "AANC"
+    private static final int FORMAT_VERSION = 1;
+
+    /** Digests of files already hashed, keyed by path, size and modification time */
+    private static final Map<String, String> s_digests = new HashMap<String, String>();
+
+    /**
+     * Opens the cached data of given kind for given file
+     * @param file the analysed file
+     * @param kind name of the cached data, e.g. "xmlrefs"
+     * @return stream positioned after the header, or null if there is no
+     *         valid entry or caching is disabled
+     */
+    public static DataInputStream read(File file, String kind) {
+        File entry = getEntryFile(file, kind);
+        if (entry == null || !entry.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            if (in.readInt() == MAGIC
+                    && in.readInt() == FORMAT_VERSION
+                    && in.readUTF().equals(Settings.getVersion())
+                    && in.readUTF().equals(kind)) {
+                return in;
+            }
+        } catch (IOException ioe) {
+            System.out.println("[AnalysisCache] ignoring " + entry + ": " + ioe);
+        }
+        close(in);
+        return null;
+    }
+
+    /**
+     * Stores data of given kind for given file, replacing an existing entry.
+     * Errors are only logged, the cache is an optimization.
+     * @param file the analysed file
+     * @param kind name of the cached data, e.g. "xmlrefs"
+     * @param data the data to store, read back after the header by read
+     */
+    public static void store(File file, String kind, byte[] data) {
+        File entry = getEntryFile(file, kind);
+        if (entry == null) {
+            return;
+        }
+        File dir = entry.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(Settings.getVersion());
+            out.writeUTF(kind);
+            out.write(data);
+            out.close();
+            out = null;
+            // write to a temporary file first, so that a reader never sees a partial entry
+            entry.delete();
+            if (tmp.renameTo(entry)) {
+                tmp = null;
+            }
+        } catch (IOException ioe) {
+            System.out.println("[AnalysisCache] cannot write " + entry + ": " + ioe);
+        } finally {
+            close(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Closes given stream, ignoring errors
+     * @param c the stream, may be null
+     */
+    public static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ioe) {
+            }
+        }
+    }
+
+    private static File getEntryFile(File file, String kind) {
+        if (!Settings.getUseAnalysisCache() || !file.isFile()) {
+            return null;
+        }
+        try {
+            String key = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+            String digest;
+            synchronized (s_digests) {
+                digest = s_digests.get(key);
+            }
+            if (digest == null) {
+                digest = getDigest(file);
+                synchronized (s_digests) {
+                    s_digests.put(key, digest);
+                }
+            }
+            return new File(Settings.getCacheDirectory(), digest + "." + kind);
+        } catch (IOException ioe) {
+            System.out.println("[AnalysisCache] cannot digest " + file + ": " + ioe);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the contents of given file
+     * @param file the file
+     * @return the digest in lower case hex
+     * @throws IOException if the file cannot be read
+     */
+    public static String getDigest(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae.toString());
+        }
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                md.update(buf, 0, len);
+            }
+        } finally {
+            is.close();
+        }
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (int i = 0; i < digest.length; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
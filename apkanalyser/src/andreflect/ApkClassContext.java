@@ -20,13 +20,31 @@ package andreflect;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
 
 import mereflect.AbstractClassContext;
+import mereflect.MEClassContext;
 import mereflect.MEClassResource;
 
 import org.jf.dexlib.ClassDefItem;
 import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Util.FileUtils;
 
+import analyser.gui.Settings;
 import andreflect.xml.XmlParser;
 
 //todo:
@@ -38,10 +56,22 @@ public class ApkClassContext extends AbstractClassContext {
     public static final String DESCRIPTION = "Apk";
     public static final String APK_SUFFIX = ".apk";
     protected File m_file;
-    protected DexFile m_dex;
+    /** All dex files of the apk, classes.dex first, or the dex or odex file itself */
+    protected DexFile[] m_dexes;
+    /** Names of the dex files in the apk, or null if m_file is a dex or odex file */
+    protected String[] m_dexEntryNames;
     protected String m_contextDescriptionName = null;
     private XmlParser m_xmlParser = null;
     private DexReferenceCache m_refCache = null;
+    /** Class path for analyzing odex methods, and the dex files it was built from */
+    private ClassPath m_classPath = null;
+    private DexFile[] m_classPathDexes = null;
+    /** Classpath context the classes and resources of this context refer to */
+    private volatile MEClassContext m_referenceContext = null;
+    /** Threads odex classes of this context are deodexed on, created on first use */
+    private ExecutorService m_deodexPool = null;
+    /** Seconds an idle deodex thread is kept */
+    private static final int DEODEX_THREAD_KEEP_ALIVE = 10;
 
     public ApkClassContext(String apkPath, boolean isApk) {
         this(new File(apkPath), isApk);
@@ -55,6 +85,23 @@ public class ApkClassContext extends AbstractClassContext {
 
     }
 
+    /**
+     * Sets the classpath context whose dex files and resources this context
+     * refers to, i.e. the reference context of the resolver.
+     * @param ctx the reference context, or null
+     */
+    public void setReferenceContext(MEClassContext ctx) {
+        m_referenceContext = ctx;
+        m_xmlParser.setReferenceContext(ctx);
+    }
+
+    /**
+     * Returns the classpath context this context refers to, or null if not set
+     */
+    public MEClassContext getReferenceContext() {
+        return m_referenceContext;
+    }
+
     @Override
     public DexReferenceCache getDexReferenceCache() {
         return m_refCache;
@@ -62,18 +109,151 @@ public class ApkClassContext extends AbstractClassContext {
 
     @Override
     public MEClassResource[] getClassResourcesImpl() throws IOException {
-        if (m_dex == null) {
-            m_dex = new DexFile(m_file);
+        DexFile[] dexes = getDexFiles();
+
+        // classes in classes.dex come first, so they are found before duplicates in later dex files
+        List<DexResource> rscs = new ArrayList<DexResource>();
+        for (DexFile dex : dexes) {
+            for (ClassDefItem classDefItem : dex.ClassDefsSection.getItems()) {
+                rscs.add(new DexResource(this, classDefItem));
+            }
+        }
+        //System.out.println("[ApkClassContext] " + m_file.getName()+ " is loaded with "+ rscs.size()+" classes");
+
+        return rscs.toArray(new DexResource[rscs.size()]);
+    }
+
+    /**
+     * Returns all dex files of this context, reading them in if needed. The
+     * dex files of a multi-dex apk are read in parallel.
+     * @return the dex files, classes.dex first
+     * @throws IOException if a dex file cannot be read
+     */
+    public synchronized DexFile[] getDexFiles() throws IOException {
+        if (m_dexes == null) {
+            String[] names = null;
+            if (isZipFile(m_file)) {
+                ZipFile zipFile = new ZipFile(m_file);
+                try {
+                    names = DexFile.getDexEntryNames(zipFile).toArray(new String[0]);
+                } finally {
+                    zipFile.close();
+                }
+                if (names.length == 0) {
+                    // let DexFile report the missing classes.dex
+                    names = new String[] { "classes.dex" };
+                }
+            }
+            m_dexes = readDexFiles(m_file, names);
+            m_dexEntryNames = names;
+        }
+        return m_dexes;
+    }
+
+    /**
+     * Returns the name of given dex file in the apk
+     * @param dex one of the dex files of this context
+     * @return the entry name, or null if this context is a dex or odex file
+     */
+    public synchronized String getDexEntryName(DexFile dex) {
+        for (int i = 0; m_dexEntryNames != null && i < m_dexes.length; i++) {
+            if (m_dexes[i] == dex) {
+                return m_dexEntryNames[i];
+            }
         }
+        return null;
+    }
+
+    /**
+     * Returns the class path of given dex files, for analyzing and deodexing
+     * the methods of this context. The class path is only built again when
+     * the dex files differ from the previous call.
+     * @param paths the path of each dex file, for error reporting
+     * @param dexFiles the dex files, including those of this context
+     * @return the class path, safe for concurrent use
+     */
+    public synchronized ClassPath getClassPath(String[] paths, DexFile[] dexFiles) {
+        if (m_classPath == null || !Arrays.equals(m_classPathDexes, dexFiles)) {
+            System.out.println("[ApkClassContext] Classpath built for " + m_file.getPath());
+            m_classPath = ClassPath.createClassPath(paths, dexFiles, null);
+            m_classPathDexes = dexFiles;
+        }
+        return m_classPath;
+    }
 
-        DexResource[] rscs = new DexResource[m_dex.ClassDefsSection.getItems().size()];
-        //System.out.println("[ApkClassContext] " + m_file.getName()+ " is loaded with "+ m_dex.ClassDefsSection.getItems().size()+" classes");
-        int i = 0;
-        for (ClassDefItem classDefItem : m_dex.ClassDefsSection.getItems()) {
-            rscs[i++] = new DexResource(this, classDefItem);
+    /**
+     * Returns the pool the methods of odex classes of this context are
+     * deodexed on, shared by all classes so that reading classes on several
+     * resolver threads does not start a pool per class. It has as many
+     * threads as the resolver, which end when they have been idle for a while.
+     * @return the pool
+     */
+    public synchronized ExecutorService getDeodexPool() {
+        if (m_deodexPool == null) {
+            int threads = Settings.getResolverThreads();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                    DEODEX_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Deodexer " + m_file.getName());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            m_deodexPool = pool;
         }
+        return m_deodexPool;
+    }
 
-        return rscs;
+    private static boolean isZipFile(File file) throws IOException {
+        byte[] magic = FileUtils.readFile(file, 0, 2);
+        return magic[0] == 0x50 && magic[1] == 0x4B;
+    }
+
+    private static DexFile[] readDexFiles(final File file, String[] names) throws IOException {
+        if (names == null) {
+            return new DexFile[] { new DexFile(file, true, false, true) };
+        }
+        if (names.length == 1) {
+            return new DexFile[] { new DexFile(file, names[0], true, false, true) };
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(names.length, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<DexFile>> futures = new ArrayList<Future<DexFile>>();
+            for (final String name : names) {
+                futures.add(executor.submit(new Callable<DexFile>() {
+                    @Override
+                    public DexFile call() throws IOException {
+                        return new DexFile(file, name, true, false, true);
+                    }
+                }));
+            }
+            DexFile[] dexes = new DexFile[names.length];
+            for (int i = 0; i < dexes.length; i++) {
+                try {
+                    dexes[i] = futures.get(i).get();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Interrupted while reading " + names[i] + " of " + file);
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+            return dexes;
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     @Override
@@ -107,14 +287,17 @@ public class ApkClassContext extends AbstractClassContext {
         return m_file;
     }
 
+    /**
+     * Returns the main dex file, classes.dex for an apk. Use getDexFiles or
+     * the dex file of a class for multi-dex apks.
+     * @return the main dex file, or null if it cannot be read
+     */
     public DexFile getDex() {
         try {
-            if (m_dex == null) {
-                m_dex = new DexFile(getFile());
-            }
+            return getDexFiles()[0];
         } catch (IOException ioe) {
         }
-        return m_dex;
+        return null;
     }
 
 }
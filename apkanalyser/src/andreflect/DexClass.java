@@ -66,11 +66,12 @@ public class DexClass extends MEClass {
             String classname = Util.getClassName(m_item.getSuperclass());
             try
             {
-                m_superClass = getResource().getContext().getMEClass(classname);
+                m_superClass = getResource().getContext().findMEClass(classname);
             } catch (IOException e)
             {
                 throw new RuntimeException(e);
-            } catch (ClassNotFoundException e)
+            }
+            if (m_superClass == null)
             {
                 m_superClass = new UnknownClass(classname, getResource());
             }
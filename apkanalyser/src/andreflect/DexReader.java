@@ -18,12 +18,15 @@
 
 package andreflect;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import mereflect.CollaborateClassContext;
 import mereflect.MEClass;
 import mereflect.MEClassContext;
 import mereflect.MEMethod;
@@ -36,6 +39,7 @@ import org.jf.dexlib.AnnotationItem;
 import org.jf.dexlib.AnnotationSetItem;
 import org.jf.dexlib.ClassDataItem;
 import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.DexFile;
 import org.jf.dexlib.EncodedArrayItem;
 import org.jf.dexlib.FieldIdItem;
 import org.jf.dexlib.Item;
@@ -47,8 +51,6 @@ import org.jf.dexlib.Code.Instruction;
 import org.jf.dexlib.Code.InstructionWithReference;
 import org.jf.dexlib.Code.Analysis.AnalyzedInstruction;
 import org.jf.dexlib.Code.Analysis.ClassPath;
-import org.jf.dexlib.Code.Analysis.ClassPath.ClassDef;
-import org.jf.dexlib.Code.Analysis.ClassPath.PrimitiveClassDef;
 import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
 import org.jf.dexlib.Code.Format.ArrayDataPseudoInstruction;
 import org.jf.dexlib.Code.Format.Instruction21c;
@@ -72,7 +74,7 @@ import org.jf.dexlib.EncodedValue.ValueType;
 import org.jf.dexlib.Util.AccessFlags;
 import org.jf.dexlib.Util.ExceptionWithContext;
 
-import analyser.gui.MainFrame;
+import analyser.gui.Settings;
 import andreflect.definition.DexClassDefinition;
 
 public final class DexReader {
@@ -156,19 +158,33 @@ public final class DexReader {
             int methodIdx = 0;
 
             ClassDataItem.EncodedMethod[] directMethods = classDataItem.getDirectMethods();
+            ClassDataItem.EncodedMethod[] virtualMethods = classDataItem.getVirtualMethods();
+
+            DeodexedMethod[] deodexed = null;
+            if (isodex && classResource.getContext().isMidlet()) {
+                ClassDataItem.EncodedMethod[] allMethods = new ClassDataItem.EncodedMethod[mLen];
+                for (int i = 0; i < directMethodLen; i++) {
+                    allMethods[i] = directMethods[i];
+                }
+                for (int i = 0; i < virtualMethodLen; i++) {
+                    allMethods[directMethodLen + i] = virtualMethods[i];
+                }
+                ApkClassContext ctx = (ApkClassContext) classResource.getContext();
+                deodexed = deodexMethods(getClassPath(c), allMethods, ctx.getDeodexPool(), Settings.getResolverThreads());
+            }
+
             for (int i = 0; i < directMethodLen; i++)
             {
                 ClassDataItem.EncodedMethod method = directMethods[i];
-                methods[methodIdx] = readMethodInfo(c, method, isodex);
+                methods[methodIdx] = readMethodInfo(c, method, deodexed != null ? deodexed[methodIdx] : null);
                 //System.out.println("[DexClassReader] method direct:"+ methods[methodIdx].getName());
                 methodIdx++;
             }
 
-            ClassDataItem.EncodedMethod[] virtualMethods = classDataItem.getVirtualMethods();
             for (int i = 0; i < virtualMethodLen; i++)
             {
                 ClassDataItem.EncodedMethod method = virtualMethods[i];
-                methods[methodIdx] = readMethodInfo(c, method, isodex);
+                methods[methodIdx] = readMethodInfo(c, method, deodexed != null ? deodexed[methodIdx] : null);
                 //System.out.println("[DexClassReader] method virtual:"+ methods[methodIdx].getName());
                 methodIdx++;
             }
@@ -239,7 +255,15 @@ public final class DexReader {
         return res;
     }
 
-    protected static DexMethod readMethodInfo(DexClass clazz, ClassDataItem.EncodedMethod method, boolean isodex)
+    /**
+     * Reads given method of given class
+     * @param clazz the class of the method
+     * @param method the method
+     * @param deodexed the result of deodexing the method, or null if the
+     *        method is not odexed
+     * @return the method
+     */
+    protected static DexMethod readMethodInfo(DexClass clazz, ClassDataItem.EncodedMethod method, DeodexedMethod deodexed)
     {
         DexMethod res = null;
         res = new DexMethod(clazz, method);
@@ -275,20 +299,19 @@ public final class DexReader {
                 Instruction[] instructions = method.codeItem.getInstructions();
                 int currentCodeAddress = 0;
 
-                List<AnalyzedInstruction> analysedInstructions = null;
-                if (isodex) {
-                    prepareClassPath(clazz);
-                    //TODO: do not support customlized inline table now, could be read from device later.
-                    MethodAnalyzer methodAnalyser = new MethodAnalyzer(method, isodex, null);
-                    methodAnalyser.analyze();
-                    analysedInstructions = methodAnalyser.getInstructions();
+                Instruction[] deodexedInstructions = null;
+                if (deodexed != null) {
+                    if (deodexed.error != null) {
+                        throw deodexed.error;
+                    }
+                    deodexedInstructions = deodexed.instructions;
                 }
 
                 for (int i = 0; i < instructions.length; i++) {
                     Instruction instruction = instructions[i];
                     instruction.codeAddress = currentCodeAddress;
                     instruction.line = -1;
-                    instruction.deodexedInstruction = analysedInstructions != null ? analysedInstructions.get(i).getInstruction() : instruction;
+                    instruction.deodexedInstruction = deodexedInstructions != null ? deodexedInstructions[i] : instruction;
 
                     //add pc
                     currentCodeAddress += instruction.getSize(currentCodeAddress);
@@ -567,59 +590,153 @@ public final class DexReader {
         return res;
     }
 
-    public static void prepareClassPath(DexClass clazz) {
+    /**
+     * Analyzes given odex method and returns its deodexed instructions
+     * @param classPath the class path of the method's context
+     * @param method the method
+     * @return the deodexed instruction for each instruction of the method
+     */
+    protected static Instruction[] deodexMethod(ClassPath classPath, ClassDataItem.EncodedMethod method) {
+        //TODO: do not support customlized inline table now, could be read from device later.
+        MethodAnalyzer methodAnalyser = new MethodAnalyzer(classPath, method, true, null);
+        methodAnalyser.analyze();
+        List<AnalyzedInstruction> analysedInstructions = methodAnalyser.getInstructions();
+        Instruction[] deodexedInstructions = new Instruction[analysedInstructions.size()];
+        for (int i = 0; i < deodexedInstructions.length; i++) {
+            deodexedInstructions[i] = analysedInstructions.get(i).getInstruction();
+        }
+        return deodexedInstructions;
+    }
 
-        ApkClassContext thisContext = (ApkClassContext) ((clazz.getResource().getContext()));
-        if (ClassPath.theClassPath == null
-                || ClassPath.dexFile != thisContext.getDex()) {
-            System.out.println("[DexClassReader] Classpath reset for " + thisContext.getFile().getPath());
-            ClassPath.theClassPath = null;
-            ClassPath.theClassPath = new ClassPath();
-            ClassPath.theClassPath.tempClasses = new LinkedHashMap<String, ClassPath.TempClassInfo>();
-
-            CollaborateClassContext ctx = MainFrame.getInstance().getResolver().getReferenceContext();
-            MEClassContext[] contexts = ctx.getContexts();
-            for (MEClassContext context : contexts) {
-                if (context instanceof ApkClassContext) {
-                    ApkClassContext apkContext = (ApkClassContext) context;
-                    ClassPath.theClassPath.loadDexFile(apkContext.getFile().getPath(), apkContext.getDex());
-                }
+    /**
+     * The result of deodexing a method, either its deodexed instructions or
+     * the error that occurred while analyzing it.
+     */
+    protected static final class DeodexedMethod {
+        Instruction[] instructions;
+        RuntimeException error;
+    }
+
+    /** Classes with fewer methods with code are deodexed on the reading thread */
+    private static final int PARALLEL_DEODEX_METHODS = 8;
+
+    /**
+     * Analyzes the methods of an odex class. Classes with many methods with
+     * code are analyzed by given number of tasks on the deodex pool of the
+     * class' context, which take the next method from a shared index so a
+     * few large methods do not leave the other threads idle. The pool is
+     * shared by all classes of the context, so reading classes from several
+     * resolver threads does not multiply the number of threads.
+     * @param classPath the class path of the class' context
+     * @param methods the methods of the class
+     * @param pool the pool to analyze on
+     * @param threads the maximum number of tasks to analyze on
+     * @return the result of each method, null for methods without code
+     */
+    protected static DeodexedMethod[] deodexMethods(final ClassPath classPath,
+            final ClassDataItem.EncodedMethod[] methods, ExecutorService pool, int threads) {
+        final DeodexedMethod[] deodexed = new DeodexedMethod[methods.length];
+        int codeMethods = 0;
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].codeItem != null) {
+                deodexed[i] = new DeodexedMethod();
+                codeMethods++;
             }
-            ClassPath.theClassPath.loadDexFile(thisContext.getFile().getPath(), thisContext.getDex());
+        }
 
-            if (ClassPath.theClassPath.tempClasses.containsKey("Ljava/lang/Object;")) {
-                ClassDef classDef = null;
-                try {
-                    classDef = ClassPath.loadClassDef("Ljava/lang/Object;");
-                    assert classDef != null;
-                } catch (Exception ex) {
-                    throw ExceptionWithContext.withContext(ex,
-                            "Can not load java/lang/object");
-                }
-                ClassPath.theClassPath.javaLangObjectClassDef = classDef;
-            } else {
-                throw new RuntimeException("Can not find java/lang/object");
+        threads = Math.max(1, Math.min(threads, codeMethods));
+        if (threads == 1 || codeMethods < PARALLEL_DEODEX_METHODS) {
+            for (int i = 0; i < methods.length; i++) {
+                deodexMethod(classPath, methods[i], deodexed[i]);
             }
+            return deodexed;
+        }
 
-            for (String classType : ClassPath.theClassPath.tempClasses.keySet()) {
-                ClassDef classDef = null;
+        final AtomicInteger nextMethod = new AtomicInteger(0);
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int iM;
+                        while ((iM = nextMethod.getAndIncrement()) < methods.length) {
+                            deodexMethod(classPath, methods[iM], deodexed[iM]);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
                 try {
-                    classDef = ClassPath.loadClassDef(classType);
-                    assert classDef != null;
-                } catch (Exception ex) {
-                    throw ExceptionWithContext.withContext(ex,
-                            String.format("Error while loading ClassPath class %s", classType));
+                    worker.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
                 }
             }
-
-            for (String primitiveType : new String[] { "Z", "B", "S", "C", "I", "J", "F", "D" }) {
-                ClassDef classDef = new PrimitiveClassDef(primitiveType);
-                ClassPath.theClassPath.classDefs.put(primitiveType, classDef);
+        } finally {
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
             }
+        }
+        return deodexed;
+    }
+
+    private static void deodexMethod(ClassPath classPath, ClassDataItem.EncodedMethod method, DeodexedMethod res) {
+        if (res == null) {
+            return;
+        }
+        try {
+            res.instructions = deodexMethod(classPath, method);
+        } catch (RuntimeException e) {
+            // rethrown when the method is read, as if it was analyzed there
+            res.error = e;
+        }
+    }
 
-            ClassPath.theClassPath.tempClasses = null;
+    private static void addDexFiles(ApkClassContext apkContext, List<String> paths, List<DexFile> dexFiles) {
+        String path = apkContext.getFile().getPath();
+        try {
+            for (DexFile dexFile : apkContext.getDexFiles()) {
+                paths.add(path);
+                dexFiles.add(dexFile);
+            }
+        } catch (IOException ioe) {
+            throw ExceptionWithContext.withContext(ioe, "Can not read dex files of " + path);
+        }
+    }
 
-            ClassPath.dexFile = thisContext.getDex();
+    /**
+     * Returns the class path for analyzing and deodexing the methods of given
+     * class, made of the dex files of the reference contexts followed by the
+     * dex files of the class' own context. The class path is built once per
+     * context and reused as long as the reference contexts do not change.
+     * The reference contexts are the ones the class' context was resolved
+     * against, see {@link ApkClassContext#setReferenceContext(MEClassContext)}.
+     * @param clazz the class
+     * @return the class path, safe for concurrent use
+     */
+    public static ClassPath getClassPath(DexClass clazz) {
+        ApkClassContext thisContext = (ApkClassContext) ((clazz.getResource().getContext()));
+        List<String> paths = new ArrayList<String>();
+        List<DexFile> dexFiles = new ArrayList<DexFile>();
+
+        MEClassContext ctx = thisContext.getReferenceContext();
+        MEClassContext[] contexts = ctx == null ? new MEClassContext[0] : ctx.getContexts();
+        for (MEClassContext context : contexts) {
+            if (context instanceof ApkClassContext) {
+                addDexFiles((ApkClassContext) context, paths, dexFiles);
+            }
         }
+        addDexFiles(thisContext, paths, dexFiles);
+
+        return thisContext.getClassPath(paths.toArray(new String[paths.size()]),
+                dexFiles.toArray(new DexFile[dexFiles.size()]));
     }
 }
@@ -18,13 +18,14 @@
 
 package andreflect;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.zip.ZipEntry;
@@ -37,6 +38,7 @@ import mereflect.MEField;
 import org.jf.dexlib.FieldIdItem;
 import org.jf.dexlib.Code.Instruction;
 
+import analyser.gui.Settings;
 import andreflect.xml.XmlResAttrDecoder;
 import brut.androlib.AndrolibException;
 import brut.androlib.res.data.ResID;
@@ -57,6 +59,7 @@ import brut.androlib.res.data.value.ResStyleValue;
 import brut.androlib.res.data.value.ResValue;
 import brut.androlib.res.decoder.ARSCDecoder;
 import brut.util.Duo;
+import util.IntMultiMap;
 
 public class DexReferenceCache {
     public static class LoadConst {
@@ -145,6 +148,7 @@ public class DexReferenceCache {
     }
 
     public static final String RESOURCE = "resources.arsc";
+    private static final String CACHE_KIND = "arsc";
 
     private ResTable m_resTable = null;
 
@@ -153,11 +157,11 @@ public class DexReferenceCache {
 
     private final HashMap<ResResSpec, DexResSpec> m_specMap = new HashMap<ResResSpec, DexResSpec>();
 
-    private final HashMap<Integer, HashSet<ResResSpec>> m_internalSpecsRef = new HashMap<Integer, HashSet<ResResSpec>>();
-    private final HashMap<Integer, HashSet<ResResSpec>> m_externalSpecsRef = new HashMap<Integer, HashSet<ResResSpec>>();
+    private final IntMultiMap<ResResSpec> m_internalSpecsRef = new IntMultiMap<ResResSpec>();
+    private final IntMultiMap<ResResSpec> m_externalSpecsRef = new IntMultiMap<ResResSpec>();
 
-    private final HashMap<Integer, ArrayList<LoadConstRes>> m_internalCodeRef = new HashMap<Integer, ArrayList<LoadConstRes>>();
-    private final HashMap<Integer, ArrayList<LoadConstRes>> m_externalCodeRef = new HashMap<Integer, ArrayList<LoadConstRes>>();
+    private final IntMultiMap<LoadConstRes> m_internalCodeRef = new IntMultiMap<LoadConstRes>();
+    private final IntMultiMap<LoadConstRes> m_externalCodeRef = new IntMultiMap<LoadConstRes>();
 
     private final HashMap<String, ArrayList<LoadConstString>> m_constStringRef = new HashMap<String, ArrayList<LoadConstString>>();
 
@@ -212,71 +216,45 @@ public class DexReferenceCache {
     }
 
     // below only for apk
-    public HashSet<ResResSpec> findResInternalRefenence(int resId) {
-        if (m_internalSpecsRef.containsKey(resId)) {
-            return m_internalSpecsRef.get(resId);
-        } else {
-            return new HashSet<ResResSpec>();
-        }
+    public List<ResResSpec> findResInternalRefenence(int resId) {
+        return m_internalSpecsRef.get(resId);
     }
 
-    public HashSet<ResResSpec> findResExternalRefenence(int resId) {
-        if (m_externalSpecsRef.containsKey(resId)) {
-            return m_externalSpecsRef.get(resId);
-        } else {
-            return new HashSet<ResResSpec>();
-        }
+    public List<ResResSpec> findResExternalRefenence(int resId) {
+        return m_externalSpecsRef.get(resId);
     }
 
-    public Set<Integer> listResExternalReference() {
-        return m_externalSpecsRef.keySet();
+    public int[] listResExternalReference() {
+        return m_externalSpecsRef.keys();
     }
 
     public HashSet<ResResSpec> findResAndroidSystemReference() {
         HashSet<ResResSpec> result = new HashSet<ResResSpec>();
-        Iterator<Integer> i = m_externalSpecsRef.keySet().iterator();
-        while (i.hasNext()) {
-            int id = i.next();
+        for (int id : m_externalSpecsRef.keys()) {
             if (new ResID(id).package_ == XmlResAttrDecoder.ANDROID_PACKAGE_ID) {
-                HashSet<ResResSpec> specs = m_externalSpecsRef.get(id);
-                for (ResResSpec spec : specs) {
-                    result.add(spec);
-                }
+                result.addAll(m_externalSpecsRef.get(id));
             }
         }
         return result;
     }
 
-    public ArrayList<LoadConstRes> findCodeInternalRefenence(int resId) {
-        if (m_internalCodeRef.containsKey(resId)) {
-            return m_internalCodeRef.get(resId);
-        } else {
-            return new ArrayList<LoadConstRes>();
-        }
+    public List<LoadConstRes> findCodeInternalRefenence(int resId) {
+        return m_internalCodeRef.get(resId);
     }
 
-    public ArrayList<LoadConstRes> findCodeExternalRefenence(int resId) {
-        if (m_externalCodeRef.containsKey(resId)) {
-            return m_externalCodeRef.get(resId);
-        } else {
-            return new ArrayList<LoadConstRes>();
-        }
+    public List<LoadConstRes> findCodeExternalRefenence(int resId) {
+        return m_externalCodeRef.get(resId);
     }
 
-    public Set<Integer> listCodeExternalReference() {
-        return m_externalCodeRef.keySet();
+    public int[] listCodeExternalReference() {
+        return m_externalCodeRef.keys();
     }
 
     public ArrayList<LoadConstRes> findCodeAndroidSystemReference() {
         ArrayList<LoadConstRes> result = new ArrayList<LoadConstRes>();
-        Iterator<Integer> i = m_externalCodeRef.keySet().iterator();
-        while (i.hasNext()) {
-            int id = i.next();
+        for (int id : m_externalCodeRef.keys()) {
             if (new ResID(id).package_ == XmlResAttrDecoder.ANDROID_PACKAGE_ID) {
-                ArrayList<LoadConstRes> loadConsts = m_externalCodeRef.get(id);
-                for (LoadConstRes loadConst : loadConsts) {
-                    result.add(loadConst);
-                }
+                result.addAll(m_externalCodeRef.get(id));
             }
         }
         return result;
@@ -310,19 +288,20 @@ public class DexReferenceCache {
             return;
         }
 
-        ResID resId = new ResID(loadConst.resId);
-        HashMap<Integer, ArrayList<LoadConstRes>> cache;
-        if (getSpec(resId.id) != null) {
-            cache = m_internalCodeRef;
+        if (getSpec(loadConst.resId) != null) {
+            m_internalCodeRef.add(loadConst.resId, loadConst);
         } else {
-            cache = m_externalCodeRef;
+            m_externalCodeRef.add(loadConst.resId, loadConst);
         }
+    }
 
-        if (cache.get(loadConst.resId) == null) {
-            ArrayList<LoadConstRes> specs = new ArrayList<LoadConstRes>();
-            cache.put(loadConst.resId, specs);
-        }
-        cache.get(loadConst.resId).add(loadConst);
+    /**
+     * Shrinks the storage of the code references to the resources, call when
+     * all classes of the apk have been read
+     */
+    public void trimCodeReferences() {
+        m_internalCodeRef.trimToSize();
+        m_externalCodeRef.trimToSize();
     }
 
     public ArrayList<FieldAccess> getFieldAccesses() {
@@ -346,12 +325,11 @@ public class DexReferenceCache {
     }
 
     private void initResourceTable() {
-        InputStream is = getResourceInputStream();
-        if (is != null)
-        {
-            try {
-                ResTable resTable = new ResTable(null);
-                ResPackage[] pkgs = ARSCDecoder.decode(is, false, true, resTable).getPackages();
+        ResTable resTable = new ResTable(null);
+        try {
+            ResPackage[] pkgs = decodeResourceTable(resTable);
+            if (pkgs != null)
+            {
                 if (pkgs.length != 1) {
                     System.out.println("System resource package (package length > 1) from " + m_file.getName());
                     for (int i = 0; i < pkgs.length; i++) {
@@ -370,10 +348,42 @@ public class DexReferenceCache {
                         putDexSpec(spec, null);
                     }
                 }
+            }
+        } catch (AndrolibException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decodes the resource table of the file. A snapshot of the decoded
+     * table is kept in the analysis cache, so that framework files on the
+     * classpath are not decoded again on each start.
+     * @param resTable the table to decode the packages for
+     * @return the packages, or null if the file has no resource table
+     */
+    private ResPackage[] decodeResourceTable(ResTable resTable) throws AndrolibException {
+        DataInputStream in = AnalysisCache.read(m_file, CACHE_KIND);
+        if (in != null) {
+            try {
+                return ARSCDecoder.decodeSnapshot(in, true, resTable).getPackages();
             } catch (AndrolibException e) {
-                e.printStackTrace();
+                System.out.println("[DexReferenceCache] ignoring cached resource table of " + m_file.getName() + ": " + e);
+            } finally {
+                AnalysisCache.close(in);
             }
         }
+
+        InputStream is = getResourceInputStream();
+        if (is == null) {
+            return null;
+        }
+        if (!Settings.getUseAnalysisCache()) {
+            return ARSCDecoder.decode(is, false, true, resTable).getPackages();
+        }
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        ResPackage[] pkgs = ARSCDecoder.decode(is, false, true, resTable, snapshot).getPackages();
+        AnalysisCache.store(m_file, CACHE_KIND, snapshot.toByteArray());
+        return pkgs;
     }
 
     private InputStream getResourceInputStream() {
@@ -395,19 +405,12 @@ public class DexReferenceCache {
         if (resValue != null
                 && resValue instanceof ResReferenceValue) {
             int value = ((ResReferenceValue) resValue).getValue();
-            ResID resId = new ResID(value);
-            HashMap<Integer, HashSet<ResResSpec>> cache;
-            if (getSpec(resId.id) != null) {
-                cache = m_internalSpecsRef;
+            // the values of a spec are visited together, so a duplicate is found at once
+            if (getSpec(value) != null) {
+                m_internalSpecsRef.addUnique(value, resSpec);
             } else {
-                cache = m_externalSpecsRef;
-            }
-
-            if (cache.get(value) == null) {
-                HashSet<ResResSpec> specs = new HashSet<ResResSpec>();
-                cache.put(value, specs);
+                m_externalSpecsRef.addUnique(value, resSpec);
             }
-            cache.get(value).add(resSpec);
         }
     }
 
@@ -456,6 +459,8 @@ public class DexReferenceCache {
                 }
             }
         }
+        m_internalSpecsRef.trimToSize();
+        m_externalSpecsRef.trimToSize();
     }
 
 }
@@ -18,10 +18,8 @@
 
 package andreflect;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 import andreflect.xml.XmlParser;
 import andreflect.xml.XmlParser.XmlLine;
@@ -31,9 +29,9 @@ public class DexResSpec {
 
     private final ResResSpec m_spec;
 
-    private final HashSet<ResResSpec> m_referenceSpec;
-    private final ArrayList<XmlParser.XmlLine> m_referenceXml;
-    private final ArrayList<DexReferenceCache.LoadConstRes> m_referenceCode;
+    private final Collection<ResResSpec> m_referenceSpec;
+    private final List<XmlParser.XmlLine> m_referenceXml;
+    private final List<DexReferenceCache.LoadConstRes> m_referenceCode;
 
     public static final int ISSUE_MISSING_RESOURCE = 8;
     public static final int ISSUE_NO_DEFAULT = 4;
@@ -50,7 +48,7 @@ public class DexResSpec {
         m_referenceCode = null;
     }
 
-    public DexResSpec(ResResSpec spec, HashSet<ResResSpec> referenceSpec, ArrayList<XmlLine> referenceXml, ArrayList<DexReferenceCache.LoadConstRes> referenceCode) {
+    public DexResSpec(ResResSpec spec, Collection<ResResSpec> referenceSpec, List<XmlLine> referenceXml, List<DexReferenceCache.LoadConstRes> referenceCode) {
         m_spec = spec;
         m_referenceSpec = referenceSpec;
         m_referenceXml = referenceXml;
@@ -107,7 +105,7 @@ public class DexResSpec {
         return loadConst.toString();
     }
 
-    public Set<ResResSpec> getResReference() {
+    public Collection<ResResSpec> getResReference() {
         return m_referenceSpec;
     }
 
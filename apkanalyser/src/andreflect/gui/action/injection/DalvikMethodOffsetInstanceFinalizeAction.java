@@ -42,7 +42,6 @@ import analyser.gui.actions.bytecodemod.AbstractTreeBytecodeModAction;
 import analyser.logic.BytecodeModificationMediator;
 import analyser.logic.RefClass;
 import analyser.logic.Reference;
-import andreflect.ApkClassContext;
 import andreflect.DexClass;
 import andreflect.DexMethod;
 import andreflect.injection.ItemCreator;
@@ -165,7 +164,7 @@ public class DalvikMethodOffsetInstanceFinalizeAction extends AbstractTreeByteco
             }
         }
 
-        ItemCreator ic = new ItemCreator(((ApkClassContext) (dexClass.getResource().getContext())).getDex());
+        ItemCreator ic = new ItemCreator(classDefItem.getDexFile());
 
         MethodIdItem finalizeMethodIdItem = ic.addMethodIdItem(classDefItem.getClassType().getTypeDescriptor(),
                 "V", new String[0], "finalize");
@@ -19,6 +19,7 @@
 package andreflect.gui.linebuilder;
 
 import java.io.IOException;
+import java.util.Map;
 
 import mereflect.CorruptBytecodeException;
 
@@ -31,26 +32,25 @@ import org.jf.dexlib.Code.Analysis.SyntheticAccessorResolver;
 
 import analyser.gui.LineBuilder;
 import analyser.gui.LineBuilderFormatter;
-import andreflect.ApkClassContext;
 import andreflect.DexClass;
 import andreflect.DexMethod;
 import andreflect.DexReader;
 import andreflect.definition.DexClassDefinition;
+import andreflect.trace.TraceCorrelator;
+import andreflect.trace.TraceStats;
 
 public class DalvikByteCodeLineBuilder extends LineBuilderFormatter {
     public static LineBuilder getByteCodeAssembler(DexMethod method, String prefix)
             throws CorruptBytecodeException {
-        ApkClassContext apkContext = (ApkClassContext) method.getMEClass().getResource().getContext();
-        DexFile dexFile = apkContext.getDex();
+        DexClass dexClass = (DexClass) method.getMEClass();
+        DexFile dexFile = dexClass.getClassDefItem().getDexFile();
         if (baksmali.syntheticAccessorResolver == null
                 || baksmali.syntheticAccessorResolver.dexFile != dexFile) {
             baksmali.syntheticAccessorResolver = new SyntheticAccessorResolver(dexFile);
         }
 
-        DexClass dexClass = (DexClass) method.getMEClass();
-
         if (dexFile.isOdex()) {
-            DexReader.prepareClassPath(dexClass);
+            baksmali.classPath = DexReader.getClassPath(dexClass);
             //set baksmali.deodex according to ui settings for decoding this method.
             baksmali.deodex = true;
         }
@@ -68,9 +68,32 @@ public class DalvikByteCodeLineBuilder extends LineBuilderFormatter {
         } catch (IOException e) {
             throw new CorruptBytecodeException();
         }
+        appendTraceStats(lb, method);
         return lb;
     }
 
+    /**
+     * Appends the trace statistics of the injected log statements to the
+     * lines of their code addresses
+     */
+    private static void appendTraceStats(LineBuilder lb, DexMethod method) {
+        Map<Integer, TraceStats> stats = TraceCorrelator.getInstance().getPointStats(method);
+        if (stats.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < lb.lineCount(); i++) {
+            Object ref = lb.getReference(i);
+            if (ref instanceof DalvikBytecodeOffset) {
+                TraceStats s = stats.get(((DalvikBytecodeOffset) ref).pc);
+                if (s != null) {
+                    lb.gotoLine(i);
+                    lb.append("    // trace: " + s.getSummary(), COLOR_COMMENT);
+                }
+            }
+        }
+        lb.gotoLastLine();
+    }
+
     public static class DalvikBytecodeOffset extends Identifier {
         public final int line;
         public final int pc;
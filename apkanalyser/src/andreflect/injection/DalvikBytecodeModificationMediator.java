@@ -18,17 +18,16 @@
 
 package andreflect.injection;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
@@ -56,7 +55,6 @@ import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
 import org.jf.dexlib.Util.ByteArrayInput;
 import org.jf.dexlib.Util.SparseIntArray;
 
-import util.JarFileModifier;
 import analyser.gui.ProgressReporter;
 import analyser.logic.BytecodeModificationMediator;
 import andreflect.ApkClassContext;
@@ -78,6 +76,7 @@ public class DalvikBytecodeModificationMediator {
 
             // perform bytecode modifications
             modifyClasses(pr, ctx, classInjectionsInContext);
+            ctx.invalidateInvokationIndex();
 
             // create modification spec
             final ByteArrayOutputStream modSpecOut = new ByteArrayOutputStream();
@@ -89,18 +88,26 @@ public class DalvikBytecodeModificationMediator {
                         new PrintStream(modSpecOut));
             } // per class
 
+            // the dex files with modified classes are written back, other dex files of a multi-dex apk are kept
+            final Map<String, DexFile> modifiedDexFiles = new LinkedHashMap<String, DexFile>();
+            classI = classInjectionsInContext.keySet().iterator();
+            while (classI.hasNext()) {
+                DexFile dexFile = ((DexClass) classI.next()).getClassDefItem().getDexFile();
+                String entryName = ctx.getDexEntryName(dexFile);
+                modifiedDexFiles.put(entryName == null ? DEX_FILENAME : entryName, dexFile);
+            }
+
             ZipFile zipFile = new ZipFile(ctx.getFile().getAbsolutePath());
 
-            final List<String> newEntries = new ArrayList<String>();
-            newEntries.add(DEX_FILENAME);
-            if (zipFile.getEntry(MOD_LIST_FILENAME) == null) {
-                newEntries.add(MOD_LIST_FILENAME);
+            // only the modified dex files and the modification list are compressed, other entries are copied as they are
+            final Map<String, byte[]> newEntries = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, DexFile> dexEntry : modifiedDexFiles.entrySet()) {
+                newEntries.put(dexEntry.getKey(), getAsByteArray(dexEntry.getValue()));
             }
-
-            final List<String> excludeEntries = new ArrayList<String>();
-            excludeEntries.add(DEX_FILENAME);
+            newEntries.put(MOD_LIST_FILENAME, modSpecOut.toByteArray());
 
             // remove META-INF folder and all its contents
+            final List<String> excludeEntries = new ArrayList<String>();
             Enumeration<? extends ZipEntry> e = zipFile.entries();
             while (e.hasMoreElements()) {
                 ZipEntry entry = e.nextElement();
@@ -110,31 +117,9 @@ public class DalvikBytecodeModificationMediator {
                     }
                 }
             }
+            zipFile.close();
 
-            JarFileModifier jfModder = new JarFileModifier(zipFile) {
-                @Override
-                public List<String> excludeEntries() {
-                    return excludeEntries;
-                }
-
-                @Override
-                public List<String> newEntries() {
-                    return newEntries;
-                }
-
-                @Override
-                public InputStream getNewEntry(String entryName, boolean modified) {
-                    if (entryName.equals(MOD_LIST_FILENAME)) {
-                        return new ByteArrayInputStream(modSpecOut.toByteArray());
-                    } else if (entryName.equals(DEX_FILENAME)) {
-                        return new ByteArrayInputStream(getAsByteArray(ctx.getDex()));
-                    }
-                    return null;
-                }
-            };
-
-            File out = jfModder.createModifiedJar();
-            File outSigned = new File(new ApkSign().sign(out));
+            File outSigned = new ApkSign().sign(ctx.getFile(), newEntries, excludeEntries);
 
             //      try{
             //        DexFile dex1 = new DexFile(outSigned);
@@ -151,24 +136,49 @@ public class DalvikBytecodeModificationMediator {
 
     public static byte[] getAsByteArray(DexFile dexFile)
     {
-        dexFile.place();
-        CodeItem codeitem;
-        for (Iterator<?> iterator = dexFile.CodeItemsSection.getItems().iterator(); iterator.hasNext(); codeitem.fixInstructions(true, true)) {
-            codeitem = (CodeItem) iterator.next();
+        if (needsJumboFix(dexFile)) {
+            // item indices are only known after placing, and may have moved past 0xffff in any method
+            dexFile.place();
+            boolean resized = false;
+            for (CodeItem codeItem : dexFile.CodeItemsSection.getItems()) {
+                resized |= codeItem.fixInstructions(true, true);
+            }
+            if (resized) {
+                dexFile.place();
+            }
+        } else {
+            // only injected code can have gotos out of range, unmodified methods are written as they are
+            for (CodeItem codeItem : dexFile.CodeItemsSection.getItems()) {
+                if (codeItem.hasModifiedInstructions()) {
+                    codeItem.fixInstructions(false, true);
+                }
+            }
+            dexFile.place();
         }
 
-        dexFile.place();
-        ByteArrayAnnotatedOutput bytearrayannotatedoutput = new ByteArrayAnnotatedOutput();
+        ByteArrayAnnotatedOutput bytearrayannotatedoutput = new ByteArrayAnnotatedOutput(new byte[dexFile.getFileSize()]);
         dexFile.writeTo(bytearrayannotatedoutput);
-        byte abyte0[] = bytearrayannotatedoutput.toByteArray();
+        byte abyte0[] = bytearrayannotatedoutput.getArray();
         DexFile.calcSignature(abyte0);
         DexFile.calcChecksum(abyte0);
         return abyte0;
     }
 
+    /**
+     * Returns true if any item section of given dex file is too large to
+     * reference all its items with 16 bit indices.
+     */
+    private static boolean needsJumboFix(DexFile dexFile) {
+        return dexFile.StringIdsSection.getItems().size() > 0x10000
+                || dexFile.TypeIdsSection.getItems().size() > 0x10000
+                || dexFile.FieldIdsSection.getItems().size() > 0x10000
+                || dexFile.MethodIdsSection.getItems().size() > 0x10000;
+    }
+
     public static Map<String, byte[]> modifyClasses(ProgressReporter pr, ApkClassContext ctx,
             Map<MEClass, ClassInjContainer> classInjections) throws IOException {
-        DalvikInjectCollection injectCollection = new DalvikInjectCollection(ctx.getDex());
+        // injected items are added to the dex file of the modified class
+        Map<DexFile, DalvikInjectCollection> injectCollections = new HashMap<DexFile, DalvikInjectCollection>();
 
         // the modified bytecode per class name
         Map<String, byte[]> modClasses = new HashMap<String, byte[]>();
@@ -186,6 +196,12 @@ public class DalvikBytecodeModificationMediator {
                 pr.reportWork(ci++);
             }
             DexClass clazz = (DexClass) classI.next();
+            DexFile dexFile = clazz.getClassDefItem().getDexFile();
+            DalvikInjectCollection injectCollection = injectCollections.get(dexFile);
+            if (injectCollection == null) {
+                injectCollection = new DalvikInjectCollection(dexFile);
+                injectCollections.put(dexFile, injectCollection);
+            }
             // get modifications for class
             ClassInjContainer injContainer = classInjections.get(clazz);
             // modify
@@ -35,6 +35,7 @@ import org.jf.dexlib.Util.AccessFlags;
 
 import andreflect.DexMethod;
 import andreflect.Util;
+import andreflect.trace.TraceCorrelator;
 
 public class DalvikInjectCollection {
     InstructionCreator insCreator;
@@ -88,6 +89,8 @@ public class DalvikInjectCollection {
         insCreator.addNewInstance(instructions, stringBufferInstanceReg, DebugMethod.STRINGBUFFER_INIT.className);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_INIT, stringBufferInstanceReg, codeItem);
 
+        TraceCorrelator.getInstance().register(method, str);
+
         insCreator.addConstString(instructions, appendValueReg, str);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_APPEND_STRING, stringBufferInstanceReg, codeItem);
 
@@ -134,6 +137,8 @@ public class DalvikInjectCollection {
         insCreator.addNewInstance(instructions, stringBufferInstanceReg, DebugMethod.STRINGBUFFER_INIT.className);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_INIT, stringBufferInstanceReg, codeItem);
 
+        TraceCorrelator.getInstance().register(method, str);
+
         insCreator.addConstString(instructions, appendValueReg, str);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_APPEND_STRING, stringBufferInstanceReg, codeItem);
         insCreator.addMove(instructions, appendValueReg, register, 'L');
@@ -186,6 +191,8 @@ public class DalvikInjectCollection {
         insCreator.addNewInstance(instructions, stringBufferInstanceReg, DebugMethod.STRINGBUFFER_INIT.className);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_INIT, stringBufferInstanceReg, codeItem);
 
+        TraceCorrelator.getInstance().register(method, str);
+
         insCreator.addConstString(instructions, appendValueReg, str + " = ");
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_APPEND_STRING, stringBufferInstanceReg, codeItem);
         insCreator.addMove(instructions, appendValueReg, register, shortDesc.charAt(0));
@@ -221,6 +228,7 @@ public class DalvikInjectCollection {
         reg += alter;
 
         insCreator.addConstString(instructions, logTagReg, APK_TAG);
+        TraceCorrelator.getInstance().register(method, str);
         insCreator.addConstString(instructions, logTextReg, str);
         insCreator.addInvoke(instructions, DebugMethod.LOG, logTagReg, codeItem);
 
@@ -251,6 +259,8 @@ public class DalvikInjectCollection {
         insCreator.addNewInstance(instructions, stringBufferInstanceReg, DebugMethod.STRINGBUFFER_INIT.className);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_INIT, stringBufferInstanceReg, codeItem);
 
+        TraceCorrelator.getInstance().register(method, str);
+
         insCreator.addConstString(instructions, appendValueReg, str + " = ");
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_APPEND_STRING, stringBufferInstanceReg, codeItem);
 
@@ -296,6 +306,8 @@ public class DalvikInjectCollection {
         insCreator.addNewInstance(instructions, stringBufferInstanceReg, DebugMethod.STRINGBUFFER_INIT.className);
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_INIT, stringBufferInstanceReg, codeItem);
 
+        TraceCorrelator.getInstance().register(method, str);
+
         insCreator.addConstString(instructions, appendValueReg, str + " = ");
         insCreator.addInvoke(instructions, DebugMethod.STRINGBUFFER_APPEND_STRING, stringBufferInstanceReg, codeItem);
 
@@ -363,6 +375,7 @@ public class DalvikInjectCollection {
         }
 
         insCreator.addConstString(instructions, logTagReg, APK_TAG);
+        TraceCorrelator.getInstance().register(method, str);
         insCreator.addConstString(instructions, logTextReg, str);
         insCreator.addInvoke(instructions, DebugMethod.LOG, logTagReg, codeItem);
 
@@ -421,6 +434,7 @@ public class DalvikInjectCollection {
         reg += alter;
 
         insCreator.addConstString(instructions, logTagReg, APK_TAG);
+        TraceCorrelator.getInstance().register(method, str);
         insCreator.addConstString(instructions, logTextReg, str);
         insCreator.addInvoke(instructions, DebugMethod.LOG, logTagReg, codeItem);
 
@@ -478,6 +492,7 @@ public class DalvikInjectCollection {
         reg += alter;
 
         insCreator.addConstString(instructions, logTagReg, APK_TAG);
+        TraceCorrelator.getInstance().register(method, str);
         insCreator.addConstString(instructions, logTextReg, str);
         insCreator.addInvoke(instructions, DebugMethod.LOG, logTagReg, codeItem);
 
@@ -561,6 +576,7 @@ public class DalvikInjectCollection {
         }
 
         insCreator.addConstString(instructions, logTagReg, APK_TAG);
+        TraceCorrelator.getInstance().register(method, str);
         insCreator.addConstString(instructions, logTextReg, str);
         insCreator.addInvoke(instructions, DebugMethod.LOG, logTagReg, codeItem);
 
@@ -19,6 +19,13 @@
 package andreflect.sign;
 
 import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
 
 import com.android.signapk.SignApk;
 
@@ -30,7 +37,7 @@ public class ApkSign {
     //	Usage:
     //	java -jar signapk.jar testkey.x509.pem testkey.pk8 update.zip update_signed.zip
 
-    public String sign(File file) {
+    public String sign(File file) throws IOException, GeneralSecurityException {
         String name = file.getAbsolutePath();
         if (file.getAbsolutePath().toLowerCase().endsWith(".ap_"))
         {
@@ -41,10 +48,31 @@ public class ApkSign {
             name += "_sign.apk";
         }
 
-        String[] args = { null, null, file.getAbsolutePath(), name };
-        SignApk.main(args);
+        Map<String, byte[]> noEntries = Collections.emptyMap();
+        SignApk.signApk(file, noEntries, Collections.<String> emptyList(), new File(name));
 
         return name;
     }
 
+    /**
+     * Writes a signed, modified copy of an apk, named after the apk and
+     * the current time.
+     * @param apk the original apk
+     * @param replacedEntries data of entries to replace or add, by name
+     * @param excludedEntries names of entries to leave out
+     * @return the signed apk
+     */
+    public File sign(File apk, Map<String, byte[]> replacedEntries, Collection<String> excludedEntries)
+            throws IOException, GeneralSecurityException {
+        String name = apk.getAbsolutePath();
+        if (name.toLowerCase().endsWith(".apk")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        // SimpleDateFormat is not thread safe, and apks may be signed concurrently
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss");
+        File signed = new File(name + "_" + dateFormat.format(new Date()) + ".apk");
+        SignApk.signApk(apk, replacedEntries, excludedEntries, signed);
+        return signed;
+    }
+
 }
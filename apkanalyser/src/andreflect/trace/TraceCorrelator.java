@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect.trace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import mereflect.MEClass;
+import mereflect.MEClassContext;
+
+import andreflect.DexMethod;
+
+/**
+ * Maps log lines of injected log statements back to the methods and code
+ * addresses that logged them. The injected messages are registered when
+ * instrumenting, and logcat lines in the time format are added as they are
+ * read. Per method, class and log statement the hits are counted, method
+ * entries are paired with exits to measure durations, and other log
+ * statements measure the time since the entry of their method.
+ * <p>
+ * Entries and exits are paired per process, as the time format does not
+ * show the thread. Methods are kept by context name and signature rather
+ * than by their class model, so that the models of a removed or reloaded apk
+ * are not retained, while apks containing the same classes are kept apart.
+ * Thread safe.
+ */
+public class TraceCorrelator {
+    /** Maximum number of unmatched entries kept per method and process */
+    private static final int MAX_PENDING = 256;
+
+    static TraceCorrelator inst = null;
+
+    /** The registered log statements, by message */
+    private final Map<String, PointTrace> m_points = new HashMap<String, PointTrace>();
+    /** The instrumented methods and classes, by context name */
+    private final Map<String, ContextTrace> m_contexts = new HashMap<String, ContextTrace>();
+
+    private long m_modCount = 0;
+
+    public synchronized static TraceCorrelator getInstance() {
+        if (inst == null) {
+            inst = new TraceCorrelator();
+        }
+        return inst;
+    }
+
+    /**
+     * Registers the message of an injected log statement. Messages without
+     * a code address suffix are ignored, text after the suffix, e.g. a
+     * logged value, is not part of the registered message. A message
+     * registered for several methods is mapped to the last one. A message
+     * registered by several contexts is mapped to the last one until that
+     * context is removed.
+     * @param method the instrumented method
+     * @param message the logged message
+     */
+    public synchronized void register(DexMethod method, String message) {
+        int end = findAddressSuffix(message, message.length() - 1);
+        if (end < 0) {
+            return;
+        }
+        int open = message.lastIndexOf('(', end);
+        int comma = message.indexOf(',', open);
+        int codeAddress;
+        int line = -1;
+        if (comma < 0 || comma > end) {
+            codeAddress = Integer.parseInt(message.substring(open + 1, end), 16);
+        } else {
+            codeAddress = Integer.parseInt(message.substring(open + 1, comma), 16);
+            line = Integer.parseInt(message.substring(comma + 1, end));
+        }
+        int kind = TracePoint.KIND_POINT;
+        if (message.startsWith("> ")) {
+            kind = TracePoint.KIND_ENTRY;
+        } else if (message.startsWith("< ")) {
+            kind = TracePoint.KIND_EXIT;
+        }
+        String signature = getSignature(method);
+        TracePoint point = new TracePoint(signature, message.substring(0, end + 1), codeAddress, line, kind);
+
+        String contextName = getContextName(method.getMEClass());
+        ContextTrace contextTrace = m_contexts.get(contextName);
+        if (contextTrace == null) {
+            contextTrace = new ContextTrace();
+            m_contexts.put(contextName, contextTrace);
+        }
+        MethodTrace methodTrace = contextTrace.methods.get(signature);
+        if (methodTrace == null) {
+            String className = method.getMEClass().getName();
+            methodTrace = new MethodTrace(className, getOrCreate(contextTrace.classStats, className));
+            contextTrace.methods.put(signature, methodTrace);
+        }
+        PointTrace pointTrace = new PointTrace(point, methodTrace, contextName);
+        PointTrace old = m_points.put(point.message, pointTrace);
+        if (old != null && old.contextName.equals(contextName)) {
+            // injected again, e.g. after reloading the apk
+            old.method.points.remove(old);
+            pointTrace.stats = old.stats;
+        }
+        methodTrace.points.add(pointTrace);
+        m_modCount++;
+    }
+
+    /**
+     * Parses a logcat line in the time format, e.g.
+     * "10-18 09:52:01.123 V/APKANALYSER( 1234): > com.example.Foo:run()V(0,42)"
+     * @param line the line
+     * @return the event, with a null point if the message is not registered,
+     *         or null if the line is not a logcat line
+     */
+    public synchronized TraceEvent parse(String line) {
+        int msg = line.indexOf("): ");
+        if (msg < 0) {
+            return null;
+        }
+        int open = line.lastIndexOf('(', msg);
+        if (open < 0) {
+            return null;
+        }
+        int pid = parseInt(line, open + 1, msg);
+        long time = -1;
+        if (line.length() > 18 && line.charAt(2) == '-' && line.charAt(5) == ' '
+                && line.charAt(8) == ':' && line.charAt(11) == ':' && line.charAt(14) == '.') {
+            int month = parseInt(line, 0, 2);
+            int day = parseInt(line, 3, 5);
+            int hour = parseInt(line, 6, 8);
+            int minute = parseInt(line, 9, 11);
+            int second = parseInt(line, 12, 14);
+            int millis = parseInt(line, 15, 18);
+            if (month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0 && millis >= 0) {
+                // only differences matter, so months are taken as 31 days
+                time = (((month * 31L + day) * 24 + hour) * 60 + minute) * 60 + second;
+                time = time * 1000 + millis;
+            }
+        }
+        String message = line.substring(msg + 3);
+        PointTrace pointTrace = lookup(message);
+        return new TraceEvent(time, pid, pointTrace == null ? null : pointTrace.point, message, -1);
+    }
+
+    /**
+     * Parses and aggregates a logcat line, see parse
+     * @param line the line
+     * @return the event, with the duration set for method exits, or null
+     */
+    public synchronized TraceEvent add(String line) {
+        TraceEvent event = parse(line);
+        if (event == null || event.point == null) {
+            return event;
+        }
+        PointTrace pointTrace = m_points.get(event.point.message);
+        MethodTrace methodTrace = pointTrace.method;
+        TraceStats pointStats = pointTrace.stats;
+        TraceStats methodStats = methodTrace.stats;
+        TraceStats classStats = methodTrace.classStats;
+        pointStats.hits++;
+        methodStats.hits++;
+        classStats.hits++;
+
+        long duration = -1;
+        Pending pending = methodTrace.pending.get(event.pid);
+        switch (event.point.kind) {
+        case TracePoint.KIND_ENTRY:
+            methodStats.entries++;
+            if (pending == null) {
+                pending = new Pending();
+                methodTrace.pending.put(event.pid, pending);
+            }
+            if (pending.push(event.time)) {
+                methodStats.unmatched++;
+            }
+            break;
+        case TracePoint.KIND_EXIT:
+            methodStats.exits++;
+            if (pending != null && pending.size > 0) {
+                long entry = pending.pop();
+                if (entry >= 0 && event.time >= entry) {
+                    duration = event.time - entry;
+                    pointStats.addDuration(duration);
+                    methodStats.addDuration(duration);
+                    classStats.addDuration(duration);
+                }
+            } else {
+                methodStats.unmatched++;
+            }
+            break;
+        default:
+            if (pending != null && pending.size > 0) {
+                long entry = pending.peek();
+                if (entry >= 0 && event.time >= entry) {
+                    pointStats.addDuration(event.time - entry);
+                }
+            }
+            break;
+        }
+        m_modCount++;
+        if (duration < 0) {
+            return event;
+        }
+        return new TraceEvent(event.time, event.pid, event.point, event.message, duration);
+    }
+
+    /**
+     * Drops all statistics, the registered messages are kept
+     */
+    public synchronized void reset() {
+        for (ContextTrace contextTrace : m_contexts.values()) {
+            for (TraceStats stats : contextTrace.classStats.values()) {
+                stats.clear();
+            }
+            for (MethodTrace methodTrace : contextTrace.methods.values()) {
+                methodTrace.stats.clear();
+                methodTrace.pending.clear();
+                for (PointTrace pointTrace : methodTrace.points) {
+                    pointTrace.stats.clear();
+                }
+            }
+        }
+        m_modCount++;
+    }
+
+    /**
+     * Drops the registered messages and statistics of the methods of a
+     * context, e.g. when the apk is removed. Messages also registered by
+     * other contexts are mapped to those again.
+     * @param ctx the context
+     */
+    public synchronized void removeContext(MEClassContext ctx) {
+        String contextName = ctx.getContextName();
+        if (m_contexts.remove(contextName) == null) {
+            return;
+        }
+        Iterator<PointTrace> i = m_points.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().contextName.equals(contextName)) {
+                i.remove();
+            }
+        }
+        for (ContextTrace contextTrace : m_contexts.values()) {
+            for (MethodTrace methodTrace : contextTrace.methods.values()) {
+                for (PointTrace pointTrace : methodTrace.points) {
+                    if (!m_points.containsKey(pointTrace.point.message)) {
+                        m_points.put(pointTrace.point.message, pointTrace);
+                    }
+                }
+            }
+        }
+        m_modCount++;
+    }
+
+    /**
+     * Drops all registered messages and statistics, e.g. when all apks are
+     * analysed again
+     */
+    public synchronized void clear() {
+        m_points.clear();
+        m_contexts.clear();
+        m_modCount++;
+    }
+
+    /**
+     * Returns a number that changes whenever the statistics change
+     */
+    public synchronized long getModCount() {
+        return m_modCount;
+    }
+
+    /**
+     * Returns the statistics of a method
+     * @param method the method
+     * @return copy of the statistics, or null if the method is not instrumented
+     */
+    public synchronized TraceStats getMethodStats(DexMethod method) {
+        MethodTrace methodTrace = getMethodTrace(method);
+        return methodTrace == null ? null : methodTrace.stats.copy();
+    }
+
+    /**
+     * Returns the statistics of a class
+     * @param clazz the class
+     * @return copy of the statistics, or null if no method of the class is instrumented
+     */
+    public synchronized TraceStats getClassStats(MEClass clazz) {
+        ContextTrace contextTrace = m_contexts.get(getContextName(clazz));
+        TraceStats stats = contextTrace == null ? null : contextTrace.classStats.get(clazz.getName());
+        return stats == null ? null : stats.copy();
+    }
+
+    /**
+     * Returns the statistics of the log statements of a method by code address
+     * @param method the method
+     * @return copies of the statistics, empty if the method is not instrumented
+     */
+    public synchronized Map<Integer, TraceStats> getPointStats(DexMethod method) {
+        Map<Integer, TraceStats> result = new HashMap<Integer, TraceStats>();
+        MethodTrace methodTrace = getMethodTrace(method);
+        if (methodTrace == null) {
+            return result;
+        }
+        for (PointTrace pointTrace : methodTrace.points) {
+            TraceStats merged = result.get(pointTrace.point.codeAddress);
+            if (merged == null) {
+                result.put(pointTrace.point.codeAddress, pointTrace.stats.copy());
+            } else {
+                // several statements at one address, e.g. entry and custom log
+                merged.add(pointTrace.stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key of a method, e.g. "com.example.Foo:run()V"
+     * @param method the method
+     * @return the class name, method name and descriptor of the method
+     */
+    public static String getSignature(DexMethod method) {
+        return method.getMEClass().getName() + ":" + method.getName() + method.getDescriptor();
+    }
+
+    private MethodTrace getMethodTrace(DexMethod method) {
+        ContextTrace contextTrace = m_contexts.get(getContextName(method.getMEClass()));
+        return contextTrace == null ? null : contextTrace.methods.get(getSignature(method));
+    }
+
+    private static String getContextName(MEClass clazz) {
+        return clazz.getResource().getContext().getContextName();
+    }
+
+    /**
+     * Finds the registered message a logged message starts with, the longest
+     * one if several do
+     */
+    private PointTrace lookup(String message) {
+        int end = message.length();
+        while ((end = findAddressSuffix(message, end - 1)) >= 0) {
+            PointTrace pointTrace = m_points.get(end == message.length() - 1 ? message : message.substring(0, end + 1));
+            if (pointTrace != null) {
+                return pointTrace;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the last code address suffix in text, see isAddressSuffix
+     * @param s the text
+     * @param from position to search backwards from
+     * @return position of the closing parenthesis of the suffix, or -1
+     */
+    private static int findAddressSuffix(String s, int from) {
+        int close = from + 1;
+        while ((close = s.lastIndexOf(')', close - 1)) >= 0) {
+            if (isAddressSuffix(s, close)) {
+                return close;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether text ends at given position with a code address suffix
+     * as added by Util.appendCodeAddressAndLineNum, e.g. "(1A)" or "(1A,42)"
+     */
+    private static boolean isAddressSuffix(String s, int close) {
+        int i = close - 1;
+        int digits = 0;
+        while (i >= 0 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i--;
+            digits++;
+        }
+        if (i >= 0 && s.charAt(i) == ',') {
+            if (digits == 0) {
+                return false;
+            }
+            i--;
+            digits = 0;
+        }
+        while (i >= 0 && isHexDigit(s.charAt(i))) {
+            i--;
+            digits++;
+        }
+        return digits > 0 && i >= 0 && s.charAt(i) == '(';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * Parses a decimal number, skipping leading spaces
+     * @return the number, or -1 if there is none
+     */
+    private static int parseInt(String s, int start, int end) {
+        while (start < end && s.charAt(start) == ' ') {
+            start++;
+        }
+        if (start == end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static <K> TraceStats getOrCreate(Map<K, TraceStats> map, K key) {
+        TraceStats stats = map.get(key);
+        if (stats == null) {
+            stats = new TraceStats();
+            map.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Instrumented methods and statistics of classes of a context
+     */
+    static class ContextTrace {
+        /** The instrumented methods, by signature */
+        final Map<String, MethodTrace> methods = new HashMap<String, MethodTrace>();
+        /** Statistics of classes, by class name */
+        final Map<String, TraceStats> classStats = new HashMap<String, TraceStats>();
+    }
+
+    /**
+     * Registered log statements and statistics of a method
+     */
+    static class MethodTrace {
+        final String className;
+        final List<PointTrace> points = new ArrayList<PointTrace>();
+        final TraceStats stats = new TraceStats();
+        final TraceStats classStats;
+        /** Entry times not yet paired with an exit, by process id */
+        final Map<Integer, Pending> pending = new HashMap<Integer, Pending>();
+
+        MethodTrace(String className, TraceStats classStats) {
+            this.className = className;
+            this.classStats = classStats;
+        }
+    }
+
+    static class PointTrace {
+        final TracePoint point;
+        final MethodTrace method;
+        final String contextName;
+        TraceStats stats = new TraceStats();
+
+        PointTrace(TracePoint point, MethodTrace method, String contextName) {
+            this.point = point;
+            this.method = method;
+            this.contextName = contextName;
+        }
+    }
+
+    /**
+     * Stack of entry times, dropping the oldest when full, e.g. when a
+     * process was killed before its methods returned
+     */
+    static class Pending {
+        long[] times = new long[8];
+        int first = 0;
+        int size = 0;
+
+        /**
+         * @return true if the oldest entry was dropped
+         */
+        boolean push(long time) {
+            boolean dropped = false;
+            if (size == times.length) {
+                if (size < MAX_PENDING) {
+                    long[] grown = new long[size * 2];
+                    for (int i = 0; i < size; i++) {
+                        grown[i] = times[(first + i) % size];
+                    }
+                    times = grown;
+                    first = 0;
+                } else {
+                    first = (first + 1) % times.length;
+                    size--;
+                    dropped = true;
+                }
+            }
+            times[(first + size) % times.length] = time;
+            size++;
+            return dropped;
+        }
+
+        long pop() {
+            size--;
+            return times[(first + size) % times.length];
+        }
+
+        long peek() {
+            return times[(first + size - 1) % times.length];
+        }
+    }
+}
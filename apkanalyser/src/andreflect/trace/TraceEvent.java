@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect.trace;
+
+/**
+ * A log line of an injected log statement
+ */
+public class TraceEvent {
+    /** Log time in milliseconds, only meaningful as difference, -1 if unknown */
+    public final long time;
+    /** Process id, -1 if unknown */
+    public final int pid;
+    /** The log statement, null if the message is not of a registered one */
+    public final TracePoint point;
+    /** The logged message */
+    public final String message;
+    /** For method exits, milliseconds since the matching entry, else -1 */
+    public final long duration;
+
+    public TraceEvent(long time, int pid, TracePoint point, String message, long duration) {
+        this.time = time;
+        this.pid = pid;
+        this.point = point;
+        this.message = message;
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect.trace;
+
+/**
+ * An injected log statement, i.e. the message an instrumented method logs
+ * at a code address. The message is the text up to and including the code
+ * address suffix added by Util.appendCodeAddressAndLineNum, e.g.
+ * "> com.example.Foo:run()V(1A,42)".
+ */
+public class TracePoint {
+    /** Any log statement that is not a method entry or exit */
+    public static final int KIND_POINT = 0;
+    /** Method entry, messages starting with "> " */
+    public static final int KIND_ENTRY = 1;
+    /** Method exit, messages starting with "< " */
+    public static final int KIND_EXIT = 2;
+
+    /** The instrumented method, see TraceCorrelator.getSignature */
+    public final String methodSignature;
+    public final String message;
+    public final int codeAddress;
+    /** Source line, -1 if unknown */
+    public final int line;
+    public final int kind;
+
+    public TracePoint(String methodSignature, String message, int codeAddress, int line, int kind) {
+        this.methodSignature = methodSignature;
+        this.message = message;
+        this.codeAddress = codeAddress;
+        this.line = line;
+        this.kind = kind;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect.trace;
+
+/**
+ * Aggregated trace events of a method, class or log statement. For a method
+ * the durations are the times from entry to exit, for a log statement the
+ * times since the entry of its method.
+ */
+public class TraceStats {
+    int hits;
+    int entries;
+    int exits;
+    /** Exits without a logged entry */
+    int unmatched;
+    int count;
+    long total;
+    long min = Long.MAX_VALUE;
+    long max;
+
+    void addDuration(long duration) {
+        count++;
+        total += duration;
+        if (duration < min) {
+            min = duration;
+        }
+        if (duration > max) {
+            max = duration;
+        }
+    }
+
+    void add(TraceStats s) {
+        hits += s.hits;
+        entries += s.entries;
+        exits += s.exits;
+        unmatched += s.unmatched;
+        count += s.count;
+        total += s.total;
+        min = Math.min(min, s.min);
+        max = Math.max(max, s.max);
+    }
+
+    void clear() {
+        hits = 0;
+        entries = 0;
+        exits = 0;
+        unmatched = 0;
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    TraceStats copy() {
+        TraceStats s = new TraceStats();
+        s.hits = hits;
+        s.entries = entries;
+        s.exits = exits;
+        s.unmatched = unmatched;
+        s.count = count;
+        s.total = total;
+        s.min = min;
+        s.max = max;
+        return s;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public int getExits() {
+        return exits;
+    }
+
+    public int getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * Returns the number of durations measured
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the total of the durations in milliseconds
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns a short summary, e.g. "12 hits, avg 3.5 ms, max 10 ms"
+     */
+    public String getSummary() {
+        StringBuffer sb = new StringBuffer();
+        sb.append(hits);
+        sb.append(hits == 1 ? " hit" : " hits");
+        if (count > 0) {
+            sb.append(String.format(", avg %.1f ms, max %d ms", getAverage(), max));
+        }
+        if (unmatched > 0) {
+            sb.append(", ");
+            sb.append(unmatched);
+            sb.append(" unmatched");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
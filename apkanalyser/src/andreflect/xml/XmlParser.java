@@ -18,26 +18,39 @@
 
 package andreflect.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import mereflect.MEClassContext;
+
 import org.xmlpull.mxp1.MXParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import analyser.gui.Settings;
+import andreflect.AnalysisCache;
 import andreflect.gui.linebuilder.XmlLineFormatter;
 import brut.androlib.AndrolibException;
 import brut.androlib.res.data.ResID;
 import brut.androlib.res.data.ResTable;
 import brut.androlib.res.decoder.AXmlResourceParser;
+import util.IntMultiMap;
 
 public class XmlParser {
     private ZipFile m_apk;
@@ -46,12 +59,20 @@ public class XmlParser {
     public static final String XML_SUFFIX = ".xml";
     public static final String MANIFEST = "AndroidManifest.xml";
 
+    /** Kind of the resource id references in the analysis cache */
+    private static final String CACHE_KIND = "xmlrefs";
+
     private XmlManifest manifest = null;
 
     private final ResTable mResTable;
+    /** Classpath context to look up framework resource ids in */
+    private volatile MEClassContext mReferenceContext = null;
+
+    private final File m_file;
+    private boolean m_indexed = false;
 
-    private final HashMap<Integer, ArrayList<XmlLine>> mInternal = new HashMap<Integer, ArrayList<XmlLine>>();
-    private final HashMap<Integer, ArrayList<XmlLine>> mExternal = new HashMap<Integer, ArrayList<XmlLine>>();
+    private final IntMultiMap<XmlLine> mInternal = new IntMultiMap<XmlLine>();
+    private final IntMultiMap<XmlLine> mExternal = new IntMultiMap<XmlLine>();
 
     public static class XmlLine {
         public ZipEntry entry;
@@ -83,6 +104,14 @@ public class XmlParser {
         return mResTable;
     }
 
+    public MEClassContext getReferenceContext() {
+        return mReferenceContext;
+    }
+
+    public void setReferenceContext(MEClassContext ctx) {
+        mReferenceContext = ctx;
+    }
+
     public ZipEntry visitFile(String filename) {
         for (ZipEntry entry : m_xmlFiles) {
             if (!entry.isDirectory()) {
@@ -114,27 +143,207 @@ public class XmlParser {
             //ignore because it may not be apk file but a odex file
         }
 
-        for (ZipEntry entry : m_xmlFiles) {
-            try {
-                InputStream is = m_apk.getInputStream(entry);
-                IntReader ir = new IntReader(is, false);
-                int c = ir.readInt();
-                if (c == 0x6D783F3C) {
-                } else {
-                    cacheEncodedXmlResourceId(entry);
+        m_file = apk;
+        if (!Settings.getDeferXmlIndexing()) {
+            indexResourceIds();
+        }
+    }
+
+    /**
+     * Indexes the resource ids referenced by the xml files, from the analysis
+     * cache or by parsing the binary xml files. Done once, when the parser is
+     * created or on first lookup if indexing is deferred in the settings.
+     */
+    private synchronized void indexResourceIds() {
+        if (m_indexed) {
+            return;
+        }
+        m_indexed = true;
+        if (m_xmlFiles.isEmpty() || readCachedResourceIds(m_file)) {
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(Settings.getResolverThreads(), m_xmlFiles.size()));
+        XmlScan[] scans = scanXmlFiles(threads);
+        // merge in file order, so that the references are listed as when parsed one by one
+        for (XmlScan scan : scans) {
+            if (scan != null) {
+                for (XmlLine xmline : scan.internal) {
+                    mInternal.add(xmline.id, xmline);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                for (XmlLine xmline : scan.external) {
+                    mExternal.add(xmline.id, xmline);
+                }
+            }
+        }
+        mInternal.trimToSize();
+        mExternal.trimToSize();
+        writeCachedResourceIds(m_file);
+    }
+
+    /**
+     * Reads the resource id references of the xml files from the analysis
+     * cache
+     * @param apk the apk file
+     * @return true if the references were found in the cache
+     */
+    private boolean readCachedResourceIds(File apk) {
+        DataInputStream in = AnalysisCache.read(apk, CACHE_KIND);
+        if (in == null) {
+            return false;
+        }
+        try {
+            int entries = in.readInt();
+            if (entries != m_xmlFiles.size()) {
+                return false;
             }
+            for (int i = 0; i < entries; i++) {
+                if (!in.readUTF().equals(m_xmlFiles.get(i).getName())) {
+                    return false;
+                }
+            }
+            readResourceIds(in, mInternal);
+            readResourceIds(in, mExternal);
+            return true;
+        } catch (IOException e) {
+            System.out.println("[XmlParser] ignoring cached resource ids of " + apk.getName() + ": " + e);
+            mInternal.clear();
+            mExternal.clear();
+            return false;
+        } finally {
+            AnalysisCache.close(in);
         }
     }
 
-    private void cacheEncodedXmlResourceId(ZipEntry entry) {
+    /**
+     * Reads the references to resource ids written by writeCachedResourceIds.
+     * An xml file index out of range, e.g. in a corrupt entry, is reported as
+     * an IOException so that the entry is ignored.
+     */
+    private void readResourceIds(DataInputStream in, IntMultiMap<XmlLine> cache) throws IOException {
+        int ids = in.readInt();
+        for (int i = 0; i < ids; i++) {
+            int id = in.readInt();
+            int lines = in.readInt();
+            for (int j = 0; j < lines; j++) {
+                int index = in.readInt();
+                if (index < 0 || index >= m_xmlFiles.size()) {
+                    throw new IOException("xml file index " + index + " out of range");
+                }
+                ZipEntry entry = m_xmlFiles.get(index);
+                cache.add(id, new XmlLine(entry, in.readInt(), id));
+            }
+        }
+        cache.trimToSize();
+    }
+
+    /**
+     * Writes the resource id references of the xml files to the analysis
+     * cache
+     * @param apk the apk file
+     */
+    private void writeCachedResourceIds(File apk) {
+        HashMap<ZipEntry, Integer> entryIndices = new HashMap<ZipEntry, Integer>();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
         try {
-            AXmlResourceParser parser = new AXmlResourceParser();
-            XmlResAttrDecoder attDecoder = new XmlResAttrDecoder(mResTable);
-            parser.setAttrDecoder(attDecoder);
-            parser.open(m_apk.getInputStream(entry));
+            out.writeInt(m_xmlFiles.size());
+            for (int i = 0; i < m_xmlFiles.size(); i++) {
+                out.writeUTF(m_xmlFiles.get(i).getName());
+                entryIndices.put(m_xmlFiles.get(i), i);
+            }
+            writeResourceIds(out, mInternal, entryIndices);
+            writeResourceIds(out, mExternal, entryIndices);
+            out.close();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+        }
+        AnalysisCache.store(apk, CACHE_KIND, bos.toByteArray());
+    }
+
+    private static void writeResourceIds(DataOutputStream out, IntMultiMap<XmlLine> cache,
+            HashMap<ZipEntry, Integer> entryIndices) throws IOException {
+        out.writeInt(cache.size());
+        for (int id : cache.keys()) {
+            List<XmlLine> xmlines = cache.get(id);
+            out.writeInt(id);
+            out.writeInt(xmlines.size());
+            for (XmlLine xmline : xmlines) {
+                out.writeInt(entryIndices.get(xmline.entry));
+                out.writeInt(xmline.line);
+            }
+        }
+    }
+
+    /** Resource id references found in one xml file */
+    private static class XmlScan {
+        final ArrayList<XmlLine> internal = new ArrayList<XmlLine>();
+        final ArrayList<XmlLine> external = new ArrayList<XmlLine>();
+    }
+
+    /**
+     * Parses the binary xml files on given number of threads. Each thread
+     * has its own parser and takes the next file from a shared index.
+     * @param threads the number of threads to use
+     * @return the references found, indexed as m_xmlFiles, null for raw xml
+     *         files and files that cannot be read
+     */
+    private XmlScan[] scanXmlFiles(int threads) {
+        final XmlScan[] scans = new XmlScan[m_xmlFiles.size()];
+        final AtomicInteger nextFile = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        AXmlResourceParser parser = new AXmlResourceParser();
+                        parser.setAttrDecoder(new XmlResAttrDecoder(mResTable, mReferenceContext));
+                        int iF;
+                        while ((iF = nextFile.getAndIncrement()) < scans.length) {
+                            scans[iF] = scanXmlFile(parser, m_xmlFiles.get(iF));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return scans;
+    }
+
+    private XmlScan scanXmlFile(AXmlResourceParser parser, ZipEntry entry) {
+        byte[] data;
+        try {
+            data = readEntry(entry);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (data.length >= 4
+                && (data[0] & 0xff | (data[1] & 0xff) << 8 | (data[2] & 0xff) << 16 | (data[3] & 0xff) << 24) == 0x6D783F3C) {
+            // raw xml, "<?xm"
+            return null;
+        }
+
+        XmlScan scan = new XmlScan();
+        try {
+            parser.open(new ByteArrayInputStream(data));
             while (true) {
                 int type = parser.next();
                 if (type == XmlPullParser.END_DOCUMENT) {
@@ -146,8 +355,6 @@ public class XmlParser {
                         int id = parser.getAttributeResourceValue(i, 0);
                         int line = parser.getLineNumber();
                         if (id != 0) {
-                            HashMap<Integer, ArrayList<XmlLine>> cache;
-
                             boolean internal = false;
                             if (mResTable != null) {
                                 try {
@@ -159,16 +366,10 @@ public class XmlParser {
                             }
 
                             if (internal) {
-                                cache = mInternal;
+                                scan.internal.add(new XmlLine(entry, line, id));
                             } else {
-                                cache = mExternal;
-                            }
-
-                            if (cache.get(id) == null) {
-                                ArrayList<XmlLine> xmlines = new ArrayList<XmlLine>();
-                                cache.put(id, xmlines);
+                                scan.external.add(new XmlLine(entry, line, id));
                             }
-                            cache.get(id).add(new XmlLine(entry, line, id));
 
                             //just call att decoder to check if value can be decoded
                             parser.getAttributeValue(i);
@@ -181,8 +382,26 @@ public class XmlParser {
             e.printStackTrace();
         } catch (XmlPullParserException e) {
             e.printStackTrace();
+        } finally {
+            parser.close();
+        }
+        return scan;
+    }
+
+    private byte[] readEntry(ZipEntry entry) throws IOException {
+        InputStream is = m_apk.getInputStream(entry);
+        try {
+            long size = entry.getSize();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                bos.write(buf, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
         }
-        return;
     }
 
     public ArrayList<ZipEntry> getXmlFiles() {
@@ -215,36 +434,27 @@ public class XmlParser {
         return ret;
     }
 
-    public ArrayList<XmlLine> findXmlInternalRefenence(int resId) {
-        if (mInternal.containsKey(resId)) {
-            return mInternal.get(resId);
-        } else {
-            return new ArrayList<XmlLine>();
-        }
+    public List<XmlLine> findXmlInternalRefenence(int resId) {
+        indexResourceIds();
+        return mInternal.get(resId);
     }
 
-    public ArrayList<XmlLine> findXmlExternalRefenence(int resId) {
-        if (mExternal.containsKey(resId)) {
-            return mExternal.get(resId);
-        } else {
-            return new ArrayList<XmlLine>();
-        }
+    public List<XmlLine> findXmlExternalRefenence(int resId) {
+        indexResourceIds();
+        return mExternal.get(resId);
     }
 
-    public Set<Integer> listXmlExternalReference() {
-        return mExternal.keySet();
+    public int[] listXmlExternalReference() {
+        indexResourceIds();
+        return mExternal.keys();
     }
 
     public ArrayList<XmlLine> findXmlAndroidSystemReference() {
+        indexResourceIds();
         ArrayList<XmlLine> result = new ArrayList<XmlLine>();
-        Iterator<Integer> i = mExternal.keySet().iterator();
-        while (i.hasNext()) {
-            int id = i.next();
+        for (int id : mExternal.keys()) {
             if (new ResID(id).package_ == XmlResAttrDecoder.ANDROID_PACKAGE_ID) {
-                ArrayList<XmlLine> xmlLines = mExternal.get(id);
-                for (XmlLine xmlLine : xmlLines) {
-                    result.add(xmlLine);
-                }
+                result.addAll(mExternal.get(id));
             }
         }
         return result;
@@ -382,7 +592,7 @@ public class XmlParser {
         String activityName = null;
         try {
             AXmlResourceParser parser = new AXmlResourceParser();
-            XmlResAttrDecoder attDecoder = new XmlResAttrDecoder(mResTable);
+            XmlResAttrDecoder attDecoder = new XmlResAttrDecoder(mResTable, mReferenceContext);
             parser.setAttrDecoder(attDecoder);
             parser.open(inputStream);
             while (true) {
@@ -459,7 +669,7 @@ public class XmlParser {
         XmlLineFormatter result = new XmlLineFormatter();
         try {
             AXmlResourceParser parser = new AXmlResourceParser();
-            XmlResAttrDecoder attDecoder = new XmlResAttrDecoder(mResTable);
+            XmlResAttrDecoder attDecoder = new XmlResAttrDecoder(mResTable, mReferenceContext);
             parser.setAttrDecoder(attDecoder);
             parser.open(inputStream);
             StringBuilder indent = new StringBuilder(40);
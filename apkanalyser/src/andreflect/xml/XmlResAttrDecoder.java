@@ -18,9 +18,7 @@
 
 package andreflect.xml;
 
-import mereflect.CollaborateClassContext;
 import mereflect.MEClassContext;
-import analyser.gui.MainFrame;
 import andreflect.DexReferenceCache;
 import android.util.TypedValue;
 import brut.androlib.AndrolibException;
@@ -34,9 +32,11 @@ import brut.androlib.res.decoder.ResAttrDecoder;
 public class XmlResAttrDecoder extends ResAttrDecoder {
 
     private final ResTable mResTable;
+    private final MEClassContext mReferenceContext;
 
-    public XmlResAttrDecoder(ResTable resTable) {
+    public XmlResAttrDecoder(ResTable resTable, MEClassContext referenceContext) {
         mResTable = resTable;
+        mReferenceContext = referenceContext;
     }
 
     public static final int ANDROID_PACKAGE_ID = 0x1;
@@ -50,6 +50,7 @@ public class XmlResAttrDecoder extends ResAttrDecoder {
                 if (resValue instanceof ResReferenceValue) {
                     decoded = getResReferenceValue((ResReferenceValue) resValue,
                             mResTable,
+                            mReferenceContext,
                             type == TypedValue.TYPE_ATTRIBUTE);
                 } else {
                     decoded = resValue.encodeAsResXmlAttr();
@@ -63,7 +64,8 @@ public class XmlResAttrDecoder extends ResAttrDecoder {
         return decoded;
     }
 
-    public static String getResReferenceValue(ResReferenceValue resReferenceValue, ResTable resTable, boolean isAttribute) {
+    public static String getResReferenceValue(ResReferenceValue resReferenceValue, ResTable resTable,
+            MEClassContext referenceContext, boolean isAttribute) {
         int id = resReferenceValue.getValue();
         if (resReferenceValue.isNull()) {
             return "@null";
@@ -76,8 +78,7 @@ public class XmlResAttrDecoder extends ResAttrDecoder {
         } catch (AndrolibException e) {
         }
 
-        CollaborateClassContext ctx = MainFrame.getInstance().getResolver().getReferenceContext();
-        MEClassContext[] contexts = ctx.getContexts();
+        MEClassContext[] contexts = referenceContext == null ? new MEClassContext[0] : referenceContext.getContexts();
         for (MEClassContext context : contexts) {
             ResTable resFrameworkTable = null;
             DexReferenceCache dexResCache = context.getDexReferenceCache();
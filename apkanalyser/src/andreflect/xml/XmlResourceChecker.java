@@ -21,6 +21,7 @@ package andreflect.xml;
 import gui.actions.AbstractCanceableAction;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -169,37 +170,60 @@ public class XmlResourceChecker {
         }
     }
 
-    public void showUnusedSpec(ApkClassContext ctx, MainFrame mainFrame, AbstractCanceableAction action) {
-        //long starttime = System.currentTimeMillis();
-        DexReferenceCache cache = ctx.getDexReferenceCache();
-        ArrayList<ResResSpec> resSpecs = new ArrayList<ResResSpec>();
-        ArrayList<ResResSpec> usedSpecs = new ArrayList<ResResSpec>();
-        ArrayList<ResResSpec> unusedSpecs = new ArrayList<ResResSpec>();
-        ArrayList<Integer> usedRef = new ArrayList<Integer>();
+    /**
+     * Returns the resources of the apk that are not referenced from code, xml
+     * or other resources, ordered by id. The apk must have been resolved.
+     */
+    public List<ResResSpec> listUnusedSpecs(ApkClassContext ctx) {
+        List<ResResSpec> unusedSpecs = new ArrayList<ResResSpec>();
+        splitSpecs(ctx.getDexReferenceCache(), unusedSpecs, null, null, null);
+        return unusedSpecs;
+    }
 
+    /**
+     * Sorts the resources of the main packages by id, into the ones that are
+     * not referenced from code, xml or other resources and the ones that are
+     * @param cache the reference cache of the resolved apk
+     * @param unusedSpecs receives the unused resources
+     * @param usedSpecs receives the used resources, or null
+     * @param mainFrame the frame to report the progress of action to, or null
+     * @param action the action to report progress for
+     * @return the number of resources
+     */
+    private int splitSpecs(DexReferenceCache cache, List<ResResSpec> unusedSpecs, List<ResResSpec> usedSpecs,
+            MainFrame mainFrame, AbstractCanceableAction action) {
+        ArrayList<ResResSpec> resSpecs = new ArrayList<ResResSpec>();
         for (ResPackage pkg : mResTable.listMainPackages()) {
             for (ResResSpec spec : pkg.listResSpecs()) {
                 resSpecs.add(spec);
             }
         }
+        Collections.sort(resSpecs, new SpecComparator());
 
-        if (resSpecs != null && resSpecs.size() > 0) {
-            Comparator<ResResSpec> comp = new SpecComparator();
-            Collections.sort(resSpecs, comp);
-
-            for (int i = 0; i < resSpecs.size(); i++) {
-                DexResSpec dexSpec = cache.getDexSpec(resSpecs.get(i));
+        for (int i = 0; i < resSpecs.size(); i++) {
+            DexResSpec dexSpec = cache.getDexSpec(resSpecs.get(i));
+            if (dexSpec != null) {
                 if (dexSpec.getSumReference() == 0) {
                     unusedSpecs.add(resSpecs.get(i));
-                } else {
+                } else if (usedSpecs != null) {
                     usedSpecs.add(resSpecs.get(i));
-                    usedRef.add(dexSpec.getCountSpecReference());
-                    usedRef.add(dexSpec.getCountXmlReference());
-                    usedRef.add(dexSpec.getCountCodeReference());
                 }
+            }
+            if (mainFrame != null) {
                 mainFrame.actionReportWork(action, 100 * i / resSpecs.size());
             }
+        }
+        return resSpecs.size();
+    }
+
+    public void showUnusedSpec(ApkClassContext ctx, MainFrame mainFrame, AbstractCanceableAction action) {
+        //long starttime = System.currentTimeMillis();
+        DexReferenceCache cache = ctx.getDexReferenceCache();
+        ArrayList<ResResSpec> usedSpecs = new ArrayList<ResResSpec>();
+        ArrayList<ResResSpec> unusedSpecs = new ArrayList<ResResSpec>();
 
+        int specCount = splitSpecs(cache, unusedSpecs, usedSpecs, mainFrame, action);
+        if (specCount > 0) {
             LineBuilder lb = new LineBuilder();
             boolean first = true;
             for (ResResSpec unusedSpec : unusedSpecs) {
@@ -233,10 +257,12 @@ public class XmlResourceChecker {
                     lb.newLine();
                     first = false;
                 }
-                appendSpec(lb, usedSpecs.get(i), mainFrame, ctx, usedRef.get(i * 3), usedRef.get(i * 3 + 1), usedRef.get(i * 3 + 2));
+                DexResSpec dexSpec = cache.getDexSpec(usedSpecs.get(i));
+                appendSpec(lb, usedSpecs.get(i), mainFrame, ctx, dexSpec.getCountSpecReference(),
+                        dexSpec.getCountXmlReference(), dexSpec.getCountCodeReference());
             }
             mainFrame.showText("Resource unused IDs: ", lb);
-            mainFrame.setBottomInfo(resSpecs.size() + " unused resource(es) found");
+            mainFrame.setBottomInfo(unusedSpecs.size() + " unused resource(es) found");
         } else {
             mainFrame.setBottomInfo("No resource found");
         }
@@ -542,7 +568,7 @@ public class XmlResourceChecker {
     }
      */
 
-    private void appendBagReference(Set<ResResSpec> specs, ApkClassContext ctx, LineBuilder lb, MainFrame mainFrame) {
+    private void appendBagReference(Collection<ResResSpec> specs, ApkClassContext ctx, LineBuilder lb, MainFrame mainFrame) {
         boolean first = true;
         if (specs.size() != 0
                 && lb != null
@@ -861,7 +887,8 @@ public class XmlResourceChecker {
     private String getValue(ResValue resValue, String seperator, boolean shortString) {
         String value = null;
         if (resValue instanceof ResReferenceValue) {
-            value = XmlResAttrDecoder.getResReferenceValue((ResReferenceValue) resValue, mResTable, false);
+            value = XmlResAttrDecoder.getResReferenceValue((ResReferenceValue) resValue, mResTable,
+                    mParser.getReferenceContext(), false);
         } else if (resValue instanceof ResStringValue
                 || resValue instanceof ResFloatValue
                 || resValue instanceof ResDimenValue
@@ -991,7 +1018,9 @@ public class XmlResourceChecker {
     private class SpecComparator implements Comparator<ResResSpec> {
         @Override
         public int compare(ResResSpec o1, ResResSpec o2) {
-            return o1.getId().id > o2.getId().id ? 1 : 0;
+            int id1 = o1.getId().id;
+            int id2 = o2.getId().id;
+            return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
         }
     }
 
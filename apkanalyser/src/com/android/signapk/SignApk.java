@@ -20,13 +20,14 @@ package com.android.signapk;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
 import java.security.Key;
@@ -41,15 +42,21 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 
@@ -65,6 +72,8 @@ import sun.security.pkcs.SignerInfo;
 import sun.security.x509.AlgorithmId;
 import sun.security.x509.X500Name;
 
+import util.RawZipWriter;
+
 /**
  * Command line tool to sign JAR files (including APKs and OTA updates) in
  * a way compatible with the mincrypt verifier, using SHA1 and RSA keys.
@@ -173,59 +182,6 @@ public class SignApk {
         }
     }
 
-    /** Add the SHA1 of every file to the manifest, creating it if necessary. */
-    private static Manifest addDigestsToManifest(JarFile jar)
-            throws IOException, GeneralSecurityException {
-        Manifest input = jar.getManifest();
-        Manifest output = new Manifest();
-        Attributes main = output.getMainAttributes();
-        if (input != null) {
-            main.putAll(input.getMainAttributes());
-        } else {
-            main.putValue("Manifest-Version", "1.0");
-            main.putValue("Created-By", "1.0 (Android SignApk)");
-        }
-
-        BASE64Encoder base64 = new BASE64Encoder();
-        MessageDigest md = MessageDigest.getInstance("SHA1");
-        byte[] buffer = new byte[4096];
-        int num;
-
-        // We sort the input entries by name, and add them to the
-        // output manifest in sorted order.  We expect that the output
-        // map will be deterministic.
-
-        TreeMap<String, JarEntry> byName = new TreeMap<String, JarEntry>();
-
-        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
-            JarEntry entry = e.nextElement();
-            byName.put(entry.getName(), entry);
-        }
-
-        for (JarEntry entry : byName.values()) {
-            String name = entry.getName();
-            if (!entry.isDirectory() && !name.equals(JarFile.MANIFEST_NAME) &&
-                    !name.equals(CERT_SF_NAME) && !name.equals(CERT_RSA_NAME) &&
-                    (stripPattern == null ||
-                    !stripPattern.matcher(name).matches())) {
-                InputStream data = jar.getInputStream(entry);
-                while ((num = data.read(buffer)) > 0) {
-                    md.update(buffer, 0, num);
-                }
-
-                Attributes attr = null;
-                if (input != null) {
-                    attr = input.getAttributes(name);
-                }
-                attr = attr != null ? new Attributes(attr) : new Attributes();
-                attr.putValue("SHA1-Digest", base64.encode(md.digest()));
-                output.getEntries().put(name, attr);
-            }
-        }
-
-        return output;
-    }
-
     /** Write to another stream and also feed it to the Signature object. */
     private static class SignatureOutputStream extends FilterOutputStream {
         private final Signature mSignature;
@@ -313,198 +269,209 @@ public class SignApk {
         pkcs7.encodeSignedData(out);
     }
 
-    private static void signWholeOutputFile(byte[] zipData,
-            OutputStream outputStream,
-            X509Certificate publicKey,
-            PrivateKey privateKey)
+    /**
+     * Signs a copy of an apk, in one pass over the input. Entries are copied
+     * with their compressed data as is, only replaced entries and the
+     * signature files are compressed. The digests for the manifest are
+     * computed while copying, the manifest and signature files are written
+     * after the entries.
+     *
+     * @param input the apk to sign
+     * @param replacedEntries data of entries to replace or add, by name
+     * @param excludedEntries names of entries to leave out
+     * @param output the signed apk
+     */
+    public static void signApk(File input, Map<String, byte[]> replacedEntries,
+            Collection<String> excludedEntries, File output)
             throws IOException, GeneralSecurityException {
+        X509Certificate publicKey = readPublicKey(null);
 
-        // For a zip with no archive comment, the
-        // end-of-central-directory record will be 22 bytes long, so
-        // we expect to find the EOCD marker 22 bytes from the end.
-        if (zipData[zipData.length - 22] != 0x50 ||
-                zipData[zipData.length - 21] != 0x4b ||
-                zipData[zipData.length - 20] != 0x05 ||
-                zipData[zipData.length - 19] != 0x06) {
-            throw new IllegalArgumentException("zip data already has an archive comment");
-        }
+        // Assume the certificate is valid for at least an hour.
+        long timestamp = publicKey.getNotBefore().getTime() + 3600L * 1000;
 
-        Signature signature = Signature.getInstance("SHA1withRSA");
-        signature.initSign(privateKey);
-        signature.update(zipData, 0, zipData.length - 2);
-
-        ByteArrayOutputStream temp = new ByteArrayOutputStream();
-
-        // put a readable message and a null char at the start of the
-        // archive comment, so that tools that display the comment
-        // (hopefully) show something sensible.
-        // TODO: anything more useful we can put in this message?
-        byte[] message = "signed by SignApk".getBytes("UTF-8");
-        temp.write(message);
-        temp.write(0);
-        writeSignatureBlock(signature, publicKey, temp);
-        int total_size = temp.size() + 6;
-        if (total_size > 0xffff) {
-            throw new IllegalArgumentException("signature is too big for ZIP file comment");
-        }
-        // signature starts this many bytes from the end of the file
-        int signature_start = total_size - message.length - 1;
-        temp.write(signature_start & 0xff);
-        temp.write((signature_start >> 8) & 0xff);
-        // Why the 0xff bytes?  In a zip file with no archive comment,
-        // bytes [-6:-2] of the file are the little-endian offset from
-        // the start of the file to the central directory.  So for the
-        // two high bytes to be 0xff 0xff, the archive would have to
-        // be nearly 4GB in side.  So it's unlikely that a real
-        // commentless archive would have 0xffs here, and lets us tell
-        // an old signed archive from a new one.
-        temp.write(0xff);
-        temp.write(0xff);
-        temp.write(total_size & 0xff);
-        temp.write((total_size >> 8) & 0xff);
-        temp.flush();
-
-        // Signature verification checks that the EOCD header is the
-        // last such sequence in the file (to avoid minzip finding a
-        // fake EOCD appended after the signature in its scan).  The
-        // odds of producing this sequence by chance are very low, but
-        // let's catch it here if it does.
-        byte[] b = temp.toByteArray();
-        for (int i = 0; i < b.length - 3; ++i) {
-            if (b[i] == 0x50 && b[i + 1] == 0x4b && b[i + 2] == 0x05 && b[i + 3] == 0x06) {
-                throw new IllegalArgumentException("found spurious EOCD header at " + i);
+        PrivateKey privateKey = readPrivateKey(null);
+
+        Manifest inputManifest = null;
+        if (!excludedEntries.contains(JarFile.MANIFEST_NAME)) {
+            JarFile inputJar = new JarFile(input, false); // Don't verify.
+            try {
+                inputManifest = inputJar.getManifest();
+            } finally {
+                inputJar.close();
             }
         }
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        if (inputManifest != null) {
+            main.putAll(inputManifest.getMainAttributes());
+        } else {
+            main.putValue("Manifest-Version", "1.0");
+            main.putValue("Created-By", "1.0 (Android SignApk)");
+        }
+
+        BASE64Encoder base64 = new BASE64Encoder();
+        MessageDigest md = MessageDigest.getInstance("SHA1");
+        TreeMap<String, Attributes> byName = new TreeMap<String, Attributes>();
+        Set<String> newEntries = new LinkedHashSet<String>(replacedEntries.keySet());
+
+        RandomAccessFile in = new RandomAccessFile(input, "r");
+        RawZipWriter out = null;
+        try {
+            List<RawZipWriter.Entry> entries = new ArrayList<RawZipWriter.Entry>();
+            List<RawZipWriter.Entry> copiedFiles = new ArrayList<RawZipWriter.Entry>();
+            for (RawZipWriter.Entry entry : RawZipWriter.readEntries(in)) {
+                String name = entry.name;
+                if (!excludedEntries.contains(name) && !name.equals(JarFile.MANIFEST_NAME) &&
+                        !name.equals(CERT_SF_NAME) && !name.equals(CERT_RSA_NAME) &&
+                        (stripPattern == null || !stripPattern.matcher(name).matches())) {
+                    entries.add(entry);
+                    if (!entry.isDirectory() && !replacedEntries.containsKey(name)) {
+                        copiedFiles.add(entry);
+                    }
+                }
+            }
+            for (Map.Entry<String, byte[]> digest : digestEntries(input, copiedFiles).entrySet()) {
+                byName.put(digest.getKey(), getDigestAttributes(inputManifest, digest.getKey(),
+                        base64.encode(digest.getValue())));
+            }
+
+            out = new RawZipWriter(output, timestamp);
+            for (RawZipWriter.Entry entry : entries) {
+                String name = entry.name;
+                byte[] data = replacedEntries.get(name);
+                if (data != null) {
+                    out.putEntry(name, data, md);
+                    newEntries.remove(name);
+                    byName.put(name, getDigestAttributes(inputManifest, name, base64.encode(md.digest())));
+                } else {
+                    out.copyEntry(in, entry, null);
+                }
+            }
+            for (String name : newEntries) {
+                out.putEntry(name, replacedEntries.get(name), md);
+                byName.put(name, getDigestAttributes(inputManifest, name, base64.encode(md.digest())));
+            }
+            // We add the entries to the output manifest in sorted order.
+            manifest.getEntries().putAll(byName);
 
-        outputStream.write(zipData, 0, zipData.length - 2);
-        outputStream.write(total_size & 0xff);
-        outputStream.write((total_size >> 8) & 0xff);
-        temp.writeTo(outputStream);
+            // MANIFEST.MF
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            manifest.write(buffer);
+            out.putEntry(JarFile.MANIFEST_NAME, buffer.toByteArray(), null);
+
+            // CERT.SF
+            Signature signature = Signature.getInstance("SHA1withRSA");
+            signature.initSign(privateKey);
+            buffer = new ByteArrayOutputStream();
+            writeSignatureFile(manifest, new SignatureOutputStream(buffer, signature));
+            out.putEntry(CERT_SF_NAME, buffer.toByteArray(), null);
+
+            // CERT.RSA
+            buffer = new ByteArrayOutputStream();
+            writeSignatureBlock(signature, publicKey, buffer);
+            out.putEntry(CERT_RSA_NAME, buffer.toByteArray(), null);
+
+            out.finish();
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
     }
 
     /**
-     * Copy all the files in a manifest from input to output.  We set
-     * the modification times in the output to a fixed time, so as to
-     * reduce variation in the output file and make incremental OTAs
-     * more efficient.
+     * Computes the SHA1 digest of the uncompressed data of given zip entries,
+     * on one thread per processor. Each thread reads the file through its own
+     * handle and takes the next entry when done with the previous one.
+     *
+     * @param input the zip file
+     * @param entries the entries to digest, no directories
+     * @return the digests by entry name
      */
-    private static void copyFiles(Manifest manifest,
-            JarFile in, JarOutputStream out, long timestamp) throws IOException {
-        byte[] buffer = new byte[4096];
-        int num;
-
-        Map<String, Attributes> entries = manifest.getEntries();
-        List<String> names = new ArrayList<String>(entries.keySet());
-        Collections.sort(names);
-        for (String name : names) {
-            JarEntry inEntry = in.getJarEntry(name);
-            JarEntry outEntry = null;
-            if (inEntry.getMethod() == JarEntry.STORED) {
-                // Preserve the STORED method of the input entry.
-                outEntry = new JarEntry(inEntry);
-            } else {
-                // Create a new entry so that the compressed len is recomputed.
-                outEntry = new JarEntry(name);
+    private static Map<String, byte[]> digestEntries(final File input,
+            final List<RawZipWriter.Entry> entries)
+            throws IOException, GeneralSecurityException {
+        final byte[][] digests = new byte[entries.size()][];
+        final AtomicInteger nextEntry = new AtomicInteger(0);
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), entries.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        MessageDigest md = MessageDigest.getInstance("SHA1");
+                        RandomAccessFile in = new RandomAccessFile(input, "r");
+                        try {
+                            int i;
+                            while ((i = nextEntry.getAndIncrement()) < digests.length) {
+                                RawZipWriter.digestEntry(in, entries.get(i), md);
+                                digests[i] = md.digest();
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        return null;
+                    }
+                }));
             }
-            outEntry.setTime(timestamp);
-            out.putNextEntry(outEntry);
-
-            InputStream data = in.getInputStream(inEntry);
-            while ((num = data.read(buffer)) > 0) {
-                out.write(buffer, 0, num);
+            for (Future<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while signing " + input);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof GeneralSecurityException) {
+                        throw (GeneralSecurityException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause.toString());
+                }
             }
-            out.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Map<String, byte[]> byName = new TreeMap<String, byte[]>();
+        for (int i = 0; i < digests.length; i++) {
+            byName.put(entries.get(i).name, digests[i]);
+        }
+        return byName;
+    }
+
+    /** Returns the manifest attributes of an entry with given SHA1 digest. */
+    private static Attributes getDigestAttributes(Manifest input, String name, String digest) {
+        Attributes attr = null;
+        if (input != null) {
+            attr = input.getAttributes(name);
         }
+        attr = attr != null ? new Attributes(attr) : new Attributes();
+        attr.putValue("SHA1-Digest", digest);
+        return attr;
     }
 
     public static void main(String[] args) {
-        if (args.length != 4 && args.length != 5) {
-            System.err.println("Usage: signapk [-w] " +
+        if (args.length != 4) {
+            System.err.println("Usage: signapk " +
                     "publickey.x509[.pem] privatekey.pk8 " +
                     "input.jar output.jar");
             System.exit(2);
         }
 
-        boolean signWholeFile = false;
-        int argstart = 0;
-        //        if (args[0].equals("-w")) {
-        //            signWholeFile = true;
-        //            argstart = 1;
-        //        }
-
-        JarFile inputJar = null;
-        JarOutputStream outputJar = null;
-        FileOutputStream outputFile = null;
-
         try {
-            X509Certificate publicKey = readPublicKey(null);
-
-            // Assume the certificate is valid for at least an hour.
-            long timestamp = publicKey.getNotBefore().getTime() + 3600L * 1000;
-
-            PrivateKey privateKey = readPrivateKey(null);
-            inputJar = new JarFile(new File(args[argstart + 2]), false); // Don't verify.
-
-            OutputStream outputStream = null;
-            if (signWholeFile) {
-                outputStream = new ByteArrayOutputStream();
-            } else {
-                outputStream = outputFile = new FileOutputStream(args[argstart + 3]);
-            }
-            outputJar = new JarOutputStream(outputStream);
-            outputJar.setLevel(9);
-
-            JarEntry je;
-
-            // MANIFEST.MF
-            Manifest manifest = addDigestsToManifest(inputJar);
-            je = new JarEntry(JarFile.MANIFEST_NAME);
-            je.setTime(timestamp);
-            outputJar.putNextEntry(je);
-            manifest.write(outputJar);
-
-            // CERT.SF
-            Signature signature = Signature.getInstance("SHA1withRSA");
-            signature.initSign(privateKey);
-            je = new JarEntry(CERT_SF_NAME);
-            je.setTime(timestamp);
-            outputJar.putNextEntry(je);
-            writeSignatureFile(manifest,
-                    new SignatureOutputStream(outputJar, signature));
-
-            // CERT.RSA
-            je = new JarEntry(CERT_RSA_NAME);
-            je.setTime(timestamp);
-            outputJar.putNextEntry(je);
-            writeSignatureBlock(signature, publicKey, outputJar);
-
-            // Everything else
-            copyFiles(manifest, inputJar, outputJar, timestamp);
-
-            outputJar.close();
-            outputJar = null;
-            outputStream.flush();
-
-            if (signWholeFile) {
-                outputFile = new FileOutputStream(args[argstart + 3]);
-                signWholeOutputFile(((ByteArrayOutputStream) outputStream).toByteArray(),
-                        outputFile, publicKey, privateKey);
-            }
+            Map<String, byte[]> noEntries = Collections.emptyMap();
+            signApk(new File(args[2]), noEntries, Collections.<String> emptyList(), new File(args[3]));
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
-        } finally {
-            try {
-                if (inputJar != null) {
-                    inputJar.close();
-                }
-                if (outputFile != null) {
-                    outputFile.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.exit(1);
-            }
         }
     }
 }
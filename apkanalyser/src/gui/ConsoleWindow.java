@@ -31,30 +31,48 @@ import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.AbstractListModel;
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 
 import util.ProcessHandler;
 import util.ProcessListener;
+import analyser.gui.Settings;
+import andreflect.adb.AdbProxy;
 import andreflect.adb.ConsoleWindowListener;
+import andreflect.trace.TraceCorrelator;
 
+/**
+ * Shows the output of a process, e.g. logcat. The output is kept in a
+ * bounded LogLineBuffer and shown in a list, which only renders the visible
+ * lines. The list is updated in batches on the event dispatch thread.
+ * Searching and level filtering run on the buffered lines.
+ */
 public class ConsoleWindow implements ProcessListener {
     static ConsoleWindow inst = null;
     ProcessHandler process;
 
-    JTextArea text;
+    JList<String> text;
 
     JFrame console;
 
     ConsoleWindowListener listener;
 
-    protected int curSearchPos = 0;
+    final LogLineBuffer lines = new LogLineBuffer(Settings.getConsoleLines());
+
+    final LogListModel model = new LogListModel();
+
+    final AtomicBoolean updatePending = new AtomicBoolean(false);
+
+    /** Lowest level the process was started to log, levels below require a restart */
+    protected int captureLevel = LogLineBuffer.LEVEL_NONE;
 
     protected String curSearchString = null;
 
@@ -79,12 +97,13 @@ public class ConsoleWindow implements ProcessListener {
     synchronized void init(String title) {
         if (console == null) {
             console = new JFrame(title);
-            text = new JTextArea();
+            text = new JList<String>(model);
             text.setFont(new Font("lucida console", Font.PLAIN, 10));
             text.setBackground(Color.black);
             text.setForeground(new Color(192, 255, 192));
-            text.setEditable(false);
-            text.setWrapStyleWord(true);
+            // fixed cell size, so that only the visible lines are measured and painted
+            text.setPrototypeCellValue("01-01 00:00:00.000 D/ActivityManager( 1234): "
+                    + "Start proc com.example.application for activity com.example.application/.MainActivity");
 
             text.addKeyListener(new KeyListener() {
                 @Override
@@ -96,7 +115,7 @@ public class ConsoleWindow implements ProcessListener {
                                 (curSearchString == null ? "" : curSearchString));
                         if (s != null) {
                             curSearchString = s;
-                            curSearchPos = 0;
+                            text.clearSelection();
                             findNext(curSearchString);
                             text.repaint();
                         }
@@ -145,7 +164,8 @@ public class ConsoleWindow implements ProcessListener {
             clsButton.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    text.setText("");
+                    clearLines();
+                    TraceCorrelator.getInstance().reset();
                     if (listener != null) {
                         listener.onClear(process);
                     }
@@ -168,185 +188,13 @@ public class ConsoleWindow implements ProcessListener {
                 }
             });
 
-            IButton = new JButton("I");
-            IButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onI(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(false);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-            VButton = new JButton("V");
-            VButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onV(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(false);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-
-            DButton = new JButton("D");
-            DButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onD(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(false);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-
-            SButton = new JButton("S");
-            SButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onS(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(false);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-
-            WButton = new JButton("W");
-            WButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onW(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(false);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-            FButton = new JButton("F");
-            FButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onF(process);
-                                EButton.setEnabled(true);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(false);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
-
-            EButton = new JButton("E");
-            EButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                text.setText("");
-                                listener.onE(process);
-                                EButton.setEnabled(false);
-                                DButton.setEnabled(true);
-                                VButton.setEnabled(true);
-                                SButton.setEnabled(true);
-                                FButton.setEnabled(true);
-                                WButton.setEnabled(true);
-                                IButton.setEnabled(true);
-                                process.restart();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                    });
-                }
-            });
+            VButton = createLevelButton("V", AdbProxy.LEVEL_V);
+            DButton = createLevelButton("D", AdbProxy.LEVEL_D);
+            IButton = createLevelButton("I", AdbProxy.LEVEL_I);
+            WButton = createLevelButton("W", AdbProxy.LEVEL_W);
+            EButton = createLevelButton("E", AdbProxy.LEVEL_E);
+            FButton = createLevelButton("F", AdbProxy.LEVEL_F);
+            SButton = createLevelButton("S", AdbProxy.LEVEL_S);
 
             buttonPanel.add(VButton);
             buttonPanel.add(DButton);
@@ -371,38 +219,117 @@ public class ConsoleWindow implements ProcessListener {
         }
     }
 
+    private JButton createLevelButton(String name, final int level) {
+        JButton button = new JButton(name);
+        button.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            selectLevel(level);
+                        } catch (IOException e1) {
+                            e1.printStackTrace();
+                        }
+                    }
+                });
+            }
+        });
+        return button;
+    }
+
+    /**
+     * Shows the lines of given level and above. The buffered lines are
+     * filtered at once, logcat is only restarted if it was started for a
+     * higher level.
+     */
+    void selectLevel(int level) throws IOException {
+        boolean restart = level < captureLevel;
+        if (restart) {
+            clearLines();
+            switch (level) {
+            case AdbProxy.LEVEL_V:
+                listener.onV(process);
+                break;
+            case AdbProxy.LEVEL_D:
+                listener.onD(process);
+                break;
+            case AdbProxy.LEVEL_I:
+                listener.onI(process);
+                break;
+            case AdbProxy.LEVEL_W:
+                listener.onW(process);
+                break;
+            case AdbProxy.LEVEL_E:
+                listener.onE(process);
+                break;
+            case AdbProxy.LEVEL_F:
+                listener.onF(process);
+                break;
+            case AdbProxy.LEVEL_S:
+                listener.onS(process);
+                break;
+            }
+            captureLevel = level;
+        }
+        setLevelButtons(level);
+        setMinLevel(level);
+        if (restart) {
+            process.restart();
+        }
+    }
+
+    private void setLevelButtons(int level) {
+        boolean enabled = listener != null;
+        VButton.setEnabled(enabled && level != AdbProxy.LEVEL_V);
+        DButton.setEnabled(enabled && level != AdbProxy.LEVEL_D);
+        IButton.setEnabled(enabled && level != AdbProxy.LEVEL_I);
+        WButton.setEnabled(enabled && level != AdbProxy.LEVEL_W);
+        EButton.setEnabled(enabled && level != AdbProxy.LEVEL_E);
+        FButton.setEnabled(enabled && level != AdbProxy.LEVEL_F);
+        SButton.setEnabled(enabled && level != AdbProxy.LEVEL_S);
+    }
+
+    /**
+     * Filters the list for given level, on the event dispatch thread like
+     * all model updates
+     */
+    private void setMinLevel(final int level) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                model.setMinLevel(level);
+            }
+        });
+    }
+
+    void clearLines() {
+        lines.clear();
+        model.update();
+    }
+
     public synchronized void start(String title, ProcessHandler p, ConsoleWindowListener listener)
             throws IOException {
         init(title);
         this.listener = listener;
-        EButton.setEnabled(true);
-        DButton.setEnabled(false);
-        VButton.setEnabled(true);
-        SButton.setEnabled(true);
-        FButton.setEnabled(true);
-        WButton.setEnabled(true);
-        IButton.setEnabled(true);
-        text.setText("");
-        if (process != null) {
-            process.kill();
-        }
-        process = p;
-        process.addProcessListener(this);
-        p.start();
+        // AdbProxy.openStdout logs *:D
+        captureLevel = AdbProxy.LEVEL_D;
+        start(p, AdbProxy.LEVEL_D);
     }
 
     public synchronized void start(String title, ProcessHandler p)
             throws IOException {
         init(title);
         listener = null;
-        EButton.setEnabled(false);
-        DButton.setEnabled(false);
-        VButton.setEnabled(false);
-        SButton.setEnabled(false);
-        FButton.setEnabled(false);
-        WButton.setEnabled(false);
-        IButton.setEnabled(false);
-        text.setText("");
+        captureLevel = LogLineBuffer.LEVEL_NONE;
+        start(p, LogLineBuffer.LEVEL_NONE);
+    }
+
+    private void start(ProcessHandler p, int level) throws IOException {
+        setLevelButtons(level);
+        lines.clear();
+        setMinLevel(level);
         if (process != null) {
             process.kill();
         }
@@ -418,38 +345,47 @@ public class ConsoleWindow implements ProcessListener {
     }
 
     public void findNext(String search) {
-        String t = text.getText();
-        curSearchPos = t.indexOf(search, curSearchPos + 1);
-        int selPos = curSearchPos;
-        if (curSearchPos >= 0) {
-            text.setCaretPosition(selPos);
-            text.setSelectionStart(selPos);
-            text.setSelectionEnd(selPos + search.length());
-        } else {
-            java.awt.Toolkit.getDefaultToolkit().beep();
-            text.setSelectionStart(0);
-            text.setSelectionEnd(0);
-            curSearchPos = 0;
-        }
+        int from = text.getSelectedIndex() + 1;
+        int found = model.find(search, from, true);
+        select(found, 0);
     }
 
     public void findPrev(String search) {
-        String t = text.getText();
-        int br = curSearchPos - 1;
-        if (br < 0) {
-            br = 0;
+        int from = text.getSelectedIndex();
+        if (from < 0) {
+            from = model.getSize();
         }
-        curSearchPos = t.substring(0, br).lastIndexOf(search);
-        int selPos = curSearchPos;
-        if (curSearchPos >= 0) {
-            text.setCaretPosition(selPos);
-            text.setSelectionStart(selPos);
-            text.setSelectionEnd(selPos + search.length());
+        int found = model.find(search, from - 1, false);
+        select(found, model.getSize() - 1);
+    }
+
+    private void select(int index, int notFoundIndex) {
+        if (index >= 0) {
+            text.setSelectedIndex(index);
+            text.ensureIndexIsVisible(index);
         } else {
             java.awt.Toolkit.getDefaultToolkit().beep();
-            text.setSelectionStart(t.length() - 1);
-            text.setSelectionEnd(t.length() - 1);
-            curSearchPos = t.length() - 1;
+            text.clearSelection();
+            if (notFoundIndex >= 0) {
+                text.ensureIndexIsVisible(notFoundIndex);
+            }
+        }
+    }
+
+    private void scheduleUpdate() {
+        if (!updatePending.getAndSet(true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    updatePending.set(false);
+                    int size = model.getSize();
+                    boolean atEnd = text == null || size == 0 || text.getLastVisibleIndex() >= size - 1;
+                    model.update();
+                    if (atEnd && text != null && model.getSize() > 0) {
+                        text.ensureIndexIsVisible(model.getSize() - 1);
+                    }
+                }
+            });
         }
     }
 
@@ -460,18 +396,133 @@ public class ConsoleWindow implements ProcessListener {
 
     @Override
     public void died(int ret) {
-        //text.append("\n\n[PROCESS DIED, RETURN CODE " + ret + "]\n\n");
+        if (lines.flush() > 0) {
+            trace(1);
+            scheduleUpdate();
+        }
     }
 
     @Override
-    public void stderr(char c) {
+    public void stderr(char[] buf, int off, int len) {
     }
 
     @Override
-    public void stdout(char c) {
-        text.append(Character.toString(c));
-        if (c == '\n') {
-            text.setCaretPosition(text.getText().length());
+    public void stdout(char[] buf, int off, int len) {
+        int added = lines.append(buf, off, len);
+        if (added > 0) {
+            trace(added);
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Passes the last added lines logged by ApkAnalyser instrumentation to
+     * the TraceCorrelator
+     */
+    private void trace(int added) {
+        TraceCorrelator correlator = TraceCorrelator.getInstance();
+        long end = lines.getEnd();
+        for (long seq = end - added; seq < end; seq++) {
+            if ((lines.getLevel(seq) & LogLineBuffer.FLAG_APKANALYSER) != 0) {
+                String line = lines.getLine(seq);
+                if (line != null) {
+                    correlator.add(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lines shown, an index of the sequence numbers of the buffered
+     * lines passing the level filter. Accessed on the event dispatch thread.
+     */
+    class LogListModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+
+        private long[] seqs = new long[1024];
+        private int head = 0;
+        private int count = 0;
+        /** Sequence number of the next buffered line to filter */
+        private long scanned = 0;
+        private int minLevel = LogLineBuffer.LEVEL_NONE;
+
+        @Override
+        public int getSize() {
+            return count;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            String line = lines.getLine(seqs[head + index]);
+            return line == null ? "" : line;
+        }
+
+        void setMinLevel(int level) {
+            minLevel = level;
+            int removed = count;
+            head = 0;
+            count = 0;
+            scanned = 0;
+            if (removed > 0) {
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            update();
+        }
+
+        /**
+         * Drops the lines no longer buffered and filters the new ones
+         */
+        void update() {
+            long first = lines.getFirst();
+            long end = lines.getEnd();
+
+            int dropped = 0;
+            while (dropped < count && seqs[head + dropped] < first) {
+                dropped++;
+            }
+            if (dropped > 0) {
+                head += dropped;
+                count -= dropped;
+                fireIntervalRemoved(this, 0, dropped - 1);
+            }
+
+            int oldCount = count;
+            for (long seq = Math.max(scanned, first); seq < end; seq++) {
+                if (LogLineBuffer.isShown(lines.getLevel(seq), minLevel)) {
+                    add(seq);
+                }
+            }
+            scanned = end;
+            if (count > oldCount) {
+                fireIntervalAdded(this, oldCount, count - 1);
+            }
+        }
+
+        private void add(long seq) {
+            if (head + count == seqs.length) {
+                long[] grown = count * 2 > seqs.length ? new long[seqs.length * 2] : seqs;
+                System.arraycopy(seqs, head, grown, 0, count);
+                seqs = grown;
+                head = 0;
+            }
+            seqs[head + count++] = seq;
+        }
+
+        /**
+         * Returns the index of the next line containing given text
+         * @param search the text
+         * @param from index of the first line to search
+         * @param forward true to search towards the last line
+         * @return the index of the line, or -1 if not found
+         */
+        int find(String search, int from, boolean forward) {
+            for (int i = from; i >= 0 && i < count; i += forward ? 1 : -1) {
+                String line = lines.getLine(seqs[head + i]);
+                if (line != null && line.indexOf(search) >= 0) {
+                    return i;
+                }
+            }
+            return -1;
         }
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package gui;
+
+import andreflect.adb.AdbProxy;
+
+/**
+ * Ring buffer of the last lines of a process output, e.g. logcat. Text is
+ * appended in chunks as read from the process and split into lines, each
+ * line is parsed once for its logcat level. When the buffer is full the
+ * oldest lines are dropped.
+ * <p>
+ * Lines are addressed by sequence numbers, counted from the first line
+ * appended, so that an index of lines stays valid while lines are dropped.
+ * Thread safe.
+ */
+public class LogLineBuffer {
+    /** Level of lines that are not logcat lines, e.g. "--------- beginning of main" */
+    public static final int LEVEL_NONE = 0;
+
+    /** Added to the level of lines logged by ApkAnalyser instrumentation */
+    public static final int FLAG_APKANALYSER = 0x80;
+
+    /**
+     * Maximum length of a line, longer output without line breaks, e.g.
+     * progress bars or binary dumps, is split into lines of this length
+     */
+    public static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private static final String APKANALYSER_TAG = "APKANALYSER";
+
+    private final String[] m_lines;
+    private final byte[] m_levels;
+    /** Sequence number of the oldest line */
+    private long m_first = 0;
+    /** Sequence number of the next line */
+    private long m_end = 0;
+    private final StringBuilder m_partial = new StringBuilder();
+
+    /**
+     * Creates a buffer
+     * @param capacity the maximum number of lines kept
+     */
+    public LogLineBuffer(int capacity) {
+        m_lines = new String[capacity];
+        m_levels = new byte[capacity];
+    }
+
+    /**
+     * Appends text, a line is added when its line break is appended or when
+     * it reaches MAX_LINE_LENGTH
+     * @param buf the text
+     * @param off offset of the text in buf
+     * @param len length of the text
+     * @return the number of lines added
+     */
+    public synchronized int append(char[] buf, int off, int len) {
+        int added = 0;
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (buf[i] == '\n') {
+                added += appendPartial(buf, start, i - start);
+                addPartial();
+                added++;
+                start = i + 1;
+            }
+        }
+        added += appendPartial(buf, start, end - start);
+        return added;
+    }
+
+    /**
+     * Appends text without line breaks to the partial line, adding it as a
+     * line each time it would exceed MAX_LINE_LENGTH
+     * @return the number of lines added
+     */
+    private int appendPartial(char[] buf, int off, int len) {
+        int added = 0;
+        while (m_partial.length() + len > MAX_LINE_LENGTH) {
+            int count = MAX_LINE_LENGTH - m_partial.length();
+            m_partial.append(buf, off, count);
+            addPartial();
+            added++;
+            off += count;
+            len -= count;
+        }
+        m_partial.append(buf, off, len);
+        return added;
+    }
+
+    /**
+     * Adds the text appended after the last line break as a line, if any
+     * @return the number of lines added
+     */
+    public synchronized int flush() {
+        if (m_partial.length() == 0) {
+            return 0;
+        }
+        addPartial();
+        return 1;
+    }
+
+    /**
+     * Drops all lines, the sequence numbers continue after the dropped lines
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < m_lines.length; i++) {
+            m_lines[i] = null;
+        }
+        m_first = m_end;
+        m_partial.setLength(0);
+    }
+
+    /**
+     * Returns the sequence number of the oldest line in the buffer
+     */
+    public synchronized long getFirst() {
+        return m_first;
+    }
+
+    /**
+     * Returns the sequence number the next line will get, the buffer holds
+     * lines getFirst() to getEnd() - 1
+     */
+    public synchronized long getEnd() {
+        return m_end;
+    }
+
+    /**
+     * Returns a line
+     * @param seq sequence number of the line
+     * @return the line, or null if it has been dropped or cleared
+     */
+    public synchronized String getLine(long seq) {
+        if (seq < m_first || seq >= m_end) {
+            return null;
+        }
+        return m_lines[(int) (seq % m_lines.length)];
+    }
+
+    /**
+     * Returns the level of a line
+     * @param seq sequence number of the line
+     * @return one of the AdbProxy.LEVEL_ constants or LEVEL_NONE, plus
+     *         FLAG_APKANALYSER for ApkAnalyser lines
+     */
+    public synchronized int getLevel(long seq) {
+        if (seq < m_first || seq >= m_end) {
+            return LEVEL_NONE;
+        }
+        return m_levels[(int) (seq % m_lines.length)] & 0xff;
+    }
+
+    /**
+     * Returns whether a line of given level is shown when filtering for
+     * given minimum level. Like the logcat filter "APKANALYSER:V *:level",
+     * ApkAnalyser lines are always shown, as well as lines without level.
+     * @param level the level of the line, as returned by getLevel
+     * @param minLevel the minimum level, LEVEL_NONE to show all lines
+     * @return true if the line is shown
+     */
+    public static boolean isShown(int level, int minLevel) {
+        return (level & FLAG_APKANALYSER) != 0
+                || level == LEVEL_NONE
+                || level >= minLevel;
+    }
+
+    /**
+     * Parses the level of a logcat line in the brief or time format, e.g.
+     * "10-18 09:52:01.123 D/Tag( 1234): message"
+     * @param line the line
+     * @return the level, see getLevel
+     */
+    public static int parseLevel(String line) {
+        int slash;
+        if (line.length() > 20 && line.charAt(20) == '/') {
+            slash = 20;
+        } else if (line.length() > 2 && line.charAt(1) == '/') {
+            slash = 1;
+        } else {
+            return LEVEL_NONE;
+        }
+        int level;
+        switch (line.charAt(slash - 1)) {
+        case 'V':
+            level = AdbProxy.LEVEL_V;
+            break;
+        case 'D':
+            level = AdbProxy.LEVEL_D;
+            break;
+        case 'I':
+            level = AdbProxy.LEVEL_I;
+            break;
+        case 'W':
+            level = AdbProxy.LEVEL_W;
+            break;
+        case 'E':
+            level = AdbProxy.LEVEL_E;
+            break;
+        case 'F':
+        case 'A':
+            level = AdbProxy.LEVEL_F;
+            break;
+        default:
+            return LEVEL_NONE;
+        }
+        if (line.startsWith(APKANALYSER_TAG, slash + 1)) {
+            int next = slash + 1 + APKANALYSER_TAG.length();
+            if (next < line.length() && (line.charAt(next) == '(' || line.charAt(next) == ' ')) {
+                level |= FLAG_APKANALYSER;
+            }
+        }
+        return level;
+    }
+
+    private void addPartial() {
+        int len = m_partial.length();
+        while (len > 0 && m_partial.charAt(len - 1) == '\r') {
+            len--;
+        }
+        String line = m_partial.substring(0, len);
+        m_partial.setLength(0);
+
+        int slot = (int) (m_end % m_lines.length);
+        m_lines[slot] = line;
+        m_levels[slot] = (byte) parseLevel(line);
+        m_end++;
+        if (m_end - m_first > m_lines.length) {
+            m_first++;
+        }
+    }
+}
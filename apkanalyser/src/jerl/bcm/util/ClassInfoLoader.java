@@ -21,22 +21,49 @@ package jerl.bcm.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import org.objectweb.asm.ClassAdapter;
+import mereflect.MEClass;
+import mereflect.MEClassContext;
+import mereflect.UnknownClass;
+
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 
 public class ClassInfoLoader implements CommonSuperClassIF {
+    /** Default maximum number of cached class infos */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
     private final Vector<ZipFile> archiveFiles = new Vector<ZipFile>();
     private boolean isDebugMode = true;
+    private MEClassContext classContext = null;
+    private final Map<String, ClassInfo> cache;
 
     public ClassInfoLoader(ZipFile file) {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param file first archive to look up classes in
+     * @param cacheSize maximum number of class infos kept, least recently
+     * used ones are dropped first
+     */
+    public ClassInfoLoader(ZipFile file, final int cacheSize) {
         archiveFiles.add(file);
+        cache = new LinkedHashMap<String, ClassInfo>(256, 0.75f, true) {
+            private static final long serialVersionUID = 2590932404178633521L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClassInfo> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     /**
@@ -50,6 +77,15 @@ public class ClassInfoLoader implements CommonSuperClassIF {
         archiveFiles.add(file);
     }
 
+    /**
+     * Sets a class context that is asked for already parsed classes before
+     * the archives are read.
+     * @param ctx the class context, or null
+     */
+    public void setClassContext(MEClassContext ctx) {
+        classContext = ctx;
+    }
+
     private String convertToFilename(String className) {
         // className.replace('.', newChar)
         return className + ".class";
@@ -67,11 +103,40 @@ public class ClassInfoLoader implements CommonSuperClassIF {
         return null;
     }
 
-    // TODO: make a cache of ClassInfo instances
     private ClassInfo loadClassInfo(String name) throws ClassNotFoundException {
+        if (name == null) {
+            throw new ClassNotFoundException(name);
+        }
+        ClassInfo ci;
+        synchronized (cache) {
+            ci = cache.get(name);
+        }
+        if (ci == null) {
+            ci = readClassInfo(name);
+            synchronized (cache) {
+                cache.put(name, ci);
+            }
+        }
+        return ci;
+    }
+
+    private ClassInfo readClassInfo(String name) throws ClassNotFoundException {
+        if (classContext != null) {
+            try {
+                MEClass c = classContext.findMEClass(name.replace('/', '.'));
+                if (c != null && !(c instanceof UnknownClass)) {
+                    return createClassInfo(c);
+                }
+            } catch (IOException ioe) {
+                // read from the archives instead
+            }
+        }
+
+        // Only the class header is needed, so the class is not visited
         ClassReader cr = null;
+        InputStream is = null;
         try {
-            InputStream is = getInputStream(name);
+            is = getInputStream(name);
             if (is != null) {
                 cr = new ClassReader(is);
             } else {
@@ -79,11 +144,37 @@ public class ClassInfoLoader implements CommonSuperClassIF {
             }
         } catch (IOException ioe) {
             throw new ClassNotFoundException(name);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ioe) {
+                }
+            }
+        }
+        return new ClassInfo(cr.getClassName(), cr.getSuperName(), cr.getInterfaces(),
+                (cr.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+    }
+
+    /**
+     * Builds the class info from the declarations of given class, which does
+     * not need its constant pool, so classes read from cached declarations are
+     * not loaded fully.
+     */
+    private ClassInfo createClassInfo(MEClass c) {
+        MEClass superClass = c.getSuperClass();
+        String superName = superClass == null ? null : getRawClassName(superClass);
+        MEClass[] ifcs = c.getInterfaces();
+        String[] interfaces = new String[ifcs.length];
+        for (int i = 0; i < ifcs.length; i++) {
+            interfaces[i] = getRawClassName(ifcs[i]);
         }
-        ClassWriter cw = new ClassWriter(0);
-        ClassInfoBuilder cv = new ClassInfoBuilder(cw);
-        cr.accept(cv, 0);
-        return cv.getClassInfo();
+        return new ClassInfo(c.getRawName(), superName, interfaces, c.isInterface());
+    }
+
+    private static String getRawClassName(MEClass c) {
+        // unknown classes only have a name
+        return c.getName().replace('.', '/');
     }
 
     @Override
@@ -130,16 +221,31 @@ public class ClassInfoLoader implements CommonSuperClassIF {
             return "java/lang/Object";
         } else {
             // step up in class hierachy to find common super class
-            do {
-                ci1 = ci1.getSuperClassInfo();
-            } while (!ci1.isAssignableFrom(ci2));
+            String[] chain1 = ci1.getSuperChain();
+            String[] chain2 = ci2.getSuperChain();
+            String common = "java/lang/Object";
+            for (int i = 1; i < chain1.length; i++) {
+                if (indexOf(chain2, chain1[i]) >= 0) {
+                    common = chain1[i];
+                    break;
+                }
+            }
             if (isDebugMode) {
-                System.out.println(" : " + ci1.name);
+                System.out.println(" : " + common);
             }
-            return ci1.name;
+            return common;
         }
     }
 
+    private static int indexOf(String[] chain, String name) {
+        for (int i = 0; i < chain.length; i++) {
+            if (chain[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public static void main(String[] args) throws IOException {
         File libFile = new File("res/javaclasses.zip");
         File jarFile = new File("res/MMP-SE_K790.jar");
@@ -152,38 +258,14 @@ public class ClassInfoLoader implements CommonSuperClassIF {
         System.out.println(cr.getCommonSuperClass("oh", "dr"));
     }
 
-    /////// ClassInfoBuilder ////////////////////////////////////////////////////////
-    class ClassInfoBuilder extends ClassAdapter {
-        private String superName;
-        private String name;
-        private String[] interfaces;
-        private boolean isInterface;
-
-        public ClassInfoBuilder(ClassVisitor cv) {
-            super(cv);
-        }
-
-        @Override
-        public void visit(int version, int access, String name,
-                String signature, String superName, String[] interfaces) {
-            this.name = name;
-            this.superName = superName;
-            this.interfaces = interfaces;
-            isInterface = (access & Opcodes.ACC_INTERFACE) == 0 ? false : true;
-            cv.visit(version, access, name, signature, superName, interfaces);
-        }
-
-        public ClassInfo getClassInfo() {
-            return new ClassInfo(name, superName, interfaces, isInterface);
-        }
-    }
-
     /////// ClassInfo ////////////////////////////////////////////////////////////
     class ClassInfo {
         public final String superName;
         public final String name;
         private final String[] interfaces;
         private final boolean isInterface;
+        /** Names of this class and its super classes, up to the first one not found */
+        private volatile String[] superChain = null;
 
         public ClassInfo(String name, String superName, String[] interfaces, boolean isInterface) {
             this.name = name;
@@ -205,6 +287,36 @@ public class ClassInfoLoader implements CommonSuperClassIF {
             }
         }
 
+        /**
+         * Returns the names of this class and all its super classes, this class
+         * first. Computed once, the chain ends early if a super class is missing.
+         */
+        public String[] getSuperChain() {
+            String[] chain = superChain;
+            if (chain == null) {
+                List<String> names = new ArrayList<String>();
+                names.add(name);
+                ClassInfo ci = this;
+                while (ci.superName != null) {
+                    ci = ci.getSuperClassInfo();
+                    if (ci == null) {
+                        break;
+                    }
+                    if (ci.superChain != null) {
+                        // reuse the chain of the super class
+                        for (String superClass : ci.superChain) {
+                            names.add(superClass);
+                        }
+                        break;
+                    }
+                    names.add(ci.name);
+                }
+                chain = names.toArray(new String[names.size()]);
+                superChain = chain;
+            }
+            return chain;
+        }
+
         /**
          * Determines if the class or interface represented by this <code>Class</code>
          * object is either the same as, or is a superclass or superinterface of,
@@ -218,14 +330,7 @@ public class ClassInfoLoader implements CommonSuperClassIF {
                 return true;
             }
             // is this a super class of ci
-            while (!ci.name.equals("java/lang/Object")) {
-                ci = ci.getSuperClassInfo();
-                if (name.equals(ci.name)) {
-                    // same class
-                    return true;
-                }
-            }
-            return false;
+            return indexOf(ci.getSuperChain(), name) > 0;
         }
     }
 }
@@ -21,12 +21,18 @@ package mereflect;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mereflect.io.ClassReaderFactory;
-import andreflect.ApkClassContext;
 import andreflect.DexReader;
 import andreflect.DexReferenceCache;
 import andreflect.DexResource;
@@ -35,8 +41,24 @@ public abstract class AbstractClassContext implements MEClassContext, Comparable
 {
     protected MEClassContext m_parent;
     protected List<MEClassContext> m_children = new ArrayList<MEClassContext>();
-    protected Map<String, MEClass> m_classCache = new TreeMap<String, MEClass>();
+    /**
+     * Held while loading dex classes of this context, whose dex files may be read lazily and
+     * whose DexReferenceCache is not thread safe. Classes only refer to classes of their own
+     * context or of the contexts it is resolved against, so the locks of several contexts are
+     * taken from apk to framework and never in the other order. No context monitor is held
+     * when a load lock is taken.
+     */
+    private final Object m_loadLock = new Object();
+
+    /** Loaded classes sorted by name, class files are parsed concurrently and published with putIfAbsent */
+    protected ConcurrentNavigableMap<String, MEClass> m_classCache = new ConcurrentSkipListMap<String, MEClass>();
     protected MEClassResource[] m_resourceCache = null;
+    /** Class resources of this and all child contexts by class name, built with m_resourceCache */
+    protected volatile Map<String, MEClassResource> m_resourceIndex = null;
+    protected volatile ClassHierarchy m_hierarchy = null;
+    protected volatile InvokationIndex m_invokationIndex = null;
+    /** Incremented whenever the resources change, so indexes built meanwhile are not kept */
+    private int m_generation = 0;
     protected boolean m_isMidlet;
 
     @Override
@@ -58,24 +80,53 @@ public abstract class AbstractClassContext implements MEClassContext, Comparable
     }
 
     @Override
-    public synchronized void addContext(MEClassContext ctx)
+    public void addContext(MEClassContext ctx)
     {
-        if (!m_children.contains(ctx))
+        synchronized (this)
         {
+            if (m_children.contains(ctx))
+            {
+                return;
+            }
             ctx.setParentContext(this);
             m_children.add(ctx);
-            m_resourceCache = null;
         }
+        invalidateClassResources();
     }
 
     @Override
-    public synchronized void removeContext(MEClassContext ctx)
+    public void removeContext(MEClassContext ctx)
     {
-        if (m_children.contains(ctx))
+        synchronized (this)
         {
+            if (!m_children.contains(ctx))
+            {
+                return;
+            }
             ctx.setParentContext(null);
             m_children.remove(ctx);
+        }
+        invalidateClassResources();
+    }
+
+    /**
+     * Drops the resource cache and index of this context and of all parent contexts,
+     * since they include the resources of this context.
+     */
+    protected void invalidateClassResources()
+    {
+        synchronized (this)
+        {
             m_resourceCache = null;
+            m_resourceIndex = null;
+            m_hierarchy = null;
+            m_invokationIndex = null;
+            m_generation++;
+        }
+        MEClassContext parent = getParentContext();
+        if (parent instanceof AbstractClassContext)
+        {
+            ((AbstractClassContext) parent).invalidateClassResources();
         }
     }
 
@@ -84,14 +135,15 @@ public abstract class AbstractClassContext implements MEClassContext, Comparable
     {
         if (m_resourceCache == null)
         {
-            ArrayList<MEClassResource> rscs = new ArrayList<MEClassResource>();
-            addToList(rscs, getClassResourcesImpl());
+            Map<String, MEClassResource> index = new LinkedHashMap<String, MEClassResource>();
+            addToIndex(index, getClassResourcesImpl());
             MEClassContext[] ctxs = getContexts();
             for (int i = 0; i < ctxs.length; i++)
             {
-                addToList(rscs, ctxs[i].getClassResources());
+                addToIndex(index, ctxs[i].getClassResources());
             }
-            m_resourceCache = rscs.toArray(new MEClassResource[rscs.size()]);
+            m_resourceCache = index.values().toArray(new MEClassResource[index.size()]);
+            m_resourceIndex = index;
         }
         return m_resourceCache;
     }
@@ -99,19 +151,18 @@ public abstract class AbstractClassContext implements MEClassContext, Comparable
     public abstract MEClassResource[] getClassResourcesImpl() throws IOException;
 
     @Override
-    public synchronized MEClassResource getClassResource(String name) throws IOException
+    public MEClassResource getClassResource(String name) throws IOException
     {
-        MEClassResource[] rscs = getClassResources();
-        MEClassResource rsc = null;
-        for (int i = 0; i < rscs.length; i++)
+        Map<String, MEClassResource> index = m_resourceIndex;
+        if (index == null)
         {
-            if (rscs[i].getClassName().equals(name))
+            synchronized (this)
             {
-                rsc = rscs[i];
-                break;
+                getClassResources();
+                index = m_resourceIndex;
             }
         }
-        return rsc;
+        return index.get(name);
     }
 
     @Override
@@ -129,72 +180,301 @@ public abstract class AbstractClassContext implements MEClassContext, Comparable
     @Override
     public MEClass getMEClass(String classname) throws IOException, ClassNotFoundException
     {
-        MEClass c = null;
-        c = m_classCache.get(classname);
+        MEClass c = findMEClass(classname);
+        if (c == null)
+        {
+            throw new ClassNotFoundException(classname);
+        }
+        return c;
+    }
+
+    @Override
+    public MEClass findMEClass(String classname) throws IOException
+    {
+        MEClass c = m_classCache.get(classname);
         if (c == null && getParentContext() != null)
         {
+            c = getParentContext().findMEClass(classname);
+        }
+
+        if (c == null)
+        {
+            MEClassResource rsc = getClassResource(classname);
+            if (rsc instanceof DexResource)
+            {
+                synchronized (getLoadLock(rsc.getContext()))
+                {
+                    c = m_classCache.get(classname);
+                    if (c == null)
+                    {
+                        c = loadClass(rsc);
+                    }
+                }
+            }
+            else if (rsc != null)
+            {
+                c = loadClass(rsc);
+            }
+        }
+        return c;
+    }
+
+    private static Object getLoadLock(MEClassContext ctx)
+    {
+        return ctx instanceof AbstractClassContext ? ((AbstractClassContext) ctx).m_loadLock : ctx;
+    }
+
+    /**
+     * Returns the class hierarchy of this context. It is built outside the
+     * context monitor, since building it loads classes of this and of the
+     * reference contexts, which takes their load locks. Threads asking at the
+     * same time may each build it, one of them is kept.
+     */
+    @Override
+    public ClassHierarchy getClassHierarchy() throws IOException
+    {
+        ClassHierarchy hierarchy = m_hierarchy;
+        if (hierarchy == null)
+        {
+            int generation = getGeneration();
+            hierarchy = new ClassHierarchy(this);
+            synchronized (this)
+            {
+                if (m_hierarchy != null)
+                {
+                    hierarchy = m_hierarchy;
+                }
+                else if (generation == m_generation)
+                {
+                    m_hierarchy = hierarchy;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the invokation index of this context, built outside the context
+     * monitor like the class hierarchy.
+     */
+    @Override
+    public InvokationIndex getInvokationIndex() throws IOException
+    {
+        InvokationIndex index = m_invokationIndex;
+        if (index == null)
+        {
+            int generation = getGeneration();
+            index = new InvokationIndex(this);
+            synchronized (this)
+            {
+                if (m_invokationIndex != null)
+                {
+                    index = m_invokationIndex;
+                }
+                else if (generation == m_generation)
+                {
+                    m_invokationIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public void invalidateInvokationIndex()
+    {
+        synchronized (this)
+        {
+            m_invokationIndex = null;
+            m_generation++;
+        }
+        MEClassContext parent = getParentContext();
+        if (parent != null)
+        {
+            parent.invalidateInvokationIndex();
+        }
+    }
+
+    private synchronized int getGeneration()
+    {
+        return m_generation;
+    }
+
+    private MEClass loadClass(MEClassResource rsc) throws IOException
+    {
+        MEClass c = null;
+        if (rsc instanceof DexResource) {
             try
             {
-                c = getParentContext().getMEClass(classname);
-            } catch (ClassNotFoundException cnfe)
+                c = DexReader.readClassFile((DexResource) rsc, ((DexResource) rsc).getClassDefItem().getDexFile().isOdex());
+                c.setResource(rsc);
+                c = publish(rsc, c);
+            } catch (Exception e)
             {
+                e.printStackTrace();
                 c = null;
             }
+        } else {
+            MEClassContext ctx = rsc.getContext();
+            c = (ctx instanceof AbstractClassContext ? (AbstractClassContext) ctx : this).readClass(rsc);
+            c.setResource(rsc);
+            c = publish(rsc, c);
         }
+        return c;
+    }
 
-        if (c == null)
+    /**
+     * Reads the class of given class file resource of this context.
+     * @param rsc the class resource
+     * @return the class, without its resource set
+     * @throws IOException if the class file could not be read
+     */
+    protected MEClass readClass(MEClassResource rsc) throws IOException
+    {
+        DataInputStream dis = null;
+        try
         {
-            MEClassResource[] rscs = getClassResources();
-            for (int i = 0; i < rscs.length; i++)
+            dis = new DataInputStream(rsc.getInputStream());
+            return ClassReaderFactory.getClassReader().readClassFile(dis);
+        } finally
+        {
+            if (dis != null)
             {
-                if (rscs[i].getClassName().equals(classname)) {
-
-                    if (rscs[i] instanceof DexResource) {
-                        try
-                        {
-                            c = DexReader.readClassFile((DexResource) rscs[i], ((ApkClassContext) (rscs[i].getContext())).getDex().isOdex());
-                            m_classCache.put(classname, c);
-                            c.setResource(rscs[i]);
-                            break;
-                        } catch (Exception e)
-                        {
-                            e.printStackTrace();
-                        }
-                    } else {
-                        DataInputStream dis = null;
-                        try
-                        {
-                            dis = new DataInputStream(rscs[i].getInputStream());
-                            c = ClassReaderFactory.getClassReader().readClassFile(dis);
-                            m_classCache.put(classname, c);
-                            c.setResource(rscs[i]);
-                            break;
-                        } finally
-                        {
-                            if (dis != null)
-                            {
-                                dis.close();
+                dis.close();
+            }
+        }
+    }
+
+    /**
+     * Called by preloadClasses with the classes of this context that it has
+     * loaded, so they can be stored for later runs. Does nothing by default.
+     * @param classes the loaded classes of this context
+     */
+    protected void storeClasses(List<MEClass> classes)
+    {
+    }
+
+    /**
+     * Adds a loaded class to the cache unless another thread got there first,
+     * in which case that instance is returned so all callers share one instance.
+     */
+    private MEClass publish(MEClassResource rsc, MEClass c)
+    {
+        MEClass prev = m_classCache.putIfAbsent(rsc.getClassName(), c);
+        return prev == null ? c : prev;
+    }
+
+    /**
+     * Parses all class files of this context and its child contexts into the
+     * class cache on a pool of threads, so later lookups do not have to read
+     * the jars. Dex classes are left to be loaded on demand. The loaded
+     * classes are then passed to storeClasses of their contexts.
+     * @param threads number of threads to parse on
+     * @return number of classes parsed
+     * @throws IOException if the class resources could not be listed
+     */
+    public int preloadClasses(int threads) throws IOException
+    {
+        final List<MEClassResource> rscs = new ArrayList<MEClassResource>();
+        MEClassResource[] all = getClassResources();
+        for (int i = 0; i < all.length; i++)
+        {
+            if (!(all[i] instanceof DexResource) && !m_classCache.containsKey(all[i].getClassName()))
+            {
+                rscs.add(all[i]);
+            }
+        }
+        if (rscs.isEmpty())
+        {
+            return 0;
+        }
+
+        final AtomicInteger nextClass = new AtomicInteger(0);
+        final AtomicInteger loaded = new AtomicInteger(0);
+        threads = Math.max(1, Math.min(threads, rscs.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++)
+            {
+                workers.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int iC;
+                        while ((iC = nextClass.getAndIncrement()) < rscs.size()) {
+                            MEClassResource rsc = rscs.get(iC);
+                            try {
+                                if (!m_classCache.containsKey(rsc.getClassName())) {
+                                    loadClass(rsc);
+                                    loaded.incrementAndGet();
+                                }
+                            } catch (IOException ioe) {
+                                // left out, reported when the class is looked up
                             }
                         }
                     }
+                }));
+            }
+            for (Future<?> worker : workers)
+            {
+                try
+                {
+                    worker.get();
+                } catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ee)
+                {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
                 }
             }
+        } finally
+        {
+            pool.shutdownNow();
         }
-        if (c == null)
+        if (Thread.currentThread().isInterrupted())
         {
-            throw new ClassNotFoundException(classname);
+            return loaded.get();
         }
-        return c;
+
+        Map<MEClassContext, List<MEClass>> contextClasses = new LinkedHashMap<MEClassContext, List<MEClass>>();
+        for (int i = 0; i < all.length; i++)
+        {
+            MEClass c = all[i] instanceof DexResource ? null : m_classCache.get(all[i].getClassName());
+            if (c != null && c.getResource() == all[i] && all[i].getContext() instanceof AbstractClassContext)
+            {
+                List<MEClass> classes = contextClasses.get(all[i].getContext());
+                if (classes == null)
+                {
+                    classes = new ArrayList<MEClass>();
+                    contextClasses.put(all[i].getContext(), classes);
+                }
+                classes.add(c);
+            }
+        }
+        for (Map.Entry<MEClassContext, List<MEClass>> e : contextClasses.entrySet())
+        {
+            ((AbstractClassContext) e.getKey()).storeClasses(e.getValue());
+        }
+        return loaded.get();
     }
 
-    private void addToList(ArrayList<MEClassResource> list, MEClassResource[] rscs)
+    private void addToIndex(Map<String, MEClassResource> index, MEClassResource[] rscs)
     {
         if (rscs != null)
         {
             for (int i = 0; i < rscs.length; i++)
             {
-                if (!list.contains(rscs[i])) {
-                    list.add(rscs[i]);
+                String name = rscs[i].getClassName();
+                if (!index.containsKey(name)) {
+                    index.put(name, rscs[i]);
                 }
             }
         }
@@ -73,4 +73,10 @@ public abstract class AbstractClassResource implements MEClassResource
             return false;
         }
     }
+
+    @Override
+    public int hashCode()
+    {
+        return getClassName().hashCode();
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.TreeSet;
+
+import mereflect.info.CiClass;
+import mereflect.info.CiUtf8;
+import mereflect.info.ClassInfo;
+import mereflect.io.ClassReaderFactory;
+
+/**
+ * Class read from the cached declarations of a class file: its name, flags,
+ * superclass, interfaces, fields and methods, and the constant pool entries
+ * these refer to. Looking up classes and members only needs the declarations,
+ * which read several times faster than the class files. The rest of the
+ * definition is parsed from the class file the first time it is asked for.
+ */
+public class CachedClass extends MEClass
+{
+    private volatile boolean m_loaded = false;
+
+    protected CachedClass()
+    {
+    }
+
+    /**
+     * Parses the class file of this class and fills in the constant pool
+     * entries and attributes missing from the cached declarations. The
+     * declarations are kept, so names and members already handed out stay
+     * valid.
+     */
+    @Override
+    protected void loadDefinition()
+    {
+        if (m_loaded)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (m_loaded)
+            {
+                return;
+            }
+            MEClass c;
+            DataInputStream dis = null;
+            try
+            {
+                dis = new DataInputStream(getResource().getInputStream());
+                c = ClassReaderFactory.getClassReader().readClassFile(dis);
+            } catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            } finally
+            {
+                if (dis != null)
+                {
+                    try
+                    {
+                        dis.close();
+                    } catch (IOException e)
+                    {
+                    }
+                }
+            }
+            MEMethod[] methods = c.getMethods();
+            MEField[] fields = c.getFields();
+            if (c.m_constantPool.length != m_constantPool.length || methods.length != m_methods.length
+                    || fields.length != m_fields.length)
+            {
+                throw new RuntimeException("Cached declarations do not match class file of " + getName());
+            }
+            for (int i = 0; i < m_constantPool.length; i++)
+            {
+                if (m_constantPool[i] == null)
+                {
+                    m_constantPool[i] = c.m_constantPool[i];
+                }
+            }
+            for (int i = 0; i < m_methods.length; i++)
+            {
+                m_methods[i].setAttributes(methods[i].m_attributes);
+            }
+            for (int i = 0; i < m_fields.length; i++)
+            {
+                m_fields[i].setAttributes(fields[i].m_attributes);
+            }
+            m_attributes = c.m_attributes;
+            m_loaded = true;
+        }
+    }
+
+    /**
+     * Writes the declarations of given class, to be read back by read
+     * @param c a class read from a class file
+     * @param out the stream to write to
+     * @return false if nothing was written since the declarations refer to
+     *         constant pool entries of the wrong kind
+     * @throws IOException if writing fails
+     */
+    public static boolean write(MEClass c, DataOutputStream out) throws IOException
+    {
+        ClassInfo[] cp = c.m_constantPool;
+        TreeSet<Integer> entries = new TreeSet<Integer>();
+        if (!addClassEntry(cp, c.m_thisClassIndex, entries)
+                || (c.m_superClassIndex != 0 && !addClassEntry(cp, c.m_superClassIndex, entries)))
+        {
+            return false;
+        }
+        for (int i = 0; i < c.m_interfaceIndices.length; i++)
+        {
+            if (!addClassEntry(cp, c.m_interfaceIndices[i], entries))
+            {
+                return false;
+            }
+        }
+        for (int i = 0; i < c.m_fields.length; i++)
+        {
+            if (!addUtf8Entry(cp, c.m_fields[i].getNameIndex(), entries)
+                    || !addUtf8Entry(cp, c.m_fields[i].getDescriptorIndex(), entries))
+            {
+                return false;
+            }
+        }
+        for (int i = 0; i < c.m_methods.length; i++)
+        {
+            if (!addUtf8Entry(cp, c.m_methods[i].getNameIndex(), entries)
+                    || !addUtf8Entry(cp, c.m_methods[i].getDescriptorIndex(), entries))
+            {
+                return false;
+            }
+        }
+
+        out.writeShort(c.m_majorVersion);
+        out.writeShort(c.m_minorVersion);
+        out.writeShort(c.m_accessFlags);
+        out.writeShort(c.m_thisClassIndex);
+        out.writeShort(c.m_superClassIndex);
+        out.writeShort(c.m_interfaceIndices.length);
+        for (int i = 0; i < c.m_interfaceIndices.length; i++)
+        {
+            out.writeShort(c.m_interfaceIndices[i]);
+        }
+        out.writeShort(cp.length);
+        out.writeShort(entries.size());
+        for (Integer index : entries)
+        {
+            ClassInfo ci = cp[index.intValue()];
+            out.writeShort(index.intValue());
+            out.writeByte(ci.getTag());
+            if (ci.getTag() == ClassInfo.CONSTANT_Class)
+            {
+                out.writeShort(((CiClass) ci).getNameIndex());
+            }
+            else
+            {
+                out.writeUTF(((CiUtf8) ci).getUtf8());
+            }
+        }
+        out.writeShort(c.m_fields.length);
+        for (int i = 0; i < c.m_fields.length; i++)
+        {
+            out.writeShort(c.m_fields[i].getAccessFlags());
+            out.writeShort(c.m_fields[i].getNameIndex());
+            out.writeShort(c.m_fields[i].getDescriptorIndex());
+        }
+        out.writeShort(c.m_methods.length);
+        for (int i = 0; i < c.m_methods.length; i++)
+        {
+            out.writeShort(c.m_methods[i].getAccessFlags());
+            out.writeShort(c.m_methods[i].getNameIndex());
+            out.writeShort(c.m_methods[i].getDescriptorIndex());
+        }
+        return true;
+    }
+
+    /**
+     * Reads class declarations written by write. The resource of the
+     * returned class must be set before its definition is loaded.
+     * @param in the stream to read from
+     * @return the class
+     * @throws IOException if reading fails
+     */
+    public static CachedClass read(DataInputStream in) throws IOException
+    {
+        CachedClass c = new CachedClass();
+        c.m_majorVersion = in.readUnsignedShort();
+        c.m_minorVersion = in.readUnsignedShort();
+        c.m_accessFlags = in.readUnsignedShort();
+        c.m_thisClassIndex = in.readUnsignedShort();
+        c.m_superClassIndex = in.readUnsignedShort();
+        c.m_interfaceIndices = new int[in.readUnsignedShort()];
+        for (int i = 0; i < c.m_interfaceIndices.length; i++)
+        {
+            c.m_interfaceIndices[i] = in.readUnsignedShort();
+        }
+        c.m_constantPool = new ClassInfo[in.readUnsignedShort()];
+        int entries = in.readUnsignedShort();
+        for (int i = 0; i < entries; i++)
+        {
+            int index = in.readUnsignedShort();
+            int tag = in.readUnsignedByte();
+            if (tag == ClassInfo.CONSTANT_Class)
+            {
+                c.m_constantPool[index] = new CiClass(in.readUnsignedShort());
+            }
+            else if (tag == ClassInfo.CONSTANT_Utf8)
+            {
+                c.m_constantPool[index] = new CiUtf8(in.readUTF());
+            }
+            else
+            {
+                throw new IOException("Unexpected constant pool tag [" + tag + "]");
+            }
+        }
+        c.m_fields = new MEField[in.readUnsignedShort()];
+        for (int i = 0; i < c.m_fields.length; i++)
+        {
+            MEField f = new MEField(c);
+            f.setAccessFlags(in.readUnsignedShort());
+            f.setNameIndex(in.readUnsignedShort());
+            f.setDescriptorIndex(in.readUnsignedShort());
+            c.m_fields[i] = f;
+        }
+        c.m_methods = new MEMethod[in.readUnsignedShort()];
+        for (int i = 0; i < c.m_methods.length; i++)
+        {
+            MEMethod m = new MEMethod(c);
+            m.setAccessFlags(in.readUnsignedShort());
+            m.setNameIndex(in.readUnsignedShort());
+            m.setDescriptorIndex(in.readUnsignedShort());
+            c.m_methods[i] = m;
+        }
+        return c;
+    }
+
+    private static boolean addClassEntry(ClassInfo[] cp, int index, TreeSet<Integer> entries)
+    {
+        if (index <= 0 || index >= cp.length || cp[index] == null || cp[index].getTag() != ClassInfo.CONSTANT_Class)
+        {
+            return false;
+        }
+        entries.add(Integer.valueOf(index));
+        return addUtf8Entry(cp, ((CiClass) cp[index]).getNameIndex(), entries);
+    }
+
+    private static boolean addUtf8Entry(ClassInfo[] cp, int index, TreeSet<Integer> entries)
+    {
+        if (index <= 0 || index >= cp.length || cp[index] == null || cp[index].getTag() != ClassInfo.CONSTANT_Utf8)
+        {
+            return false;
+        }
+        entries.add(Integer.valueOf(index));
+        return true;
+    }
+}
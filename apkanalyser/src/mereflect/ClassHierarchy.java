@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Subclass and implementor relations of all classes in a context. Built once
+ * from the loaded classes, queries are answered without walking the classes
+ * of the context again.
+ */
+public class ClassHierarchy
+{
+    /** Classes of the context, in the order of MEClassContext.getClassnames() */
+    protected final MEClass[] m_classes;
+    /** Index of each class of the context in m_classes */
+    protected final Map<MEClass, Integer> m_ordinals = new HashMap<MEClass, Integer>();
+    /** Direct subclasses and implementors, also for parents outside the context */
+    protected final Map<MEClass, List<MEClass>> m_children = new HashMap<MEClass, List<MEClass>>();
+
+    public ClassHierarchy(MEClassContext ctx) throws IOException
+    {
+        String[] classNames = ctx.getClassnames();
+        List<MEClass> classes = new ArrayList<MEClass>(classNames.length);
+        for (int i = 0; i < classNames.length; i++)
+        {
+            MEClass clazz = ctx.findMEClass(classNames[i]);
+            if (clazz != null && !m_ordinals.containsKey(clazz))
+            {
+                m_ordinals.put(clazz, new Integer(classes.size()));
+                classes.add(clazz);
+            }
+        }
+        m_classes = classes.toArray(new MEClass[classes.size()]);
+
+        Set<MEClass> visited = new HashSet<MEClass>();
+        LinkedList<MEClass> pending = new LinkedList<MEClass>();
+        for (int i = 0; i < m_classes.length; i++)
+        {
+            pending.add(m_classes[i]);
+            while (!pending.isEmpty())
+            {
+                MEClass clazz = pending.removeFirst();
+                if (!visited.add(clazz))
+                {
+                    continue;
+                }
+                // Same relations as followed by MEClass.isInstanceOf
+                MEClass superClass = clazz.getSuperClass();
+                if (superClass != null && !(superClass instanceof UnknownClass))
+                {
+                    addChild(superClass, clazz);
+                    pending.add(superClass);
+                }
+                MEClass[] ifcs = clazz.getInterfaces();
+                for (int j = 0; ifcs != null && j < ifcs.length; j++)
+                {
+                    addChild(ifcs[j], clazz);
+                    pending.add(ifcs[j]);
+                }
+            }
+        }
+    }
+
+    private void addChild(MEClass parent, MEClass child)
+    {
+        List<MEClass> children = m_children.get(parent);
+        if (children == null)
+        {
+            children = new ArrayList<MEClass>(2);
+            m_children.put(parent, children);
+        }
+        children.add(child);
+    }
+
+    /**
+     * Returns all classes of the context that are instances of given class,
+     * including the class itself. Same result as checking MEClass.isInstanceOf
+     * for all classes of the context.
+     * @param clazz the parent class or interface
+     * @return classes of the context in context order, the list may be modified
+     */
+    public List<MEClass> getSubclasses(MEClass clazz)
+    {
+        BitSet found = new BitSet(m_classes.length);
+        Set<MEClass> visited = new HashSet<MEClass>();
+        LinkedList<MEClass> pending = new LinkedList<MEClass>();
+        pending.add(clazz);
+        while (!pending.isEmpty())
+        {
+            MEClass c = pending.removeFirst();
+            if (!visited.add(c))
+            {
+                continue;
+            }
+            Integer ordinal = m_ordinals.get(c);
+            if (ordinal != null)
+            {
+                found.set(ordinal.intValue());
+            }
+            List<MEClass> children = m_children.get(c);
+            if (children != null)
+            {
+                pending.addAll(children);
+            }
+        }
+        List<MEClass> res = new ArrayList<MEClass>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1))
+        {
+            res.add(m_classes[i]);
+        }
+        return res;
+    }
+
+    /**
+     * Returns classes directly extending or implementing given class
+     * @param clazz the parent class or interface
+     * @return the direct children, the list may be modified
+     */
+    public List<MEClass> getDirectSubclasses(MEClass clazz)
+    {
+        List<MEClass> children = m_children.get(clazz);
+        return children == null ? new ArrayList<MEClass>() : new ArrayList<MEClass>(children);
+    }
+
+    /**
+     * Returns all classes of the context
+     * @return the classes in context order
+     */
+    public MEClass[] getClasses()
+    {
+        return m_classes;
+    }
+}
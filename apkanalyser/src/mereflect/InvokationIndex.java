@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reverse index of all invokations made by the methods of a context, from
+ * invoked class, method name and descriptor to the call sites.
+ */
+public class InvokationIndex
+{
+    /** Rough sizes in bytes used by getEstimatedSize, for a 32 bit or compressed oops heap */
+    private static final int CALLSITE_SIZE = 32;
+    private static final int KEY_OVERHEAD = 40 + 32 + 40; // String with char[], map entry, list
+    private static final int REF_SIZE = 4;
+
+    protected final String m_contextName;
+    protected final Map<String, List<CallSite>> m_callSites = new HashMap<String, List<CallSite>>();
+    protected int m_callSiteCount = 0;
+    protected long m_keyChars = 0;
+
+    public InvokationIndex(MEClassContext ctx) throws IOException
+    {
+        m_contextName = ctx.getContextName();
+        String[] classNames = ctx.getClassnames();
+        int methodOrdinal = 0;
+        for (int i = 0; i < classNames.length; i++)
+        {
+            MEClass fromClass = ctx.findMEClass(classNames[i]);
+            MEMethod[] methods = fromClass == null ? null : fromClass.getMethods();
+            if (methods == null)
+            {
+                continue;
+            }
+            for (int j = 0; j < methods.length; j++, methodOrdinal++)
+            {
+                List<MEMethod.Invokation> invokations;
+                try
+                {
+                    invokations = methods[j].getInvokations();
+                } catch (CorruptBytecodeException cbe)
+                {
+                    continue;
+                }
+                for (int k = 0; invokations != null && k < invokations.size(); k++)
+                {
+                    MEMethod.Invokation inv = invokations.get(k);
+                    String key = getKey(inv.invClassname, inv.invMethodname, inv.invDescriptor);
+                    List<CallSite> sites = m_callSites.get(key);
+                    if (sites == null)
+                    {
+                        sites = new ArrayList<CallSite>(2);
+                        m_callSites.put(key, sites);
+                        m_keyChars += key.length();
+                    }
+                    sites.add(new CallSite(fromClass, methods[j], inv, methodOrdinal, k));
+                    m_callSiteCount++;
+                }
+            }
+        }
+    }
+
+    private static String getKey(String classname, String methodName, String descriptor)
+    {
+        return classname + '.' + methodName + descriptor;
+    }
+
+    /**
+     * Returns all call sites invoking given method on given class
+     * @param classname name of the invoked class, as in MEMethod.Invokation
+     * @param methodName name of the invoked method
+     * @param descriptor descriptor of the invoked method
+     * @return the call sites in class, method and invokation order, never null
+     */
+    public List<CallSite> getCallSites(String classname, String methodName, String descriptor)
+    {
+        List<CallSite> sites = m_callSites.get(getKey(classname, methodName, descriptor));
+        return sites == null ? Collections.<CallSite> emptyList() : Collections.unmodifiableList(sites);
+    }
+
+    public int getCallSiteCount()
+    {
+        return m_callSiteCount;
+    }
+
+    public int getInvokedMethodCount()
+    {
+        return m_callSites.size();
+    }
+
+    /**
+     * Returns an estimate of the heap used by this index. Invokations and
+     * methods are not counted, they are kept by the classes anyway.
+     * @return estimated size in bytes
+     */
+    public long getEstimatedSize()
+    {
+        return (long) m_callSiteCount * (CALLSITE_SIZE + REF_SIZE)
+                + (long) m_callSites.size() * (KEY_OVERHEAD + 2 * REF_SIZE)
+                + m_keyChars * 2;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[InvokationIndex] " + m_contextName + ": " + m_callSiteCount + " call sites to "
+                + m_callSites.size() + " methods, ~" + (getEstimatedSize() / 1024) + " kB";
+    }
+
+    public static class CallSite
+    {
+        public final MEClass fromClass;
+        public final MEMethod fromMethod;
+        public final MEMethod.Invokation invokation;
+        /** Position of fromMethod among all methods of the context */
+        public final int methodOrdinal;
+        /** Position of invokation among the invokations of fromMethod */
+        public final int invokationIndex;
+
+        CallSite(MEClass fromClass, MEMethod fromMethod, MEMethod.Invokation invokation, int methodOrdinal, int invokationIndex)
+        {
+            this.fromClass = fromClass;
+            this.fromMethod = fromMethod;
+            this.invokation = invokation;
+            this.methodOrdinal = methodOrdinal;
+            this.invokationIndex = invokationIndex;
+        }
+    }
+}
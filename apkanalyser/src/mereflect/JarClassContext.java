@@ -18,14 +18,20 @@
 
 package mereflect;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+import andreflect.AnalysisCache;
 import andreflect.DexReferenceCache;
 
 public class JarClassContext extends AbstractClassContext {
@@ -36,8 +42,12 @@ public class JarClassContext extends AbstractClassContext {
     protected File m_file;
     protected JarFile m_jar;
     private DexReferenceCache m_refCache = null;
+    /** Cached class declarations not yet handed out, by class name, null if there are none */
+    private Map<String, CachedClass> m_cachedClasses = null;
+    private boolean m_cacheRead = false;
 
     public static final String RESOURCE = "resources.arsc";
+    private static final String CLASS_CACHE = "classdecls";
 
     public JarClassContext(String jarPath, boolean isMidlet) {
         this(new File(jarPath), isMidlet);
@@ -71,6 +81,77 @@ public class JarClassContext extends AbstractClassContext {
         return rscs;
     }
 
+    /**
+     * Returns the class from the cached declarations of this jar if there
+     * are any, else parses the class file.
+     */
+    @Override
+    protected MEClass readClass(MEClassResource rsc) throws IOException {
+        Map<String, CachedClass> cached = getCachedClasses();
+        if (cached != null) {
+            MEClass c = cached.remove(rsc.getClassName());
+            if (c != null) {
+                return c;
+            }
+        }
+        return super.readClass(rsc);
+    }
+
+    /**
+     * Stores the declarations of the classes of this jar in the analysis
+     * cache, unless they were read from it. Classes left out, e.g. since
+     * they could not be parsed, are read from the jar when looked up.
+     */
+    @Override
+    protected void storeClasses(List<MEClass> classes) {
+        if (getCachedClasses() != null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream decls = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(decls);
+            int count = 0;
+            for (MEClass c : classes) {
+                ByteArrayOutputStream decl = new ByteArrayOutputStream();
+                if (CachedClass.write(c, new DataOutputStream(decl))) {
+                    out.writeUTF(c.getResource().getClassName());
+                    decl.writeTo(out);
+                    count++;
+                }
+            }
+            out.flush();
+            ByteArrayOutputStream data = new ByteArrayOutputStream(decls.size() + 4);
+            new DataOutputStream(data).writeInt(count);
+            decls.writeTo(data);
+            AnalysisCache.store(m_file, CLASS_CACHE, data.toByteArray());
+        } catch (IOException ioe) {
+            System.out.println("[JarClassContext] cannot cache classes of " + m_file + ": " + ioe);
+        }
+    }
+
+    private synchronized Map<String, CachedClass> getCachedClasses() {
+        if (!m_cacheRead) {
+            m_cacheRead = true;
+            DataInputStream in = AnalysisCache.read(m_file, CLASS_CACHE);
+            if (in != null) {
+                try {
+                    int count = in.readInt();
+                    Map<String, CachedClass> classes = new ConcurrentHashMap<String, CachedClass>(count * 2);
+                    for (int i = 0; i < count; i++) {
+                        String name = in.readUTF();
+                        classes.put(name, CachedClass.read(in));
+                    }
+                    m_cachedClasses = classes;
+                } catch (IOException ioe) {
+                    System.out.println("[JarClassContext] ignoring cached classes of " + m_file + ": " + ioe);
+                } finally {
+                    AnalysisCache.close(in);
+                }
+            }
+        }
+        return m_cachedClasses;
+    }
+
     private void visit(List<JarEntry> classFiles, JarEntry entry) {
         // String name = entry.getName();
         if (!entry.isDirectory() && entry.getName().endsWith(SUFFIX)) {
@@ -62,8 +62,8 @@ public class MEClass implements Type, Comparable<Object>
      */
     public String getRawName()
     {
-        CiClass classInfo = (CiClass) getConstantPool()[m_thisClassIndex];
-        return ((CiUtf8) getConstantPool()[classInfo.getNameIndex()]).getUtf8();
+        CiClass classInfo = (CiClass) m_constantPool[m_thisClassIndex];
+        return ((CiUtf8) m_constantPool[classInfo.getNameIndex()]).getUtf8();
     }
 
     /**
@@ -102,16 +102,17 @@ public class MEClass implements Type, Comparable<Object>
             if (m_superClassIndex == 0) {
                 return null;
             }
-            CiClass classInfo = (CiClass) getConstantPool()[m_superClassIndex];
-            CiUtf8 classDef = (CiUtf8) getConstantPool()[classInfo.getNameIndex()];
+            CiClass classInfo = (CiClass) m_constantPool[m_superClassIndex];
+            CiUtf8 classDef = (CiUtf8) m_constantPool[classInfo.getNameIndex()];
             String classname = classDef.getUtf8().replace('/', '.');
             try
             {
-                m_superClass = getResource().getContext().getMEClass(classname);
+                m_superClass = getResource().getContext().findMEClass(classname);
             } catch (IOException e)
             {
                 throw new RuntimeException(e);
-            } catch (ClassNotFoundException e)
+            }
+            if (m_superClass == null)
             {
                 m_superClass = new UnknownClass(classname, getResource());
             }
@@ -127,8 +128,8 @@ public class MEClass implements Type, Comparable<Object>
             for (int i = 0; i < m_interfaces.length; i++)
             {
                 int ifcIdx = m_interfaceIndices[i];
-                CiClass ifcInfo = (CiClass) getConstantPool()[ifcIdx];
-                CiUtf8 ifcDef = (CiUtf8) getConstantPool()[ifcInfo.getNameIndex()];
+                CiClass ifcInfo = (CiClass) m_constantPool[ifcIdx];
+                CiUtf8 ifcDef = (CiUtf8) m_constantPool[ifcInfo.getNameIndex()];
                 String ifcName = ifcDef.getUtf8().replace('/', '.');
                 try
                 {
@@ -214,6 +215,7 @@ public class MEClass implements Type, Comparable<Object>
      */
     public String[] getDependencies()
     {
+        loadDefinition();
         TreeSet<String> refClasses = new TreeSet<String>();
         for (int i = 1; i < m_constantPool.length; i++)
         {
@@ -408,6 +410,18 @@ public class MEClass implements Type, Comparable<Object>
         return res;
     }
 
+    /**
+     * Loads the parts of the class definition that are needed beyond the
+     * declarations: the whole constant pool and the attributes of the class,
+     * its fields and methods. Classes read from a class file are loaded
+     * completely, classes read from a cached declaration load the rest here.
+     * The declarations, i.e. names, flags and constant pool entries they
+     * refer to, are never changed by this.
+     */
+    protected void loadDefinition()
+    {
+    }
+
     // Setters
 
     public void setAccessFlags(int accessFlags)
@@ -474,11 +488,13 @@ public class MEClass implements Type, Comparable<Object>
 
     public AttributeInfo[] getAttributes()
     {
+        loadDefinition();
         return m_attributes;
     }
 
     public ClassInfo[] getConstantPool()
     {
+        loadDefinition();
         return m_constantPool;
     }
 
@@ -100,6 +100,38 @@ public interface MEClassContext
      */
     public MEClass getMEClass(String classname) throws IOException, ClassNotFoundException;
 
+    /**
+     * Returns the specified class, or null if it is not defined in this context.
+     * Cheaper than getMEClass when misses are common.
+     * @param classname the class to return
+     * @return a class or null
+     * @throws IOException if class cannot be loaded
+     */
+    public MEClass findMEClass(String classname) throws IOException;
+
+    /**
+     * Returns the class hierarchy of this context, all classes of the context
+     * are loaded when the hierarchy is first built
+     * @return the class hierarchy
+     * @throws IOException if classes cannot be loaded
+     */
+    public ClassHierarchy getClassHierarchy() throws IOException;
+
+    /**
+     * Returns the index of all invokations made from this context, it is
+     * built when first requested
+     * @return the invokation index
+     * @throws IOException if classes cannot be loaded
+     */
+    public InvokationIndex getInvokationIndex() throws IOException;
+
+    /**
+     * Drops the invokation index of this context and of its parent contexts,
+     * must be called when the classes of this context are modified so that
+     * the index is rebuilt when next requested
+     */
+    public void invalidateInvokationIndex();
+
     /**
      * Returns if this context belongs to the midlet classpath
      * @return true if this context belongs to midlet classpath, false otherwise
@@ -63,7 +63,7 @@ public class MEField
      */
     public String getName()
     {
-        return ((CiUtf8) m_class.getConstantPool()[getNameIndex()]).getUtf8();
+        return ((CiUtf8) m_class.m_constantPool[getNameIndex()]).getUtf8();
     }
 
     /**
@@ -72,7 +72,7 @@ public class MEField
      */
     public String getDescriptor()
     {
-        return ((CiUtf8) m_class.getConstantPool()[getDescriptorIndex()]).getUtf8();
+        return ((CiUtf8) m_class.m_constantPool[getDescriptorIndex()]).getUtf8();
     }
 
     /**
@@ -293,6 +293,7 @@ public class MEField
      */
     public AttributeInfo[] getAttributes()
     {
+        m_class.loadDefinition();
         return m_attributes;
     }
 
@@ -114,7 +114,7 @@ public class MEMethod {
      * @return name from constant pool.
      */
     public String getName() {
-        return ((CiUtf8) m_class.getConstantPool()[getNameIndex()]).getUtf8();
+        return ((CiUtf8) m_class.m_constantPool[getNameIndex()]).getUtf8();
     }
 
     public boolean isConstructor() {
@@ -143,7 +143,7 @@ public class MEMethod {
      * @return method descriptor from constant pool.
      */
     public String getDescriptor() {
-        return ((CiUtf8) m_class.getConstantPool()[getDescriptorIndex()]).getUtf8();
+        return ((CiUtf8) m_class.m_constantPool[getDescriptorIndex()]).getUtf8();
     }
 
     /**
@@ -200,9 +200,10 @@ public class MEMethod {
     public MEClass[] getExceptions() throws IOException {
         if (m_exceptions == null) {
             AiExceptions excs = null;
-            for (int i = 0; i < m_attributes.length; i++) {
-                if (m_attributes[i] instanceof AiExceptions) {
-                    excs = (AiExceptions) m_attributes[i];
+            AttributeInfo[] attrs = getAttributes();
+            for (int i = 0; i < attrs.length; i++) {
+                if (attrs[i] instanceof AiExceptions) {
+                    excs = (AiExceptions) attrs[i];
                     break;
                 }
             }
@@ -229,7 +230,7 @@ public class MEMethod {
     }
 
     public byte[] getByteCodes() {
-        AiCode code = (AiCode) getAttributeInfo(m_attributes, AiCode.class);
+        AiCode code = (AiCode) getAttributeInfo(getAttributes(), AiCode.class);
         if (code == null) {
             return null;
         } else {
@@ -239,7 +240,7 @@ public class MEMethod {
 
     public AiLineNumberTable getLineNumberTable() {
         if (m_lineNumberTable == null) {
-            AiCode code = (AiCode) getAttributeInfo(m_attributes, AiCode.class);
+            AiCode code = (AiCode) getAttributeInfo(getAttributes(), AiCode.class);
             if (code != null) {
                 AiLineNumberTable table = (AiLineNumberTable) getAttributeInfo(code
                         .getAttributes(), AiLineNumberTable.class);
@@ -440,6 +441,7 @@ public class MEMethod {
     }
 
     public AttributeInfo[] getAttributes() {
+        m_class.loadDefinition();
         return m_attributes;
     }
 
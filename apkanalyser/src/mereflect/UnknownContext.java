@@ -55,6 +55,12 @@ public class UnknownContext extends AbstractClassContext
         return c;
     }
 
+    @Override
+    public MEClass findMEClass(String classname) throws IOException
+    {
+        return m_classes.get(classname);
+    }
+
     public void defineClass(UnknownClass clazz)
     {
         m_classes.put(clazz.getName(), clazz);
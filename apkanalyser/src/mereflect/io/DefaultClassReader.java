@@ -18,6 +18,7 @@
 
 package mereflect.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -45,10 +46,60 @@ import mereflect.info.CiString;
 import mereflect.info.CiUtf8;
 import mereflect.info.ClassInfo;
 
+/**
+ * Reads a class file into a byte array and parses it from there, reading
+ * the stream of a jar entry a few bytes at a time is much slower.
+ */
 public class DefaultClassReader implements ClassReader
 {
     @Override
     public MEClass readClassFile(DataInputStream dis) throws IOException
+    {
+        return readClassFile(readBytes(dis));
+    }
+
+    public MEClass readClassFile(byte[] data) throws IOException
+    {
+        return readClass(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Reads the rest of given stream into an array
+     * @param is the stream
+     * @return the bytes read
+     * @throws IOException
+     */
+    public static byte[] readBytes(InputStream is) throws IOException
+    {
+        byte[] buf = new byte[Math.max(is.available(), 1024)];
+        int len = 0;
+        int read;
+        while ((read = is.read(buf, len, buf.length - len)) >= 0)
+        {
+            len += read;
+            if (len == buf.length)
+            {
+                int b = is.read();
+                if (b < 0)
+                {
+                    break;
+                }
+                byte[] grown = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, grown, 0, len);
+                buf = grown;
+                buf[len++] = (byte) b;
+            }
+        }
+        if (len == buf.length)
+        {
+            return buf;
+        }
+        byte[] res = new byte[len];
+        System.arraycopy(buf, 0, res, 0, len);
+        return res;
+    }
+
+    protected MEClass readClass(DataInputStream dis) throws IOException
     {
         MEClass c = new MEClass();
 
@@ -330,11 +381,8 @@ public class DefaultClassReader implements ClassReader
                 long codeLength = readUnsigned4(dis);
                 read += 4;
                 byte[] code = new byte[(int) codeLength];
-                for (long i = 0; i < codeLength; i++)
-                {
-                    code[(int) i] = dis.readByte();
-                    read++;
-                }
+                dis.readFully(code);
+                read += codeLength;
                 int exceptionTableLen = dis.readUnsignedShort();
                 read += 2;
                 AiCode.ExceptionSpec[] exs = new AiCode.ExceptionSpec[exceptionTableLen];
@@ -391,10 +439,7 @@ public class DefaultClassReader implements ClassReader
         if (def)
         {
             byte[] info = new byte[(int) length];
-            for (long i = 0; i < length; i++)
-            {
-                info[(int) i] = dis.readByte();
-            }
+            dis.readFully(info);
             res = new AttributeInfo();
             res.setInfo(info);
         }
@@ -403,10 +448,7 @@ public class DefaultClassReader implements ClassReader
             long left = length - read;
             if (left > 0)
             {
-                while (left-- > 0)
-                {
-                    dis.read();
-                }
+                dis.skipBytes((int) left);
             }
         }
 
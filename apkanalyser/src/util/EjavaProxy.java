@@ -91,12 +91,12 @@ public class EjavaProxy {
             }
 
             @Override
-            public void stderr(char c) {
+            public void stderr(char[] buf, int off, int len) {
             }
 
             @Override
-            public void stdout(char c) {
-                res.append(c);
+            public void stdout(char[] buf, int off, int len) {
+                res.append(buf, off, len);
             }
         });
         synchronized (LOCK) {
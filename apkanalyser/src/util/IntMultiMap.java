@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Map from int keys to lists of values, e.g. from resource ids to the places
+ * referring them. Keys are kept in an open addressing table and the values
+ * of a key in a plain array, so no Integer, entry or ArrayList objects are
+ * allocated per key. Not thread safe.
+ */
+public class IntMultiMap<V> {
+    private int[] m_keys;
+    private Object[][] m_values;
+    /** Number of values per slot, 0 for a free slot */
+    private int[] m_counts;
+    private int m_size;
+    private int m_shift;
+
+    public IntMultiMap() {
+        clear();
+    }
+
+    /**
+     * Adds a value for given key
+     * @param key the key
+     * @param value the value
+     */
+    public void add(int key, V value) {
+        int slot = findSlot(key);
+        if (m_counts[slot] == 0) {
+            slot = insert(key);
+        }
+        append(slot, value);
+    }
+
+    /**
+     * Adds a value for given key unless the key already has an equal value.
+     * The values are searched from the last one added, so that a value added
+     * repeatedly in a row is found at once.
+     * @param key the key
+     * @param value the value
+     * @return true if the value was added
+     */
+    public boolean addUnique(int key, V value) {
+        int slot = findSlot(key);
+        if (m_counts[slot] == 0) {
+            slot = insert(key);
+        } else {
+            Object[] values = m_values[slot];
+            for (int i = m_counts[slot] - 1; i >= 0; i--) {
+                if (values[i].equals(value)) {
+                    return false;
+                }
+            }
+        }
+        append(slot, value);
+        return true;
+    }
+
+    /**
+     * Returns the values of given key
+     * @param key the key
+     * @return read only list of the values added so far, empty if none
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> get(int key) {
+        int slot = findSlot(key);
+        if (m_counts[slot] == 0) {
+            return Collections.emptyList();
+        }
+        return new ValueList<V>((V[]) m_values[slot], m_counts[slot]);
+    }
+
+    public boolean containsKey(int key) {
+        return m_counts[findSlot(key)] != 0;
+    }
+
+    /**
+     * Returns the keys in no particular order
+     * @return the keys
+     */
+    public int[] keys() {
+        int[] keys = new int[m_size];
+        int n = 0;
+        for (int slot = 0; slot < m_keys.length; slot++) {
+            if (m_counts[slot] != 0) {
+                keys[n++] = m_keys[slot];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the number of keys
+     * @return the number of keys
+     */
+    public int size() {
+        return m_size;
+    }
+
+    public void clear() {
+        m_keys = new int[16];
+        m_values = new Object[16][];
+        m_counts = new int[16];
+        m_size = 0;
+        m_shift = 32 - 4;
+    }
+
+    /**
+     * Shrinks the value arrays to their sizes, call when done adding
+     */
+    public void trimToSize() {
+        for (int slot = 0; slot < m_keys.length; slot++) {
+            int count = m_counts[slot];
+            if (count != 0 && count < m_values[slot].length) {
+                Object[] values = new Object[count];
+                System.arraycopy(m_values[slot], 0, values, 0, count);
+                m_values[slot] = values;
+            }
+        }
+    }
+
+    private int findSlot(int key) {
+        int mask = m_keys.length - 1;
+        int slot = (key * 0x9e3779b9) >>> m_shift;
+        while (m_counts[slot] != 0 && m_keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int insert(int key) {
+        if (2 * (m_size + 1) > m_keys.length) {
+            rehash();
+        }
+        int slot = findSlot(key);
+        m_keys[slot] = key;
+        m_size++;
+        return slot;
+    }
+
+    private void append(int slot, V value) {
+        Object[] values = m_values[slot];
+        int count = m_counts[slot];
+        if (values == null) {
+            values = new Object[2];
+            m_values[slot] = values;
+        } else if (count == values.length) {
+            Object[] grown = new Object[count + (count >> 1) + 1];
+            System.arraycopy(values, 0, grown, 0, count);
+            values = grown;
+            m_values[slot] = values;
+        }
+        values[count] = value;
+        m_counts[slot] = count + 1;
+    }
+
+    private void rehash() {
+        int[] keys = m_keys;
+        Object[][] values = m_values;
+        int[] counts = m_counts;
+        m_keys = new int[keys.length * 2];
+        m_values = new Object[keys.length * 2][];
+        m_counts = new int[keys.length * 2];
+        m_shift--;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                int slot = findSlot(keys[i]);
+                m_keys[slot] = keys[i];
+                m_values[slot] = values[i];
+                m_counts[slot] = counts[i];
+            }
+        }
+    }
+
+    private static class ValueList<V> extends AbstractList<V> implements RandomAccess {
+        private final V[] m_values;
+        private final int m_count;
+
+        ValueList(V[] values, int count) {
+            m_values = values;
+            m_count = count;
+        }
+
+        @Override
+        public V get(int index) {
+            if (index >= m_count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_count);
+            }
+            return m_values[index];
+        }
+
+        @Override
+        public int size() {
+            return m_count;
+        }
+    }
+}
@@ -21,10 +21,14 @@ package util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
 public class ProcessHandler {
+    private static final long STREAM_DRAIN_TIMEOUT = 1000;
+
     String cmd;
     String[] args;
     String runPath;
@@ -62,12 +66,22 @@ public class ProcessHandler {
         }
         process = Runtime.getRuntime().exec(cmdString, null, runPath == null ? null : new File(runPath));
         isRunning = true;
+        stdinListener = new StreamListener(process.getInputStream(), false);
+        stderrListener = new StreamListener(process.getErrorStream(), true);
+        final Thread stdinThread = new Thread(stdinListener);
+        final Thread stderrThread = new Thread(stderrListener);
+        stdinThread.start();
+        stderrThread.start();
         new Thread(new Runnable() {
             @Override
             public void run() {
                 int ret = 0;
                 try {
                     ret = process.waitFor();
+                    // deliver the remaining output before reporting the death, the
+                    // streams may be kept open by a child, e.g. a started adb server
+                    stdinThread.join(STREAM_DRAIN_TIMEOUT);
+                    stderrThread.join(STREAM_DRAIN_TIMEOUT);
                     isRunning = false;
                 } catch (InterruptedException ignore) {
                 }
@@ -76,10 +90,6 @@ public class ProcessHandler {
                 }
             }
         }).start();
-        stdinListener = new StreamListener(process.getInputStream(), false);
-        stderrListener = new StreamListener(process.getErrorStream(), true);
-        new Thread(stdinListener).start();
-        new Thread(stderrListener).start();
         for (int i = 0; i < listeners.size(); i++) {
             (listeners.get(i)).started();
         }
@@ -117,24 +127,27 @@ public class ProcessHandler {
 
         @Override
         public void run() {
-            while (running) {
-                try {
-                    int ch = is.read();
-                    if (ch == -1) {
+            // pass on whatever is available in one chunk, instead of char by char
+            char[] buf = new char[8192];
+            try {
+                Reader reader = new InputStreamReader(is, "UTF-8");
+                while (running) {
+                    int len = reader.read(buf);
+                    if (len == -1) {
                         stop();
                     } else {
                         for (int i = 0; i < listeners.size(); i++) {
                             ProcessListener pl = listeners.get(i);
                             if (errStream) {
-                                pl.stderr((char) ch);
+                                pl.stderr(buf, 0, len);
                             } else {
-                                pl.stdout((char) ch);
+                                pl.stdout(buf, 0, len);
                             }
                         }
                     }
-                } catch (Exception e) {
-                    stop();
                 }
+            } catch (Exception e) {
+                stop();
             }
         }
 
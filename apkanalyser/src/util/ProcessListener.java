@@ -21,9 +21,13 @@ package util;
 public interface ProcessListener {
     public void started();
 
-    public void stdout(char c);
+    /**
+     * Called with the output of the process as it is read, in chunks of
+     * any size, e.g. not split at line breaks
+     */
+    public void stdout(char[] buf, int off, int len);
 
-    public void stderr(char c);
+    public void stderr(char[] buf, int off, int len);
 
     public void died(int ret);
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file whose entries are mostly copied from another zip file.
+ * Copied entries keep their compressed data as is, so only new entries are
+ * compressed. All entries get the same modification time. Zip64 files are
+ * not supported.
+ */
+public class RawZipWriter {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int VERSION = 20;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+    /** Charset of entry names without FLAG_UTF8, IBM437 is missing from some reduced JREs */
+    private static final String LEGACY_CHARSET = Charset.isSupported("IBM437") ? "IBM437" : "ISO-8859-1";
+
+    private final OutputStream m_out;
+    private final int m_dosTime;
+    private final int m_dosDate;
+    private final List<Entry> m_entries = new ArrayList<Entry>();
+    private final byte[] m_buffer = new byte[64 * 1024];
+    private long m_offset = 0;
+
+    /**
+     * An entry of a zip file, as listed in its central directory
+     */
+    public static class Entry {
+        public final String name;
+        final byte[] nameBytes;
+        final int flags;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(byte[] nameBytes, int flags, int method, long crc, long compressedSize, long size, long localHeaderOffset)
+                throws IOException {
+            this.name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? "UTF-8" : LEGACY_CHARSET);
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * @return ZipEntry.STORED or ZipEntry.DEFLATED
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Creates a zip file
+     * @param file the file to write, replaced if it exists
+     * @param time modification time of all entries
+     * @throws IOException if the file cannot be created
+     */
+    public RawZipWriter(File file, long time) throws IOException {
+        m_out = new BufferedOutputStream(new FileOutputStream(file), m_buffer.length);
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        m_dosTime = (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+        m_dosDate = ((Math.max(c.get(Calendar.YEAR), 1980) - 1980) << 9) | ((c.get(Calendar.MONTH) + 1) << 5)
+                | c.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Reads the central directory of a zip file
+     * @param zip the zip file
+     * @return the entries in central directory order
+     * @throws IOException if the file is not a zip file or uses zip64
+     */
+    public static List<Entry> readEntries(RandomAccessFile zip) throws IOException {
+        long length = zip.length();
+        int tailLength = (int) Math.min(length, END_SIZE + 0xffff);
+        byte[] tail = new byte[tailLength];
+        zip.seek(length - tailLength);
+        zip.readFully(tail);
+        int end = tailLength - END_SIZE;
+        while (end >= 0 && readInt(tail, end) != END_SIG) {
+            end--;
+        }
+        if (end < 0) {
+            throw new IOException("zip end of central directory not found");
+        }
+        int count = readShort(tail, end + 10);
+        long cdSize = readInt(tail, end + 12) & 0xffffffffL;
+        long cdOffset = readInt(tail, end + 16) & 0xffffffffL;
+        if (count == 0xffff || cdOffset == 0xffffffffL || cdOffset + cdSize > length) {
+            throw new IOException("zip64 or corrupt zip files are not supported");
+        }
+
+        byte[] cd = new byte[(int) cdSize];
+        zip.seek(cdOffset);
+        zip.readFully(cd);
+        List<Entry> entries = new ArrayList<Entry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cd.length || readInt(cd, pos) != CENTRAL_HEADER_SIG) {
+                throw new IOException("corrupt zip central directory at entry " + i);
+            }
+            int nameLength = readShort(cd, pos + 28);
+            byte[] name = new byte[nameLength];
+            System.arraycopy(cd, pos + CENTRAL_HEADER_SIZE, name, 0, nameLength);
+            entries.add(new Entry(name,
+                    readShort(cd, pos + 8),
+                    readShort(cd, pos + 10),
+                    readInt(cd, pos + 16) & 0xffffffffL,
+                    readInt(cd, pos + 20) & 0xffffffffL,
+                    readInt(cd, pos + 24) & 0xffffffffL,
+                    readInt(cd, pos + 42) & 0xffffffffL));
+            pos += CENTRAL_HEADER_SIZE + nameLength + readShort(cd, pos + 30) + readShort(cd, pos + 32);
+        }
+        return entries;
+    }
+
+    /**
+     * Copies an entry without recompressing it
+     * @param zip the zip file containing the entry
+     * @param entry the entry, as read by readEntries
+     * @param digest if not null, updated with the uncompressed data of the entry
+     * @throws IOException if the entry cannot be read or written
+     */
+    public void copyEntry(RandomAccessFile zip, Entry entry, MessageDigest digest) throws IOException {
+        seekData(zip, entry);
+        Entry copy = new Entry(entry.nameBytes, entry.flags & FLAG_UTF8, entry.method, entry.crc,
+                entry.compressedSize, entry.size, m_offset);
+        writeLocalHeader(copy);
+        transfer(zip, entry, m_out, digest, m_buffer);
+        m_offset += entry.compressedSize;
+        m_entries.add(copy);
+    }
+
+    /**
+     * Updates a digest with the uncompressed data of an entry
+     * @param zip the zip file containing the entry
+     * @param entry the entry, as read by readEntries
+     * @param digest the digest to update
+     * @throws IOException if the entry cannot be read
+     */
+    public static void digestEntry(RandomAccessFile zip, Entry entry, MessageDigest digest) throws IOException {
+        seekData(zip, entry);
+        transfer(zip, entry, null, digest, new byte[64 * 1024]);
+    }
+
+    private static void seekData(RandomAccessFile zip, Entry entry) throws IOException {
+        if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new IOException("encrypted zip entry " + entry.name);
+        }
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("unsupported compression method " + entry.method + " of zip entry " + entry.name);
+        }
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        zip.seek(entry.localHeaderOffset);
+        zip.readFully(header);
+        if (readInt(header, 0) != LOCAL_HEADER_SIG) {
+            throw new IOException("corrupt zip local header of entry " + entry.name);
+        }
+        zip.seek(entry.localHeaderOffset + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28));
+    }
+
+    /**
+     * Reads the compressed data of an entry, the zip file positioned at the data
+     * @param out if not null, the compressed data is written to this
+     * @param digest if not null, updated with the uncompressed data
+     */
+    private static void transfer(RandomAccessFile zip, Entry entry, OutputStream out, MessageDigest digest,
+            byte[] buffer) throws IOException {
+        Inflater inflater = digest != null && entry.method == ZipEntry.DEFLATED ? new Inflater(true) : null;
+        byte[] inflated = inflater != null ? new byte[buffer.length] : null;
+        try {
+            long left = entry.compressedSize;
+            while (left > 0) {
+                int len = (int) Math.min(left, buffer.length);
+                zip.readFully(buffer, 0, len);
+                if (out != null) {
+                    out.write(buffer, 0, len);
+                }
+                if (inflater != null) {
+                    inflater.setInput(buffer, 0, len);
+                    int n;
+                    while ((n = inflater.inflate(inflated)) > 0) {
+                        digest.update(inflated, 0, n);
+                    }
+                } else if (digest != null) {
+                    digest.update(buffer, 0, len);
+                }
+                left -= len;
+            }
+            if (inflater != null && !inflater.finished()) {
+                // raw inflate may need a dummy byte after the data to finish
+                inflater.setInput(new byte[1]);
+                int n;
+                while ((n = inflater.inflate(inflated)) > 0) {
+                    digest.update(inflated, 0, n);
+                }
+            }
+            if (inflater != null && inflater.getBytesWritten() != entry.size) {
+                throw new IOException("corrupt compressed data of zip entry " + entry.name);
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("corrupt compressed data of zip entry " + entry.name + ": " + dfe.getMessage());
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Writes a new, compressed entry
+     * @param name name of the entry
+     * @param data uncompressed data of the entry
+     * @param digest if not null, updated with data
+     * @throws IOException if the entry cannot be written
+     */
+    public void putEntry(String name, byte[] data, MessageDigest digest) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (digest != null) {
+            digest.update(data);
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        Deflater deflater = new Deflater(9, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(m_buffer);
+                compressed.write(m_buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        Entry entry = new Entry(name.getBytes("UTF-8"), FLAG_UTF8, ZipEntry.DEFLATED, crc.getValue(),
+                compressed.size(), data.length, m_offset);
+        writeLocalHeader(entry);
+        compressed.writeTo(m_out);
+        m_offset += compressed.size();
+        m_entries.add(entry);
+    }
+
+    /**
+     * Writes the central directory. No entries can be added after this.
+     * @throws IOException if the central directory cannot be written
+     */
+    public void finish() throws IOException {
+        if (m_entries.size() > 0xffff - 1 || m_offset > 0xffffffffL) {
+            throw new IOException("zip file too large, zip64 is not supported");
+        }
+        long cdOffset = m_offset;
+        for (Entry entry : m_entries) {
+            byte[] header = new byte[CENTRAL_HEADER_SIZE];
+            writeInt(header, 0, CENTRAL_HEADER_SIG);
+            writeShort(header, 4, VERSION);
+            writeShort(header, 6, VERSION);
+            writeShort(header, 8, entry.flags);
+            writeShort(header, 10, entry.method);
+            writeShort(header, 12, m_dosTime);
+            writeShort(header, 14, m_dosDate);
+            writeInt(header, 16, (int) entry.crc);
+            writeInt(header, 20, (int) entry.compressedSize);
+            writeInt(header, 24, (int) entry.size);
+            writeShort(header, 28, entry.nameBytes.length);
+            writeInt(header, 42, (int) entry.localHeaderOffset);
+            write(header);
+            write(entry.nameBytes);
+        }
+        byte[] end = new byte[END_SIZE];
+        writeInt(end, 0, END_SIG);
+        writeShort(end, 8, m_entries.size());
+        writeShort(end, 10, m_entries.size());
+        writeInt(end, 12, (int) (m_offset - cdOffset));
+        writeInt(end, 16, (int) cdOffset);
+        write(end);
+        m_out.flush();
+    }
+
+    public void close() throws IOException {
+        m_out.close();
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        writeInt(header, 0, LOCAL_HEADER_SIG);
+        writeShort(header, 4, VERSION);
+        writeShort(header, 6, entry.flags);
+        writeShort(header, 8, entry.method);
+        writeShort(header, 10, m_dosTime);
+        writeShort(header, 12, m_dosDate);
+        writeInt(header, 14, (int) entry.crc);
+        writeInt(header, 18, (int) entry.compressedSize);
+        writeInt(header, 22, (int) entry.size);
+        writeShort(header, 26, entry.nameBytes.length);
+        write(header);
+        write(entry.nameBytes);
+    }
+
+    private void write(byte[] data) throws IOException {
+        m_out.write(data);
+        m_offset += data.length;
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return readShort(b, off) | (readShort(b, off + 2) << 16);
+    }
+
+    private static void writeShort(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        writeShort(b, off, v);
+        writeShort(b, off + 2, v >> 16);
+    }
+}
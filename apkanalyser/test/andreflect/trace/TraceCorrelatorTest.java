@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package andreflect.trace;
+
+import java.util.Map;
+
+import mereflect.MEClassContext;
+import mereflect.UnknownContext;
+import mereflect.UnknownResource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import andreflect.DexClass;
+import andreflect.DexMethod;
+
+public class TraceCorrelatorTest {
+    private static final String ENTRY = "> com.example.Foo:run()V(0,42)";
+    private static final String POINT = "com.example.Foo:run()V(1A,43)";
+    private static final String EXIT = "< com.example.Foo:run()V(2C,44)";
+
+    private final UnknownContext m_context = new UnknownContext();
+
+    private DexMethod method(final String className, final String name, final String descriptor) {
+        return method(m_context, className, name, descriptor);
+    }
+
+    private static DexMethod method(MEClassContext context, final String className, final String name,
+            final String descriptor) {
+        DexClass clazz = new DexClass(null) {
+            @Override
+            public String getRawName() {
+                return className.replace('.', '/');
+            }
+        };
+        clazz.setResource(new UnknownResource(className, context));
+        return new DexMethod(clazz, null) {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getDescriptor() {
+                return descriptor;
+            }
+        };
+    }
+
+    private static String line(String time, int pid, String message) {
+        return time + " V/APKANALYSER(" + pid + "): " + message;
+    }
+
+    private TraceCorrelator registered(DexMethod run) {
+        TraceCorrelator correlator = new TraceCorrelator();
+        correlator.register(run, ENTRY);
+        correlator.register(run, POINT);
+        correlator.register(run, EXIT);
+        return correlator;
+    }
+
+    @Test
+    public void parseTimeFormat() {
+        TraceCorrelator correlator = registered(method("com.example.Foo", "run", "()V"));
+
+        TraceEvent event = correlator.parse(line("10-18 09:52:01.123", 1234, ENTRY));
+        Assert.assertNotNull(event);
+        Assert.assertEquals(1234, event.pid);
+        Assert.assertEquals(ENTRY, event.message);
+        Assert.assertEquals(-1, event.duration);
+        Assert.assertEquals(TracePoint.KIND_ENTRY, event.point.kind);
+        Assert.assertEquals(0, event.point.codeAddress);
+        Assert.assertEquals(42, event.point.line);
+        Assert.assertEquals("com.example.Foo:run()V", event.point.methodSignature);
+
+        TraceEvent later = correlator.parse(line("10-18 09:52:02.000", 1234, EXIT));
+        Assert.assertEquals(877, later.time - event.time);
+        Assert.assertEquals(TracePoint.KIND_EXIT, later.point.kind);
+        Assert.assertEquals(0x2C, later.point.codeAddress);
+    }
+
+    @Test
+    public void parseBriefFormat() {
+        TraceCorrelator correlator = registered(method("com.example.Foo", "run", "()V"));
+
+        TraceEvent event = correlator.parse("V/APKANALYSER(  77): " + POINT);
+        Assert.assertEquals(-1, event.time);
+        Assert.assertEquals(77, event.pid);
+        Assert.assertEquals(TracePoint.KIND_POINT, event.point.kind);
+        Assert.assertEquals(0x1A, event.point.codeAddress);
+    }
+
+    @Test
+    public void parseLoggedValue() {
+        TraceCorrelator correlator = registered(method("com.example.Foo", "run", "()V"));
+
+        // text after the address suffix, e.g. a logged value, is not part of the message
+        TraceEvent event = correlator.parse(line("10-18 09:52:01.123", 1, POINT + " x=(5)"));
+        Assert.assertNotNull(event.point);
+        Assert.assertEquals(POINT, event.point.message);
+        Assert.assertEquals(POINT + " x=(5)", event.message);
+    }
+
+    @Test
+    public void parseUnknownLines() {
+        TraceCorrelator correlator = registered(method("com.example.Foo", "run", "()V"));
+
+        Assert.assertNull(correlator.parse("--------- beginning of main"));
+        TraceEvent event = correlator.parse(line("10-18 09:52:01.123", 1, "> com.example.Bar:run()V(0,42)"));
+        Assert.assertNotNull(event);
+        Assert.assertNull(event.point);
+    }
+
+    @Test
+    public void pairEntriesAndExits() {
+        DexMethod run = method("com.example.Foo", "run", "()V");
+        TraceCorrelator correlator = registered(run);
+
+        correlator.add(line("10-18 09:52:01.000", 1, ENTRY));
+        correlator.add(line("10-18 09:52:01.000", 2, ENTRY));
+        correlator.add(line("10-18 09:52:01.100", 1, POINT));
+        TraceEvent exit1 = correlator.add(line("10-18 09:52:01.250", 1, EXIT));
+        TraceEvent exit2 = correlator.add(line("10-18 09:52:01.500", 2, EXIT));
+        TraceEvent unmatched = correlator.add(line("10-18 09:52:01.600", 2, EXIT));
+
+        // entries and exits are paired per process
+        Assert.assertEquals(250, exit1.duration);
+        Assert.assertEquals(500, exit2.duration);
+        Assert.assertEquals(-1, unmatched.duration);
+
+        TraceStats stats = correlator.getMethodStats(run);
+        Assert.assertEquals(6, stats.getHits());
+        Assert.assertEquals(2, stats.getEntries());
+        Assert.assertEquals(3, stats.getExits());
+        Assert.assertEquals(1, stats.getUnmatched());
+        Assert.assertEquals(2, stats.getCount());
+        Assert.assertEquals(250, stats.getMin());
+        Assert.assertEquals(500, stats.getMax());
+        Assert.assertEquals(6, correlator.getClassStats(run.getMEClass()).getHits());
+
+        Map<Integer, TraceStats> points = correlator.getPointStats(run);
+        Assert.assertEquals(1, points.get(0x1A).getHits());
+        Assert.assertEquals(100, points.get(0x1A).getMax());
+    }
+
+    @Test
+    public void keyedBySignature() {
+        TraceCorrelator correlator = registered(method("com.example.Foo", "run", "()V"));
+
+        correlator.add(line("10-18 09:52:01.000", 1, ENTRY));
+        // a method model of the reloaded apk finds the statistics of the old one
+        Assert.assertEquals(1, correlator.getMethodStats(method("com.example.Foo", "run", "()V")).getHits());
+        Assert.assertNull(correlator.getMethodStats(method("com.example.Foo", "run", "(I)V")));
+    }
+
+    @Test
+    public void removeContext() {
+        DexMethod run = method("com.example.Foo", "run", "()V");
+        TraceCorrelator correlator = registered(run);
+
+        correlator.removeContext(m_context);
+        Assert.assertNull(correlator.parse(line("10-18 09:52:01.000", 1, ENTRY)).point);
+        Assert.assertNull(correlator.getClassStats(run.getMEClass()));
+    }
+
+    @Test
+    public void sameClassInTwoContexts() {
+        MEClassContext other = new UnknownContext() {
+            @Override
+            public String getContextName() {
+                return "other.apk";
+            }
+        };
+        DexMethod run = method("com.example.Foo", "run", "()V");
+        DexMethod otherRun = method(other, "com.example.Foo", "run", "()V");
+        TraceCorrelator correlator = registered(run);
+        correlator.register(otherRun, ENTRY);
+        correlator.register(otherRun, EXIT);
+
+        // the messages are the same, they map to the context registered last
+        correlator.add(line("10-18 09:52:01.000", 1, ENTRY));
+        Assert.assertEquals(1, correlator.getMethodStats(otherRun).getHits());
+        Assert.assertEquals(0, correlator.getMethodStats(run).getHits());
+        Assert.assertEquals(0, correlator.getClassStats(run.getMEClass()).getHits());
+
+        // removing it maps them back to the first context, whose statistics are kept
+        correlator.add(line("10-18 09:52:01.100", 1, POINT));
+        correlator.removeContext(other);
+        Assert.assertNull(correlator.getMethodStats(otherRun));
+        Assert.assertEquals(1, correlator.getClassStats(run.getMEClass()).getHits());
+        correlator.add(line("10-18 09:52:02.000", 1, ENTRY));
+        TraceEvent exit = correlator.add(line("10-18 09:52:02.300", 1, EXIT));
+        Assert.assertEquals(300, exit.duration);
+        Assert.assertEquals(3, correlator.getMethodStats(run).getHits());
+        Assert.assertEquals(3, correlator.getClassStats(run.getMEClass()).getHits());
+        Assert.assertEquals(1, correlator.getPointStats(run).get(0x1A).getHits());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.signapk;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import mereflect.io.DefaultClassReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import sun.misc.BASE64Encoder;
+import sun.security.pkcs.PKCS7;
+import sun.security.pkcs.SignerInfo;
+
+public class SignApkTest {
+    private File m_in;
+    private File m_out;
+    private final Map<String, byte[]> m_content = new LinkedHashMap<String, byte[]>();
+
+    @Before
+    public void setUp() throws IOException {
+        m_in = File.createTempFile("signapk", ".apk");
+        m_out = File.createTempFile("signapk", ".apk");
+        Random random = new Random(7);
+        // more entries than digest threads, of varying sizes
+        for (int i = 0; i < 40; i++) {
+            byte[] data = new byte[random.nextInt(50000)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) (random.nextInt(i + 2));
+            }
+            m_content.put("res/raw/file" + i + ".bin", data);
+        }
+        m_content.put("META-INF/OLD.SF", "old signature".getBytes("UTF-8"));
+        m_content.put("META-INF/OLD.RSA", "old signature".getBytes("UTF-8"));
+
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(m_in));
+        try {
+            for (Map.Entry<String, byte[]> e : m_content.entrySet()) {
+                zos.putNextEntry(new ZipEntry(e.getKey()));
+                zos.write(e.getValue());
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        m_in.delete();
+        m_out.delete();
+    }
+
+    @Test
+    public void signAndVerify() throws Exception {
+        Map<String, byte[]> replaced = new HashMap<String, byte[]>();
+        replaced.put("res/raw/file3.bin", "replaced".getBytes("UTF-8"));
+        replaced.put("classes.dex", "added".getBytes("UTF-8"));
+        SignApk.signApk(m_in, replaced, Collections.singleton("res/raw/file5.bin"), m_out);
+
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>(m_content);
+        expected.putAll(replaced);
+        expected.remove("res/raw/file5.bin");
+        expected.remove("META-INF/OLD.SF");
+        expected.remove("META-INF/OLD.RSA");
+
+        Map<String, byte[]> signed = readAll(m_out);
+        byte[] manifestData = signed.remove(JarFile.MANIFEST_NAME);
+        byte[] sf = signed.remove("META-INF/CERT.SF");
+        byte[] rsa = signed.remove("META-INF/CERT.RSA");
+        Assert.assertEquals(expected.keySet(), signed.keySet());
+        for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+            Assert.assertArrayEquals(e.getKey(), e.getValue(), signed.get(e.getKey()));
+        }
+
+        // every entry is listed in the manifest with its digest
+        BASE64Encoder base64 = new BASE64Encoder();
+        Manifest manifest = new Manifest(new ByteArrayInputStream(manifestData));
+        Assert.assertEquals(expected.keySet(), manifest.getEntries().keySet());
+        for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+            Attributes attributes = manifest.getAttributes(e.getKey());
+            Assert.assertEquals(e.getKey(), base64.encode(sha1(e.getValue())), attributes.getValue("SHA1-Digest"));
+        }
+
+        // the signature file holds the digest of the manifest and is signed by the test key
+        Manifest signatureFile = new Manifest(new ByteArrayInputStream(sf));
+        Assert.assertEquals(base64.encode(sha1(manifestData)),
+                signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"));
+        PKCS7 block = new PKCS7(rsa);
+        SignerInfo signer = block.getSignerInfos()[0];
+        Signature signature = Signature.getInstance("SHA1withRSA");
+        signature.initVerify(block.getCertificates()[0].getPublicKey());
+        signature.update(sf);
+        Assert.assertTrue(signature.verify(signer.getEncryptedDigest()));
+    }
+
+    @Test
+    public void signTwice() throws Exception {
+        Map<String, byte[]> noEntries = Collections.emptyMap();
+        SignApk.signApk(m_in, noEntries, Collections.<String> emptyList(), m_out);
+        File again = File.createTempFile("signapk", ".apk");
+        try {
+            SignApk.signApk(m_in, noEntries, Collections.<String> emptyList(), again);
+            // entries get the time of the certificate, so the output does not depend on when it is signed
+            Assert.assertArrayEquals(readFile(m_out), readFile(again));
+        } finally {
+            again.delete();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return DefaultClassReader.readBytes(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Map<String, byte[]> readAll(File file) throws IOException {
+        Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                InputStream is = zip.getInputStream(entry);
+                try {
+                    content.put(entry.getName(), DefaultClassReader.readBytes(is));
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return content;
+    }
+
+    private static byte[] sha1(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(data);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package gui;
+
+import java.lang.reflect.Field;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import andreflect.adb.AdbProxy;
+
+public class LogLineBufferTest {
+
+    private static int append(LogLineBuffer buffer, String text) {
+        char[] chars = text.toCharArray();
+        return buffer.append(chars, 0, chars.length);
+    }
+
+    @Test
+    public void splitLines() {
+        LogLineBuffer buffer = new LogLineBuffer(8);
+        Assert.assertEquals(0, append(buffer, "first pa"));
+        Assert.assertEquals(2, append(buffer, "rt\r\nsecond\nthi"));
+        Assert.assertEquals(1, append(buffer, "rd\n"));
+        Assert.assertEquals(0, buffer.flush());
+        Assert.assertEquals(0, append(buffer, "last"));
+        Assert.assertEquals(1, buffer.flush());
+
+        Assert.assertEquals(0, buffer.getFirst());
+        Assert.assertEquals(4, buffer.getEnd());
+        Assert.assertEquals("first part", buffer.getLine(0));
+        Assert.assertEquals("second", buffer.getLine(1));
+        Assert.assertEquals("third", buffer.getLine(2));
+        Assert.assertEquals("last", buffer.getLine(3));
+        Assert.assertNull(buffer.getLine(4));
+    }
+
+    @Test
+    public void splitLongLines() {
+        LogLineBuffer buffer = new LogLineBuffer(8);
+        char[] chunk = new char[LogLineBuffer.MAX_LINE_LENGTH / 2 + 1];
+        java.util.Arrays.fill(chunk, 'x');
+        // output without line breaks is added in lines of the maximum length
+        Assert.assertEquals(0, buffer.append(chunk, 0, chunk.length));
+        Assert.assertEquals(1, buffer.append(chunk, 0, chunk.length));
+        Assert.assertEquals(LogLineBuffer.MAX_LINE_LENGTH, buffer.getLine(0).length());
+        Assert.assertEquals(1, append(buffer, "end\n"));
+        Assert.assertEquals(2 * chunk.length - LogLineBuffer.MAX_LINE_LENGTH + 3, buffer.getLine(1).length());
+
+        char[] longChunk = new char[LogLineBuffer.MAX_LINE_LENGTH * 3];
+        java.util.Arrays.fill(longChunk, 'y');
+        // the last full length line is kept until more text or a line break is appended
+        Assert.assertEquals(2, buffer.append(longChunk, 0, longChunk.length));
+        Assert.assertEquals(1, buffer.flush());
+        Assert.assertEquals(5, buffer.getEnd());
+        Assert.assertEquals(LogLineBuffer.MAX_LINE_LENGTH, buffer.getLine(4).length());
+    }
+
+    @Test
+    public void dropOldestLines() {
+        LogLineBuffer buffer = new LogLineBuffer(3);
+        Assert.assertEquals(5, append(buffer, "0\n1\n2\n3\n4\n"));
+
+        Assert.assertEquals(2, buffer.getFirst());
+        Assert.assertEquals(5, buffer.getEnd());
+        Assert.assertNull(buffer.getLine(1));
+        Assert.assertEquals("2", buffer.getLine(2));
+        Assert.assertEquals("4", buffer.getLine(4));
+        Assert.assertEquals(LogLineBuffer.LEVEL_NONE, buffer.getLevel(1));
+    }
+
+    @Test
+    public void clearKeepsSequence() {
+        LogLineBuffer buffer = new LogLineBuffer(3);
+        append(buffer, "0\n1\npartial");
+        buffer.clear();
+
+        Assert.assertEquals(2, buffer.getFirst());
+        Assert.assertEquals(2, buffer.getEnd());
+        Assert.assertNull(buffer.getLine(1));
+        Assert.assertEquals(0, buffer.flush());
+
+        append(buffer, "2\n");
+        Assert.assertEquals("2", buffer.getLine(2));
+    }
+
+    @Test
+    public void wrapPastIntRange() throws Exception {
+        LogLineBuffer buffer = new LogLineBuffer(3);
+        // as if Integer.MAX_VALUE - 1 lines had been appended
+        long start = Integer.MAX_VALUE - 1;
+        setLong(buffer, "m_first", start);
+        setLong(buffer, "m_end", start);
+
+        Assert.assertEquals(5, append(buffer, "a\nb\nc\nd\ne\n"));
+        Assert.assertEquals(start + 2, buffer.getFirst());
+        Assert.assertEquals(start + 5, buffer.getEnd());
+        Assert.assertNull(buffer.getLine(start + 1));
+        Assert.assertEquals("c", buffer.getLine(start + 2));
+        Assert.assertEquals("d", buffer.getLine(start + 3));
+        Assert.assertEquals("e", buffer.getLine(start + 4));
+    }
+
+    @Test
+    public void parseLevels() {
+        LogLineBuffer buffer = new LogLineBuffer(8);
+        append(buffer, "10-18 09:52:01.123 D/Tag( 1234): message\n");
+        append(buffer, "E/Tag( 1234): message\n");
+        append(buffer, "10-18 09:52:01.123 V/APKANALYSER( 1234): > a.B:c()V(0)\n");
+        append(buffer, "--------- beginning of main\n");
+
+        Assert.assertEquals(AdbProxy.LEVEL_D, buffer.getLevel(0));
+        Assert.assertEquals(AdbProxy.LEVEL_E, buffer.getLevel(1));
+        Assert.assertEquals(AdbProxy.LEVEL_V | LogLineBuffer.FLAG_APKANALYSER, buffer.getLevel(2));
+        Assert.assertEquals(LogLineBuffer.LEVEL_NONE, buffer.getLevel(3));
+
+        Assert.assertFalse(LogLineBuffer.isShown(buffer.getLevel(0), AdbProxy.LEVEL_W));
+        Assert.assertTrue(LogLineBuffer.isShown(buffer.getLevel(1), AdbProxy.LEVEL_W));
+        Assert.assertTrue(LogLineBuffer.isShown(buffer.getLevel(2), AdbProxy.LEVEL_W));
+        Assert.assertTrue(LogLineBuffer.isShown(buffer.getLevel(3), AdbProxy.LEVEL_W));
+    }
+
+    private static void setLong(Object o, String name, long value) throws Exception {
+        Field field = o.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.setLong(o, value);
+    }
+}
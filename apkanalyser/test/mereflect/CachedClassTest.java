@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import mereflect.info.ClassInfo;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CachedClassTest
+{
+    /** Class with a constant, exceptions and code */
+    @SuppressWarnings("unused")
+    static class Sample implements Serializable, Runnable
+    {
+        private static final long serialVersionUID = 42L;
+        static final String NAME = "sample \u00e5\u00e4\u00f6";
+        private int m_count;
+
+        public void run()
+        {
+            try
+            {
+                m_count += NAME.length();
+            } catch (RuntimeException e)
+            {
+                m_count = -1;
+            }
+        }
+
+        long sum(long a, double b) throws IOException
+        {
+            return a + (long) b + m_count;
+        }
+    }
+
+    private static final Class<?>[] CLASSES = { Sample.class, CachedClassTest.class, Object.class, String.class,
+            java.util.HashMap.class };
+
+    private static File s_jar;
+
+    @BeforeClass
+    public static void writeJar() throws IOException
+    {
+        s_jar = File.createTempFile("cachedclass", ".jar");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(s_jar));
+        try
+        {
+            byte[] buf = new byte[4096];
+            for (Class<?> clazz : CLASSES)
+            {
+                String name = clazz.getName().replace('.', '/') + ".class";
+                jos.putNextEntry(new JarEntry(name));
+                InputStream is = ClassLoader.getSystemResourceAsStream(name);
+                try
+                {
+                    int len;
+                    while ((len = is.read(buf)) > 0)
+                    {
+                        jos.write(buf, 0, len);
+                    }
+                } finally
+                {
+                    is.close();
+                }
+                jos.closeEntry();
+            }
+        } finally
+        {
+            jos.close();
+        }
+    }
+
+    @AfterClass
+    public static void deleteJar()
+    {
+        s_jar.delete();
+    }
+
+    @Test
+    public void readsDeclarationsAndLoadsRest() throws IOException
+    {
+        JarClassContext ctx = new JarClassContext(s_jar, false);
+        MEClassResource[] rscs = ctx.getClassResources();
+        Assert.assertEquals(CLASSES.length, rscs.length);
+        for (MEClassResource rsc : rscs)
+        {
+            MEClass parsed = ctx.readClass(rsc);
+            parsed.setResource(rsc);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            Assert.assertTrue(CachedClass.write(parsed, new DataOutputStream(bos)));
+            CachedClass cached = CachedClass.read(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+            cached.setResource(rsc);
+            String name = rsc.getClassName();
+
+            // the declarations do not need the class file
+            Assert.assertEquals(name, cached.getName());
+            Assert.assertEquals(name, parsed.getAccessFlags(), cached.getAccessFlags());
+            Assert.assertArrayEquals(name, parsed.getInterfaceIndices(), cached.getInterfaceIndices());
+            assertSameDeclarations(name, parsed.getFields(), cached.getFields());
+            assertSameDeclarations(name, parsed.getMethods(), cached.getMethods());
+            Assert.assertNull(name, cached.m_attributes);
+            Assert.assertEquals(parsed.m_constantPool.length, cached.m_constantPool.length);
+
+            // the rest is loaded when asked for
+            ClassInfo[] pool = cached.getConstantPool();
+            for (int i = 0; i < pool.length; i++)
+            {
+                Assert.assertEquals(name + " #" + i, parsed.m_constantPool[i] == null, pool[i] == null);
+                if (pool[i] != null)
+                {
+                    Assert.assertEquals(name + " #" + i, parsed.m_constantPool[i].getTag(), pool[i].getTag());
+                }
+            }
+            Assert.assertEquals(name, parsed.getAttributes().length, cached.getAttributes().length);
+            Assert.assertArrayEquals(name, parsed.getDependencies(), cached.getDependencies());
+            for (int i = 0; i < parsed.getMethods().length; i++)
+            {
+                MEMethod m = cached.getMethods()[i];
+                String method = name + "." + m.getName();
+                Assert.assertArrayEquals(method, parsed.getMethods()[i].getByteCodes(), m.getByteCodes());
+                Assert.assertEquals(method, parsed.getMethods()[i].getExceptionsString(), m.getExceptionsString());
+            }
+            for (int i = 0; i < parsed.getFields().length; i++)
+            {
+                MEField f = cached.getFields()[i];
+                Assert.assertEquals(name + "." + f.getName(), parsed.getFields()[i].getConstantValue(),
+                        f.getConstantValue());
+            }
+        }
+    }
+
+    @Test
+    public void preloadPassesAllClassesToStore() throws IOException
+    {
+        final List<MEClass> stored = new ArrayList<MEClass>();
+        JarClassContext ctx = new JarClassContext(s_jar, false)
+        {
+            @Override
+            protected void storeClasses(List<MEClass> classes)
+            {
+                stored.addAll(classes);
+            }
+        };
+        Assert.assertEquals(CLASSES.length, ctx.preloadClasses(2));
+        Assert.assertEquals(CLASSES.length, stored.size());
+        for (MEClass c : stored)
+        {
+            Assert.assertSame(c, ctx.findMEClass(c.getName()));
+        }
+    }
+
+    private static void assertSameDeclarations(String name, MEField[] expected, MEField[] actual)
+    {
+        Assert.assertEquals(name, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            Assert.assertEquals(name, expected[i].getName(), actual[i].getName());
+            Assert.assertEquals(name, expected[i].getDescriptor(), actual[i].getDescriptor());
+            Assert.assertEquals(name, expected[i].getAccessFlags(), actual[i].getAccessFlags());
+        }
+    }
+
+    private static void assertSameDeclarations(String name, MEMethod[] expected, MEMethod[] actual)
+    {
+        Assert.assertEquals(name, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            Assert.assertEquals(name, expected[i].getName(), actual[i].getName());
+            Assert.assertEquals(name, expected[i].getDescriptor(), actual[i].getDescriptor());
+            Assert.assertEquals(name, expected[i].getAccessFlags(), actual[i].getAccessFlags());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect;
+
+import java.io.File;
+
+/**
+ * Measures class resource lookups and class loading in a classpath context,
+ * as done when resolving the references of an apk. Not run as part of the
+ * tests, start it with the jars to use as classpath, e.g.
+ * <pre>
+ * java -cp ... mereflect.ClassLookupBenchmark 20000 jre/lib/rt.jar jre/lib/jsse.jar
+ * </pre>
+ * Without jars, the jars of the running JRE are used.
+ */
+public class ClassLookupBenchmark
+{
+    private static final String[] JRE_JARS = { "rt.jar", "charsets.jar", "jsse.jar", "jce.jar",
+            "ext/localedata.jar", "ext/nashorn.jar", "ext/cldrdata.jar", "ext/sunec.jar", "ext/zipfs.jar" };
+
+    /** Number of distinct classes loaded in the load benchmark */
+    private static final int LOADED_CLASSES = 2000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String classpath = getClasspath(args);
+
+        long start = System.nanoTime();
+        CollaborateClassContext ctx = new CollaborateClassContext();
+        ctx.setClasspath(classpath);
+        String[] names = ctx.getClassnames();
+        report(names.length + " classes, resource cache build", start);
+
+        start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < lookups; i++)
+        {
+            if (ctx.getClassResource(names[pick(i, names.length)]) != null)
+            {
+                hits++;
+            }
+        }
+        report(lookups + " getClassResource, " + hits + " hits", start);
+
+        start = System.nanoTime();
+        int misses = 0;
+        for (int i = 0; i < lookups; i++)
+        {
+            try
+            {
+                ctx.getMEClass("no.such.Class" + (i % 100));
+            } catch (ClassNotFoundException cnfe)
+            {
+                misses++;
+            }
+        }
+        report(lookups + " getMEClass, " + misses + " misses", start);
+
+        start = System.nanoTime();
+        int loaded = 0;
+        for (int i = 0; i < LOADED_CLASSES; i++)
+        {
+            if (findMEClass(ctx, names[pick(i, names.length)]) != null)
+            {
+                loaded++;
+            }
+        }
+        for (int i = 0; i < lookups; i++)
+        {
+            findMEClass(ctx, names[pick(i % LOADED_CLASSES, names.length)]);
+        }
+        report(loaded + " loads and " + lookups + " cached gets", start);
+    }
+
+    /**
+     * Loads a class, classes the reader does not support, e.g. with
+     * invokedynamic constants, are counted as not loaded
+     */
+    private static MEClass findMEClass(MEClassContext ctx, String name)
+    {
+        try
+        {
+            return ctx.findMEClass(name);
+        } catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private static String getClasspath(String[] args)
+    {
+        StringBuffer cp = new StringBuffer();
+        if (args.length > 1)
+        {
+            for (int i = 1; i < args.length; i++)
+            {
+                append(cp, args[i]);
+            }
+        }
+        else
+        {
+            File lib = new File(System.getProperty("java.home"), "lib");
+            for (int i = 0; i < JRE_JARS.length; i++)
+            {
+                File jar = new File(lib, JRE_JARS[i]);
+                if (jar.isFile())
+                {
+                    append(cp, jar.getPath());
+                }
+            }
+        }
+        return cp.toString();
+    }
+
+    private static void append(StringBuffer cp, String path)
+    {
+        if (cp.length() > 0)
+        {
+            cp.append(File.pathSeparator);
+        }
+        cp.append(path);
+    }
+
+    /** Spreads the lookups over the classes, in a fixed order */
+    private static int pick(int i, int count)
+    {
+        return (int) ((i * 7919L) % count);
+    }
+
+    private static void report(String what, long start)
+    {
+        System.out.println(what + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
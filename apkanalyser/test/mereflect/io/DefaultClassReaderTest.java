@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mereflect.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import mereflect.MEClass;
+import mereflect.MEField;
+import mereflect.MEMethod;
+import mereflect.info.AttributeInfo;
+import mereflect.info.CiUtf8;
+import mereflect.info.ClassInfo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DefaultClassReaderTest
+{
+    /** Class with constants of all kinds, exception handlers and attributes */
+    @SuppressWarnings("unused")
+    static class Sample implements Serializable, Runnable
+    {
+        private static final long serialVersionUID = 0x123456789abcdefL;
+        static final double PI = Math.PI;
+        static final float E = 2.718f;
+        static final String NAME = "sample \u00e5\u00e4\u00f6 \u2603";
+        private int m_count;
+        protected long[] m_values = { Long.MIN_VALUE, Long.MAX_VALUE };
+
+        @Deprecated
+        public void run()
+        {
+            try
+            {
+                m_count += NAME.length();
+            } catch (RuntimeException e)
+            {
+                m_count = -1;
+            } finally
+            {
+                m_count++;
+            }
+        }
+
+        synchronized double sum(double d, long l, float f)
+        {
+            return d + l + f + PI + E;
+        }
+    }
+
+    /**
+     * Returns at most a few bytes per read, like a jar entry stream may
+     */
+    static class TrickleInputStream extends FilterInputStream
+    {
+        private int m_reads = 0;
+
+        TrickleInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return super.read(b, off, Math.min(len, 1 + m_reads++ % 3));
+        }
+
+        @Override
+        public int available()
+        {
+            return 0;
+        }
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws IOException
+    {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        InputStream is = clazz.getClassLoader() == null ? ClassLoader.getSystemResourceAsStream(name)
+                : clazz.getClassLoader().getResourceAsStream(name);
+        try
+        {
+            return DefaultClassReader.readBytes(new TrickleInputStream(is));
+        } finally
+        {
+            is.close();
+        }
+    }
+
+    @Test
+    public void readBytes() throws IOException
+    {
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) i;
+        }
+        Assert.assertArrayEquals(data, DefaultClassReader.readBytes(new ByteArrayInputStream(data)));
+        Assert.assertArrayEquals(data, DefaultClassReader.readBytes(new TrickleInputStream(new ByteArrayInputStream(data))));
+        Assert.assertEquals(0, DefaultClassReader.readBytes(new ByteArrayInputStream(new byte[0])).length);
+    }
+
+    @Test
+    public void matchesStreamReading() throws IOException
+    {
+        Class<?>[] classes = { Sample.class, DefaultClassReaderTest.class, Object.class, Assert.class };
+        DefaultClassReader reader = new DefaultClassReader();
+        for (Class<?> clazz : classes)
+        {
+            byte[] data = classBytes(clazz);
+            MEClass fromBytes = reader.readClassFile(data);
+            MEClass fromStream = reader.readClass(new DataInputStream(new TrickleInputStream(new ByteArrayInputStream(data))));
+            Assert.assertEquals(clazz.getName(), fromBytes.getName());
+            assertSameClass(fromStream, fromBytes);
+        }
+    }
+
+    @Test
+    public void readSample() throws IOException
+    {
+        MEClass c = new DefaultClassReader().readClassFile(classBytes(Sample.class));
+        Assert.assertEquals(Sample.class.getDeclaredFields().length, c.getFields().length);
+        // the declared methods and the constructor
+        Assert.assertEquals(Sample.class.getDeclaredMethods().length + 1, c.getMethods().length);
+        boolean found = false;
+        for (ClassInfo info : c.getConstantPool())
+        {
+            if (info instanceof CiUtf8 && ((CiUtf8) info).getUtf8().equals(Sample.NAME))
+            {
+                found = true;
+            }
+        }
+        Assert.assertTrue(found);
+    }
+
+    @Test(expected = IOException.class)
+    public void notAClass() throws IOException
+    {
+        new DefaultClassReader().readClassFile(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    }
+
+    private static void assertSameClass(MEClass expected, MEClass actual)
+    {
+        String name = expected.getName();
+        Assert.assertEquals(name, expected.getName(), actual.getName());
+        Assert.assertEquals(name, expected.getAccessFlags(), actual.getAccessFlags());
+
+        ClassInfo[] expectedPool = expected.getConstantPool();
+        ClassInfo[] actualPool = actual.getConstantPool();
+        Assert.assertEquals(name, expectedPool.length, actualPool.length);
+        for (int i = 0; i < expectedPool.length; i++)
+        {
+            if (expectedPool[i] == null)
+            {
+                Assert.assertNull(name + " #" + i, actualPool[i]);
+                continue;
+            }
+            Assert.assertEquals(name + " #" + i, expectedPool[i].getTag(), actualPool[i].getTag());
+            Assert.assertEquals(name + " #" + i, expectedPool[i].getLength(), actualPool[i].getLength());
+            if (expectedPool[i] instanceof CiUtf8)
+            {
+                Assert.assertEquals(name + " #" + i, ((CiUtf8) expectedPool[i]).getUtf8(), ((CiUtf8) actualPool[i]).getUtf8());
+            }
+        }
+
+        MEField[] expectedFields = expected.getFields();
+        MEField[] actualFields = actual.getFields();
+        Assert.assertEquals(name, expectedFields.length, actualFields.length);
+        for (int i = 0; i < expectedFields.length; i++)
+        {
+            Assert.assertEquals(name, expectedFields[i].getName(), actualFields[i].getName());
+            Assert.assertEquals(name, expectedFields[i].getDescriptor(), actualFields[i].getDescriptor());
+            Assert.assertEquals(name, expectedFields[i].getAccessFlags(), actualFields[i].getAccessFlags());
+            assertSameAttributes(name, expectedFields[i].getAttributes(), actualFields[i].getAttributes());
+        }
+
+        MEMethod[] expectedMethods = expected.getMethods();
+        MEMethod[] actualMethods = actual.getMethods();
+        Assert.assertEquals(name, expectedMethods.length, actualMethods.length);
+        for (int i = 0; i < expectedMethods.length; i++)
+        {
+            String method = name + "." + expectedMethods[i].getName();
+            Assert.assertEquals(name, expectedMethods[i].getName(), actualMethods[i].getName());
+            Assert.assertEquals(method, expectedMethods[i].getDescriptor(), actualMethods[i].getDescriptor());
+            Assert.assertEquals(method, expectedMethods[i].getAccessFlags(), actualMethods[i].getAccessFlags());
+            Assert.assertArrayEquals(method, expectedMethods[i].getByteCodes(), actualMethods[i].getByteCodes());
+            assertSameAttributes(method, expectedMethods[i].getAttributes(), actualMethods[i].getAttributes());
+        }
+
+        assertSameAttributes(name, expected.getAttributes(), actual.getAttributes());
+    }
+
+    private static void assertSameAttributes(String name, AttributeInfo[] expected, AttributeInfo[] actual)
+    {
+        Assert.assertEquals(name, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            Assert.assertEquals(name, expected[i].getClass(), actual[i].getClass());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntMultiMapTest {
+
+    @Test
+    public void addAndGet() {
+        IntMultiMap<String> map = new IntMultiMap<String>();
+        map.add(0x7f020001, "a");
+        map.add(0x7f020001, "b");
+        map.add(0x01010000, "c");
+
+        Assert.assertEquals(Arrays.asList("a", "b"), map.get(0x7f020001));
+        Assert.assertEquals(Arrays.asList("c"), map.get(0x01010000));
+        Assert.assertTrue(map.get(0x7f020002).isEmpty());
+        Assert.assertTrue(map.containsKey(0x01010000));
+        Assert.assertFalse(map.containsKey(0));
+        Assert.assertEquals(2, map.size());
+    }
+
+    @Test
+    public void addUnique() {
+        IntMultiMap<String> map = new IntMultiMap<String>();
+        Assert.assertTrue(map.addUnique(1, "a"));
+        Assert.assertTrue(map.addUnique(1, "b"));
+        Assert.assertFalse(map.addUnique(1, "a"));
+        Assert.assertFalse(map.addUnique(1, new String("b")));
+        Assert.assertEquals(Arrays.asList("a", "b"), map.get(1));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        IntMultiMap<Integer> map = new IntMultiMap<Integer>();
+        Map<Integer, List<Integer>> expected = new HashMap<Integer, List<Integer>>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // resource ids of a few packages and types, including key 0 and negative keys
+            int key = random.nextInt(4) == 0 ? -random.nextInt(100) : 0x7f000000 | random.nextInt(3000);
+            map.add(key, i);
+            List<Integer> values = expected.get(key);
+            if (values == null) {
+                values = new ArrayList<Integer>();
+                expected.put(key, values);
+            }
+            values.add(i);
+        }
+        check(expected, map);
+
+        map.trimToSize();
+        check(expected, map);
+
+        // still grows after trimming
+        map.add(0x7f000001, -1);
+        expected.get(0x7f000001).add(-1);
+        check(expected, map);
+    }
+
+    @Test
+    public void clear() {
+        IntMultiMap<String> map = new IntMultiMap<String>();
+        for (int i = 0; i < 100; i++) {
+            map.add(i, "v");
+        }
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertEquals(0, map.keys().length);
+        Assert.assertTrue(map.get(5).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void valuesReadOnly() {
+        IntMultiMap<String> map = new IntMultiMap<String>();
+        map.add(1, "a");
+        map.get(1).add("b");
+    }
+
+    private static void check(Map<Integer, List<Integer>> expected, IntMultiMap<Integer> map) {
+        Assert.assertEquals(expected.size(), map.size());
+        int[] keys = map.keys();
+        Assert.assertEquals(expected.size(), keys.length);
+        for (int key : keys) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import mereflect.io.DefaultClassReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RawZipWriterTest {
+    private File m_in;
+    private File m_out;
+    private final Map<String, byte[]> m_content = new LinkedHashMap<String, byte[]>();
+
+    @Before
+    public void setUp() throws IOException {
+        m_in = File.createTempFile("rawzip", ".zip");
+        m_out = File.createTempFile("rawzip", ".zip");
+        Random random = new Random(1);
+        byte[] noise = new byte[100000];
+        random.nextBytes(noise);
+        byte[] text = new byte[200000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + random.nextInt(4));
+        }
+        m_content.put("res/", null);
+        m_content.put("res/raw/noise.bin", noise);
+        m_content.put("classes.dex", text);
+        m_content.put("res/layout/empty.xml", new byte[0]);
+        m_content.put("assets/\u00e5\u00e4\u00f6.txt", "utf-8 name".getBytes("UTF-8"));
+    }
+
+    @After
+    public void tearDown() {
+        m_in.delete();
+        m_out.delete();
+    }
+
+    private void writeInput() throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(m_in));
+        try {
+            for (Map.Entry<String, byte[]> e : m_content.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                byte[] data = e.getValue();
+                if (e.getKey().endsWith(".bin")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                if (data != null) {
+                    zos.write(data);
+                }
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        InputStream is = zip.getInputStream(entry);
+        try {
+            return DefaultClassReader.readBytes(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void readEntries() throws IOException {
+        writeInput();
+        RandomAccessFile in = new RandomAccessFile(m_in, "r");
+        try {
+            List<RawZipWriter.Entry> entries = RawZipWriter.readEntries(in);
+            Assert.assertEquals(m_content.size(), entries.size());
+            int i = 0;
+            for (Map.Entry<String, byte[]> e : m_content.entrySet()) {
+                RawZipWriter.Entry entry = entries.get(i++);
+                Assert.assertEquals(e.getKey(), entry.name);
+                Assert.assertEquals(e.getValue() == null, entry.isDirectory());
+                if (e.getValue() != null) {
+                    Assert.assertEquals(e.getValue().length, entry.getSize());
+                }
+            }
+            Assert.assertEquals(ZipEntry.STORED, entries.get(1).getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, entries.get(2).getMethod());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void copyAndPut() throws Exception {
+        writeInput();
+        long time = System.currentTimeMillis();
+        RandomAccessFile in = new RandomAccessFile(m_in, "r");
+        RawZipWriter out = new RawZipWriter(m_out, time);
+        MessageDigest md = MessageDigest.getInstance("SHA1");
+        try {
+            for (RawZipWriter.Entry entry : RawZipWriter.readEntries(in)) {
+                if (entry.isDirectory()) {
+                    out.copyEntry(in, entry, null);
+                    continue;
+                }
+                out.copyEntry(in, entry, md);
+                Assert.assertArrayEquals(entry.name, sha1(m_content.get(entry.name)), md.digest());
+
+                RawZipWriter.digestEntry(in, entry, md);
+                Assert.assertArrayEquals(entry.name, sha1(m_content.get(entry.name)), md.digest());
+            }
+            byte[] added = "added entry ".getBytes("UTF-8");
+            out.putEntry("META-INF/ADDED", added, md);
+            Assert.assertArrayEquals(sha1(added), md.digest());
+            m_content.put("META-INF/ADDED", added);
+            out.finish();
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        ZipFile zip = new ZipFile(m_out);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            for (Map.Entry<String, byte[]> e : m_content.entrySet()) {
+                ZipEntry entry = entries.nextElement();
+                Assert.assertEquals(e.getKey(), entry.getName());
+                if (e.getValue() != null) {
+                    Assert.assertArrayEquals(e.getKey(), e.getValue(), read(zip, entry));
+                }
+                // DOS time has a resolution of two seconds
+                Assert.assertEquals(time / 2000, entry.getTime() / 2000);
+            }
+            Assert.assertFalse(entries.hasMoreElements());
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void legacyNames() throws IOException {
+        if (!Charset.isSupported("IBM437")) {
+            return;
+        }
+        // without the UTF-8 flag, names are CP437
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(m_in), Charset.forName("IBM437"));
+        try {
+            zos.putNextEntry(new ZipEntry("\u00e5\u00e4\u00f6\u00c7.txt"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        RandomAccessFile in = new RandomAccessFile(m_in, "r");
+        try {
+            Assert.assertEquals("\u00e5\u00e4\u00f6\u00c7.txt", RawZipWriter.readEntries(in).get(0).name);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notAZip() throws IOException {
+        FileOutputStream fos = new FileOutputStream(m_in);
+        try {
+            fos.write(new byte[100]);
+        } finally {
+            fos.close();
+        }
+        RandomAccessFile in = new RandomAccessFile(m_in, "r");
+        try {
+            RawZipWriter.readEntries(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] sha1(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(data);
+    }
+}
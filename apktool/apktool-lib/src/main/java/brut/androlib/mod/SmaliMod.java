@@ -32,6 +32,20 @@ public class SmaliMod {
             String name, DexFile dexFile, boolean verboseErrors,
             boolean oldLexer, boolean printTokens)
             throws IOException, RecognitionException {
+        ParsedSmaliFile parsedFile = parseSmaliFile(smaliStream, name,
+            verboseErrors, oldLexer, printTokens);
+        return parsedFile != null && assembleParsedFile(parsedFile, dexFile);
+    }
+
+    /**
+     * Lexes and parses a smali file without touching any dex file, so
+     * several files can be parsed at once.
+     *
+     * @return the parse tree, or null if there were syntax errors
+     */
+    public static ParsedSmaliFile parseSmaliFile(InputStream smaliStream,
+            String name, boolean verboseErrors, boolean oldLexer,
+            boolean printTokens) throws IOException, RecognitionException {
         CommonTokenStream tokens;
 
 
@@ -71,13 +85,21 @@ public class SmaliMod {
         smaliParser.smali_file_return result = parser.smali_file();
 
         if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
-            return false;
+            return null;
         }
 
-        CommonTree t = (CommonTree) result.getTree();
+        return new ParsedSmaliFile(name, (CommonTree) result.getTree(), tokens);
+    }
 
-        CommonTreeNodeStream treeStream = new CommonTreeNodeStream(t);
-        treeStream.setTokenStream(tokens);
+    /**
+     * Walks a parsed smali file and interns its class into the dex file.
+     * Must not be called concurrently for the same dex file.
+     */
+    public static boolean assembleParsedFile(ParsedSmaliFile parsedFile,
+            DexFile dexFile) throws RecognitionException {
+        CommonTreeNodeStream treeStream =
+            new CommonTreeNodeStream(parsedFile.tree);
+        treeStream.setTokenStream(parsedFile.tokens);
 
         smaliTreeWalker dexGen = new smaliTreeWalker(treeStream);
 
@@ -90,4 +112,21 @@ public class SmaliMod {
 
         return true;
     }
+
+    public static class ParsedSmaliFile {
+        private final String name;
+        private final CommonTree tree;
+        private final CommonTokenStream tokens;
+
+        private ParsedSmaliFile(String name, CommonTree tree,
+                CommonTokenStream tokens) {
+            this.name = name;
+            this.tree = tree;
+            this.tokens = tokens;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
 }
@@ -28,6 +28,8 @@ import brut.common.BrutException;
 import brut.directory.*;
 import brut.util.*;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.zip.*;
@@ -78,8 +80,7 @@ final public class AndrolibResources {
         File apk = getFrameworkApk(id, frameTag);
 
         LOGGER.info("Loading resource table from file: " + apk);
-        ResPackage[] pkgs = getResPackagesFromApk(
-            new ExtFile(apk), resTable, true);
+        ResPackage[] pkgs = getResPackagesFromFrameworkApk(apk, resTable);
 
         if (pkgs.length != 1) {
             throw new AndrolibException(
@@ -321,6 +322,106 @@ final public class AndrolibResources {
         }
     }
 
+    /**
+     * Loads packages of a framework apk from the snapshot stored next to it,
+     * decoding the apk and writing the snapshot if it is missing or was made
+     * from an apk with another length or content hash.
+     */
+    private ResPackage[] getResPackagesFromFrameworkApk(File apk,
+            ResTable resTable) throws AndrolibException {
+        File snapshot = new File(apk.getPath() + ".snapshot");
+        String digest = null;
+        try {
+            digest = getDigest(apk);
+        } catch (IOException ex) {
+            LOGGER.warning("Could not read " + apk + ": " + ex);
+        }
+        if (digest != null && snapshot.isFile()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(snapshot)));
+                if (in.readLong() == apk.length()
+                        && in.readUTF().equals(digest)) {
+                    return ARSCDecoder.decodeSnapshot(in, true, resTable)
+                        .getPackages();
+                }
+            } catch (IOException ex) {
+                LOGGER.warning("Could not read " + snapshot + ": " + ex);
+            } catch (AndrolibException ex) {
+                LOGGER.warning("Could not read " + snapshot + ": " + ex);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ResPackage[] pkgs;
+        try {
+            DataOutputStream header = new DataOutputStream(data);
+            header.writeLong(apk.length());
+            header.writeUTF(digest != null ? digest : "");
+            header.flush();
+            pkgs = ARSCDecoder.decode(
+                new ExtFile(apk).getDirectory().getFileInput("resources.arsc"),
+                false, true, resTable, data).getPackages();
+        } catch (IOException ex) {
+            throw new AndrolibException(
+                "Could not load resources.arsc from file: " + apk, ex);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(
+                "Could not load resources.arsc from file: " + apk, ex);
+        }
+        if (digest == null) {
+            return pkgs;
+        }
+
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            data.writeTo(out);
+            out.close();
+            out = null;
+            snapshot.delete();
+            tmp.renameTo(snapshot);
+        } catch (IOException ex) {
+            // the snapshot is an optimization only
+            LOGGER.warning("Could not write " + snapshot + ": " + ex);
+        } finally {
+            IOUtils.closeQuietly(out);
+            tmp.delete();
+        }
+        return pkgs;
+    }
+
+    /**
+     * Returns the SHA-256 hash of given file as a hex string.
+     */
+    private static String getDigest(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.toString());
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[65536];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                md.update(buf, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
     public File getFrameworkApk(int id, String frameTag)
             throws AndrolibException {
         File dir = getFrameworkDir();
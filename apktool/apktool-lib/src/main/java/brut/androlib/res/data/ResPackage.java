@@ -31,8 +31,9 @@ public class ResPackage {
     private final ResTable mResTable;
     private final int mId;
     private final String mName;
-    private final Map<ResID, ResResSpec> mResSpecs =
-        new LinkedHashMap<ResID, ResResSpec>();
+    private final List<ResResSpec> mResSpecs = new ArrayList<ResResSpec>();
+    /* specs indexed by type and entry id, the ids of a type are dense */
+    private ResResSpec[][] mResSpecsByType = new ResResSpec[0][];
     private final Map<ResConfigFlags, ResConfig> mConfigs =
         new LinkedHashMap<ResConfigFlags, ResConfig>();
     private final Map<String, ResType> mTypes =
@@ -48,15 +49,15 @@ public class ResPackage {
     }
 
     public List<ResResSpec> listResSpecs() {
-        return new ArrayList<ResResSpec>(mResSpecs.values());
+        return new ArrayList<ResResSpec>(mResSpecs);
     }
 
     public boolean hasResSpec(ResID resID) {
-        return mResSpecs.containsKey(resID);
+        return findResSpec(resID) != null;
     }
 
     public ResResSpec getResSpec(ResID resID) throws UndefinedResObject {
-        ResResSpec spec = mResSpecs.get(resID);
+        ResResSpec spec = findResSpec(resID);
         if (spec == null) {
             throw new UndefinedResObject("resource spec: " + resID.toString());
         }
@@ -107,7 +108,7 @@ public class ResPackage {
 
     public Set<ResResource> listFiles() {
         Set<ResResource> ret = new HashSet<ResResource>();
-        for (ResResSpec spec : mResSpecs.values()) {
+        for (ResResSpec spec : mResSpecs) {
             for (ResResource res : spec.listResources()) {
                 if (res.getValue() instanceof ResFileValue) {
                     ret.add(res);
@@ -120,7 +121,7 @@ public class ResPackage {
     public Collection<ResValuesFile> listValuesFiles() {
         Map<Duo<ResType, ResConfig>, ResValuesFile> ret =
             new HashMap<Duo<ResType, ResConfig>, ResValuesFile>();
-        for (ResResSpec spec : mResSpecs.values()) {
+        for (ResResSpec spec : mResSpecs) {
             for (ResResource res : spec.listResources()) {
                 if (res.getValue() instanceof ResValuesXmlSerializable) {
                     ResType type = res.getResSpec().getType();
@@ -156,9 +157,35 @@ public class ResPackage {
     }
 
     public void addResSpec(ResResSpec spec) throws AndrolibException {
-        if (mResSpecs.put(spec.getId(), spec) != null) {
+        ResID resID = spec.getId();
+        if (findResSpec(resID) != null) {
             throw new AndrolibException("Multiple resource specs: " + spec);
         }
+        if (resID.type >= mResSpecsByType.length) {
+            mResSpecsByType = Arrays.copyOf(mResSpecsByType, resID.type + 1);
+        }
+        ResResSpec[] specs = mResSpecsByType[resID.type];
+        if (specs == null) {
+            specs = new ResResSpec[resID.entry + 1];
+        } else if (resID.entry >= specs.length) {
+            specs = Arrays.copyOf(specs,
+                Math.max(resID.entry + 1, specs.length + (specs.length >> 1)));
+        }
+        specs[resID.entry] = spec;
+        mResSpecsByType[resID.type] = specs;
+        mResSpecs.add(spec);
+    }
+
+    private ResResSpec findResSpec(ResID resID) {
+        if (resID.type >= mResSpecsByType.length) {
+            return null;
+        }
+        ResResSpec[] specs = mResSpecsByType[resID.type];
+        if (specs == null || resID.entry >= specs.length) {
+            return null;
+        }
+        ResResSpec spec = specs[resID.entry];
+        return spec != null && spec.getId().id == resID.id ? spec : null;
     }
 
     public void addConfig(ResConfig config) throws AndrolibException {
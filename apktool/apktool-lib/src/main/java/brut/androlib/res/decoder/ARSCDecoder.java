@@ -56,6 +56,54 @@ public class ARSCDecoder {
         }
     }
 
+    /**
+     * Decodes arsc file and writes a snapshot of it to given stream. The
+     * snapshot holds the decoded strings and values of the table, so
+     * decodeSnapshot() can rebuild the same packages without parsing the
+     * arsc file and its string pools again.
+     */
+    public static ARSCData decode(InputStream arscStream,
+            boolean findFlagsOffsets, boolean keepBroken, ResTable resTable,
+            OutputStream snapshot) throws AndrolibException {
+        try {
+            ARSCDecoder decoder = new ARSCDecoder(arscStream, resTable,
+                findFlagsOffsets, keepBroken);
+            decoder.mSnapshotOut = new DataOutputStream(
+                new BufferedOutputStream(snapshot));
+            decoder.mSnapshotOut.writeInt(SNAPSHOT_VERSION);
+            ResPackage[] pkgs = decoder.readTable();
+            decoder.mSnapshotOut.flush();
+            return new ARSCData(
+                pkgs,
+                decoder.mFlagsOffsets == null ? null :
+                    decoder.mFlagsOffsets.toArray(new FlagsOffset[0]),
+                resTable);
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not decode arsc file", ex);
+        }
+    }
+
+    /**
+     * Builds packages from a snapshot written by decode(). Flags offsets
+     * are not part of the snapshot.
+     */
+    public static ARSCData decodeSnapshot(InputStream snapshot,
+            boolean keepBroken, ResTable resTable) throws AndrolibException {
+        try {
+            ARSCDecoder decoder = new ARSCDecoder(null, resTable, false,
+                keepBroken);
+            decoder.mSnapshotIn = new DataInputStream(
+                new BufferedInputStream(snapshot));
+            if (decoder.mSnapshotIn.readInt() != SNAPSHOT_VERSION) {
+                throw new AndrolibException("Unsupported arsc snapshot version");
+            }
+            ResPackage[] pkgs = decoder.readSnapshot();
+            return new ARSCData(pkgs, null, resTable);
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not decode arsc snapshot", ex);
+        }
+    }
+
     private ARSCDecoder(InputStream arscStream, ResTable resTable,
             boolean storeFlagsOffsets, boolean keepBroken) {
         if (storeFlagsOffsets) {
@@ -65,7 +113,8 @@ public class ARSCDecoder {
             mCountIn = null;
             mFlagsOffsets = null;
         }
-        mIn = new ExtDataInput(new LEDataInputStream(arscStream));
+        mIn = arscStream == null ? null :
+            new ExtDataInput(new LEDataInputStream(arscStream));
         mResTable = resTable;
         mKeepBroken = keepBroken;
     }
@@ -73,6 +122,9 @@ public class ARSCDecoder {
     private ResPackage[] readTable() throws IOException, AndrolibException {
         nextChunkCheckType(Header.TYPE_TABLE);
         int packageCount = mIn.readInt();
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeInt(packageCount);
+        }
 
         mTableStrings = StringBlock.read(mIn);
         ResPackage[] packages = new ResPackage[packageCount];
@@ -82,6 +134,45 @@ public class ARSCDecoder {
             packages[i] = readPackage();
         }
 
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeByte(SNAPSHOT_END);
+        }
+        return packages;
+    }
+
+    private ResPackage[] readSnapshot() throws IOException, AndrolibException {
+        DataInputStream in = mSnapshotIn;
+        ResPackage[] packages = new ResPackage[in.readInt()];
+
+        int marker = in.readByte();
+        for (int i = 0; i < packages.length; i++) {
+            checkSnapshotMarker(marker, SNAPSHOT_PACKAGE);
+            startPackage(in.readInt(), readSnapshotString());
+
+            marker = in.readByte();
+            while (marker == SNAPSHOT_TYPE) {
+                startType(in.readByte(), readSnapshotString(), in.readInt());
+
+                marker = in.readByte();
+                while (marker == SNAPSHOT_CONFIG) {
+                    int size = in.readInt();
+                    byte[] config = new byte[size - 4];
+                    in.readFully(config);
+                    startConfig(readConfigFlags(size, config));
+
+                    marker = in.readByte();
+                    while (marker == SNAPSHOT_ENTRY) {
+                        startEntry(in.readInt());
+                        readEntry();
+                        marker = in.readByte();
+                    }
+                }
+                addMissingResSpecs();
+            }
+            packages[i] = mPkg;
+        }
+        checkSnapshotMarker(marker, SNAPSHOT_END);
+
         return packages;
     }
 
@@ -97,8 +188,7 @@ public class ARSCDecoder {
         mTypeNames = StringBlock.read(mIn);
         mSpecNames = StringBlock.read(mIn);
 
-        mResId = id << 24;
-        mPkg = new ResPackage(mResTable, id, name);
+        startPackage(id, name);
 
         nextChunk();
         while (mHeader.type == Header.TYPE_TYPE) {
@@ -108,23 +198,28 @@ public class ARSCDecoder {
         return mPkg;
     }
 
+    private void startPackage(int id, String name) throws IOException {
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeByte(SNAPSHOT_PACKAGE);
+            mSnapshotOut.writeInt(id);
+            writeSnapshotString(name);
+        }
+        mResId = id << 24;
+        mPkg = new ResPackage(mResTable, id, name);
+    }
+
     private ResType readType() throws AndrolibException, IOException {
         checkChunkType(Header.TYPE_TYPE);
         byte id =  mIn.readByte();
         mIn.skipBytes(3);
         int entryCount = mIn.readInt();
 
-        mMissingResSpecs = new boolean[entryCount];
-        Arrays.fill(mMissingResSpecs, true);
-
         if (mFlagsOffsets != null) {
             mFlagsOffsets.add(new FlagsOffset(mCountIn.getCount(), entryCount));
         }
         /*flags*/ mIn.skipBytes(entryCount * 4);
 
-        mResId = (0xff000000 & mResId) | id << 16;
-        mType = new ResType(mTypeNames.getString(id - 1), mResTable, mPkg);
-        mPkg.addType(mType);
+        startType(id, mTypeNames.getString(id - 1), entryCount);
 
         while (nextChunk().type == Header.TYPE_CONFIG) {
             readConfig();
@@ -135,15 +230,58 @@ public class ARSCDecoder {
         return mType;
     }
 
+    private void startType(byte id, String name, int entryCount)
+            throws IOException, AndrolibException {
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeByte(SNAPSHOT_TYPE);
+            mSnapshotOut.writeByte(id);
+            writeSnapshotString(name);
+            mSnapshotOut.writeInt(entryCount);
+        }
+        mMissingResSpecs = new boolean[entryCount];
+        Arrays.fill(mMissingResSpecs, true);
+
+        mResId = (0xff000000 & mResId) | id << 16;
+        mType = new ResType(name, mResTable, mPkg);
+        mPkg.addType(mType);
+    }
+
     private ResConfig readConfig() throws IOException, AndrolibException {
         checkChunkType(Header.TYPE_CONFIG);
         /*typeId*/ mIn.skipInt();
         int entryCount = mIn.readInt();
         /*entriesStart*/ mIn.skipInt();
 
-        ResConfigFlags flags = readConfigFlags();
+        int size = mIn.readInt();
+        if (size < 28) {
+            throw new AndrolibException("Config size < 28");
+        }
+        byte[] config = new byte[size - 4];
+        mIn.readFully(config);
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeByte(SNAPSHOT_CONFIG);
+            mSnapshotOut.writeInt(size);
+            mSnapshotOut.write(config);
+        }
+        startConfig(readConfigFlags(size, config));
         int[] entryOffsets = mIn.readIntArray(entryCount);
 
+        for (int i = 0; i < entryOffsets.length; i++) {
+            if (entryOffsets[i] != -1) {
+                if (mSnapshotOut != null) {
+                    mSnapshotOut.writeByte(SNAPSHOT_ENTRY);
+                    mSnapshotOut.writeInt(i);
+                }
+                startEntry(i);
+                readEntry();
+            }
+        }
+        
+        return mConfig;
+    }
+
+    private void startConfig(ResConfigFlags flags) throws AndrolibException {
+
         if (flags.isInvalid) {
             String resName = mType.getName() + flags.getQualifiers();
             if (mKeepBroken) {
@@ -157,25 +295,32 @@ public class ARSCDecoder {
 
         mConfig = flags.isInvalid && ! mKeepBroken ?
             null : mPkg.getOrCreateConfig(flags);
+    }
 
-        for (int i = 0; i < entryOffsets.length; i++) {
-            if (entryOffsets[i] != -1) {
-                mMissingResSpecs[i] = false;
-                mResId = (mResId & 0xffff0000) | i;
-                readEntry();
-            }
-        }
-        
-        return mConfig;
+    private void startEntry(int index) {
+        mMissingResSpecs[index] = false;
+        mResId = (mResId & 0xffff0000) | index;
     }
 
     private void readEntry() throws IOException, AndrolibException {
-        /*size*/ mIn.skipBytes(2);
-        short flags = mIn.readShort();
-        int specNamesId = mIn.readInt();
+        boolean complex;
+        String specName;
+        if (mSnapshotIn != null) {
+            complex = mSnapshotIn.readBoolean();
+            specName = readSnapshotString();
+        } else {
+            /*size*/ mIn.skipBytes(2);
+            short flags = mIn.readShort();
+            int specNamesId = mIn.readInt();
+            complex = (flags & ENTRY_FLAG_COMPLEX) != 0;
+            specName = mSpecNames.getString(specNamesId);
+            if (mSnapshotOut != null) {
+                mSnapshotOut.writeBoolean(complex);
+                writeSnapshotString(specName);
+            }
+        }
 
-        ResValue value = (flags & ENTRY_FLAG_COMPLEX) == 0 ?
-            readValue() : readComplexEntry();
+        ResValue value = ! complex ? readValue() : readComplexEntry();
 
         if (mConfig == null) {
             return;
@@ -186,8 +331,7 @@ public class ARSCDecoder {
         if (mPkg.hasResSpec(resId)) {
             spec = mPkg.getResSpec(resId);
         } else {
-            spec = new ResResSpec(
-                resId, mSpecNames.getString(specNamesId), mPkg, mType);
+            spec = new ResResSpec(resId, specName, mPkg, mType);
             mPkg.addResSpec(spec);
             mType.addResSpec(spec);
         }
@@ -200,81 +344,165 @@ public class ARSCDecoder {
 
     private ResBagValue readComplexEntry() throws IOException,
             AndrolibException {
-        int parent = mIn.readInt();
-        int count = mIn.readInt();
+        int parent = readRecordedInt();
+        int count = readRecordedInt();
 
         ResValueFactory factory = mPkg.getValueFactory();
         Duo<Integer, ResScalarValue>[] items = new Duo[count];
         for (int i = 0; i < count; i++) {
             items[i] = new Duo<Integer, ResScalarValue>(
-                mIn.readInt(), (ResScalarValue) readValue());
+                readRecordedInt(), (ResScalarValue) readValue());
         }
 
         return factory.bagFactory(parent, items);
     }
 
     private ResValue readValue() throws IOException, AndrolibException {
-        /*size*/ mIn.skipCheckShort((short) 8);
-        /*zero*/ mIn.skipCheckByte((byte) 0);
-        byte type = mIn.readByte();
-        int data = mIn.readInt();
+        byte type;
+        int data = 0;
+        String string = null;
+        if (mSnapshotIn != null) {
+            type = mSnapshotIn.readByte();
+            if (type == TypedValue.TYPE_STRING) {
+                string = readSnapshotString();
+            } else {
+                data = mSnapshotIn.readInt();
+            }
+        } else {
+            /*size*/ mIn.skipCheckShort((short) 8);
+            /*zero*/ mIn.skipCheckByte((byte) 0);
+            type = mIn.readByte();
+            data = mIn.readInt();
+            if (type == TypedValue.TYPE_STRING) {
+                string = mTableStrings.getHTML(data);
+            }
+            if (mSnapshotOut != null) {
+                mSnapshotOut.writeByte(type);
+                if (type == TypedValue.TYPE_STRING) {
+                    writeSnapshotString(string);
+                } else {
+                    mSnapshotOut.writeInt(data);
+                }
+            }
+        }
 
         return type == TypedValue.TYPE_STRING ?
-            mPkg.getValueFactory().factory(mTableStrings.getHTML(data)) :
+            mPkg.getValueFactory().factory(string) :
             mPkg.getValueFactory().factory(type, data, null);
     }
 
-    private ResConfigFlags readConfigFlags() throws IOException, AndrolibException {
-        int size = mIn.readInt();
-        if (size < 28) {
-            throw new AndrolibException("Config size < 28");
+    /**
+     * Reads int from arsc file and records it in the snapshot, or reads it
+     * from the snapshot.
+     */
+    private int readRecordedInt() throws IOException {
+        if (mSnapshotIn != null) {
+            return mSnapshotIn.readInt();
+        }
+        int value = mIn.readInt();
+        if (mSnapshotOut != null) {
+            mSnapshotOut.writeInt(value);
+        }
+        return value;
+    }
+
+    /**
+     * Writes string to the snapshot. Each distinct string is written once,
+     * later occurrences refer to it by index.
+     */
+    private void writeSnapshotString(String string) throws IOException {
+        if (string == null) {
+            mSnapshotOut.writeInt(-1);
+            return;
+        }
+        Integer index = mSnapshotStringIndex.get(string);
+        if (index != null) {
+            mSnapshotOut.writeInt(index);
+            return;
         }
+        mSnapshotStringIndex.put(string, mSnapshotStringIndex.size());
+        byte[] bytes = string.getBytes("UTF-8");
+        mSnapshotOut.writeInt(-2);
+        mSnapshotOut.writeInt(bytes.length);
+        mSnapshotOut.write(bytes);
+    }
+
+    private String readSnapshotString() throws IOException {
+        int index = mSnapshotIn.readInt();
+        if (index == -1) {
+            return null;
+        } else if (index != -2) {
+            return mSnapshotStrings.get(index);
+        }
+        byte[] bytes = new byte[mSnapshotIn.readInt()];
+        mSnapshotIn.readFully(bytes);
+        String string = new String(bytes, "UTF-8");
+        mSnapshotStrings.add(string);
+        return string;
+    }
+
+    private void checkSnapshotMarker(int marker, int expectedMarker)
+            throws AndrolibException {
+        if (marker != expectedMarker) {
+            throw new AndrolibException(String.format(
+                "Invalid arsc snapshot: expected=%d, got=%d",
+                expectedMarker, marker));
+        }
+    }
+
+    /**
+     * Reads config flags from the bytes of a config, following its size.
+     */
+    private ResConfigFlags readConfigFlags(int size, byte[] config)
+            throws IOException, AndrolibException {
+        ExtDataInput in = new ExtDataInput(
+            new LEDataInputStream(new ByteArrayInputStream(config)));
 
         boolean isInvalid = false;
 
-        short mcc = mIn.readShort();
-        short mnc = mIn.readShort();
+        short mcc = in.readShort();
+        short mnc = in.readShort();
 
         char[] language = new char[]{
-            (char) mIn.readByte(), (char) mIn.readByte()};
+            (char) in.readByte(), (char) in.readByte()};
         char[] country = new char[]{
-            (char) mIn.readByte(), (char) mIn.readByte()};
+            (char) in.readByte(), (char) in.readByte()};
 
-        byte orientation = mIn.readByte();
-        byte touchscreen = mIn.readByte();
-        short density = mIn.readShort();
+        byte orientation = in.readByte();
+        byte touchscreen = in.readByte();
+        short density = in.readShort();
 
-        byte keyboard = mIn.readByte();
-        byte navigation = mIn.readByte();
-        byte inputFlags = mIn.readByte();
-        mIn.skipBytes(1);
+        byte keyboard = in.readByte();
+        byte navigation = in.readByte();
+        byte inputFlags = in.readByte();
+        in.skipBytes(1);
 
-        short screenWidth = mIn.readShort();
-        short screenHeight = mIn.readShort();
+        short screenWidth = in.readShort();
+        short screenHeight = in.readShort();
 
-        short sdkVersion = mIn.readShort();
-        mIn.skipBytes(2);
+        short sdkVersion = in.readShort();
+        in.skipBytes(2);
 
         byte screenLayout = 0;
         byte uiMode = 0;
         short smallestScreenWidthDp = 0;
         if (size >= 32) {
-            screenLayout = mIn.readByte();
-            uiMode = mIn.readByte();
-            smallestScreenWidthDp = mIn.readShort();
+            screenLayout = in.readByte();
+            uiMode = in.readByte();
+            smallestScreenWidthDp = in.readShort();
         }
 
         short screenWidthDp = 0;
         short screenHeightDp = 0;
         if (size >= 36) {
-            screenWidthDp = mIn.readShort();
-            screenHeightDp = mIn.readShort();
+            screenWidthDp = in.readShort();
+            screenHeightDp = in.readShort();
         }
 
         int exceedingSize = size - KNOWN_CONFIG_BYTES;
         if (exceedingSize > 0) {
             byte[] buf = new byte[exceedingSize];
-            mIn.readFully(buf);
+            in.readFully(buf);
             BigInteger exceedingBI = new BigInteger(1, buf);
 
             if (exceedingBI.equals(BigInteger.ZERO)) {
@@ -351,6 +579,20 @@ public class ARSCDecoder {
     private int mResId;
     private boolean[] mMissingResSpecs;
 
+    private DataOutputStream mSnapshotOut;
+    private DataInputStream mSnapshotIn;
+    private final Map<String, Integer> mSnapshotStringIndex =
+        new HashMap<String, Integer>();
+    private final List<String> mSnapshotStrings = new ArrayList<String>();
+
+    private final static int SNAPSHOT_VERSION = 1;
+    private final static byte
+        SNAPSHOT_END = 0,
+        SNAPSHOT_PACKAGE = 1,
+        SNAPSHOT_TYPE = 2,
+        SNAPSHOT_CONFIG = 3,
+        SNAPSHOT_ENTRY = 4;
+
 
     private final static short ENTRY_FLAG_COMPLEX = 0x0001;
 
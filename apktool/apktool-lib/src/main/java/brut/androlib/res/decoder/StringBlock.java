@@ -22,6 +22,8 @@ import brut.util.ExtDataInput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,6 +55,7 @@ public class StringBlock {
         StringBlock block = new StringBlock();
         block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
         block.m_stringOffsets = reader.readIntArray(stringCount);
+        block.m_cache = new String[stringCount];
         if (styleOffsetCount != 0) {
             block.m_styleOffsets = reader.readIntArray(styleOffsetCount);
         }
@@ -93,19 +96,12 @@ public class StringBlock {
                 || index >= m_stringOffsets.length) {
             return null;
         }
-        int offset = m_stringOffsets[index];
-        int length;
-
-        if (! m_isUTF8) {
-            length = getShort(m_strings, offset) * 2;
-            offset += 2;
-        } else {
-            offset += getVarint(m_strings, offset)[1];
-            int[] varint = getVarint(m_strings, offset);
-            offset += varint[1];
-            length = varint[0];
+        String string = m_cache[index];
+        if (string == null) {
+            string = decodeString(m_stringOffsets[index]);
+            m_cache[index] = string;
         }
-        return decodeString(offset, length);
+        return string;
     }
 
     /**
@@ -216,30 +212,33 @@ public class StringBlock {
         if (string == null) {
             return -1;
         }
-        for (int i = 0; i != m_stringOffsets.length; ++i) {
-            int offset = m_stringOffsets[i];
-            int length = getShort(m_strings, offset);
-            if (length != string.length()) {
-                continue;
-            }
-            int j = 0;
-            for (; j != length; ++j) {
-                offset += 2;
-                if (string.charAt(j) != getShort(m_strings, offset)) {
-                    break;
-                }
-            }
-            if (j == length) {
-                return i;
-            }
-        }
-        return -1;
+        Integer index = getIndex().get(string);
+        return index != null ? index.intValue() : -1;
     }
 
     ///////////////////////////////////////////// implementation
     private StringBlock() {
     }
 
+    /**
+     * Returns index of the first occurrence of each string, built on first
+     * use.
+     */
+    private synchronized Map<String, Integer> getIndex() {
+        if (m_index == null) {
+            int count = getCount();
+            Map<String, Integer> index = new HashMap<String, Integer>(count * 4 / 3 + 1);
+            for (int i = count - 1; i >= 0; i--) {
+                String string = getString(i);
+                if (string != null) {
+                    index.put(string, i);
+                }
+            }
+            m_index = index;
+        }
+        return m_index;
+    }
+
     /**
      * Returns style information - array of int triplets,
      * where in each triplet:
@@ -276,14 +275,50 @@ public class StringBlock {
         return style;
     }
 
-    private String decodeString(int offset, int length) {
-        try {
-            return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(
-                ByteBuffer.wrap(m_strings, offset, length)).toString();
-        } catch (CharacterCodingException ex) {
-            LOGGER.log(Level.WARNING, null, ex);
-            return null;
+    /**
+     * Decodes the string at given offset of string data. UTF-16 and ASCII
+     * strings are copied directly, other UTF-8 strings go through a decoder.
+     */
+    private String decodeString(int offset) {
+        byte[] strings = m_strings;
+        if (! m_isUTF8) {
+            int length = getShort(strings, offset);
+            offset += 2;
+            if ((length & 0x8000) != 0) {
+                length = (length & 0x7fff) << 16 | getShort(strings, offset);
+                offset += 2;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++, offset += 2) {
+                chars[i] = (char) getShort(strings, offset);
+            }
+            return new String(chars);
         }
+
+        // skip length in characters, then read length in bytes
+        offset += (strings[offset] & 0x80) != 0 ? 2 : 1;
+        int length = strings[offset] & 0x7f;
+        if ((strings[offset] & 0x80) != 0) {
+            length = length << 8 | strings[offset + 1] & 0xff;
+            offset += 2;
+        } else {
+            offset += 1;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = strings[offset + i];
+            if (b < 0) {
+                try {
+                    return UTF8.newDecoder().decode(
+                        ByteBuffer.wrap(strings, offset, length)).toString();
+                } catch (CharacterCodingException ex) {
+                    LOGGER.log(Level.WARNING, null, ex);
+                    return null;
+                }
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
     }
 
     private static final int getShort(byte[] array, int offset) {
@@ -299,27 +334,14 @@ public class StringBlock {
         }
     }
 
-    private static final int[] getVarint(byte[] array, int offset) {
-        int val = array[offset];
-        boolean more = (val & 0x80) != 0;
-        val &= 0x7f;
-
-        if (! more) {
-            return new int[]{val, 1};
-        } else {
-            return new int[]{val << 8 | array[offset + 1] & 0xff, 2};
-        }
-    }
-
     private int[] m_stringOffsets;
     private byte[] m_strings;
     private int[] m_styleOffsets;
     private int[] m_styles;
     private boolean m_isUTF8;
-    private static final CharsetDecoder UTF16LE_DECODER =
-        Charset.forName("UTF-16LE").newDecoder();
-    private static final CharsetDecoder UTF8_DECODER =
-        Charset.forName("UTF-8").newDecoder();
+    private String[] m_cache;
+    private Map<String, Integer> m_index;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final Logger LOGGER =
         Logger.getLogger(StringBlock.class.getName());
     private static final int CHUNK_TYPE = 0x001C0001;
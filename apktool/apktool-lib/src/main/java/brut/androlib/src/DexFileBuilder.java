@@ -52,6 +52,22 @@ public class DexFileBuilder {
         }
     }
 
+    /**
+     * Adds a file parsed with {@link SmaliMod#parseSmaliFile}. The files
+     * are added in the order of the calls, which must not be concurrent.
+     */
+    public void addParsedSmaliFile(SmaliMod.ParsedSmaliFile parsedFile)
+            throws AndrolibException {
+        try {
+            if (! SmaliMod.assembleParsedFile(parsedFile, mDexFile)) {
+                throw new AndrolibException(
+                    "Could not smali file: " + parsedFile.getName());
+            }
+        } catch (RecognitionException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     public void writeTo(File dexFile) throws AndrolibException {
         try {
             OutputStream out = new FileOutputStream(dexFile);
@@ -17,12 +17,22 @@
 package brut.androlib.src;
 
 import brut.androlib.AndrolibException;
+import brut.androlib.mod.SmaliMod;
+import brut.androlib.mod.SmaliMod.ParsedSmaliFile;
 import brut.androlib.res.util.ExtFile;
 import brut.directory.DirectoryException;
 import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import org.antlr.runtime.RecognitionException;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -41,34 +51,87 @@ public class SmaliBuilder {
         mDebug = debug;
     }
 
+    /**
+     * Parses the files on several threads, but adds them to the dex file
+     * one at a time in the order of the directory listing, so the dex file
+     * does not depend on the scheduling of the threads. Only a few files are
+     * parsed ahead of the one being added, to bound the memory used by the
+     * waiting parse trees.
+     */
     private void build() throws AndrolibException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
         try {
             mDexBuilder = new DexFileBuilder();
-            for (String fileName : mSmaliDir.getDirectory().getFiles(true)) {
-                buildFile(fileName);
+            Iterator<String> fileNames =
+                mSmaliDir.getDirectory().getFiles(true).iterator();
+            LinkedList<Future<ParsedSmaliFile>> pending =
+                new LinkedList<Future<ParsedSmaliFile>>();
+            while (fileNames.hasNext() && pending.size() < jobs * 4) {
+                pending.add(submitParse(executor, fileNames.next()));
+            }
+            while (! pending.isEmpty()) {
+                ParsedSmaliFile parsedFile = pending.poll().get();
+                if (fileNames.hasNext()) {
+                    pending.add(submitParse(executor, fileNames.next()));
+                }
+                if (parsedFile != null) {
+                    mDexBuilder.addParsedSmaliFile(parsedFile);
+                }
             }
             mDexBuilder.writeTo(mDexFile);
-        } catch (IOException ex) {
-            throw new AndrolibException(ex);
         } catch (DirectoryException ex) {
             throw new AndrolibException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AndrolibException) {
+                throw (AndrolibException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new AndrolibException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private void buildFile(String fileName) throws AndrolibException,
-            IOException {
+    private Future<ParsedSmaliFile> submitParse(ExecutorService executor,
+            final String fileName) {
+        return executor.submit(new Callable<ParsedSmaliFile>() {
+            public ParsedSmaliFile call() throws AndrolibException {
+                try {
+                    return parseFile(fileName);
+                } catch (IOException ex) {
+                    throw new AndrolibException(ex);
+                } catch (RecognitionException ex) {
+                    throw new AndrolibException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the parsed file, or null if the file is ignored
+     */
+    private ParsedSmaliFile parseFile(String fileName)
+            throws AndrolibException, IOException, RecognitionException {
         File inFile = new File(mSmaliDir, fileName);
-        InputStream inStream = new FileInputStream(inFile);
 
         if (fileName.endsWith(".smali")) {
-            mDexBuilder.addSmaliFile(inFile);
-            return;
+            return checkParsed(SmaliMod.parseSmaliFile(
+                new FileInputStream(inFile), inFile.getAbsolutePath(),
+                false, false, false), inFile.getAbsolutePath());
         }
         if (! fileName.endsWith(".java")) {
             LOGGER.warning("Unknown file type, ignoring: " + inFile);
-            return;
+            return null;
         }
 
+        InputStream inStream = new FileInputStream(inFile);
+
         StringBuilder out = new StringBuilder();
         List<String> lines = IOUtils.readLines(inStream);
 
@@ -98,8 +161,17 @@ public class SmaliBuilder {
                 out.append(line).append('\n');
             }
         }
-        mDexBuilder.addSmaliFile(
-            IOUtils.toInputStream(out.toString()), fileName);
+        return checkParsed(SmaliMod.parseSmaliFile(
+            IOUtils.toInputStream(out.toString()), fileName,
+            false, false, false), fileName);
+    }
+
+    private ParsedSmaliFile checkParsed(ParsedSmaliFile parsedFile,
+            String name) throws AndrolibException {
+        if (parsedFile == null) {
+            throw new AndrolibException("Could not smali file: " + name);
+        }
+        return parsedFile;
     }
 
     private final ExtFile mSmaliDir;
@@ -44,7 +44,8 @@ public class SmaliDecoder {
             baksmali.disassembleDexFile(mApkFile.getAbsolutePath(),
                 new DexFile(mApkFile), false, mOutDir.getAbsolutePath(), null,
                 null, null, false, true, true, true, false, false, 
-                /*mDebug ? main.DIFFPRE :*/ 0, false, false, null);
+                /*mDebug ? main.DIFFPRE :*/ 0, false, false, null,
+                Runtime.getRuntime().availableProcessors());
         } catch (IOException ex) {
             throw new AndrolibException(ex);
         }
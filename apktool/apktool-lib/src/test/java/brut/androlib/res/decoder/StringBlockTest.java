@@ -0,0 +1,159 @@
+/**
+ *  Copyright 2011 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package brut.androlib.res.decoder;
+
+import brut.util.ExtDataInput;
+import com.mindprod.ledatastream.LEDataInputStream;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class StringBlockTest {
+
+    private static final String[] STRINGS = {
+        "", "hello", "\u00e5\u00e4\u00f6 gr\u00fc\u00dfe \u2603", "hello",
+        repeat('x', 200), repeat('\u00e9', 100), "last"
+    };
+
+    @Test
+    public void utf16Strings() throws IOException {
+        checkStrings(read(STRINGS, false));
+    }
+
+    @Test
+    public void utf8Strings() throws IOException {
+        checkStrings(read(STRINGS, true));
+    }
+
+    @Test
+    public void longUtf16String() throws IOException {
+        // lengths above 0x7fff take two words
+        String[] strings = {repeat('a', 40000), "b"};
+        StringBlock block = read(strings, false);
+        assertEquals(strings[0], block.getString(0));
+        assertEquals("b", block.getString(1));
+    }
+
+    @Test
+    public void cachesDecodedStrings() throws IOException {
+        StringBlock block = read(STRINGS, true);
+        for (int i = 0; i < STRINGS.length; i++) {
+            assertSame(block.getString(i), block.getString(i));
+            assertSame(block.getString(i), block.get(i));
+        }
+    }
+
+    @Test
+    public void find() throws IOException {
+        StringBlock block = read(STRINGS, true);
+        // the first of equal strings is found
+        assertEquals(1, block.find("hello"));
+        assertEquals(2, block.find(STRINGS[2]));
+        assertEquals(6, block.find("last"));
+        assertEquals(0, block.find(""));
+        assertEquals(-1, block.find("missing"));
+        assertEquals(-1, block.find(null));
+    }
+
+    @Test
+    public void outOfRange() throws IOException {
+        StringBlock block = read(STRINGS, false);
+        assertEquals(STRINGS.length, block.getCount());
+        assertNull(block.getString(-1));
+        assertNull(block.getString(STRINGS.length));
+    }
+
+    private static void checkStrings(StringBlock block) {
+        assertEquals(STRINGS.length, block.getCount());
+        // in reverse order, so the cache does not depend on decoding in order
+        for (int i = STRINGS.length - 1; i >= 0; i--) {
+            assertEquals(STRINGS[i], block.getString(i));
+        }
+    }
+
+    private static StringBlock read(String[] strings, boolean utf8)
+            throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = data.size();
+            if (utf8) {
+                byte[] bytes = strings[i].getBytes("UTF-8");
+                writeUtf8Length(data, strings[i].length());
+                writeUtf8Length(data, bytes.length);
+                data.write(bytes);
+                data.write(0);
+            } else {
+                int length = strings[i].length();
+                if (length > 0x7fff) {
+                    writeShort(data, 0x8000 | length >> 16);
+                }
+                writeShort(data, length & 0xffff);
+                for (int j = 0; j < length; j++) {
+                    writeShort(data, strings[i].charAt(j));
+                }
+                writeShort(data, 0);
+            }
+        }
+        while (data.size() % 4 != 0) {
+            data.write(0);
+        }
+
+        int stringsOffset = 28 + 4 * strings.length;
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        writeInt(chunk, 0x001C0001);
+        writeInt(chunk, stringsOffset + data.size());
+        writeInt(chunk, strings.length);
+        writeInt(chunk, 0);
+        writeInt(chunk, utf8 ? 0x100 : 0);
+        writeInt(chunk, stringsOffset);
+        writeInt(chunk, 0);
+        for (int offset : offsets) {
+            writeInt(chunk, offset);
+        }
+        data.writeTo(chunk);
+
+        return StringBlock.read(new ExtDataInput(new LEDataInputStream(
+            new ByteArrayInputStream(chunk.toByteArray()))));
+    }
+
+    private static void writeUtf8Length(OutputStream out, int length)
+            throws IOException {
+        if (length > 0x7f) {
+            out.write(0x80 | length >> 8);
+        }
+        out.write(length & 0xff);
+    }
+
+    private static void writeShort(OutputStream out, int value)
+            throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+
+    private static void writeInt(OutputStream out, int value)
+            throws IOException {
+        writeShort(out, value);
+        writeShort(out, value >> 16);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        java.util.Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
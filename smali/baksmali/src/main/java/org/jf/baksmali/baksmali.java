@@ -28,9 +28,11 @@
 
 package org.jf.baksmali;
 
+import andreflect.gui.linebuilder.DalvikIndentingWriter;
 import org.jf.baksmali.Adaptors.ClassDefinition;
 import org.jf.dexlib.ClassDefItem;
 import org.jf.dexlib.Code.Analysis.*;
+import org.jf.dexlib.Code.Instruction;
 import org.jf.dexlib.DexFile;
 import org.jf.util.ClassFileNameHandler;
 import org.jf.util.IndentingWriter;
@@ -39,6 +41,13 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,6 +61,7 @@ public class baksmali {
     public static boolean deodex = false;
     public static boolean verify = false;
     public static InlineMethodResolver inlineResolver = null;
+    public static ClassPath classPath = null;
     public static int registerInfo = 0;
     public static String bootClassPath;
 
@@ -63,6 +73,22 @@ public class baksmali {
                                           boolean useSequentialLabels, boolean outputDebugInfo, boolean addCodeOffsets,
                                           boolean noAccessorComments, int registerInfo, boolean verify,
                                           boolean ignoreErrors, String inlineTable)
+    {
+        disassembleDexFile(dexFilePath, dexFile, deodex, outputDirectory, classPathDirs, bootClassPath,
+                extraBootClassPath, noParameterRegisters, useLocalsDirective, useSequentialLabels, outputDebugInfo,
+                addCodeOffsets, noAccessorComments, registerInfo, verify, ignoreErrors, inlineTable, 1);
+    }
+
+    /**
+     * Disassembles the classes of the dex file using the given number of threads. The file names are allocated in
+     * the same order as for a single threaded run, so the output does not depend on the number of jobs.
+     */
+    public static void disassembleDexFile(String dexFilePath, DexFile dexFile, boolean deodex, String outputDirectory,
+                                          String[] classPathDirs, String bootClassPath, String extraBootClassPath,
+                                          boolean noParameterRegisters, boolean useLocalsDirective,
+                                          boolean useSequentialLabels, boolean outputDebugInfo, boolean addCodeOffsets,
+                                          boolean noAccessorComments, int registerInfo, boolean verify,
+                                          final boolean ignoreErrors, String inlineTable, int jobs)
     {
         baksmali.noParameterRegisters = noParameterRegisters;
         baksmali.useLocalsDirective = useLocalsDirective;
@@ -101,19 +127,19 @@ public class baksmali {
                     if (extraBootClassPathArray == null && isExtJar(dexFilePath)) {
                         extraBootClassPathArray = new String[] {"framework.jar"};
                     }
-                    ClassPath.InitializeClassPathFromOdex(classPathDirs, extraBootClassPathArray, dexFilePath, dexFile,
-                            classPathErrorHandler);
+                    classPath = ClassPath.createClassPathFromOdex(classPathDirs, extraBootClassPathArray,
+                            dexFilePath, dexFile, classPathErrorHandler);
                 } else {
                     String[] bootClassPathArray = null;
                     if (bootClassPath != null) {
                         bootClassPathArray = bootClassPath.split(":");
                     }
-                    ClassPath.InitializeClassPath(classPathDirs, bootClassPathArray, extraBootClassPathArray,
+                    classPath = ClassPath.createClassPath(classPathDirs, bootClassPathArray, extraBootClassPathArray,
                             dexFilePath, dexFile, classPathErrorHandler);
                 }
 
                 if (inlineTable != null) {
-                    inlineResolver = new CustomInlineMethodResolver(inlineTable);
+                    inlineResolver = new CustomInlineMethodResolver(classPath, inlineTable);
                 }
             } catch (Exception ex) {
                 System.err.println("\n\nError occured while loading boot class path files. Aborting.");
@@ -147,6 +173,9 @@ public class baksmali {
 
         ClassFileNameHandler fileNameHandler = new ClassFileNameHandler(outputDirectoryFile, ".smali");
 
+        final ArrayList<ClassDefItem> classesToWrite = new ArrayList<ClassDefItem>(classDefItems.size());
+        final ArrayList<File> smaliFiles = new ArrayList<File>(classDefItems.size());
+
         for (ClassDefItem classDefItem: classDefItems) {
             /**
              * The path for the disassembly file is based on the package name
@@ -159,7 +188,7 @@ public class baksmali {
             if (registerInfo != 0 || deodex || verify) {
                 //If we are analyzing the bytecode, make sure that this class is loaded into the ClassPath. If it isn't
                 //then there was some error while loading it, and we should skip it
-                ClassPath.ClassDef classDef = ClassPath.getClassDef(classDefItem.getClassType(), false);
+                ClassPath.ClassDef classDef = classPath.getClassDef(classDefItem.getClassType(), false);
                 if (classDef == null || classDef instanceof ClassPath.UnresolvedClassDef) {
                     continue;
                 }
@@ -174,55 +203,145 @@ public class baksmali {
                 continue;
             }
 
-            File smaliFile = fileNameHandler.getUniqueFilenameForClass(classDescriptor);
-
-            //create and initialize the top level string template
-            ClassDefinition classDefinition = new ClassDefinition(classDefItem);
+            //the file names are allocated up front on this thread, so that colliding names are resolved in the
+            //same order regardless of the number of jobs
+            classesToWrite.add(classDefItem);
+            smaliFiles.add(fileNameHandler.getUniqueFilenameForClass(classDescriptor));
+        }
 
-            //write the disassembly
-            Writer writer = null;
-            try
-            {
-                File smaliParent = smaliFile.getParentFile();
-                if (!smaliParent.exists()) {
-                    if (!smaliParent.mkdirs()) {
-                        System.err.println("Unable to create directory " + smaliParent.toString() + " - skipping class");
-                        continue;
-                    }
+        jobs = Math.max(1, Math.min(jobs, classesToWrite.size()));
+        if (jobs == 1) {
+            for (int i=0; i<classesToWrite.size(); i++) {
+                if (!disassembleClass(classesToWrite.get(i), smaliFiles.get(i)) && !ignoreErrors) {
+                    System.exit(1);
                 }
+            }
+            return;
+        }
 
-                if (!smaliFile.exists()){
-                    if (!smaliFile.createNewFile()) {
-                        System.err.println("Unable to create file " + smaliFile.toString() + " - skipping class");
-                        continue;
+        final AtomicInteger nextClass = new AtomicInteger();
+        final AtomicBoolean hadValidationErrors = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(jobs);
+            for (int i=0; i<jobs; i++) {
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        int index;
+                        while ((index = nextClass.getAndIncrement()) < classesToWrite.size()) {
+                            if (!disassembleClass(classesToWrite.get(index), smaliFiles.get(index)) &&
+                                    !ignoreErrors) {
+                                hadValidationErrors.set(true);
+                                nextClass.set(classesToWrite.size());
+                                return;
+                            }
+                        }
                     }
+                }));
+            }
+            for (Future<?> future: futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Error) {
+                        throw (Error)ex.getCause();
+                    }
+                    throw new RuntimeException(ex.getCause());
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (hadValidationErrors.get()) {
+            System.exit(1);
+        }
+    }
 
-                BufferedWriter bufWriter = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(smaliFile), "UTF8"));
+    /**
+     * Writes the disassembly of a single class to the given file.
+     * @return false if the class had validation errors
+     */
+    private static boolean disassembleClass(ClassDefItem classDefItem, File smaliFile) {
+        String classDescriptor = classDefItem.getClassType().getTypeDescriptor();
 
-                writer = new IndentingWriter(bufWriter);
-                classDefinition.writeTo((IndentingWriter)writer);
-            } catch (Exception ex) {
-                System.err.println("\n\nError occured while disassembling class " + classDescriptor.replace('/', '.') + " - skipping class");
-                ex.printStackTrace();
+        //create and initialize the top level string template
+        ClassDefinition classDefinition = new ClassDefinition(classDefItem);
+
+        //write the disassembly
+        Writer writer = null;
+        try
+        {
+            File smaliParent = smaliFile.getParentFile();
+            if (!smaliParent.exists()) {
+                //another job may have created the directory in the meantime
+                if (!smaliParent.mkdirs() && !smaliParent.isDirectory()) {
+                    System.err.println("Unable to create directory " + smaliParent.toString() + " - skipping class");
+                    return true;
+                }
             }
-            finally
-            {
-                if (writer != null) {
-                    try {
-                        writer.close();
-                    } catch (Throwable ex) {
-                        System.err.println("\n\nError occured while closing file " + smaliFile.toString());
-                        ex.printStackTrace();
-                    }
+
+            if (!smaliFile.exists()){
+                if (!smaliFile.createNewFile()) {
+                    System.err.println("Unable to create file " + smaliFile.toString() + " - skipping class");
+                    return true;
                 }
             }
 
-            if (!ignoreErrors && classDefinition.hadValidationErrors()) {
-                System.exit(1);
+            BufferedWriter bufWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(smaliFile), "UTF8"));
+
+            writer = new SmaliFileWriter(bufWriter);
+            classDefinition.writeTo((IndentingWriter)writer);
+        } catch (Exception ex) {
+            System.err.println("\n\nError occured while disassembling class " + classDescriptor.replace('/', '.') + " - skipping class");
+            ex.printStackTrace();
+        }
+        finally
+        {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (Throwable ex) {
+                    System.err.println("\n\nError occured while closing file " + smaliFile.toString());
+                    ex.printStackTrace();
+                }
             }
         }
+
+        return !classDefinition.hadValidationErrors();
+    }
+
+    /**
+     * The adaptors write through a DalvikIndentingWriter, so that the class view can color and annotate the output.
+     * A smali file gets the plain text, with the type descriptors as they are.
+     */
+    private static class SmaliFileWriter extends IndentingWriter implements DalvikIndentingWriter {
+        public SmaliFileWriter(Writer writer) {
+            super(writer);
+        }
+
+        public void setColor(int color) {
+        }
+
+        public void resetColor() {
+        }
+
+        public void setLine(int line) {
+        }
+
+        public void setInsAddress(int codeAddress) {
+        }
+
+        public void setInstruction(Instruction instruction) {
+        }
+
+        public String getProtoString(String typeDescriptor) {
+            return typeDescriptor;
+        }
     }
 
     private static final Pattern extJarPattern = Pattern.compile("(?:^|\\\\|/)ext.(?:jar|odex)$");
@@ -113,6 +113,8 @@ public class main {
 
         int registerInfo = 0;
 
+        int jobs = Runtime.getRuntime().availableProcessors();
+
         String outputDirectory = "out";
         String dumpFileName = null;
         String outputDexFileName = null;
@@ -240,6 +242,9 @@ public class main {
                 case 'T':
                     inlineTable = commandLine.getOptionValue("T");
                     break;
+                case 'j':
+                    jobs = Integer.parseInt(commandLine.getOptionValue("j"));
+                    break;
                 default:
                     assert false;
             }
@@ -293,7 +298,7 @@ public class main {
                 baksmali.disassembleDexFile(dexFileFile.getPath(), dexFile, deodex, outputDirectory,
                         bootClassPathDirsArray, bootClassPath, extraBootClassPathEntries.toString(),
                         noParameterRegisters, useLocalsDirective, useSequentialLabels, outputDebugInfo, addCodeOffsets,
-                        noAccessorComments, registerInfo, verify, ignoreErrors, inlineTable);
+                        noAccessorComments, registerInfo, verify, ignoreErrors, inlineTable, jobs);
             }
 
             if ((doDump || write) && !dexFile.isOdex()) {
@@ -433,6 +438,13 @@ public class main {
                 .withArgName("API_LEVEL")
                 .create("a");
 
+        Option jobsOption = OptionBuilder.withLongOpt("jobs")
+                .withDescription("the number of threads to use when disassembling. Defaults to the number of" +
+                        " available processors. The output is the same regardless of the number of threads")
+                .hasArg()
+                .withArgName("NUM_THREADS")
+                .create("j");
+
         Option dumpOption = OptionBuilder.withLongOpt("dump-to")
                 .withDescription("dumps the given dex file into a single annotated dump file named FILE" +
                         " (<dexfile>.dump by default), along with the normal disassembly")
@@ -490,6 +502,7 @@ public class main {
         basicOptions.addOption(codeOffsetOption);
         basicOptions.addOption(noAccessorCommentsOption);
         basicOptions.addOption(apiLevelOption);
+        basicOptions.addOption(jobsOption);
 
         debugOptions.addOption(dumpOption);
         debugOptions.addOption(ignoreErrorsOption);
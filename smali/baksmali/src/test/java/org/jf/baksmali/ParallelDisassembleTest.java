@@ -0,0 +1,93 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.baksmali;
+
+import org.jf.dexlib.Util.FileUtils;
+import org.jf.smali.SmaliTestClasses;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checks that baksmali writes the same files regardless of the number of jobs used to disassemble the classes.
+ */
+public class ParallelDisassembleTest {
+    private static File tempDir;
+    private static File dexFile;
+
+    @BeforeClass
+    public static void assembleDexFile() throws IOException {
+        tempDir = SmaliTestClasses.createTempDir("parallelbaksmali");
+        File smaliDir = new File(tempDir, "smali");
+        SmaliTestClasses.writeClasses(smaliDir, 40);
+        dexFile = new File(tempDir, "classes.dex");
+        SmaliTestClasses.assemble(smaliDir, dexFile, 1);
+    }
+
+    @AfterClass
+    public static void deleteTempDir() {
+        SmaliTestClasses.delete(tempDir);
+    }
+
+    @Test
+    public void sameOutputForAnyNumberOfJobs() throws IOException {
+        Map<String, String> expected = disassemble(1);
+
+        //disassemble a few times, as the threads may finish in a different order each time
+        for (int i=0; i<3; i++) {
+            Assert.assertEquals(expected, disassemble(4));
+        }
+    }
+
+    private static Map<String, String> disassemble(int jobs) throws IOException {
+        File outputDir = new File(tempDir, "out");
+        SmaliTestClasses.delete(outputDir);
+        main.main(new String[] {"-j", Integer.toString(jobs), "-o", outputDir.getPath(), dexFile.getPath()});
+
+        Map<String, String> files = new TreeMap<String, String>();
+        readFiles(outputDir, "", files);
+        return files;
+    }
+
+    private static void readFiles(File dir, String path, Map<String, String> files) throws IOException {
+        for (File file: dir.listFiles()) {
+            if (file.isDirectory()) {
+                readFiles(file, path + file.getName() + "/", files);
+            } else {
+                files.put(path + file.getName(), new String(FileUtils.readFile(file), "UTF-8"));
+            }
+        }
+    }
+}
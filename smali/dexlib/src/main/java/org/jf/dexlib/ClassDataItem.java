@@ -37,6 +37,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
     private EncodedField[] staticFields;
     private EncodedField[] instanceFields;
     private EncodedMethod[] directMethods;
+    /** Only valid after the item has been read in, see <code>getVirtualMethods</code> */
     public EncodedMethod[] virtualMethods;
 
     private ClassDefItem parent = null;
@@ -161,6 +162,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
+        ensureRead();
         offset += Leb128Utils.unsignedLeb128Size(staticFields.length);
         offset += Leb128Utils.unsignedLeb128Size(instanceFields.length);
         offset += Leb128Utils.unsignedLeb128Size(directMethods.length);
@@ -195,6 +197,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
 
     /** {@inheritDoc} */
     protected void writeItem(AnnotatedOutput out) {
+        ensureRead();
         if (out.annotates()) {
             out.annotate("static_fields_size: 0x" + Integer.toHexString(staticFields.length) + " (" +
                     staticFields.length + ")");
@@ -319,6 +322,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return the static fields for this class
      */
     public EncodedField[] getStaticFields() {
+        ensureRead();
         return staticFields;
     }
 
@@ -326,6 +330,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return the instance fields for this class
      */
     public EncodedField[] getInstanceFields() {
+        ensureRead();
         return instanceFields;
     }
 
@@ -333,6 +338,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return the direct methods for this class
      */
     public EncodedMethod[] getDirectMethods() {
+        ensureRead();
         return directMethods;
     }
 
@@ -340,6 +346,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return the virtual methods for this class
      */
     public EncodedMethod[] getVirtualMethods() {
+        ensureRead();
         return virtualMethods;
     }
 
@@ -349,6 +356,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return The EncodedMethod for the specified direct method, or null if not found
      */
     public EncodedMethod findDirectMethodByMethodId(MethodIdItem methodIdItem) {
+        ensureRead();
         return findMethodByMethodIdInternal(methodIdItem.index, directMethods);
     }
 
@@ -358,6 +366,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return The EncodedMethod for the specified virtual method, or null if not found
      */
     public EncodedMethod findVirtualMethodByMethodId(MethodIdItem methodIdItem) {
+        ensureRead();
         return findMethodByMethodIdInternal(methodIdItem.index, virtualMethods);
     }
 
@@ -367,6 +376,7 @@ public class ClassDataItem extends Item<ClassDataItem> {
      * @return The EncodedMethod for the specified virtual method, or null if not found
      */
     public EncodedMethod findMethodByMethodId(MethodIdItem methodIdItem) {
+        ensureRead();
         EncodedMethod encodedMethod = findMethodByMethodIdInternal(methodIdItem.index, directMethods);
         if (encodedMethod != null) {
             return encodedMethod;
@@ -35,21 +35,30 @@ import org.jf.dexlib.Util.SparseArray;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.jf.dexlib.ClassDataItem.EncodedField;
 import static org.jf.dexlib.ClassDataItem.EncodedMethod;
 
+/**
+ * The classes of a set of dex files, as needed to analyze and deodex the methods of one of them. A ClassPath is
+ * created once with one of the create methods and is then passed to the MethodAnalyzer instances that use it.
+ *
+ * Once created, a ClassPath is safe for concurrent use by several threads. Array classes and unresolved classes are
+ * still added on demand, the same ClassDef is returned to all threads.
+ */
 public class ClassPath {
-    public static ClassPath theClassPath = null;
-    public static DexFile dexFile = null;
-
-    public final HashMap<String, ClassDef> classDefs;
+    private final ConcurrentHashMap<String, ClassDef> classDefs;
     public ClassDef javaLangObjectClassDef; //Ljava/lang/Object;
 
     //This is only used while initialing the class path. It is set to null after initialization has finished.
-    public LinkedHashMap<String, TempClassInfo> tempClasses;
+    private LinkedHashMap<String, TempClassInfo> tempClasses;
+
+    //The interned reference RegisterTypes of the classes of this class path, see RegisterType.getRegisterType
+    final ConcurrentHashMap<RegisterType, RegisterType> internedRegisterTypes =
+            new ConcurrentHashMap<RegisterType, RegisterType>();
 
 
     private static final Pattern dalvikCacheOdexPattern = Pattern.compile("@([^@]+)@classes.dex$");
@@ -68,16 +77,13 @@ public class ClassPath {
      * @param dexFile The DexFile to load - it must represents an odex file
      * @param errorHandler a ClassPathErrorHandler object to receive and handle any errors that occur while loading
      * classes
+     * @return the new class path
      */
-    public static void InitializeClassPathFromOdex(String[] classPathDirs, String[] extraBootClassPathEntries,
+    public static ClassPath createClassPathFromOdex(String[] classPathDirs, String[] extraBootClassPathEntries,
                                                    String dexFilePath, DexFile dexFile,
                                                    ClassPathErrorHandler errorHandler) {
         if (!dexFile.isOdex()) {
-            throw new ExceptionWithContext("Cannot use InitialiazeClassPathFromOdex with a non-odex DexFile");
-        }
-
-        if (theClassPath != null) {
-            throw new ExceptionWithContext("Cannot initialize ClassPath multiple times");
+            throw new ExceptionWithContext("Cannot use createClassPathFromOdex with a non-odex DexFile");
         }
 
         OdexDependencies odexDependencies = dexFile.getOdexDependencies();
@@ -107,9 +113,10 @@ public class ClassPath {
             bootClassPath[i] = dependency;
         }
 
-        theClassPath = new ClassPath();
-        theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
+        ClassPath classPath = new ClassPath();
+        classPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
                 errorHandler);
+        return classPath;
     }
 
     /**
@@ -120,21 +127,39 @@ public class ClassPath {
      * @param dexFile the DexFile to load
      * @param errorHandler a ClassPathErrorHandler object to receive and handle any errors that occur while loading
      * classes
+     * @return the new class path
      */
-    public static void InitializeClassPath(String[] classPathDirs, String[] bootClassPath,
+    public static ClassPath createClassPath(String[] classPathDirs, String[] bootClassPath,
                                            String[] extraBootClassPathEntries, String dexFilePath, DexFile dexFile,
                                            ClassPathErrorHandler errorHandler) {
-        if (theClassPath != null) {
-            throw new ExceptionWithContext("Cannot initialize ClassPath multiple times");
-        }
-
-        theClassPath = new ClassPath();
-        theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
+        ClassPath classPath = new ClassPath();
+        classPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
                 errorHandler);
+        return classPath;
+    }
+
+    /**
+     * Create a class path of dex files that have already been read, e.g. the framework files followed by the dex
+     * files of an application. When a class is defined in several of the files, the last definition is used.
+     * @param dexFilePaths The paths of the dex files (used for error reporting purposes only)
+     * @param dexFiles The DexFiles to load
+     * @param errorHandler a ClassPathErrorHandler object to receive and handle any errors that occur while loading
+     * classes
+     * @return the new class path
+     */
+    public static ClassPath createClassPath(String[] dexFilePaths, DexFile[] dexFiles,
+                                            ClassPathErrorHandler errorHandler) {
+        ClassPath classPath = new ClassPath();
+        classPath.tempClasses = new LinkedHashMap<String, TempClassInfo>();
+        for (int i=0; i<dexFiles.length; i++) {
+            classPath.loadDexFile(dexFilePaths[i], dexFiles[i]);
+        }
+        classPath.loadClasses(errorHandler);
+        return classPath;
     }
 
-    public ClassPath() {
-        classDefs = new HashMap<String, ClassDef>();
+    private ClassPath() {
+        classDefs = new ConcurrentHashMap<String, ClassDef>();
     }
 
     private void initClassPath(String[] classPathDirs, String[] bootClassPath, String[] extraBootClassPathEntries,
@@ -157,11 +182,23 @@ public class ClassPath {
             loadDexFile(dexFilePath, dexFile);
         }
 
+        loadClasses(errorHandler);
+    }
+
+    private void loadClasses(ClassPathErrorHandler errorHandler) {
+        //load java.lang.Object first, loading an interface checks its superclass against javaLangObjectClassDef
+        if (tempClasses.containsKey("Ljava/lang/Object;")) {
+            try {
+                this.javaLangObjectClassDef = loadClassDef("Ljava/lang/Object;");
+            } catch (Exception ex) {
+                throw ExceptionWithContext.withContext(ex, "Error while loading ClassPath class Ljava/lang/Object;");
+            }
+        }
 
         for (String classType: tempClasses.keySet()) {
             ClassDef classDef = null;
             try {
-                classDef = ClassPath.loadClassDef(classType);
+                classDef = loadClassDef(classType);
                 assert classDef != null;
             } catch (Exception ex) {
                 if (errorHandler != null) {
@@ -178,7 +215,7 @@ public class ClassPath {
         }
 
         for (String primitiveType: new String[]{"Z", "B", "S", "C", "I", "J", "F", "D"}) {
-            ClassDef classDef = new PrimitiveClassDef(primitiveType);
+            ClassDef classDef = new PrimitiveClassDef(this, primitiveType);
             classDefs.put(primitiveType, classDef);
         }
 
@@ -238,7 +275,7 @@ public class ClassPath {
         throw new ExceptionWithContext(String.format("Cannot locate boot class path file %s", bootClassPathEntry));
     }
 
-    public void loadDexFile(String dexFilePath, DexFile dexFile) {
+    private void loadDexFile(String dexFilePath, DexFile dexFile) {
         for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
             try {
                 //TODO: need to check if the class already exists. (and if so, what to do about it?)
@@ -258,7 +295,7 @@ public class ClassPath {
         }
     }
 
-    public static ClassDef getClassDef(String classType) {
+    public ClassDef getClassDef(String classType) {
         return getClassDef(classType, true);
     }
 
@@ -268,18 +305,19 @@ public class ClassPath {
      * @param classType the class to load
      * @return the existing or newly loaded ClassDef object for the given class, or null if the class cannot be found
      */
-    public static ClassDef loadClassDef(String classType) {
+    public ClassDef loadClassDef(String classType) {
         ClassDef classDef = getClassDef(classType, false);
 
         if (classDef == null) {
-            TempClassInfo classInfo = theClassPath.tempClasses.get(classType);
+            //classes are only loaded while initializing, tempClasses is null afterwards
+            TempClassInfo classInfo = tempClasses == null ? null : tempClasses.get(classType);
             if (classInfo == null) {
                 return null;
             }
 
             try {
-                classDef = new ClassDef(classInfo);
-                theClassPath.classDefs.put(classDef.classType, classDef);
+                classDef = new ClassDef(this, classInfo);
+                classDefs.put(classDef.classType, classDef);
             } catch (Exception ex) {
                 throw ExceptionWithContext.withContext(ex, String.format("Error while loading class %s from file %s",
                         classInfo.classType, classInfo.dexFilePath));
@@ -288,16 +326,16 @@ public class ClassPath {
         return classDef;
     }
 
-    public static ClassDef getClassDef(String classType, boolean createUnresolvedClassDef)  {
-        ClassDef classDef = theClassPath.classDefs.get(classType);
+    public ClassDef getClassDef(String classType, boolean createUnresolvedClassDef)  {
+        ClassDef classDef = classDefs.get(classType);
         if (classDef == null) {
             //if it's an array class, try to create it
             if (classType.charAt(0) == '[') {
-                return theClassPath.createArrayClassDef(classType);
+                return createArrayClassDef(classType);
             } else {
                 if (createUnresolvedClassDef) {
                     //TODO: we should output a warning
-                    return theClassPath.createUnresolvedClassDef(classType);
+                    return createUnresolvedClassDef(classType);
                 } else {
                     return null;
                 }
@@ -306,11 +344,11 @@ public class ClassPath {
         return classDef;
     }
 
-    public static ClassDef getClassDef(TypeIdItem classType) {
+    public ClassDef getClassDef(TypeIdItem classType) {
         return getClassDef(classType.getTypeDescriptor());
     }
 
-    public static ClassDef getClassDef(TypeIdItem classType, boolean creatUnresolvedClassDef) {
+    public ClassDef getClassDef(TypeIdItem classType, boolean creatUnresolvedClassDef) {
         return getClassDef(classType.getTypeDescriptor(), creatUnresolvedClassDef);
     }
 
@@ -319,28 +357,29 @@ public class ClassPath {
         "[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[" +
         "[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[";
     private static ClassDef getArrayClassDefByElementClassAndDimension(ClassDef classDef, int arrayDimension) {
-        return getClassDef(arrayPrefix.substring(256 - arrayDimension) + classDef.classType);
+        return classDef.classPath.getClassDef(arrayPrefix.substring(256 - arrayDimension) + classDef.classType);
     }
 
     private ClassDef createUnresolvedClassDef(String classType)  {
         assert classType.charAt(0) == 'L';
 
-        UnresolvedClassDef unresolvedClassDef = new UnresolvedClassDef(classType);
-        classDefs.put(classType, unresolvedClassDef);
-        return unresolvedClassDef;
+        UnresolvedClassDef unresolvedClassDef = new UnresolvedClassDef(this, classType);
+        ClassDef existingClassDef = classDefs.putIfAbsent(classType, unresolvedClassDef);
+        return existingClassDef != null ? existingClassDef : unresolvedClassDef;
     }
 
     private ClassDef createArrayClassDef(String arrayClassName) {
         assert arrayClassName != null;
         assert arrayClassName.charAt(0) == '[';
 
-        ArrayClassDef arrayClassDef = new ArrayClassDef(arrayClassName);
+        ArrayClassDef arrayClassDef = new ArrayClassDef(this, arrayClassName);
         if (arrayClassDef.elementClass == null) {
             return null;
         }
 
-        classDefs.put(arrayClassName, arrayClassDef);
-        return arrayClassDef;
+        //another thread may have created the same array class in the meantime, all must use the same instance
+        ClassDef existingClassDef = classDefs.putIfAbsent(arrayClassName, arrayClassDef);
+        return existingClassDef != null ? existingClassDef : arrayClassDef;
     }
 
     public static ClassDef getCommonSuperclass(ClassDef class1, ClassDef class2) {
@@ -362,14 +401,14 @@ public class ClassPath {
             if (class1.implementsInterface(class2)) {
                 return class2;
             }
-            return theClassPath.javaLangObjectClassDef;
+            return class1.classPath.javaLangObjectClassDef;
         }
 
         if (class1.isInterface) {
             if (class2.implementsInterface(class1)) {
                 return class1;
             }
-            return theClassPath.javaLangObjectClassDef;
+            return class1.classPath.javaLangObjectClassDef;
         }
 
         if (class1 instanceof ArrayClassDef && class2 instanceof ArrayClassDef) {
@@ -413,7 +452,7 @@ public class ClassPath {
         //If one of the arrays is a primitive array, then the only option is to return java.lang.Object
         //TODO: might it be possible to merge something like int[] and short[] into int[]? (I don't think so..)
         if (class1.elementClass instanceof PrimitiveClassDef || class2.elementClass instanceof PrimitiveClassDef) {
-            return theClassPath.javaLangObjectClassDef;
+            return class1.getClassPath().javaLangObjectClassDef;
         }
 
         //if the two arrays have the same number of dimensions, then we should return an array class with the
@@ -426,15 +465,15 @@ public class ClassPath {
         //something like String[][][] and String[][] should be merged to Object[][]
         //this also holds when the element classes aren't the same (but are both reference types)
         int dimensions = Math.min(class1.arrayDimensions, class2.arrayDimensions);
-        return getArrayClassDefByElementClassAndDimension(theClassPath.javaLangObjectClassDef, dimensions);
+        return getArrayClassDefByElementClassAndDimension(class1.getClassPath().javaLangObjectClassDef, dimensions);
     }
 
     public static class ArrayClassDef extends ClassDef {
         private final ClassDef elementClass;
         private final int arrayDimensions;
 
-        protected ArrayClassDef(String arrayClassType) {
-            super(arrayClassType, ClassDef.ArrayClassDef);
+        protected ArrayClassDef(ClassPath classPath, String arrayClassType) {
+            super(classPath, arrayClassType, ClassDef.ArrayClassDef);
             assert arrayClassType.charAt(0) == '[';
 
             int i=0;
@@ -448,7 +487,7 @@ public class ClassPath {
             }
 
             try {
-                elementClass = ClassPath.getClassDef(arrayClassType.substring(i));
+                elementClass = classPath.getClassDef(arrayClassType.substring(i));
             } catch (ClassNotFoundException ex) {
                 throw ExceptionWithContext.withContext(ex, "Error while creating array class " + arrayClassType);
             }
@@ -487,7 +526,7 @@ public class ClassPath {
         @Override
         public boolean extendsClass(ClassDef superclassDef) {
             if (!(superclassDef instanceof ArrayClassDef)) {
-                if (superclassDef == ClassPath.theClassPath.javaLangObjectClassDef) {
+                if (superclassDef == getClassPath().javaLangObjectClassDef) {
                     return true;
                 } else if (superclassDef.isInterface) {
                     return this.implementsInterface(superclassDef);
@@ -510,7 +549,7 @@ public class ClassPath {
                     return true;
                 }
 
-                if (baseElementClass == ClassPath.theClassPath.javaLangObjectClassDef) {
+                if (baseElementClass == getClassPath().javaLangObjectClassDef) {
                     return true;
                 }
                 return false;
@@ -520,15 +559,15 @@ public class ClassPath {
     }
 
     public static class PrimitiveClassDef extends ClassDef {
-        public PrimitiveClassDef(String primitiveClassType) {
-            super(primitiveClassType, ClassDef.PrimitiveClassDef);
+        public PrimitiveClassDef(ClassPath classPath, String primitiveClassType) {
+            super(classPath, primitiveClassType, ClassDef.PrimitiveClassDef);
             assert primitiveClassType.charAt(0) != 'L' && primitiveClassType.charAt(0) != '[';
         }
     }
 
     public static class UnresolvedClassDef extends ClassDef {
-        protected UnresolvedClassDef(String unresolvedClassDef) {
-            super(unresolvedClassDef, ClassDef.UnresolvedClassDef);
+        protected UnresolvedClassDef(ClassPath classPath, String unresolvedClassDef) {
+            super(classPath, unresolvedClassDef, ClassDef.UnresolvedClassDef);
             assert unresolvedClassDef.charAt(0) == 'L';
         }
 
@@ -549,7 +588,7 @@ public class ClassPath {
         }
 
          public boolean extendsClass(ClassDef superclassDef) {
-            if (superclassDef != theClassPath.javaLangObjectClassDef && superclassDef != this) {
+            if (superclassDef != getClassPath().javaLangObjectClassDef && superclassDef != this) {
                 throw unresolvedValidationException();
             }
             return true;
@@ -580,6 +619,7 @@ public class ClassPath {
     }
 
     public static class ClassDef implements Comparable<ClassDef> {
+        private final ClassPath classPath;
         private final String classType;
         private final ClassDef superclass;
         /**
@@ -623,17 +663,19 @@ public class ClassPath {
 
         /**
          * This constructor is used for the ArrayClassDef, PrimitiveClassDef and UnresolvedClassDef subclasses
+         * @param classPath the class path the class belongs to
          * @param classType the class type
          * @param classFlavor one of ArrayClassDef, PrimitiveClassDef or UnresolvedClassDef
          */
-        protected ClassDef(String classType, int classFlavor) {
+        protected ClassDef(ClassPath classPath, String classType, int classFlavor) {
+            this.classPath = classPath;
             if (classFlavor == ArrayClassDef) {
                 assert classType.charAt(0) == '[';
                 this.classType = classType;
-                this.superclass = ClassPath.theClassPath.javaLangObjectClassDef;
+                this.superclass = classPath.javaLangObjectClassDef;
                 implementedInterfaces = new TreeSet<ClassDef>();
-                implementedInterfaces.add(ClassPath.getClassDef("Ljava/lang/Cloneable;"));
-                implementedInterfaces.add(ClassPath.getClassDef("Ljava/io/Serializable;"));
+                implementedInterfaces.add(classPath.getClassDef("Ljava/lang/Cloneable;"));
+                implementedInterfaces.add(classPath.getClassDef("Ljava/io/Serializable;"));
                 isInterface = false;
 
                 vtable = superclass.vtable;
@@ -662,7 +704,7 @@ public class ClassPath {
             } else /*if (classFlavor == UnresolvedClassDef)*/ {
                 assert classType.charAt(0) == 'L';
                 this.classType = classType;
-                this.superclass = ClassPath.theClassPath.javaLangObjectClassDef;
+                this.superclass = classPath.javaLangObjectClassDef;
                 implementedInterfaces = new TreeSet<ClassDef>();
                 isInterface = false;
 
@@ -677,7 +719,8 @@ public class ClassPath {
             }
         }
 
-        protected ClassDef(TempClassInfo classInfo)  {
+        protected ClassDef(ClassPath classPath, TempClassInfo classInfo)  {
+            this.classPath = classPath;
             classType = classInfo.classType;
             isInterface = classInfo.isInterface;
 
@@ -716,6 +759,10 @@ public class ClassPath {
             instanceFields = loadFields(classInfo);
         }
 
+        public ClassPath getClassPath() {
+            return classPath;
+        }
+
         public String getClassType() {
             return classType;
         }
@@ -826,7 +873,7 @@ public class ClassPath {
                     throw new ExceptionWithContext(classInfo.classType + " has no superclass");
                 }
 
-                ClassDef superclass = ClassPath.loadClassDef(superclassType);
+                ClassDef superclass = classPath.loadClassDef(superclassType);
                 if (superclass == null) {
                     throw new ClassNotFoundException(String.format("Could not find superclass %s", superclassType));
                 }
@@ -836,7 +883,7 @@ public class ClassPath {
                             " as its superclass");
                 }
                 if (isInterface && !superclass.isInterface && superclass !=
-                        ClassPath.theClassPath.javaLangObjectClassDef) {
+                        classPath.javaLangObjectClassDef) {
                     throw new ValidationException("Interface " + classType + " has the non-interface class " +
                             superclass.classType + " as its superclass");
                 }
@@ -861,7 +908,7 @@ public class ClassPath {
 
             if (classInfo.interfaces != null) {
                 for (String interfaceType: classInfo.interfaces) {
-                    ClassDef interfaceDef = ClassPath.loadClassDef(interfaceType);
+                    ClassDef interfaceDef = classPath.loadClassDef(interfaceType);
                     if (interfaceDef == null) {
                         throw new ClassNotFoundException(String.format("Could not find interface %s", interfaceType));
                     }
@@ -889,7 +936,7 @@ public class ClassPath {
 
             for (String interfaceType: classInfo.interfaces) {
                 if (!interfaceTable.containsKey(interfaceType)) {
-                    ClassDef interfaceDef = ClassPath.loadClassDef(interfaceType);
+                    ClassDef interfaceDef = classPath.loadClassDef(interfaceType);
                     if (interfaceDef == null) {
                         throw new ClassNotFoundException(String.format("Could not find interface %s", interfaceType));
                     }
@@ -43,7 +43,7 @@ import java.util.regex.Pattern;
 public class CustomInlineMethodResolver extends InlineMethodResolver {
     private DeodexUtil.InlineMethod[] inlineMethods;
 
-    public CustomInlineMethodResolver(String inlineTable) {
+    public CustomInlineMethodResolver(ClassPath classPath, String inlineTable) {
         FileReader fr = null;
         try {
             fr = new FileReader(inlineTable);
@@ -72,7 +72,7 @@ public class CustomInlineMethodResolver extends InlineMethodResolver {
         inlineMethods = new DeodexUtil.InlineMethod[lines.size()];
 
         for (int i=0; i<inlineMethods.length; i++) {
-            inlineMethods[i] = parseAndResolveInlineMethod(lines.get(i));
+            inlineMethods[i] = parseAndResolveInlineMethod(classPath, lines.get(i));
         }
     }
 
@@ -91,7 +91,7 @@ public class CustomInlineMethodResolver extends InlineMethodResolver {
 
     private static final Pattern longMethodPattern = Pattern.compile("(L[^;]+;)->([^(]+)\\(([^)]*)\\)(.+)");
 
-    private DeodexUtil.InlineMethod parseAndResolveInlineMethod(String inlineMethod) {
+    private DeodexUtil.InlineMethod parseAndResolveInlineMethod(ClassPath classPath, String inlineMethod) {
         Matcher m = longMethodPattern.matcher(inlineMethod);
         if (!m.matches()) {
             assert false;
@@ -103,7 +103,7 @@ public class CustomInlineMethodResolver extends InlineMethodResolver {
         String methodParams = m.group(3);
         String methodRet = m.group(4);
 
-        ClassPath.ClassDef classDef = ClassPath.getClassDef(className, false);
+        ClassPath.ClassDef classDef = classPath.getClassDef(className, false);
         int methodType = classDef.getMethodType(String.format("%s(%s)%s", methodName, methodParams, methodRet));
 
         if (methodType == -1) {
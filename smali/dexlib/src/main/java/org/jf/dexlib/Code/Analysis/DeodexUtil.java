@@ -42,9 +42,12 @@ public class DeodexUtil {
 
     private final InlineMethodResolver inlineMethodResolver;
 
+    public final ClassPath classPath;
+
     public final DexFile dexFile;
 
-    public DeodexUtil(DexFile dexFile) {
+    public DeodexUtil(ClassPath classPath, DexFile dexFile) {
+        this.classPath = classPath;
         this.dexFile = dexFile;
         OdexHeader odexHeader = dexFile.getOdexHeader();
         if (odexHeader == null) {
@@ -55,7 +58,8 @@ public class DeodexUtil {
         inlineMethodResolver = InlineMethodResolver.createInlineMethodResolver(this, odexHeader.version);
     }
 
-    public DeodexUtil(DexFile dexFile, InlineMethodResolver inlineMethodResolver) {
+    public DeodexUtil(ClassPath classPath, DexFile dexFile, InlineMethodResolver inlineMethodResolver) {
+        this.classPath = classPath;
         this.dexFile = dexFile;
         this.inlineMethodResolver = inlineMethodResolver;
     }
@@ -258,7 +262,7 @@ public class DeodexUtil {
         public final String parameters;
         public final String returnType;
 
-        private MethodIdItem methodIdItem = null;
+        private volatile MethodIdItem methodIdItem = null;
 
         InlineMethod(int methodType, String classType, String methodName, String parameters,
                                String returnType) {
@@ -277,7 +281,7 @@ public class DeodexUtil {
         }
 
         private void loadMethod(DeodexUtil deodexUtil) {
-            ClassPath.ClassDef classDef = ClassPath.getClassDef(classType);
+            ClassPath.ClassDef classDef = deodexUtil.classPath.getClassDef(classType);
 
             this.methodIdItem = deodexUtil.parseAndResolveMethod(classDef, methodName, parameters, returnType);
         }
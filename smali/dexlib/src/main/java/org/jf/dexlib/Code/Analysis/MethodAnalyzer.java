@@ -46,10 +46,12 @@ import java.util.List;
  * there's no need to perform the verification multiple times, so we wait until the method is fully analyzed and then
  * verify it.
  *
- * Before calling the analyze() method, you must have initialized the ClassPath by calling
- * ClassPath.InitializeClassPath
+ * The ClassPath given to the constructor must contain the classes referenced by the method. A ClassPath can be
+ * shared by any number of MethodAnalyzer instances.
  */
 public class MethodAnalyzer {
+    private final ClassPath classPath;
+
     private final ClassDataItem.EncodedMethod encodedMethod;
 
     private final DeodexUtil deodexUtil;
@@ -71,21 +73,25 @@ public class MethodAnalyzer {
     //instruction, etc.
     private AnalyzedInstruction startOfMethod;
 
-    public MethodAnalyzer(ClassDataItem.EncodedMethod encodedMethod, boolean deodex,
+    public MethodAnalyzer(ClassPath classPath, ClassDataItem.EncodedMethod encodedMethod, boolean deodex,
                           InlineMethodResolver inlineResolver) {
+        if (classPath == null) {
+            throw new IllegalArgumentException("classPath cannot be null");
+        }
         if (encodedMethod == null) {
             throw new IllegalArgumentException("encodedMethod cannot be null");
         }
         if (encodedMethod.codeItem == null || encodedMethod.codeItem.getInstructions().length == 0) {
             throw new IllegalArgumentException("The method has no code");
         }
+        this.classPath = classPath;
         this.encodedMethod = encodedMethod;
 
         if (deodex) {
             if (inlineResolver != null) {
-                this.deodexUtil = new DeodexUtil(encodedMethod.method.getDexFile(), inlineResolver);
+                this.deodexUtil = new DeodexUtil(classPath, encodedMethod.method.getDexFile(), inlineResolver);
             } else {
-                this.deodexUtil = new DeodexUtil(encodedMethod.method.getDexFile());
+                this.deodexUtil = new DeodexUtil(classPath, encodedMethod.method.getDexFile());
             }
         } else {
             this.deodexUtil = null;
@@ -159,11 +165,11 @@ public class MethodAnalyzer {
             if ((encodedMethod.accessFlags & AccessFlags.CONSTRUCTOR.getValue()) != 0) {
                 setPostRegisterTypeAndPropagateChanges(startOfMethod, thisRegister,
                         RegisterType.getRegisterType(RegisterType.Category.UninitThis,
-                            ClassPath.getClassDef(methodIdItem.getContainingClass())));
+                            classPath.getClassDef(methodIdItem.getContainingClass())));
             } else {
                 setPostRegisterTypeAndPropagateChanges(startOfMethod, thisRegister,
                         RegisterType.getRegisterType(RegisterType.Category.Reference,
-                            ClassPath.getClassDef(methodIdItem.getContainingClass())));
+                            classPath.getClassDef(methodIdItem.getContainingClass())));
             }
         }
 
@@ -375,7 +381,7 @@ public class MethodAnalyzer {
         return validationException;
     }
 
-    private static RegisterType[] getParameterTypes(TypeListItem typeListItem, int parameterRegisterCount) {
+    private RegisterType[] getParameterTypes(TypeListItem typeListItem, int parameterRegisterCount) {
         assert typeListItem != null;
         assert parameterRegisterCount == typeListItem.getRegisterCount();
 
@@ -387,7 +393,7 @@ public class MethodAnalyzer {
                 registerTypes[registerNum++] = RegisterType.getWideRegisterTypeForTypeIdItem(type, true);
                 registerTypes[registerNum++] = RegisterType.getWideRegisterTypeForTypeIdItem(type, false);
             } else {
-                registerTypes[registerNum++] = RegisterType.getRegisterTypeForTypeIdItem(type);
+                registerTypes[registerNum++] = RegisterType.getRegisterTypeForTypeIdItem(classPath, type);
             }
         }
 
@@ -1704,11 +1710,11 @@ public class MethodAnalyzer {
         Item item = invokeInstruction.getReferencedItem();
 
         if (item.getItemType() == ItemType.TYPE_METHOD_ID_ITEM) {
-            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(
+            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath,
                     ((MethodIdItem)item).getPrototype().getReturnType());
         } else {
             assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
-            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         }
 
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, resultRegisterType);
@@ -1735,11 +1741,11 @@ public class MethodAnalyzer {
         Item item = invokeInstruction.getReferencedItem();
 
         if (item instanceof MethodIdItem) {
-            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(
+            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath,
                     ((MethodIdItem)item).getPrototype().getReturnType());
         } else {
             assert item instanceof TypeIdItem;
-            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+            resultRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         }
 
         if (!allowedCategories.contains(resultRegisterType.category)) {
@@ -1761,12 +1767,12 @@ public class MethodAnalyzer {
         for (CodeItem.TryItem tryItem: encodedMethod.codeItem.getTries()) {
             if (tryItem.encodedCatchHandler.getCatchAllHandlerAddress() == instructionAddress) {
                 exceptionType = RegisterType.getRegisterType(RegisterType.Category.Reference,
-                        ClassPath.getClassDef("Ljava/lang/Throwable;"));
+                        classPath.getClassDef("Ljava/lang/Throwable;"));
                 break;
             }
             for (CodeItem.EncodedTypeAddrPair handler: tryItem.encodedCatchHandler.handlers) {
                 if (handler.getHandlerAddress() == instructionAddress) {
-                    exceptionType = RegisterType.getRegisterTypeForTypeIdItem(handler.exceptionType)
+                    exceptionType = RegisterType.getRegisterTypeForTypeIdItem(classPath, handler.exceptionType)
                             .merge(exceptionType);
                 }
             }
@@ -1792,12 +1798,12 @@ public class MethodAnalyzer {
         for (CodeItem.TryItem tryItem: encodedMethod.codeItem.getTries()) {
             if (tryItem.encodedCatchHandler.getCatchAllHandlerAddress() == instructionAddress) {
                 exceptionType = RegisterType.getRegisterType(RegisterType.Category.Reference,
-                        ClassPath.getClassDef("Ljava/lang/Throwable;"));
+                        classPath.getClassDef("Ljava/lang/Throwable;"));
                 break;
             }
             for (CodeItem.EncodedTypeAddrPair handler: tryItem.encodedCatchHandler.handlers) {
                 if (handler.getHandlerAddress() == instructionAddress) {
-                    exceptionType = RegisterType.getRegisterTypeForTypeIdItem(handler.exceptionType)
+                    exceptionType = RegisterType.getRegisterTypeForTypeIdItem(classPath, handler.exceptionType)
                             .merge(exceptionType);
                 }
             }
@@ -1848,7 +1854,7 @@ public class MethodAnalyzer {
             throw new ValidationException("Cannot use return with a void return type. Use return-void instead");
         }
 
-        RegisterType methodReturnRegisterType = RegisterType.getRegisterTypeForTypeIdItem(returnType);
+        RegisterType methodReturnRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath, returnType);
 
         if (!validCategories.contains(methodReturnRegisterType.category)) {
             //TODO: could add which return-* variation should be used instead
@@ -1897,13 +1903,13 @@ public class MethodAnalyzer {
     }
 
     private void analyzeConstString(AnalyzedInstruction analyzedInstruction) {
-        ClassPath.ClassDef stringClassDef = ClassPath.getClassDef("Ljava/lang/String;");
+        ClassPath.ClassDef stringClassDef = classPath.getClassDef("Ljava/lang/String;");
         RegisterType stringType = RegisterType.getRegisterType(RegisterType.Category.Reference, stringClassDef);
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, stringType);
     }
 
     private void analyzeConstClass(AnalyzedInstruction analyzedInstruction) {
-        ClassPath.ClassDef classClassDef = ClassPath.getClassDef("Ljava/lang/Class;");
+        ClassPath.ClassDef classClassDef = classPath.getClassDef("Ljava/lang/Class;");
         RegisterType classType = RegisterType.getRegisterType(RegisterType.Category.Reference, classClassDef);
 
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, classType);
@@ -1911,7 +1917,7 @@ public class MethodAnalyzer {
 
 
     private void verifyConstClass(AnalyzedInstruction analyzedInstruction) {
-        ClassPath.ClassDef classClassDef = ClassPath.getClassDef("Ljava/lang/Class;");
+        ClassPath.ClassDef classClassDef = classPath.getClassDef("Ljava/lang/Class;");
         RegisterType classType = RegisterType.getRegisterType(RegisterType.Category.Reference, classClassDef);
 
         InstructionWithReference instruction = (InstructionWithReference)analyzedInstruction.instruction;
@@ -1920,7 +1926,7 @@ public class MethodAnalyzer {
 
         //TODO: need to check class access
         //make sure the referenced class is resolvable
-        ClassPath.getClassDef((TypeIdItem)item);
+        classPath.getClassDef((TypeIdItem)item);
     }
 
     private void verifyMonitor(AnalyzedInstruction analyzedInstruction) {
@@ -1934,7 +1940,7 @@ public class MethodAnalyzer {
         Item item = instruction.getReferencedItem();
         assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
-        RegisterType castRegisterType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+        RegisterType castRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, castRegisterType);
     }
 
@@ -1955,7 +1961,7 @@ public class MethodAnalyzer {
             assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
             //TODO: need to check class access
-            RegisterType castRegisterType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+            RegisterType castRegisterType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
             if (castRegisterType.category != RegisterType.Category.Reference) {
                 //TODO: verify that dalvik allows a non-reference type..
                 //TODO: print a warning, but don't re-throw the exception. dalvik allows a non-reference type during validation (but throws an exception at runtime)
@@ -1982,7 +1988,7 @@ public class MethodAnalyzer {
 
             Item item = instruction.getReferencedItem();
             assert  item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
-            RegisterType registerType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+            RegisterType registerType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
             if (registerType.category != RegisterType.Category.Reference) {
                 throw new ValidationException(String.format("Cannot use instance-of with a non-reference type %s",
                         registerType.toString()));
@@ -2031,7 +2037,7 @@ public class MethodAnalyzer {
         Item item = instruction.getReferencedItem();
         assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
-        RegisterType classType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+        RegisterType classType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
 
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction,
                 RegisterType.getUnitializedReference(classType.type));
@@ -2068,7 +2074,7 @@ public class MethodAnalyzer {
         assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
         //TODO: need to check class access
-        RegisterType classType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+        RegisterType classType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         if (classType.category != RegisterType.Category.Reference) {
             throw new ValidationException(String.format("Cannot use new-instance with a non-reference type %s",
                     classType.toString()));
@@ -2086,7 +2092,7 @@ public class MethodAnalyzer {
         Item item = instruction.getReferencedItem();
         assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
-        RegisterType arrayType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+        RegisterType arrayType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         assert arrayType.type instanceof ClassPath.ArrayClassDef;
 
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, arrayType);
@@ -2103,7 +2109,7 @@ public class MethodAnalyzer {
         Item item = instruction.getReferencedItem();
         assert item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
-        RegisterType arrayType = RegisterType.getRegisterTypeForTypeIdItem((TypeIdItem)item);
+        RegisterType arrayType = RegisterType.getRegisterTypeForTypeIdItem(classPath, (TypeIdItem)item);
         assert arrayType.type instanceof ClassPath.ArrayClassDef;
 
         if (arrayType.category != RegisterType.Category.Reference) {
@@ -2126,7 +2132,7 @@ public class MethodAnalyzer {
         Item item = instruction.getReferencedItem();
         assert  item.getItemType() == ItemType.TYPE_TYPE_ID_ITEM;
 
-        ClassPath.ClassDef classDef = ClassPath.getClassDef((TypeIdItem)item);
+        ClassPath.ClassDef classDef = classPath.getClassDef((TypeIdItem)item);
 
         if (classDef.getClassType().charAt(0) != '[') {
             throw new ValidationException("Cannot use non-array type \"" + classDef.getClassType() +
@@ -2135,7 +2141,7 @@ public class MethodAnalyzer {
 
         ClassPath.ArrayClassDef arrayClassDef = (ClassPath.ArrayClassDef)classDef;
         arrayType = RegisterType.getRegisterType(RegisterType.Category.Reference, classDef);
-        arrayImmediateElementType = RegisterType.getRegisterTypeForType(
+        arrayImmediateElementType = RegisterType.getRegisterTypeForType(classPath,
                 arrayClassDef.getImmediateElementClass().getClassType());
         String baseElementType = arrayClassDef.getBaseElementClass().getClassType();
         if (baseElementType.charAt(0) == 'J' || baseElementType.charAt(0) == 'D') {
@@ -2260,7 +2266,7 @@ public class MethodAnalyzer {
 
         assert registerType.type != null;
 
-        if (!registerType.type.extendsClass(ClassPath.getClassDef("Ljava/lang/Throwable;"))) {
+        if (!registerType.type.extendsClass(classPath.getClassDef("Ljava/lang/Throwable;"))) {
             throw new ValidationException(String.format("Cannot use throw with non-throwable type %s in register v%d",
                     registerType.type.getClassType(), register));
         }
@@ -2393,7 +2399,7 @@ public class MethodAnalyzer {
             }
 
             RegisterType arrayBaseType =
-                    RegisterType.getRegisterTypeForType(arrayClassDef.getBaseElementClass().getClassType());
+                    RegisterType.getRegisterTypeForType(classPath, arrayClassDef.getBaseElementClass().getClassType());
             if (!checkArrayFieldAssignment(arrayBaseType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with array type %s. Incorrect array type " +
                         "for the instruction.", analyzedInstruction.instruction.opcode.name,
@@ -2573,7 +2579,7 @@ public class MethodAnalyzer {
             }
 
             RegisterType arrayBaseType =
-                    RegisterType.getRegisterTypeForType(arrayClassDef.getBaseElementClass().getClassType());
+                    RegisterType.getRegisterTypeForType(classPath, arrayClassDef.getBaseElementClass().getClassType());
             if (!checkArrayFieldAssignment(arrayBaseType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with array type %s. Incorrect array type " +
                         "for the instruction.", analyzedInstruction.instruction.opcode.name,
@@ -2677,12 +2683,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-            !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+            !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!checkArrayFieldAssignment(fieldType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2698,7 +2704,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, fieldType);
     }
 
@@ -2714,12 +2720,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-            !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+            !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!WideLowCategories.contains(fieldType.category)) {
             throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2740,12 +2746,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-            !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+            !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (fieldType.category != RegisterType.Category.Reference) {
             throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2785,12 +2791,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-            !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+            !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!checkArrayFieldAssignment(fieldType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2813,12 +2819,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-                !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+                !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!WideLowCategories.contains(fieldType.category)) {
             throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2842,12 +2848,12 @@ public class MethodAnalyzer {
         FieldIdItem field = (FieldIdItem)referencedItem;
 
         if (objectRegisterType.category != RegisterType.Category.Null &&
-            !objectRegisterType.type.extendsClass(ClassPath.getClassDef(field.getContainingClass()))) {
+            !objectRegisterType.type.extendsClass(classPath.getClassDef(field.getContainingClass()))) {
             throw new ValidationException(String.format("Cannot access field %s through type %s",
                     field.getFieldString(), objectRegisterType.type.getClassType()));
         }
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (fieldType.category != RegisterType.Category.Reference) {
             throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2877,7 +2883,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!checkArrayFieldAssignment(fieldType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2891,7 +2897,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
         setDestinationRegisterTypeAndPropagateChanges(analyzedInstruction, fieldType);
     }
 
@@ -2901,7 +2907,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
 
         if (fieldType.category != RegisterType.Category.LongLo &&
@@ -2919,7 +2925,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (fieldType.category != RegisterType.Category.Reference) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2954,7 +2960,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!checkArrayFieldAssignment(fieldType.category, instructionCategory)) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2974,7 +2980,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (!WideLowCategories.contains(fieldType.category)) {
                 throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -2994,7 +3000,7 @@ public class MethodAnalyzer {
         assert referencedItem instanceof FieldIdItem;
         FieldIdItem field = (FieldIdItem)referencedItem;
 
-        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(field.getFieldType());
+        RegisterType fieldType = RegisterType.getRegisterTypeForTypeIdItem(classPath, field.getFieldType());
 
         if (fieldType.category != RegisterType.Category.Reference) {
             throw new ValidationException(String.format("Cannot use %s with field %s. Incorrect field type " +
@@ -3111,7 +3117,7 @@ public class MethodAnalyzer {
             }
         }
 
-        ClassPath.ClassDef methodClassDef = ClassPath.getClassDef(methodClass);
+        ClassPath.ClassDef methodClassDef = classPath.getClassDef(methodClass);
         if ((invokeType & INVOKE_INTERFACE) != 0) {
             if (!methodClassDef.isInterface()) {
                 throw new ValidationException(String.format("Cannot call method %s with %s. %s is not an interface " +
@@ -3127,7 +3133,7 @@ public class MethodAnalyzer {
         }
 
         if ((invokeType & INVOKE_SUPER) != 0) {
-            ClassPath.ClassDef currentMethodClassDef = ClassPath.getClassDef(encodedMethod.method.getContainingClass());
+            ClassPath.ClassDef currentMethodClassDef = classPath.getClassDef(encodedMethod.method.getContainingClass());
             if (currentMethodClassDef.getSuperclass() == null) {
                 throw new ValidationException(String.format("Cannot call method %s with %s. %s has no superclass",
                         methodIdItem.getMethodString(), analyzedInstruction.instruction.opcode.name,
@@ -3225,7 +3231,7 @@ public class MethodAnalyzer {
             while (!registers.pastEnd()) {
                 assert parameterTypeIndex < parameterTypes.size();
                 RegisterType parameterType =
-                        RegisterType.getRegisterTypeForTypeIdItem(parameterTypes.get(parameterTypeIndex));
+                        RegisterType.getRegisterTypeForTypeIdItem(classPath, parameterTypes.get(parameterTypeIndex));
 
                 int register = registers.getRegister();
 
@@ -3584,7 +3590,7 @@ public class MethodAnalyzer {
 
         MethodIdItem methodIdItem = null;
         if (isSuper) {
-            ClassPath.ClassDef classDef = ClassPath.getClassDef(this.encodedMethod.method.getContainingClass(), false);
+            ClassPath.ClassDef classDef = classPath.getClassDef(this.encodedMethod.method.getContainingClass(), false);
             assert classDef != null;
 
             if (classDef.getSuperclass() != null) {
@@ -32,13 +32,21 @@ import org.jf.dexlib.TypeIdItem;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
 
 import static org.jf.dexlib.Code.Analysis.ClassPath.ClassDef;
 
 public class RegisterType {
-    private final static HashMap<RegisterType, RegisterType> internedRegisterTypes =
-            new HashMap<RegisterType, RegisterType>();
+    //The RegisterTypes without a class, by category ordinal. They are all created up front, so they can be shared
+    //by all threads without locking. The interned reference types are kept by their ClassPath
+    private final static RegisterType[] classlessRegisterTypes = new RegisterType[Category.values().length];
+
+    static {
+        for (Category category: Category.values()) {
+            if (category != Category.Reference && category != Category.UninitRef && category != Category.UninitThis) {
+                classlessRegisterTypes[category.ordinal()] = new RegisterType(category, null);
+            }
+        }
+    }
 
     public final Category category;
     public final ClassDef type;
@@ -179,7 +187,7 @@ public class RegisterType {
 
     }
 
-    public static RegisterType getRegisterTypeForType(String type) {
+    public static RegisterType getRegisterTypeForType(ClassPath classPath, String type) {
         switch (type.charAt(0)) {
             case 'V':
                 throw new ValidationException("The V type can only be used as a method return type");
@@ -201,14 +209,14 @@ public class RegisterType {
                 return getRegisterType(Category.DoubleLo, null);
             case 'L':
             case '[':
-                return getRegisterType(Category.Reference, ClassPath.getClassDef(type));
+                return getRegisterType(Category.Reference, classPath.getClassDef(type));
             default:
                 throw new RuntimeException("Invalid type: " + type);
         }
     }
 
-    public static RegisterType getRegisterTypeForTypeIdItem(TypeIdItem typeIdItem) {
-        return getRegisterTypeForType(typeIdItem.getTypeDescriptor());
+    public static RegisterType getRegisterTypeForTypeIdItem(ClassPath classPath, TypeIdItem typeIdItem) {
+        return getRegisterTypeForType(classPath, typeIdItem.getTypeDescriptor());
     }
 
     public static RegisterType getWideRegisterTypeForTypeIdItem(TypeIdItem typeIdItem, boolean firstRegister) {
@@ -307,10 +315,19 @@ public class RegisterType {
     }
 
     public static RegisterType getRegisterType(Category category, ClassDef classType) {
+        if (classType == null) {
+            RegisterType registerType = classlessRegisterTypes[category.ordinal()];
+            if (registerType != null) {
+                return registerType;
+            }
+        }
+
+        //ClassDefs of different class paths are equal if they have the same name, so each class path interns its own
+        //reference types
         RegisterType newRegisterType = new RegisterType(category, classType);
-        RegisterType internedRegisterType = internedRegisterTypes.get(newRegisterType);
+        RegisterType internedRegisterType =
+                classType.getClassPath().internedRegisterTypes.putIfAbsent(newRegisterType, newRegisterType);
         if (internedRegisterType == null) {
-            internedRegisterTypes.put(newRegisterType, newRegisterType);
             return newRegisterType;
         }
         return internedRegisterType;
@@ -34,7 +34,7 @@ import org.jf.dexlib.Code.Instruction;
 import org.jf.dexlib.Code.InstructionWithReference;
 import org.jf.dexlib.Util.AccessFlags;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SyntheticAccessorResolver {
     public static final int METHOD = 0;
@@ -42,7 +42,8 @@ public class SyntheticAccessorResolver {
     public static final int SETTER = 2;
 
     private final DexFileClassMap classMap;
-    private final HashMap<MethodIdItem, AccessedMember> resolvedAccessors = new HashMap<MethodIdItem, AccessedMember>();
+    private final ConcurrentHashMap<MethodIdItem, AccessedMember> resolvedAccessors =
+            new ConcurrentHashMap<MethodIdItem, AccessedMember>();
     public DexFile dexFile = null;
 
     public SyntheticAccessorResolver(DexFile dexFile) {
@@ -49,6 +49,9 @@ public class CodeItem extends Item<CodeItem> {
 
     private ClassDataItem.EncodedMethod parent;
 
+    /** Whether the instructions were created or updated rather than read from a dex file */
+    private boolean instructionsModified;
+
     /**
      * Creates a new uninitialized <code>CodeItem</code>
      * @param dexFile The <code>DexFile</code> that this item belongs to
@@ -89,6 +92,7 @@ public class CodeItem extends Item<CodeItem> {
         this.instructions = instructions;
         this.tries = tries;
         this.encodedCatchHandlers = encodedCatchHandlers;
+        this.instructionsModified = true;
     }
 
     /**
@@ -137,6 +141,37 @@ public class CodeItem extends Item<CodeItem> {
 
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
+        int triesCount = readHeader(in, readContext);
+        readCode(in, triesCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The header is read in immediately, so that the register counts and the debug info are always available
+     */
+    protected void readLazilyFrom(Input in, int offset, ReadContext readContext) {
+        super.readLazilyFrom(in, offset, readContext);
+        in.setCursor(offset);
+        readHeader(in, readContext);
+    }
+
+    /** {@inheritDoc} */
+    protected void readLazyContents(Input in, ReadContext readContext) {
+        in.setCursor(getOffset() + 6);
+        int triesCount = in.readShort();
+        in.setCursor(getOffset() + 12);
+        readCode(in, triesCount);
+    }
+
+    /**
+     * Reads in the code item up to the instruction count
+     * @param in the <code>Input</code> object to read from
+     * @param readContext a <code>ReadContext</code> object to hold information that is
+     * only needed while reading in a file
+     * @return the number of try items
+     */
+    private int readHeader(Input in, ReadContext readContext) {
         this.registerCount = in.readShort();
         this.inWords = in.readShort();
         this.outWords = in.readShort();
@@ -146,7 +181,15 @@ public class CodeItem extends Item<CodeItem> {
         if (this.debugInfo != null) {
             this.debugInfo.setParent(this);
         }
+        return triesCount;
+    }
 
+    /**
+     * Reads in the instructions, tries and catch handlers, starting at the instruction count
+     * @param in the <code>Input</code> object to read from
+     * @param triesCount the number of try items
+     */
+    private void readCode(Input in, int triesCount) {
         int instructionCount = in.readInt();
 
         final ArrayList<Instruction> instructionList = new ArrayList<Instruction>();
@@ -203,6 +246,7 @@ public class CodeItem extends Item<CodeItem> {
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
+        ensureRead();
         offset += 16 + getInstructionsLength() * 2;
 
         if (tries != null && tries.length > 0) {
@@ -220,6 +264,7 @@ public class CodeItem extends Item<CodeItem> {
 
     /** {@inheritDoc} */
     protected void writeItem(final AnnotatedOutput out) {
+        ensureRead();
         int instructionsLength = getInstructionsLength();
 
         if (out.annotates()) {
@@ -341,6 +386,7 @@ public class CodeItem extends Item<CodeItem> {
      * @return an array of the instructions in this code item
      */
     public Instruction[] getInstructions() {
+        ensureRead();
         return instructions;
     }
 
@@ -348,6 +394,7 @@ public class CodeItem extends Item<CodeItem> {
      * @return an array of the <code>TryItem</code> objects in this <code>CodeItem</code>
      */
     public TryItem[] getTries() {
+        ensureRead();
         return tries;
     }
 
@@ -355,6 +402,7 @@ public class CodeItem extends Item<CodeItem> {
      * @return an array of the <code>EncodedCatchHandler</code> objects in this <code>CodeItem</code>
      */
     public EncodedCatchHandler[] getHandlers() {
+        ensureRead();
         return encodedCatchHandlers;
     }
 
@@ -386,7 +434,17 @@ public class CodeItem extends Item<CodeItem> {
      * @param newInstructions the new instructions to use for this code item
      */
     public void updateCode(Instruction[] newInstructions) {
+        ensureRead();
         this.instructions = newInstructions;
+        this.instructionsModified = true;
+    }
+
+    /**
+     * @return true if the instructions of this <code>CodeItem</code> were created or updated rather than read from a
+     * dex file. Only such instructions can need a goto fix from <code>fixInstructions</code>
+     */
+    public boolean hasModifiedInstructions() {
+        return instructionsModified;
     }
 
     /**
@@ -409,10 +467,13 @@ public class CodeItem extends Item<CodeItem> {
      * TODO: in case of non-range invoke with a jumbo-sized method reference, we could check if the registers are sequential, and replace it with the jumbo variant (which only takes a register range)
      *
      * The above fixes are applied iteratively, until no more fixes have been performed
+     * @return true if any instruction was replaced, which changes the size of this <code>CodeItem</code>
      */
-    public void fixInstructions(boolean fixJumbo, boolean fixGoto) {
+    public boolean fixInstructions(boolean fixJumbo, boolean fixGoto) {
+        ensureRead();
         try {
             boolean didSomething = false;
+            boolean didAnything = false;
 
             do
             {
@@ -475,7 +536,9 @@ public class CodeItem extends Item<CodeItem> {
                                 instruction.opcode.name + " instruction at address " + currentCodeAddress);
                     }
                 }
+                didAnything |= didSomething;
             }while(didSomething);
+            return didAnything;
         } catch (Exception ex) {
             throw this.addExceptionContext(ex);
         }
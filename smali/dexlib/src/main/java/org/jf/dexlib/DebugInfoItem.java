@@ -156,6 +156,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
+        ensureRead();
         offset += Leb128Utils.unsignedLeb128Size(lineStart);
         offset += Leb128Utils.unsignedLeb128Size(parameterNames.length);
         for (StringIdItem parameterName: parameterNames) {
@@ -256,6 +257,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
 
     /** {@inheritDoc} */
     protected void writeItem(final AnnotatedOutput out) {
+        ensureRead();
         if (out.annotates()) {
             writeItemWithAnnotations(out);
         } else {
@@ -269,6 +271,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @param encodedDebugInfo the new encoded debug info
      */
     public void setEncodedDebugInfo(byte[] encodedDebugInfo) {
+        ensureRead();
         //TODO: I would rather replace this method with some way of saying "The (code) instruction at address changed from A bytes to B bytes. Fixup the debug info accordingly"
 
         this.encodedDebugInfo = encodedDebugInfo;
@@ -593,6 +596,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @return the initial value for the line number register for the debug info machine
      */
     public int getLineStart() {
+        ensureRead();
         return lineStart;
     }
 
@@ -600,6 +604,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @return the debug info, encoded as a byte array
      */
     public byte[] getEncodedDebugInfo() {
+        ensureRead();
         return encodedDebugInfo;
     }
 
@@ -607,6 +612,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @return an array of the items referenced by instructions, in order of occurance in the encoded debug info
      */
     public Item[] getReferencedItems() {
+        ensureRead();
         return referencedItems;
     }
 
@@ -615,6 +621,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * is available, or any element can be null to indicate no info for that parameter
      */
     public StringIdItem[] getParameterNames() {
+        ensureRead();
         return parameterNames;
     }
 }
@@ -34,9 +34,11 @@ import java.io.*;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.zip.Adler32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -141,6 +143,15 @@ public class DexFile
      */
     private final boolean skipInstructions;
 
+    /**
+     * When true, class data items, code items and debug info items are not read in with the rest of the dex file.
+     * They are read in individually when they are first accessed, so that the time and memory needed to read a
+     * dex file only depends on the parts of it that are used. The contents of the dex file are kept (or mapped) until
+     * all these items have been read in. This should only be used for reading a dex file, the items are not kept in
+     * the original order
+     */
+    private final boolean lazyRead;
+
     /**
      * When true, this prevents any sorting of the items during placement of the dex file. This
      * should *only* be set to true when this dex file was read in from an existing (valid) dex file,
@@ -182,9 +193,10 @@ public class DexFile
      * that are signed, so they will be written in the same format. See
      * <code>getPreserveSignedRegisters()</code>
      */
-    private DexFile(boolean preserveSignedRegisters, boolean skipInstructions) {
+    private DexFile(boolean preserveSignedRegisters, boolean skipInstructions, boolean lazyRead) {
         this.preserveSignedRegisters = preserveSignedRegisters;
         this.skipInstructions = skipInstructions;
+        this.lazyRead = lazyRead;
 
         sectionsByType = new Section[] {
                 StringIdsSection,
@@ -198,11 +210,11 @@ public class DexFile
                 AnnotationSetsSection,
                 ClassDataSection,
                 CodeItemsSection,
-                AnnotationDirectoriesSection,
                 StringDataSection,
                 DebugInfoItemsSection,
                 AnnotationsSection,
                 EncodedArraysSection,
+                AnnotationDirectoriesSection,
                 null,
                 null
         };
@@ -280,7 +292,44 @@ public class DexFile
      */
     public DexFile(File file, boolean preserveSignedRegisters, boolean skipInstructions)
             throws IOException {
-        this(preserveSignedRegisters, skipInstructions);
+        this(file, preserveSignedRegisters, skipInstructions, false);
+    }
+
+    /**
+     * Construct a new DexFile instance by reading in the given dex file,
+     * and optionally keep track of any registers in the debug information that are signed,
+     * so they will be written in the same format.
+     * @param file The dex file to read in
+     * @param preserveSignedRegisters If true, keep track of any registers in the debug information
+     * that are signed, so they will be written in the same format.
+     * @param skipInstructions If true, skip the instructions in any code item.
+     * @param lazyRead If true, read in class data, code and debug info items when they are first accessed
+     * @see #getPreserveSignedRegisters
+     * @see #isLazyRead
+     * @throws IOException if an IOException occurs
+     */
+    public DexFile(File file, boolean preserveSignedRegisters, boolean skipInstructions, boolean lazyRead)
+            throws IOException {
+        this(file, "classes.dex", preserveSignedRegisters, skipInstructions, lazyRead);
+    }
+
+    /**
+     * Construct a new DexFile instance by reading in the given dex file, or the dex file with the given name in the
+     * given zip file
+     * @param file The dex file to read in, or the zip file containing it
+     * @param dexEntryName The name of the dex file to read in, if <code>file</code> is a zip file
+     * @param preserveSignedRegisters If true, keep track of any registers in the debug information
+     * that are signed, so they will be written in the same format.
+     * @param skipInstructions If true, skip the instructions in any code item.
+     * @param lazyRead If true, read in class data, code and debug info items when they are first accessed
+     * @see #getPreserveSignedRegisters
+     * @see #isLazyRead
+     * @see #getDexEntryNames
+     * @throws IOException if an IOException occurs
+     */
+    public DexFile(File file, String dexEntryName, boolean preserveSignedRegisters, boolean skipInstructions,
+                   boolean lazyRead) throws IOException {
+        this(preserveSignedRegisters, skipInstructions, lazyRead);
 
         long fileLength;
         byte[] magic = FileUtils.readFile(file, 0, 8);
@@ -293,17 +342,18 @@ public class DexFile
             //do we have a zip file?
             if (magic[0] == 0x50 && magic[1] == 0x4B) {
                 zipFile = new ZipFile(file);
-                ZipEntry zipEntry = zipFile.getEntry("classes.dex");
+                ZipEntry zipEntry = zipFile.getEntry(dexEntryName);
                 if (zipEntry == null) {
-                    throw new NoClassesDexException("zip file " + file.getName() + " does not contain a classes.dex " +
-                            "file");
+                    throw new NoClassesDexException("zip file " + file.getName() + " does not contain a " +
+                            dexEntryName + " file");
                 }
                 fileLength = zipEntry.getSize();
                 if (fileLength < 40) {
-                    throw new RuntimeException("The classes.dex file in " + file.getName() + " is too small to be a" +
-                            " valid dex file");
+                    throw new RuntimeException("The " + dexEntryName + " file in " + file.getName() + " is too small" +
+                            " to be a valid dex file");
                 } else if (fileLength > Integer.MAX_VALUE) {
-                    throw new RuntimeException("The classes.dex file in " + file.getName() + " is too large to read in");
+                    throw new RuntimeException("The " + dexEntryName + " file in " + file.getName() + " is too large" +
+                            " to read in");
                 }
                 inputStream = new BufferedInputStream(zipFile.getInputStream(zipEntry));
 
@@ -322,7 +372,7 @@ public class DexFile
                 } else if (fileLength > Integer.MAX_VALUE) {
                     throw new RuntimeException(file.getName() + " is too large to read in");
                 }
-                inputStream = new FileInputStream(file);
+                //raw dex and odex files are memory mapped instead of being read through a stream
             }
 
             byte[] dexMagic, odexMagic;
@@ -344,7 +394,18 @@ public class DexFile
                 }
             }
 
-            if (isOdex) {
+            if (isOdex && inputStream == null) {
+                odexHeader = new OdexHeader(new ByteArrayInput(FileUtils.readFile(file, 0, 40)));
+
+                if (odexHeader.depsOffset < odexHeader.dexOffset + odexHeader.dexLength) {
+                    throw new ExceptionWithContext("Unexpected placement of the odex dependency data");
+                }
+
+                in = new ByteBufferInput(ByteBufferInput.mapFile(file, odexHeader.dexOffset, odexHeader.dexLength));
+
+                odexDependencies = new OdexDependencies(
+                        new ByteArrayInput(FileUtils.readFile(file, odexHeader.depsOffset, odexHeader.depsLength)));
+            } else if (isOdex) {
                 byte[] odexHeaderBytes = FileUtils.readStream(inputStream, 40);
                 Input odexHeaderIn = new ByteArrayInput(odexHeaderBytes);
                 odexHeader = new OdexHeader(odexHeaderIn);
@@ -366,6 +427,8 @@ public class DexFile
 
                 odexDependencies = new OdexDependencies(
                         new ByteArrayInput(FileUtils.readStream(inputStream, odexHeader.depsLength)));
+            } else if (isDex && inputStream == null) {
+                in = new ByteBufferInput(ByteBufferInput.mapFile(file, 0, (int)fileLength));
             } else if (isDex) {
                 in = new ByteArrayInput(FileUtils.readStream(inputStream, (int)fileLength));
             } else {
@@ -386,6 +449,9 @@ public class DexFile
         }
 
         ReadContext readContext = new ReadContext();
+        if (lazyRead) {
+            readContext.setLazyInput(this, in);
+        }
 
         HeaderItem.readFrom(in, 0, readContext);
 
@@ -424,6 +490,10 @@ public class DexFile
                 continue;
             }
 
+            if (lazyRead && ReadContext.isLazyItemType(section.ItemType)) {
+                continue;
+            }
+
             int sectionOffset = readContext.getSectionOffset(section.ItemType);
             if (sectionOffset > 0) {
                 int sectionSize = readContext.getSectionSize(section.ItemType);
@@ -433,12 +503,28 @@ public class DexFile
         }
     }
 
+    /**
+     * Gets the names of the dex files in the given zip file, in the order they are loaded by dalvik. This is
+     * classes.dex followed by classes2.dex, classes3.dex and so on, up to the first missing one
+     * @param zipFile The zip file, for example an apk
+     * @return the names of the dex files, or an empty list if there is no classes.dex
+     */
+    public static List<String> getDexEntryNames(ZipFile zipFile) {
+        List<String> names = new ArrayList<String>();
+        String name = "classes.dex";
+        while (zipFile.getEntry(name) != null) {
+            names.add(name);
+            name = "classes" + (names.size() + 1) + ".dex";
+        }
+        return names;
+    }
+
     /**
      * Constructs a new, blank dex file. Classes can be added to this dex file by calling
      * the <code>Section.intern()</code> method of <code>ClassDefsSection</code>
      */
     public DexFile() {
-        this(true, false);
+        this(true, false, false);
     }
 
     /**
@@ -490,6 +576,15 @@ public class DexFile
         return skipInstructions;
     }
 
+    /**
+     * Get a boolean value indicating whether class data, code and debug info items are read in when they are first
+     * accessed, instead of when the dex file is read in
+     * @return a boolean value indicating whether this dex file is read lazily
+     */
+    public boolean isLazyRead() {
+        return lazyRead;
+    }
+
     /**
      * Get a boolean value indicating whether all items should be placed into a
      * (possibly arbitrary) "canonical" ordering. If false, then only the items
@@ -628,6 +723,22 @@ public class DexFile
         return sections;
     }
 
+    /**
+     * Reads in all the items that have not been accessed yet in a lazily read dex file. Reading a class data item
+     * adds its code items, and reading a code item adds its debug info item, so the sections are read in that order
+     */
+    private void readLazyItems() {
+        readLazyItems(ClassDataSection);
+        readLazyItems(CodeItemsSection);
+        readLazyItems(DebugInfoItemsSection);
+    }
+
+    private static void readLazyItems(Section<? extends Item<?>> section) {
+        for (Item<?> item: section.getItems()) {
+            item.ensureRead();
+        }
+    }
+
     /**
      * This method should be called before writing a dex file. It sorts the sections
      * as needed or as indicated by <code>getSortAllItems()</code> and <code>getInplace()</code>,
@@ -638,6 +749,10 @@ public class DexFile
      * offsetted items are available when writing references to those items elsewhere.
      */
     public void place() {
+        if (lazyRead) {
+            readLazyItems();
+        }
+
         int offset = HeaderItem.placeAt(0, 0);
 
         int sectionsPosition = 0;
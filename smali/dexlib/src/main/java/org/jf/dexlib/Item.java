@@ -49,6 +49,12 @@ public abstract class Item<T extends Item> implements Comparable<T> {
      */
     protected final DexFile dexFile;
 
+    /**
+     * The <code>ReadContext</code> to read the contents of this item from when they are first needed, or null if the
+     * item has been read in completely. This is only set for items of a <code>DexFile</code> that is read lazily
+     */
+    private volatile ReadContext lazyReadContext = null;
+
     /**
      * The constructor that is used when reading in a <code>DexFile</code>
      * @param dexFile the <code>DexFile</code> that this item is associated with
@@ -79,6 +85,62 @@ public abstract class Item<T extends Item> implements Comparable<T> {
         }
     }
 
+    /**
+     * Prepare the item to be read in from the given offset when its contents are first needed. Subclasses can
+     * read in any part of the item that must be available immediately, the cursor of the <code>Input</code> object
+     * may be left anywhere
+     * @param in the <code>Input</code> object to read from
+     * @param offset the offset of the item
+     * @param readContext the <code>ReadContext</code> that will read in the rest of the item
+     */
+    protected void readLazilyFrom(Input in, int offset, ReadContext readContext) {
+        this.offset = offset;
+        this.lazyReadContext = readContext;
+    }
+
+    /**
+     * Read in the contents of an item prepared by <code>readLazilyFrom</code>. By default, the whole item is read
+     * in again
+     * @param in the <code>Input</code> object to read from
+     * @param readContext a <code>ReadContext</code> object to hold information that is
+     * only needed while reading in a file
+     */
+    protected void readLazyContents(Input in, ReadContext readContext) {
+        in.setCursor(offset);
+        readItem(in, readContext);
+    }
+
+    /**
+     * Called by <code>ReadContext</code>, with the <code>ReadContext</code> locked, to read in the contents of an
+     * item that was read lazily
+     * @param in the <code>Input</code> object to read from
+     * @return true if the item was read in, false if it had already been read in
+     */
+    boolean readLazily(Input in) {
+        ReadContext readContext = lazyReadContext;
+        if (readContext == null) {
+            return false;
+        }
+        try {
+            readLazyContents(in, readContext);
+        } catch (Exception ex) {
+            throw addExceptionContext(ex);
+        }
+        lazyReadContext = null;
+        return true;
+    }
+
+    /**
+     * Make sure that the contents of this item have been read in. This must be called by any method of an item
+     * that can be read lazily before accessing the lazily read fields
+     */
+    protected final void ensureRead() {
+        ReadContext readContext = lazyReadContext;
+        if (readContext != null) {
+            readContext.readLazyItem(this);
+        }
+    }
+
     /**
      * Place the item at the given offset and index, and return the offset of the byte following this item
      * @param offset The offset to place the item at
@@ -29,6 +29,7 @@
 package org.jf.dexlib;
 
 import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.Input;
 import org.jf.dexlib.Util.SparseArray;
 
 import java.util.List;
@@ -86,6 +87,19 @@ public class ReadContext {
      */
     private int[] sectionOffsets = new int[18];
 
+    /**
+     * The dex file and input to read items from when they are first accessed, if the dex file is read lazily
+     */
+    private DexFile lazyDexFile = null;
+    private Input lazyInput = null;
+
+    /**
+     * The number of lazily read items that have been created but not read in yet. Items are only created by reading
+     * in the items that reference them, so once this drops to 0 no more items can be created, and the input is
+     * released
+     */
+    private int unreadLazyItems = 0;
+
     /**
      * Creates a new ReadContext instance.
      */
@@ -109,6 +123,9 @@ public class ReadContext {
 
         SparseArray<Item> sa = itemsByType[itemType.SectionIndex];
         Item item = sa.get(offset);
+        if (item == null && lazyInput != null && isLazyItemType(itemType)) {
+            item = makeLazyItem(itemType, offset);
+        }
         if (item == null) {
             throw new ExceptionWithContext(String.format("Could not find the %s item at offset %#x",
                     itemType.TypeName, offset));
@@ -130,6 +147,9 @@ public class ReadContext {
 
         SparseArray<Item> sa = itemsByType[itemType.SectionIndex];
         Item item = sa.get(offset);
+        if (item == null && offset != 0 && lazyInput != null && isLazyItemType(itemType)) {
+            item = makeLazyItem(itemType, offset);
+        }
         if (item == null && offset != 0) {
             throw new ExceptionWithContext(String.format("Could not find the %s item at offset %#x",
                     itemType.TypeName, offset));
@@ -137,6 +157,77 @@ public class ReadContext {
         return item;
     }
 
+    /**
+     * Makes items of the lazily read types be read in from the given input when first accessed, instead of when
+     * their section is read in. The input is kept until all such items have been read in
+     * @param dexFile the <code>DexFile</code> being read in
+     * @param in the <code>Input</code> object the dex file is read from
+     */
+    public void setLazyInput(DexFile dexFile, Input in) {
+        this.lazyDexFile = dexFile;
+        this.lazyInput = in;
+    }
+
+    /**
+     * @param itemType the item type
+     * @return true if items of the given type are read in when first accessed, when reading a dex file lazily
+     */
+    public static boolean isLazyItemType(ItemType itemType) {
+        return itemType == ItemType.TYPE_CLASS_DATA_ITEM || itemType == ItemType.TYPE_CODE_ITEM ||
+                itemType == ItemType.TYPE_DEBUG_INFO_ITEM;
+    }
+
+    /**
+     * Creates an item that is read in from the given offset when first accessed, and adds it to its section
+     * @param itemType the type of the item
+     * @param offset the offset of the item
+     * @return the new item
+     */
+    private synchronized Item<?> makeLazyItem(ItemType itemType, int offset) {
+        switch (itemType) {
+            case TYPE_CLASS_DATA_ITEM:
+                return makeLazyItem(lazyDexFile.ClassDataSection, classDataItems, new ClassDataItem(lazyDexFile),
+                        offset);
+            case TYPE_CODE_ITEM:
+                return makeLazyItem(lazyDexFile.CodeItemsSection, codeItems, new CodeItem(lazyDexFile), offset);
+            case TYPE_DEBUG_INFO_ITEM:
+                return makeLazyItem(lazyDexFile.DebugInfoItemsSection, debugInfoItems,
+                        new DebugInfoItem(lazyDexFile), offset);
+        }
+        throw new IllegalArgumentException("Items of type " + itemType.TypeName + " are not read lazily");
+    }
+
+    private <T extends Item<T>> T makeLazyItem(Section<T> section, SparseArray<T> items, T item, int offset) {
+        section.addLazyItem(item);
+        items.put(offset, item);
+        unreadLazyItems++;
+
+        int cursor = lazyInput.getCursor();
+        item.readLazilyFrom(lazyInput, offset, this);
+        lazyInput.setCursor(cursor);
+        return item;
+    }
+
+    /**
+     * Reads in the contents of an item that was created by a lazily read dex file. Reading one item can create
+     * other lazily read items, so this is serialized for all items of the dex file. The input is released once
+     * all the items have been read in
+     * @param item the item to read
+     */
+    synchronized void readLazyItem(Item<?> item) {
+        if (lazyInput == null) {
+            return;
+        }
+        int cursor = lazyInput.getCursor();
+        if (item.readLazily(lazyInput)) {
+            lazyInput.setCursor(cursor);
+            if (--unreadLazyItems == 0) {
+                lazyInput = null;
+                lazyDexFile = null;
+            }
+        }
+    }
+
     /**
      * Adds the size and offset information for the given offset
      * @param itemType the item type of the section
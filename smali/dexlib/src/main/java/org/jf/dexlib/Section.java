@@ -48,9 +48,10 @@ public abstract class Section<T extends Item> {
     /**
      * A HashMap of the items in this section. This is used when interning items, to determine
      * if this section already has an item equivalent to the one that is being interned.
-     * Both the key and the value should be the same object
+     * Both the key and the value should be the same object. It is built on the first lookup, and is only
+     * published once it is complete, so that concurrent lookups in a section that is not modified are safe
      */
-    protected HashMap<T,T> uniqueItems = null;
+    protected volatile HashMap<T,T> uniqueItems = null;
 
     /**
      * The offset of this section within the <code>DexFile</code>
@@ -162,13 +163,30 @@ public abstract class Section<T extends Item> {
     }
 
     /**
-     * Gets a the items contained in this section as a read-only list
+     * Gets a the items contained in this section as a read-only list. For the lazily read sections of a dex file
+     * that is read lazily, this is a copy of the items that have been created so far
      * @return A read-only <code>List</code> object containing the items in this section
      */
     public List<T> getItems() {
+        if (DexFile.isLazyRead() && ReadContext.isLazyItemType(ItemType)) {
+            synchronized (this) {
+                return Collections.unmodifiableList(new ArrayList<T>(items));
+            }
+        }
         return Collections.unmodifiableList(items);
     }
 
+    /**
+     * Adds an item that was created while reading a dex file lazily to the end of this section. Such items can be
+     * added while other threads use the section, so this is done with the section locked, and
+     * <code>getItems()</code> returns a copy of the items of the section
+     * @param item the item to add
+     */
+    synchronized void addLazyItem(T item) {
+        item.index = items.size();
+        items.add(item);
+    }
+
     /**
      * This method checks if an item that is equivalent to the given item has already been added. If found,
      * it returns that item. If not found, it adds the given item to this section and returns it.
@@ -195,21 +213,27 @@ public abstract class Section<T extends Item> {
      * @return the interned item that is equivalent to the given item, or null
      */
     protected T getInternedItem(T item) {
+        HashMap<T,T> uniqueItems = this.uniqueItems;
         if (uniqueItems == null) {
-            buildInternedItemMap();
+            uniqueItems = buildInternedItemMap();
         }
         return uniqueItems.get(item);
     }
 
     /**
      * Builds the interned item map from the items that are in this section
+     * @return the interned item map
      */
-    private void buildInternedItemMap() {
-        uniqueItems = new HashMap<T,T>();
-        for (T item: items) {
-            assert item != null;
-            uniqueItems.put(item, item);
+    private synchronized HashMap<T,T> buildInternedItemMap() {
+        if (uniqueItems == null) {
+            HashMap<T,T> uniqueItems = new HashMap<T,T>();
+            for (T item: items) {
+                assert item != null;
+                uniqueItems.put(item, item);
+            }
+            this.uniqueItems = uniqueItems;
         }
+        return uniqueItems;
     }
 
     /**
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 Sony Mobile Communications AB
+ *
+ * This file is part of ApkAnalyser.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jf.dexlib.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implementation of {@link Input} which reads the data from a
+ * <code>ByteBuffer</code>, typically a memory mapped file, so that
+ * the data is not copied into the heap.
+ *
+ * <p><b>Note:</b> As per the {@link Input } interface, multi-byte
+ * reads all use little-endian order.</p>
+ */
+public class ByteBufferInput
+    implements Input {
+
+    /** non-null; the data itself, position 0 is cursor 0 */
+    private final ByteBuffer data;
+
+    /** &gt;= 0; length of the data */
+    private final int length;
+
+    /** &gt;= 0; current read cursor */
+    private int cursor;
+
+    /**
+     * Constructs an instance with the given data. The data from the
+     * current position to the limit of the buffer is used, the position
+     * of the given buffer is not changed
+     *
+     * @param data non-null; data buffer to use for input
+     */
+    public ByteBufferInput(ByteBuffer data) {
+        if (data == null) {
+            throw new NullPointerException("data == null");
+        }
+
+        this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.length = this.data.limit();
+        this.cursor = 0;
+    }
+
+    /**
+     * Maps the given part of a file into memory, read only. The mapping is
+     * kept after the file has been closed, until the buffer is garbage
+     * collected
+     *
+     * @param file non-null; the file to map
+     * @param offset the offset in the file of the data to map
+     * @param length the number of bytes to map
+     * @return non-null; the mapped data
+     * @throws IOException if the file cannot be mapped
+     */
+    public static ByteBuffer mapFile(File file, long offset, int length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void setCursor(int cursor) {
+        if (cursor < 0 || cursor >= length)
+            throw new IndexOutOfBoundsException("The provided cursor value " +
+                    "is not within the bounds of this instance's data buffer");
+        this.cursor = cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public byte readByte() {
+        return data.get(cursor++);
+    }
+
+    /** {@inheritDoc} */
+    public int readShort() {
+        int result = data.getShort(cursor) & 0xffff;
+        cursor += 2;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int readInt() {
+        int result = data.getInt(cursor);
+        cursor += 4;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public long readLong() {
+        long result = data.getLong(cursor);
+        cursor += 8;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int readUnsignedOrSignedLeb128() {
+        int end = cursor;
+        int currentByteValue;
+        int result;
+
+        result = data.get(end++) & 0xff;
+        if (result > 0x7f) {
+            currentByteValue = data.get(end++) & 0xff;
+            result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
+            if (currentByteValue > 0x7f) {
+                currentByteValue = data.get(end++) & 0xff;
+                result |= (currentByteValue & 0x7f) << 14;
+                if (currentByteValue > 0x7f) {
+                    currentByteValue = data.get(end++) & 0xff;
+                    result |= (currentByteValue & 0x7f) << 21;
+                    if (currentByteValue > 0x7f) {
+                        currentByteValue = data.get(end++) & 0xff;
+                        if (currentByteValue > 0x0f) {
+                            throwInvalidLeb();
+                        }
+                        result |= currentByteValue << 28;
+                    }
+                }
+            }
+        } else {
+            cursor = end;
+            return result;
+        }
+
+        cursor = end;
+
+        //If the last byte is 0, then this was an unsigned value (incorrectly) written in a signed format
+        //The caller wants to know if this is the case, so we'll return the negated value instead
+        if (data.get(end-1) == 0) {
+            return ~result;
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int readUnsignedLeb128() {
+        int end = cursor;
+        int currentByteValue;
+        int result;
+
+        result = data.get(end++) & 0xff;
+        if (result > 0x7f) {
+            currentByteValue = data.get(end++) & 0xff;
+            result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
+            if (currentByteValue > 0x7f) {
+                currentByteValue = data.get(end++) & 0xff;
+                result |= (currentByteValue & 0x7f) << 14;
+                if (currentByteValue > 0x7f) {
+                    currentByteValue = data.get(end++) & 0xff;
+                    result |= (currentByteValue & 0x7f) << 21;
+                    if (currentByteValue > 0x7f) {
+                        currentByteValue = data.get(end++) & 0xff;
+                        if (currentByteValue > 0x0f) {
+                            throwInvalidLeb();
+                        }
+                        result |= currentByteValue << 28;
+                    }
+                }
+            }
+        }
+
+        cursor = end;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int readSignedLeb128() {
+        int end = cursor;
+        int currentByteValue;
+        int result;
+
+        result = data.get(end++) & 0xff;
+        if (result <= 0x7f) {
+            result = (result << 25) >> 25;
+        } else {
+            currentByteValue = data.get(end++) & 0xff;
+            result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
+            if (currentByteValue <= 0x7f) {
+                result = (result << 18) >> 18;
+            } else {
+                currentByteValue = data.get(end++) & 0xff;
+                result |= (currentByteValue & 0x7f) << 14;
+                if (currentByteValue <= 0x7f) {
+                    result = (result << 11) >> 11;
+                } else {
+                    currentByteValue = data.get(end++) & 0xff;
+                    result |= (currentByteValue & 0x7f) << 21;
+                    if (currentByteValue <= 0x7f) {
+                        result = (result << 4) >> 4;
+                    } else {
+                        currentByteValue = data.get(end++) & 0xff;
+                        if (currentByteValue > 0x0f) {
+                            throwInvalidLeb();
+                        }
+                        result |= currentByteValue << 28;
+                    }
+                }
+            }
+        }
+
+        cursor = end;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public void read(byte[] bytes, int offset, int length) {
+        int end = cursor + length;
+
+        if (end > this.length) {
+            throwBounds();
+        }
+
+        data.position(cursor);
+        data.get(bytes, offset, length);
+        cursor = end;
+    }
+
+    /** {@inheritDoc} */
+    public void read(byte[] bytes) {
+        read(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public byte[] readBytes(int length) {
+        byte[] result = new byte[length];
+        read(result, 0, length);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public String realNullTerminatedUtf8String() {
+        int startPosition = cursor;
+        int end = cursor;
+        while (data.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = readBytes(end - startPosition);
+
+        //skip the terminating null
+        cursor++;
+
+        return Utf8Utils.utf8BytesToString(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void skipBytes(int count) {
+        cursor += count;
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        cursor = AlignmentUtils.alignOffset(cursor, alignment);
+    }
+
+    /**
+     * Throws the exception for when an attempt is made to read past the
+     * end of the instance.
+     */
+    private static void throwBounds() {
+        throw new IndexOutOfBoundsException("attempt to read past the end");
+    }
+
+    /**
+     * Throws the exception for when an invalid LEB128 value is encountered
+     */
+    private static void throwInvalidLeb() {
+        throw new RuntimeException("invalid LEB128 integer encountered");
+    }
+}
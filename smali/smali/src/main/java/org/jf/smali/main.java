@@ -45,9 +45,18 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Main class for smali. It recognizes enough options to be able to dispatch
@@ -107,6 +116,8 @@ public class main {
         boolean oldLexer = false;
         boolean printTokens = false;
 
+        int jobs = Runtime.getRuntime().availableProcessors();
+
         boolean apiSet = false;
         int apiLevel = 14;
 
@@ -165,6 +176,9 @@ public class main {
                 case 'T':
                     printTokens = true;
                     break;
+                case 'j':
+                    jobs = Integer.parseInt(commandLine.getOptionValue("j"));
+                    break;
                 default:
                     assert false;
             }
@@ -200,14 +214,14 @@ public class main {
                 dexFile.HeaderItem.setVersion(36);
             }
 
-            boolean errors = false;
-
-            for (File file: filesToProcess) {
-                if (!assembleSmaliFile(file, dexFile, verboseErrors, oldLexer, printTokens, allowOdex, apiLevel)) {
-                    errors = true;
-                }
+            if (printTokens) {
+                //keep the printed tokens of the files in order
+                jobs = 1;
             }
 
+            boolean errors = !assembleSmaliFiles(new ArrayList<File>(filesToProcess), dexFile, verboseErrors,
+                    oldLexer, printTokens, allowOdex, apiLevel, jobs);
+
             if (errors) {
                 System.exit(1);
             }
@@ -277,8 +291,93 @@ public class main {
         }
     }
 
-    private static boolean assembleSmaliFile(File smaliFile, DexFile dexFile, boolean verboseErrors, boolean oldLexer,
-                                             boolean printTokens, boolean allowOdex, int apiLevel)
+    /**
+     * Assembles the smali files into the dex file. The files are lexed and parsed by the given number of threads,
+     * but the parse trees are walked, and thereby interned into the dex file, one at a time in the order of the
+     * files. The resulting dex file is therefore the same regardless of the number of jobs.
+     * @return false if any of the files had errors
+     */
+    private static boolean assembleSmaliFiles(final List<File> smaliFiles, DexFile dexFile,
+                                              final boolean verboseErrors, final boolean oldLexer,
+                                              final boolean printTokens, final boolean allowOdex, final int apiLevel,
+                                              int jobs)
+            throws Exception {
+        boolean noErrors = true;
+
+        jobs = Math.max(1, Math.min(jobs, smaliFiles.size()));
+        if (jobs == 1) {
+            for (File smaliFile: smaliFiles) {
+                ParsedSmaliFile parsedFile = parseSmaliFile(smaliFile, verboseErrors, oldLexer, printTokens,
+                        allowOdex, apiLevel);
+                if (parsedFile == null || !assembleParsedFile(parsedFile, dexFile)) {
+                    noErrors = false;
+                }
+            }
+            return noErrors;
+        }
+
+        //only a limited number of files are parsed ahead of the tree walker, to bound the memory used by the
+        //parse trees that are waiting
+        int window = jobs * 4;
+        Iterator<File> files = smaliFiles.iterator();
+        LinkedList<Future<ParsedSmaliFile>> pending = new LinkedList<Future<ParsedSmaliFile>>();
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        try {
+            while (files.hasNext() && pending.size() < window) {
+                pending.add(submitParse(executor, files.next(), verboseErrors, oldLexer, printTokens, allowOdex,
+                        apiLevel));
+            }
+            while (!pending.isEmpty()) {
+                ParsedSmaliFile parsedFile;
+                try {
+                    parsedFile = pending.poll().get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Exception) {
+                        throw (Exception)ex.getCause();
+                    }
+                    throw (Error)ex.getCause();
+                }
+                if (files.hasNext()) {
+                    pending.add(submitParse(executor, files.next(), verboseErrors, oldLexer, printTokens, allowOdex,
+                            apiLevel));
+                }
+                if (parsedFile == null || !assembleParsedFile(parsedFile, dexFile)) {
+                    noErrors = false;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return noErrors;
+    }
+
+    private static Future<ParsedSmaliFile> submitParse(ExecutorService executor, final File smaliFile,
+                                                       final boolean verboseErrors, final boolean oldLexer,
+                                                       final boolean printTokens, final boolean allowOdex,
+                                                       final int apiLevel) {
+        return executor.submit(new Callable<ParsedSmaliFile>() {
+            public ParsedSmaliFile call() throws Exception {
+                return parseSmaliFile(smaliFile, verboseErrors, oldLexer, printTokens, allowOdex, apiLevel);
+            }
+        });
+    }
+
+    private static class ParsedSmaliFile {
+        public final CommonTree tree;
+        public final CommonTokenStream tokens;
+
+        public ParsedSmaliFile(CommonTree tree, CommonTokenStream tokens) {
+            this.tree = tree;
+            this.tokens = tokens;
+        }
+    }
+
+    /**
+     * Lexes and parses the smali file. This does not touch any dex file, so several files can be parsed at once.
+     * @return the parse tree, or null if there were syntax errors
+     */
+    private static ParsedSmaliFile parseSmaliFile(File smaliFile, boolean verboseErrors, boolean oldLexer,
+                                                  boolean printTokens, boolean allowOdex, int apiLevel)
             throws Exception {
         CommonTokenStream tokens;
 
@@ -322,13 +421,15 @@ public class main {
         smaliParser.smali_file_return result = parser.smali_file();
 
         if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
-            return false;
+            return null;
         }
 
-        CommonTree t = (CommonTree) result.getTree();
+        return new ParsedSmaliFile((CommonTree) result.getTree(), tokens);
+    }
 
-        CommonTreeNodeStream treeStream = new CommonTreeNodeStream(t);
-        treeStream.setTokenStream(tokens);
+    private static boolean assembleParsedFile(ParsedSmaliFile parsedFile, DexFile dexFile) throws Exception {
+        CommonTreeNodeStream treeStream = new CommonTreeNodeStream(parsedFile.tree);
+        treeStream.setTokenStream(parsedFile.tokens);
 
         smaliTreeWalker dexGen = new smaliTreeWalker(treeStream);
 
@@ -405,6 +506,14 @@ public class main {
                 .withArgName("API_LEVEL")
                 .create("a");
 
+        Option jobsOption = OptionBuilder.withLongOpt("jobs")
+                .withDescription("the number of threads to use when parsing the smali files. Defaults to the" +
+                        " number of available processors. The dex file is the same regardless of the number of" +
+                        " threads")
+                .hasArg()
+                .withArgName("NUM_THREADS")
+                .create("j");
+
         Option dumpOption = OptionBuilder.withLongOpt("dump-to")
                 .withDescription("additionally writes a dump of written dex file to FILE (<dexfile>.dump by default)")
                 .hasOptionalArg()
@@ -440,6 +549,7 @@ public class main {
         basicOptions.addOption(outputOption);
         basicOptions.addOption(allowOdexOption);
         basicOptions.addOption(apiLevelOption);
+        basicOptions.addOption(jobsOption);
 
         debugOptions.addOption(dumpOption);
         debugOptions.addOption(sortOption);
@@ -0,0 +1,244 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.CodeItem;
+import org.jf.dexlib.DebugInfoItem;
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.InstructionWithReference;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.jf.dexlib.Util.FileUtils;
+import org.jf.smali.SmaliTestClasses;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Checks that a dex file reads the same whether it is memory mapped or read from a zip file, and whether it is
+ * read eagerly or lazily.
+ */
+public class DexFileReadTest {
+    private static File tempDir;
+    private static File dexFile;
+    private static File zipFile;
+    private static String expected;
+
+    @BeforeClass
+    public static void assembleDexFile() throws IOException {
+        tempDir = SmaliTestClasses.createTempDir("dexread");
+        File smaliDir = new File(tempDir, "smali");
+        SmaliTestClasses.writeClasses(smaliDir, 40);
+        dexFile = new File(tempDir, "classes.dex");
+        SmaliTestClasses.assemble(smaliDir, dexFile, 1);
+
+        zipFile = new File(tempDir, "test.apk");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            zos.putNextEntry(new ZipEntry("classes.dex"));
+            zos.write(FileUtils.readFile(dexFile));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+
+        expected = dump(new DexFile(dexFile, true, false, false));
+    }
+
+    @AfterClass
+    public static void deleteTempDir() {
+        SmaliTestClasses.delete(tempDir);
+    }
+
+    @Test
+    public void readsAllClasses() throws IOException {
+        DexFile dex = new DexFile(dexFile, true, false, false);
+        Assert.assertEquals(40, dex.ClassDefsSection.getItems().size());
+        Assert.assertTrue(expected.contains("try "));
+        Assert.assertTrue(expected.contains("dbg "));
+        Assert.assertTrue(expected.contains("fill-array-data"));
+    }
+
+    @Test
+    public void mappedLazyRead() throws IOException {
+        DexFile dex = new DexFile(dexFile, true, false, true);
+        Assert.assertTrue(dex.isLazyRead());
+        //nothing is read in before it is accessed
+        Assert.assertEquals(0, dex.CodeItemsSection.getItems().size());
+        Assert.assertEquals(expected, dump(dex));
+    }
+
+    @Test
+    public void zipEagerRead() throws IOException {
+        Assert.assertEquals(expected, dump(new DexFile(zipFile, true, false, false)));
+    }
+
+    @Test
+    public void zipLazyRead() throws IOException {
+        Assert.assertEquals(expected, dump(new DexFile(zipFile, true, false, true)));
+    }
+
+    @Test
+    public void lazyReadFromThreads() throws Exception {
+        final DexFile dex = new DexFile(dexFile, true, false, true);
+        final List<ClassDefItem> classDefItems = dex.ClassDefsSection.getItems();
+        final String[] dumps = new String[classDefItems.size()];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i=0; i<threads.length; i++) {
+            final int first = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j=first; j<dumps.length; j+=4) {
+                            StringBuilder sb = new StringBuilder();
+                            dump(classDefItems.get(j), sb);
+                            dumps[j] = sb.toString();
+                            //iterate the lazily grown sections while other threads add to them
+                            dex.CodeItemsSection.getItems().size();
+                        }
+                    } catch (Throwable ex) {
+                        failure[0] = ex;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure[0]);
+
+        StringBuilder sb = new StringBuilder();
+        for (String classDump: dumps) {
+            sb.append(classDump);
+        }
+        Assert.assertEquals(expected, sb.toString());
+    }
+
+    @Test
+    public void writePartlyReadLazyFile() throws IOException {
+        DexFile dex = new DexFile(dexFile, true, false, true);
+        //read in some of the classes, and leave the rest to place()
+        List<ClassDefItem> classDefItems = dex.ClassDefsSection.getItems();
+        for (int i=0; i<classDefItems.size(); i+=3) {
+            dump(classDefItems.get(i), new StringBuilder());
+        }
+
+        File rewritten = new File(tempDir, "rewritten.dex");
+        writeFile(rewritten, write(dex));
+        Assert.assertEquals(expected, dump(new DexFile(rewritten, true, false, false)));
+        Assert.assertEquals(expected, dump(new DexFile(rewritten, true, false, true)));
+    }
+
+    private static String dump(DexFile dex) {
+        StringBuilder sb = new StringBuilder();
+        for (ClassDefItem classDefItem: dex.ClassDefsSection.getItems()) {
+            dump(classDefItem, sb);
+        }
+        return sb.toString();
+    }
+
+    private static void dump(ClassDefItem classDefItem, StringBuilder sb) {
+        sb.append(classDefItem.getClassType().getTypeDescriptor()).append('\n');
+        ClassDataItem classData = classDefItem.getClassData();
+        if (classData == null) {
+            return;
+        }
+        for (ClassDataItem.EncodedField field: classData.getStaticFields()) {
+            sb.append(" static ").append(field.field.getFieldString()).append('\n');
+        }
+        for (ClassDataItem.EncodedField field: classData.getInstanceFields()) {
+            sb.append(" instance ").append(field.field.getFieldString()).append('\n');
+        }
+        List<ClassDataItem.EncodedMethod> methods = new ArrayList<ClassDataItem.EncodedMethod>();
+        methods.addAll(Arrays.asList(classData.getDirectMethods()));
+        methods.addAll(Arrays.asList(classData.getVirtualMethods()));
+        for (ClassDataItem.EncodedMethod method: methods) {
+            sb.append(" method ").append(method.method.getMethodString()).append(' ').append(method.accessFlags)
+                    .append('\n');
+            CodeItem codeItem = method.codeItem;
+            if (codeItem == null) {
+                continue;
+            }
+            sb.append("  registers ").append(codeItem.getRegisterCount()).append(" outs ").append(codeItem.outWords)
+                    .append('\n');
+            for (Instruction instruction: codeItem.getInstructions()) {
+                sb.append("  ").append(instruction.opcode.name);
+                if (instruction instanceof InstructionWithReference) {
+                    sb.append(' ').append(
+                            ((InstructionWithReference)instruction).getReferencedItem().getConciseIdentity());
+                }
+                sb.append('\n');
+            }
+            if (codeItem.getTries() != null) {
+                for (CodeItem.TryItem tryItem: codeItem.getTries()) {
+                    sb.append("  try ").append(tryItem.getStartCodeAddress()).append(' ')
+                            .append(tryItem.getTryLength()).append(' ')
+                            .append(tryItem.encodedCatchHandler.handlers.length).append('\n');
+                }
+            }
+            DebugInfoItem debugInfo = codeItem.getDebugInfo();
+            if (debugInfo != null) {
+                sb.append("  dbg ").append(debugInfo.getLineStart()).append(' ')
+                        .append(Arrays.toString(debugInfo.getEncodedDebugInfo())).append(' ')
+                        .append(debugInfo.getReferencedItems().length).append('\n');
+            }
+        }
+    }
+
+    private static byte[] write(DexFile dex) {
+        dex.place();
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        dex.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        DexFile.calcSignature(bytes);
+        DexFile.calcChecksum(bytes);
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+    }
+}
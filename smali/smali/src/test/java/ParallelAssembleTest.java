@@ -0,0 +1,88 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jf.dexlib.Util.FileUtils;
+import org.jf.smali.SmaliTestClasses;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checks that smali produces the same dex file regardless of the number of jobs used to parse the smali files.
+ */
+public class ParallelAssembleTest {
+    private static File tempDir;
+    private static File smaliDir;
+    private static byte[] expected;
+
+    @BeforeClass
+    public static void assembleWithOneJob() throws IOException {
+        tempDir = SmaliTestClasses.createTempDir("parallelsmali");
+        smaliDir = new File(tempDir, "smali");
+        //more files than fit in the window of files parsed ahead
+        SmaliTestClasses.writeClasses(smaliDir, 50);
+
+        File dexFile = new File(tempDir, "j1.dex");
+        SmaliTestClasses.assemble(smaliDir, dexFile, 1);
+        expected = FileUtils.readFile(dexFile);
+    }
+
+    @AfterClass
+    public static void deleteTempDir() {
+        SmaliTestClasses.delete(tempDir);
+    }
+
+    @Test
+    public void twoJobs() throws IOException {
+        assertSameOutput(2);
+    }
+
+    @Test
+    public void fourJobs() throws IOException {
+        assertSameOutput(4);
+    }
+
+    @Test
+    public void moreJobsThanFiles() throws IOException {
+        assertSameOutput(64);
+    }
+
+    private static void assertSameOutput(int jobs) throws IOException {
+        //assemble a few times, as the threads may finish in a different order each time
+        for (int i=0; i<3; i++) {
+            File dexFile = new File(tempDir, "j" + jobs + ".dex");
+            SmaliTestClasses.assemble(smaliDir, dexFile, jobs);
+            Assert.assertArrayEquals(expected, FileUtils.readFile(dexFile));
+            dexFile.delete();
+        }
+    }
+}
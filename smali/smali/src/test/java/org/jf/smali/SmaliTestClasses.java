@@ -0,0 +1,153 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.smali;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes smali files for tests that need a dex file. The classes reference each other and have fields, code,
+ * try blocks, array data and debug info, so that each kind of item is present in the assembled dex file.
+ */
+public class SmaliTestClasses {
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes the given number of classes, in a few packages, to the given directory.
+     */
+    public static void writeClasses(File dir, int count) throws IOException {
+        for (int i=0; i<count; i++) {
+            File packageDir = new File(dir, "pkg" + (i % 3));
+            packageDir.mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(packageDir, "Class" + i + ".smali")),
+                    "UTF-8");
+            try {
+                writer.write(getClassSource(i, count));
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Assembles the smali files in the given directory into a dex file.
+     */
+    public static void assemble(File smaliDir, File dexFile, int jobs) {
+        main.main(new String[] {"-j", Integer.toString(jobs), "-o", dexFile.getPath(), smaliDir.getPath()});
+    }
+
+    private static String getType(int i) {
+        return "Ltest/pkg" + (i % 3) + "/Class" + i + ";";
+    }
+
+    private static String getClassSource(int i, int count) {
+        String type = getType(i);
+        String otherType = getType((i + 1) % count);
+        StringBuilder sb = new StringBuilder();
+        sb.append(".class public ").append(type).append("\n");
+        sb.append(".super Ljava/lang/Object;\n");
+        sb.append(".source \"Class").append(i).append(".java\"\n\n");
+
+        sb.append(".field public static count:I = ").append(i).append("\n");
+        sb.append(".field private name:Ljava/lang/String;\n\n");
+
+        sb.append(".method public constructor <init>(Ljava/lang/String;)V\n");
+        sb.append("    .registers 2\n");
+        sb.append("    .parameter \"name\"\n");
+        sb.append("    .line 10\n");
+        sb.append("    invoke-direct {p0}, Ljava/lang/Object;-><init>()V\n");
+        sb.append("    .line 11\n");
+        sb.append("    iput-object p1, p0, ").append(type).append("->name:Ljava/lang/String;\n");
+        sb.append("    return-void\n");
+        sb.append(".end method\n\n");
+
+        sb.append(".method public static compute(I)I\n");
+        sb.append("    .registers 3\n");
+        sb.append("    .parameter \"value\"\n");
+        sb.append("    .line 20\n");
+        sb.append("    :try_start_0\n");
+        sb.append("    const/4 v0, 0x2\n");
+        sb.append("    div-int v1, p0, v0\n");
+        sb.append("    :try_end_0\n");
+        sb.append("    .catch Ljava/lang/ArithmeticException; {:try_start_0 .. :try_end_0} :handler_0\n");
+        sb.append("    .local v1, result:I\n");
+        sb.append("    .line 21\n");
+        sb.append("    sget v0, ").append(otherType).append("->count:I\n");
+        sb.append("    add-int/2addr v1, v0\n");
+        sb.append("    return v1\n");
+        sb.append("    .end local v1\n");
+        sb.append("    :handler_0\n");
+        sb.append("    .line 22\n");
+        sb.append("    move-exception v0\n");
+        sb.append("    const/4 v1, -0x1\n");
+        sb.append("    return v1\n");
+        sb.append(".end method\n\n");
+
+        sb.append(".method public table()[I\n");
+        sb.append("    .registers 2\n");
+        sb.append("    const/4 v0, 0x3\n");
+        sb.append("    new-array v0, v0, [I\n");
+        sb.append("    fill-array-data v0, :array_0\n");
+        sb.append("    return-object v0\n");
+        sb.append("    :array_0\n");
+        sb.append("    .array-data 4\n");
+        sb.append("        ").append(i).append(" ").append(i * 2).append(" ").append(i * 3).append("\n");
+        sb.append("    .end array-data\n");
+        sb.append(".end method\n\n");
+
+        sb.append(".method public next()Ljava/lang/Object;\n");
+        sb.append("    .registers 3\n");
+        sb.append("    .line 30\n");
+        sb.append("    new-instance v0, ").append(otherType).append("\n");
+        sb.append("    const-string v1, \"class ").append(i).append("\"\n");
+        sb.append("    invoke-direct {v0, v1}, ").append(otherType).append("-><init>(Ljava/lang/String;)V\n");
+        sb.append("    return-object v0\n");
+        sb.append(".end method\n");
+        return sb.toString();
+    }
+}
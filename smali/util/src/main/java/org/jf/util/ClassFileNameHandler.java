@@ -51,7 +51,7 @@ public class ClassFileNameHandler {
         this.modifyWindowsReservedFilenames = testForWindowsReservedFileNames(path);
     }
 
-    public File getUniqueFilenameForClass(String className) {
+    public synchronized File getUniqueFilenameForClass(String className) {
         //class names should be passed in the normal dalvik style, with a leading L, a trailing ;, and using
         //'/' as a separator.
         if (className.charAt(0) != 'L' || className.charAt(className.length()-1) != ';') {